@@ -1,27 +1,172 @@
 package com.bc92.directoryservice.config;
 
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.solr.client.solrj.ResponseParser;
 import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.impl.BinaryRequestWriter;
+import org.apache.solr.client.solrj.impl.BinaryResponseParser;
+import org.apache.solr.client.solrj.impl.ConcurrentUpdateSolrClient;
 import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.impl.XMLResponseParser;
+import org.apache.solr.client.solrj.request.RequestWriter;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.data.solr.core.SolrTemplate;
 import org.springframework.data.solr.repository.config.EnableSolrRepositories;
+import com.bc92.directoryservice.repo.CountingUpdateSolrClient;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.httpcomponents.PoolingHttpClientConnectionManagerMetricsBinder;
 
+/**
+ * Solr clients. Queries go through a pooled {@link HttpSolrClient}, repository writes through a
+ * {@link ConcurrentUpdateSolrClient} which queues updates and streams them from its own threads,
+ * see {@link com.bc92.directoryservice.repo.SolrWriteCoordinator}. Each client has its own
+ * connection pool, so a burst of updates cannot take the connections queries need, and both pools
+ * are published as httpcomponents.httpclient.pool metrics, tagged solr and solr-update.
+ * <p>
+ * Connections are kept alive for as long as the server allows, at most the idle timeout, and idle
+ * connections are evicted after it, so a connection closed by the server is not reused.
+ *
+ * @author Brian
+ *
+ */
 @Configuration
 @EnableSolrRepositories(basePackages = "com.bc92.directoryservice.repo")
 @ComponentScan
 public class SolrConfig {
 
+  private static final String JAVABIN = "javabin";
+
+  private static final String XML = "xml";
+
+  @Bean(destroyMethod = "close")
+  public PoolingHttpClientConnectionManager solrConnectionManager(
+      @Value("${solr.client.max-connections:128}") final int maxConnections,
+      @Value("${solr.client.max-connections-per-route:64}") final int maxPerRoute) {
+    return SolrConfig.connectionManager(maxConnections, maxPerRoute);
+  }
+
+  @Bean(destroyMethod = "close")
+  public PoolingHttpClientConnectionManager solrUpdateConnectionManager(
+      @Value("${solr.update.threads:4}") final int threads) {
+    // one connection per runner, plus one for the requests sent on the caller's thread
+    return SolrConfig.connectionManager(threads + 1, threads + 1);
+  }
+
+  @Bean
+  public MeterBinder solrConnectionPoolMetrics(
+      @Qualifier("solrConnectionManager") final PoolingHttpClientConnectionManager pool) {
+    return new PoolingHttpClientConnectionManagerMetricsBinder(pool, "solr");
+  }
+
+  @Bean
+  public MeterBinder solrUpdateConnectionPoolMetrics(
+      @Qualifier("solrUpdateConnectionManager") final PoolingHttpClientConnectionManager pool) {
+    return new PoolingHttpClientConnectionManagerMetricsBinder(pool, "solr-update");
+  }
+
+  @Bean(destroyMethod = "close")
+  public CloseableHttpClient solrHttpClient(
+      @Qualifier("solrConnectionManager") final PoolingHttpClientConnectionManager pool,
+      @Value("${solr.client.connect-timeout:5s}") final Duration connectTimeout,
+      @Value("${solr.client.socket-timeout:60s}") final Duration socketTimeout,
+      @Value("${solr.client.idle-timeout:60s}") final Duration idleTimeout) {
+    return SolrConfig.httpClient(pool, connectTimeout, socketTimeout, idleTimeout);
+  }
+
+  @Bean(destroyMethod = "close")
+  public CloseableHttpClient solrUpdateHttpClient(
+      @Qualifier("solrUpdateConnectionManager") final PoolingHttpClientConnectionManager pool,
+      @Value("${solr.client.connect-timeout:5s}") final Duration connectTimeout,
+      @Value("${solr.client.socket-timeout:60s}") final Duration socketTimeout,
+      @Value("${solr.client.idle-timeout:60s}") final Duration idleTimeout) {
+    return SolrConfig.httpClient(pool, connectTimeout, socketTimeout, idleTimeout);
+  }
+
   @Bean
-  public SolrClient solrClient(@Value("${solr.host}") final String solrHost) {
-    return new HttpSolrClient.Builder(solrHost).build();
+  @Primary
+  public SolrClient solrClient(@Value("${solr.host}") final String solrHost,
+      @Qualifier("solrHttpClient") final CloseableHttpClient httpClient,
+      @Value("${solr.client.connect-timeout:5s}") final Duration connectTimeout,
+      @Value("${solr.client.socket-timeout:60s}") final Duration socketTimeout,
+      @Value("${solr.client.response-parser:" + JAVABIN + "}") final String responseParser) {
+    HttpSolrClient client = new HttpSolrClient.Builder(solrHost).withHttpClient(httpClient)
+        .withConnectionTimeout((int) connectTimeout.toMillis())
+        .withSocketTimeout((int) socketTimeout.toMillis())
+        .withResponseParser(SolrConfig.responseParser(responseParser)).build();
+    client.setRequestWriter(SolrConfig.requestWriter(responseParser));
+    return client;
+  }
+
+  @Bean(destroyMethod = "close")
+  public CountingUpdateSolrClient solrUpdateClient(@Value("${solr.host}") final String solrHost,
+      @Qualifier("solrUpdateHttpClient") final CloseableHttpClient httpClient,
+      @Value("${solr.update.queue-size:1000}") final int queueSize,
+      @Value("${solr.update.threads:4}") final int threads,
+      @Value("${solr.client.connect-timeout:5s}") final Duration connectTimeout,
+      @Value("${solr.client.socket-timeout:60s}") final Duration socketTimeout,
+      @Value("${solr.client.response-parser:" + JAVABIN + "}") final String responseParser) {
+    return new CountingUpdateSolrClient(new ConcurrentUpdateSolrClient.Builder(solrHost)
+        .withHttpClient(httpClient).withConnectionTimeout((int) connectTimeout.toMillis())
+        .withSocketTimeout((int) socketTimeout.toMillis())
+        .withResponseParser(SolrConfig.responseParser(responseParser)).withQueueSize(queueSize)
+        .withThreadCount(threads));
   }
 
   @Bean
   public SolrTemplate solrTemplate(final SolrClient client) {
     return new SolrTemplate(client);
   }
-}
 
+  private static PoolingHttpClientConnectionManager connectionManager(final int maxConnections,
+      final int maxPerRoute) {
+    PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager();
+    pool.setMaxTotal(maxConnections);
+    pool.setDefaultMaxPerRoute(maxPerRoute);
+    // a connection idle for a while may have been closed by the server, check it before reuse
+    pool.setValidateAfterInactivity(2000);
+    return pool;
+  }
+
+  private static CloseableHttpClient httpClient(final PoolingHttpClientConnectionManager pool,
+      final Duration connectTimeout, final Duration socketTimeout, final Duration idleTimeout) {
+    long maxKeepAlive = idleTimeout.toMillis();
+    return HttpClientBuilder.create().setConnectionManager(pool)
+        .setConnectionManagerShared(true)
+        .setDefaultRequestConfig(RequestConfig.custom()
+            .setConnectTimeout((int) connectTimeout.toMillis())
+            .setSocketTimeout((int) socketTimeout.toMillis())
+            .setConnectionRequestTimeout((int) connectTimeout.toMillis()).build())
+        .setKeepAliveStrategy((response, context) -> {
+          long keepAlive =
+              DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+          return keepAlive > 0 ? Math.min(keepAlive, maxKeepAlive) : maxKeepAlive;
+        }).evictExpiredConnections().evictIdleConnections(maxKeepAlive, TimeUnit.MILLISECONDS)
+        .build();
+  }
+
+  private static ResponseParser responseParser(final String name) {
+    if (JAVABIN.equals(name)) {
+      return new BinaryResponseParser();
+    }
+    if (XML.equals(name)) {
+      return new XMLResponseParser();
+    }
+    throw new IllegalArgumentException("Unknown Solr response parser " + name);
+  }
+
+  private static RequestWriter requestWriter(final String name) {
+    return JAVABIN.equals(name) ? new BinaryRequestWriter() : new RequestWriter();
+  }
+
+}
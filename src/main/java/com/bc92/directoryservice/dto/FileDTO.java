@@ -1,11 +1,14 @@
 package com.bc92.directoryservice.dto;
 
 import java.nio.ByteBuffer;
+import java.util.Date;
 import org.springframework.data.solr.core.mapping.Indexed;
 import org.springframework.data.solr.core.mapping.SolrDocument;
 import org.springframework.util.Assert;
 import com.bc92.directoryservice.model.DirectoryNode;
 import com.bc92.directoryservice.model.FileNode;
+import com.bc92.directoryservice.repo.BlobStore;
+import com.bc92.directoryservice.repo.StoredBlob;
 import com.bc92.directoryservice.service.File;
 import com.bc92.directoryservice.service.Folder;
 import lombok.Getter;
@@ -24,9 +27,24 @@ import lombok.Setter;
 @SolrDocument(collection = "directory")
 public class FileDTO extends NodeDTO {
 
+  /**
+   * Content of files stored before content moved to the {@link BlobStore}, null once migrated
+   */
   @Indexed(name = "fileBytes")
   private ByteBuffer fileBytes;
 
+  @Indexed(name = "contentHash")
+  private String contentHash;
+
+  @Indexed(name = "size")
+  private Long size;
+
+  /**
+   * When the content was last set, null for files stored before it was recorded
+   */
+  @Indexed(name = "lastModified")
+  private Date lastModified;
+
   public FileDTO(final DirElementType type, final String owner, final String discriminator,
       final String fullPath, final String parentPath, final byte[] fileBytes) {
     super(type, owner, discriminator, fullPath, parentPath);
@@ -38,10 +56,22 @@ public class FileDTO extends NodeDTO {
     super(owner, node);
   }
 
-  public FileDTO(final String owner, final File file) {
+  public FileDTO(final String owner, final File file, final StoredBlob content) {
     super(owner, file);
-    Assert.notNull(file.getFileBytes(), "File bytes should not be null");
-    fileBytes = ByteBuffer.wrap(file.getFileBytes());
+    this.setContent(content);
+  }
+
+  /**
+   * Point this file at the provided content, dropping any content held in the document itself
+   *
+   * @param content - the content in the blob store
+   */
+  public void setContent(final StoredBlob content) {
+    Assert.notNull(content, "File content should not be null");
+    contentHash = content.getHash();
+    size = content.getSize();
+    lastModified = new Date();
+    fileBytes = null;
   }
 
   public FileDTO(final String owner, final FileNode file) {
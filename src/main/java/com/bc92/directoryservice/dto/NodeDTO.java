@@ -1,5 +1,7 @@
 package com.bc92.directoryservice.dto;
 
+import java.util.List;
+import java.util.UUID;
 import org.springframework.data.solr.core.mapping.Indexed;
 import org.springframework.data.solr.core.mapping.SolrDocument;
 import org.springframework.util.Assert;
@@ -8,6 +10,7 @@ import com.bc92.directoryservice.model.FileNode;
 import com.bc92.directoryservice.model.Path;
 import com.bc92.directoryservice.service.File;
 import com.bc92.directoryservice.service.Folder;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
@@ -46,14 +49,32 @@ public class NodeDTO implements Comparable<NodeDTO> {
   @Indexed(name = "id")
   private String id;
 
+  /**
+   * Full paths of the folders above this node, so a single query finds every node below a folder.
+   * Derived from the full path whenever the node is written, see {@link #indexPath()}.
+   */
+  @Indexed(name = "ancestors")
+  @Setter(AccessLevel.NONE)
+  private List<String> ancestors;
+
+  /**
+   * Number of segments of the full path, so a query below a folder can be limited in depth
+   */
+  @Indexed(name = "depth")
+  @Setter(AccessLevel.NONE)
+  private Integer depth;
+
+  /**
+   * Nodes of the directory model were validated when they were added to the tree, so DTOs created
+   * from them are not validated again
+   */
   public NodeDTO(final String owner, final FileNode file) {
     type = DirElementType.FILE;
     this.owner = owner;
     discriminator = file.getDiscriminator();
     fullPath = file.getFullPath();
-    parentPath = file.getParentPath();
+    parentPath = NodeDTO.parentOf(fullPath, discriminator);
     id = file.getId();
-    this.validate();
   }
 
   public NodeDTO(final String owner, final File file) {
@@ -62,6 +83,7 @@ public class NodeDTO implements Comparable<NodeDTO> {
     discriminator = file.getDiscriminator();
     fullPath = file.getFullPath();
     parentPath = file.getParentPath();
+    id = UUID.randomUUID().toString();
     this.validate();
   }
 
@@ -70,9 +92,9 @@ public class NodeDTO implements Comparable<NodeDTO> {
     this.owner = owner;
     discriminator = node.getDiscriminator();
     fullPath = node.getFullPath();
-    parentPath = node.getParentPath();
+    parentPath = node.getParent() == null ? node.getParentPath()
+        : NodeDTO.parentOf(fullPath, discriminator);
     id = node.getId();
-    this.validate();
   }
 
   public NodeDTO(final String owner, final Folder createFolder) {
@@ -81,6 +103,7 @@ public class NodeDTO implements Comparable<NodeDTO> {
     discriminator = createFolder.getDiscriminator();
     fullPath = createFolder.getFullPath();
     parentPath = createFolder.getParentPath();
+    id = UUID.randomUUID().toString();
     this.validate();
   }
 
@@ -106,6 +129,26 @@ public class NodeDTO implements Comparable<NodeDTO> {
   }
 
 
+  /**
+   * Derive the indexed ancestors and depth from the current full path, done for every node as it
+   * is written, see {@link com.bc92.directoryservice.repo.SolrWriteCoordinator}
+   */
+  public void indexPath() {
+    if (fullPath == null) {
+      return;
+    }
+    ancestors = Path.ancestorsOf(fullPath);
+    depth = Path.depthOf(fullPath);
+  }
+
+  /**
+   * The model computes paths from the parent chain, so the parent path is cut from the full path
+   * rather than computed a second time
+   */
+  private static String parentOf(final String fullPath, final String discriminator) {
+    return fullPath.substring(0, fullPath.length() - discriminator.length() - 1);
+  }
+
   /**
    * Compare length of path strings, shorter ones should turn up earlier in the sort. This is to
    * ensure that directories are dealt with before their child folders/files
@@ -1,10 +1,10 @@
 package com.bc92.directoryservice.model;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.bc92.directoryservice.dto.NodeDTO;
@@ -13,8 +13,8 @@ import com.bc92.directoryservice.service.Folder;
 import com.bc92.directoryservice.service.ReadFolder;
 import com.bc92.projectsdk.utils.JsonUtilities;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AccessLevel;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 import lombok.Setter;
 
 /**
@@ -22,31 +22,80 @@ import lombok.Setter;
  * objects
  * <p>
  * Provides behaviour necessary to manipulate the directory structure & files
+ * <p>
+ * A directory may be shared between threads. Reads traverse the tree without locking, while
+ * mutations are serialised with each other, so many readers can traverse the tree while a writer
+ * modifies it.
+ * <p>
+ * Folders and files are also indexed by full path, see {@link PathIndex}, so looking up a node does
+ * not walk the tree. The tree is only walked when the index misses, to report which segment of the
+ * path does not exist.
+ * <p>
+ * Every mutation moves the directory to a new version, which together with an id drawn when the
+ * directory is loaded makes up its entity tag. A directory loaded again starts from a new id, so a
+ * tag never names two different trees.
  *
  * @author Brian
  *
  */
 @Getter
 @Setter
-@RequiredArgsConstructor
 public class Directory {
 
   private static final Logger logger = LoggerFactory.getLogger(Directory.class);
 
-  @JsonIgnore
-  private DirectoryNode curr;
-
   private final DirectoryNode root;
 
   private final String owner;
 
-  public Directory(final String owner) {
-    root = new DirectoryNode();
+  @JsonIgnore
+  private volatile int nodeCount;
+
+  @JsonIgnore
+  @Setter(AccessLevel.NONE)
+  private volatile long version;
+
+  /**
+   * Epoch millis of the last mutation, or of the load when it was not mutated since
+   */
+  @JsonIgnore
+  @Setter(AccessLevel.NONE)
+  private volatile long lastModified = System.currentTimeMillis();
+
+  @JsonIgnore
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private final String loadId = Long.toHexString(ThreadLocalRandom.current().nextLong());
+
+  @JsonIgnore
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private final Object writeLock = new Object();
+
+  @JsonIgnore
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private DirectoryChanges changes;
+
+  @JsonIgnore
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private final PathIndex index = new PathIndex();
+
+  public Directory(final DirectoryNode root, final String owner) {
+    this.root = root;
     this.owner = owner;
+    changes = new DirectoryChanges(owner);
+    index.add(root);
+  }
+
+  public Directory(final String owner) {
+    this(new DirectoryNode(), owner);
   }
 
   /**
-   * Creates a new {@link #Directory} from the provided set of {@link #DirElementDTO}
+   * Creates a new {@link #Directory} from the provided set of {@link #DirElementDTO}, elements whose
+   * parent is missing are left out, see {@link DirectoryBuilder}
    *
    * @param elementsSet - set of elements representing the flattened directory tree
    * @param owner - string of the username of the owner of this directory
@@ -56,13 +105,13 @@ public class Directory {
     logger.debug("Expanding directory with the following elements {} for user: {}", elementsSet,
         owner);
 
-    List<NodeDTO> elements = new ArrayList<>(elementsSet);
-    Collections.sort(elements);
-
-    Directory newDir = new Directory(owner);
+    DirectoryBuilder builder = new DirectoryBuilder(elementsSet, owner);
+    Directory newDir = builder.build();
 
-    for (NodeDTO element : elements) {
-      newDir.addDirectoryElement(element);
+    if (!builder.getOrphans().isEmpty()) {
+      logger.warn("Left {} elements out of the directory of user: {}, their parent does not exist",
+          builder.getOrphans().size(), owner);
+      logger.debug("Orphaned elements: {}", builder.getOrphans());
     }
 
     return newDir;
@@ -74,23 +123,96 @@ public class Directory {
    * @return Set<DirElementDTO> - set of elements representing the flattened directory tree
    */
   public Set<NodeDTO> flatten() {
-    return root.recurseFlatten(new HashSet<>(), owner);
+    return this.stream(false).collect(Collectors.toSet());
+  }
+
+  /**
+   * Lazily stream the directory as {@link #DirElementDTO}, without recursion, see
+   * {@link NodeSpliterator}
+   *
+   * @param parallel - whether the returned stream is parallel
+   * @return Stream<NodeDTO> - elements of the directory tree, excluding the root
+   */
+  public Stream<NodeDTO> stream(final boolean parallel) {
+    return StreamSupport.stream(new NodeSpliterator(root, owner, nodeCount + 1L), parallel);
   }
 
 
   /**
-   * Add the provided DirectoryElementDTO to the Directory tree
+   * Strong entity tag of the current version of this directory, it changes with every mutation
+   *
+   * @return String - the unquoted entity tag
+   */
+  @JsonIgnore
+  public String getETag() {
+    return loadId + "-" + version;
+  }
+
+  /**
+   * Returns the changes made by the mutations of this directory since the last call, and starts
+   * tracking a new set of changes. The caller is responsible for persisting the returned changes.
+   *
+   * @return DirectoryChanges - nodes saved and deleted since the changes were last drained
+   */
+  public DirectoryChanges drainChanges() {
+    synchronized (writeLock) {
+      DirectoryChanges drained = changes;
+      changes = new DirectoryChanges(owner);
+      return drained;
+    }
+  }
+
+  /**
+   * Add the provided DirectoryElementDTO to the Directory tree. The element is expected to be
+   * persisted already, so it is not tracked as a change
    *
    * @param element - a DirElementDTO
    */
   public void addDirectoryElement(final NodeDTO element) {
+    synchronized (writeLock) {
+      DirectoryNode parent = this.doGetFolder(element.getParentPath());
+
+      if (element.getType() == DirElementType.FOLDER) {
+        DirectoryNode replaced = parent.getChild(element.getDiscriminator());
+        if (replaced != null) {
+          index.removeSubtree(replaced);
+          nodeCount -= replaced.countNodes();
+        }
+        this.index(parent.addChild(new DirectoryNode(element, parent)));
+        nodeCount++;
+      } else if (element.getType() == DirElementType.FILE) {
+        FileNode file = new FileNode(element, parent);
+        FileNode replaced = parent.addFile(file);
+        if (replaced != null) {
+          index.remove(replaced);
+        } else {
+          nodeCount++;
+        }
+        this.index(file);
+      }
+      this.touch();
+    }
+  }
 
-    DirectoryNode parent = this.doGetFolder(new Path(element.getParentPath()));
-
-    if (element.getType() == DirElementType.FOLDER) {
-      parent.addChild(new DirectoryNode(element, parent));
-    } else if (element.getType() == DirElementType.FILE) {
-      parent.addFile(new FileNode(element, parent));
+  /**
+   * Remove the provided file from the Directory tree. The file is expected to be deleted from the
+   * repository already, so it is not tracked as a change
+   *
+   * @param parentPath - string of the full path of the folder containing the file
+   * @param discriminator - the name of the file
+   * @return FileNode - the removed file, or null if it was not present
+   */
+  public FileNode removeFile(final String parentPath, final String discriminator) {
+    synchronized (writeLock) {
+      DirectoryNode parent = this.doGetFolder(parentPath);
+
+      FileNode removed = parent.removeFile(discriminator);
+      if (removed != null) {
+        index.remove(removed);
+        nodeCount--;
+        this.touch();
+      }
+      return removed;
     }
   }
 
@@ -104,17 +226,24 @@ public class Directory {
     newFolder.validate();
     NodeDTO create = new NodeDTO(owner, newFolder);
     create.validate();
-    DirectoryNode parent = this.getFolder(newFolder.getParentPath());
 
-    if (parent.containsChild(newFolder.getDiscriminator())) {
-      logger.error("Folder already exists, cannot add to directory tree");
-      throw new InvalidPathException(InvalidPathException.FOLDER_ALREADY_EXISTS,
-          newFolder.getDiscriminator(), newFolder.getFullPath());
-    }
+    synchronized (writeLock) {
+      DirectoryNode parent = this.doGetFolder(newFolder.getParentPath());
+
+      if (parent.containsChild(newFolder.getDiscriminator())) {
+        logger.error("Folder already exists, cannot add to directory tree");
+        throw new InvalidPathException(InvalidPathException.FOLDER_ALREADY_EXISTS,
+            newFolder.getDiscriminator(), newFolder.getFullPath());
+      }
 
-    DirectoryNode folderNode = parent.addChild(new DirectoryNode(create, parent));
+      DirectoryNode folderNode = parent.addChild(new DirectoryNode(create, parent));
+      this.index(folderNode);
+      nodeCount++;
+      changes.save(create);
+      this.touch();
 
-    return new ReadFolder(folderNode);
+      return new ReadFolder(folderNode);
+    }
   }
 
   /**
@@ -135,30 +264,71 @@ public class Directory {
    * @return
    */
   public Set<NodeDTO> getSubDirectory(final String parentFolder) {
-    Path parser = new Path(parentFolder);
-    curr = this.doGetFolder(parser);
+    return this.streamSubDirectory(parentFolder, false).collect(Collectors.toSet());
+  }
+
+  /**
+   * Lazily stream the provided parentFolder and all of its child folders and files
+   *
+   * @param parentFolder - string of the parent path
+   * @param parallel - whether the returned stream is parallel
+   * @return Stream<NodeDTO> - elements of the subtree
+   */
+  public Stream<NodeDTO> streamSubDirectory(final String parentFolder, final boolean parallel) {
+    DirectoryNode folder = this.doGetFolder(parentFolder);
+    return folder.stream(owner, parallel);
+  }
+
+  /**
+   * Checks if the provided folder exists
+   *
+   * @param fullPath - string of the full path of the folder
+   * @return boolean
+   */
+  public boolean containsFolder(final String fullPath) {
+    return index.getFolder(fullPath) != null;
+  }
 
-    Set<NodeDTO> toBeDeleted = curr.recurseFlatten(new HashSet<>(), owner);
-    curr = root;
-    return toBeDeleted;
+  /**
+   * Checks if the provided file exists
+   *
+   * @param fullPath - string of the full path of the file
+   * @return boolean
+   */
+  public boolean containsFile(final String fullPath) {
+    return index.getFile(fullPath) != null;
   }
 
   /**
-   * Deletes the parent folder along with its contents and children from this Directory Model
+   * Get the file at the provided path
+   *
+   * @param fullPath - string of the full path of the file
+   * @return FileNode - the file, or null if it does not exist
+   */
+  public FileNode getFile(final String fullPath) {
+    return index.getFile(fullPath);
+  }
+
+  /**
+   * Deletes the parent folder along with its contents and children from this Directory Model, each
+   * removed node is tracked as a deleted change
    *
    * @param parentFolder - string representing the full path of the folder, for example
    *        username/folder1/folder2. Folder2 and its children will be deleted
    * @return Set<DirElementDTO> - Set of directory elements to be deleted
    */
   public ReadFolder deleteParentAndAllChildren(final String parentFolder) {
-    Path parser = new Path(parentFolder);
-    curr = this.doGetFolder(parser);
+    synchronized (writeLock) {
+      DirectoryNode folder = this.doGetFolder(parentFolder);
 
-    ReadFolder deleted =
-        new ReadFolder(curr.getParent().removeChild(parser.current().getDiscriminator()));
-    curr = root;
+      DirectoryNode removed = folder.getParent().removeChild(folder.getDiscriminator());
+      index.removeSubtree(removed);
+      nodeCount -= removed.countNodes();
+      changes.delete(removed);
+      this.touch();
 
-    return deleted;
+      return new ReadFolder(removed);
+    }
   }
 
   /**
@@ -170,33 +340,65 @@ public class Directory {
    * @return DirectoryNode - the node that represents the folder
    */
   protected DirectoryNode getFolder(final String path) {
-    Path parser = new Path(path);
-    curr = this.doGetFolder(parser);
+    return this.doGetFolder(path).copy();
+  }
+
+  /**
+   * Index a folder linked into the tree, used while the tree is built
+   */
+  void index(final DirectoryNode folder) {
+    index.add(folder);
+  }
 
-    DirectoryNode copy = curr.copy();
-    curr = root;
-    return copy;
+  /**
+   * Index a file linked into the tree, used while the tree is built
+   */
+  void index(final FileNode file) {
+    index.add(file);
+  }
+
+  /**
+   * Move to a new version, called by every mutation while holding the write lock
+   */
+  private void touch() {
+    lastModified = System.currentTimeMillis();
+    version++;
+  }
+
+  /**
+   * Returns the specified folder from the index, falling back to the tree search when it is not
+   * indexed
+   *
+   * @param path - string of the full path of the folder
+   * @return DirectoryNode - the node that represents the folder
+   */
+  private DirectoryNode doGetFolder(final String path) {
+    Path.validatePath(path);
+    DirectoryNode indexed = index.getFolder(path);
+    return indexed != null ? indexed : this.doGetFolder(new Path(path));
   }
 
 
   /**
-   * Performs the tree search to return the specified folder
+   * Performs the tree search to return the specified folder. The traversal state is kept local, so
+   * any number of searches can run concurrently. Throws InvalidPathException naming the first
+   * segment that does not exist
    *
    * @param parser
    * @return
    */
   private DirectoryNode doGetFolder(final Path parser) {
-    curr = root;
+    DirectoryNode curr = root;
     // @formatter:off
     /* check if current and parser match
      * check if parser has next element, if not then return folder
      * shift parser to next, and point curr next child element that matches
      */ // @formatter:on
     do {
-      if (curr == null || !parser.current().getDiscriminator().equals(curr.getDiscriminator())) {
+      if (curr == null || !parser.currentEquals(curr.getDiscriminator())) {
         logger.error("ElementType is not recognised, cannot add to directory tree");
         throw new InvalidPathException(InvalidPathException.FOLDER_DOES_NOT_EXIST,
-            parser.current().getDiscriminator(), parser.getPrimitivePath());
+            parser.currentDiscriminator(), parser.getPrimitivePath());
       }
 
       if (!parser.hasNext()) {
@@ -204,7 +406,7 @@ public class Directory {
       }
 
       parser.next();
-      curr = curr.getChild(parser.current().getDiscriminator());
+      curr = curr.getChild(parser.currentDiscriminator());
     } while (true);
 
     return curr;
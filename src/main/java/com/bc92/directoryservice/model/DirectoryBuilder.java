@@ -0,0 +1,171 @@
+package com.bc92.directoryservice.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import com.bc92.directoryservice.dto.NodeDTO;
+import com.bc92.directoryservice.dto.NodeDTO.DirElementType;
+import com.bc92.projectsdk.constants.DirectoryServiceConstants;
+
+/**
+ * Builds a {@link Directory} from its flattened set of {@link NodeDTO} in a single pass.
+ * <p>
+ * Elements are indexed by the path they will occupy in the tree, which is their parent path joined
+ * with their discriminator. Each element is then linked to its parent by looking the parent up in
+ * the index, building any parent that has not been linked yet on the way. No sorting is needed and
+ * every element is visited a constant number of times.
+ * <p>
+ * Elements whose parent path does not lead back to the root through folders are orphans. Orphans,
+ * and anything beneath them, are left out of the tree and can be retrieved from
+ * {@link #getOrphans()}. When more than one element claims the same path, the last one wins.
+ *
+ * @author Brian
+ *
+ */
+public class DirectoryBuilder {
+
+  private final Map<String, NodeDTO> index;
+
+  private final Map<String, DirectoryNode> folders;
+
+  private final Set<String> unresolvable = new HashSet<>();
+
+  private final List<NodeDTO> orphans = new ArrayList<>();
+
+  private final Directory directory;
+
+  public DirectoryBuilder(final Collection<NodeDTO> elements, final String owner) {
+    int capacity = (int) (elements.size() / 0.75f) + 1;
+    index = new HashMap<>(capacity);
+    folders = new HashMap<>(capacity);
+    directory = new Directory(owner);
+
+    for (NodeDTO element : elements) {
+      index.put(DirectoryBuilder.childPath(element), element);
+    }
+  }
+
+  /**
+   * Link every indexed element into the directory tree
+   *
+   * @return Directory - the built directory
+   */
+  public Directory build() {
+    DirectoryNode root = directory.getRoot();
+    folders.put(root.getFullPath(), root);
+    int linked = 0;
+
+    for (Map.Entry<String, NodeDTO> indexed : index.entrySet()) {
+      NodeDTO element = indexed.getValue();
+
+      if (element.getType() == DirElementType.FOLDER) {
+        if (this.resolveFolder(indexed.getKey()) == null) {
+          orphans.add(element);
+        }
+      } else if (element.getType() == DirElementType.FILE) {
+        DirectoryNode parent = this.resolveFolder(DirectoryBuilder.trim(element.getParentPath()));
+        if (parent == null) {
+          orphans.add(element);
+        } else {
+          FileNode file = new FileNode(element.getDiscriminator(), element.getId());
+          parent.addFile(file);
+          directory.index(file);
+          linked++;
+        }
+      }
+    }
+
+    // every folder apart from the root was linked through resolveFolder
+    directory.setNodeCount(linked + folders.size() - 1);
+    return directory;
+  }
+
+  /**
+   * The elements that could not be linked to the root, only complete once {@link #build()} has
+   * run
+   *
+   * @return List<NodeDTO> - the orphaned elements
+   */
+  public List<NodeDTO> getOrphans() {
+    return orphans;
+  }
+
+  /**
+   * Returns the folder node at the provided path, linking it and any of its unlinked ancestors into
+   * the tree first. Returns null if the path does not lead back to the root through folders.
+   *
+   * @param path - trimmed path of the folder
+   * @return DirectoryNode - the linked folder, or null
+   */
+  private DirectoryNode resolveFolder(final String path) {
+    Deque<String> pending = new ArrayDeque<>();
+    String curr = path;
+    DirectoryNode parent = folders.get(curr);
+
+    while (parent == null) {
+      NodeDTO element = index.get(curr);
+      if (element == null || element.getType() != DirElementType.FOLDER
+          || unresolvable.contains(curr)) {
+        unresolvable.add(curr);
+        unresolvable.addAll(pending);
+        return null;
+      }
+      pending.push(curr);
+      curr = DirectoryBuilder.trim(element.getParentPath());
+      parent = folders.get(curr);
+    }
+
+    while (!pending.isEmpty()) {
+      String childPath = pending.pop();
+      NodeDTO element = index.get(childPath);
+      DirectoryNode child = new DirectoryNode(element.getId(), element.getDiscriminator(), parent);
+      parent.addChild(child);
+      directory.index(child);
+      folders.put(childPath, child);
+      parent = child;
+    }
+
+    return parent;
+  }
+
+  /**
+   * The path an element occupies in the tree, built from its parent path and discriminator. The
+   * element's own full path is reused when it agrees, which is the case for consistent data
+   */
+  private static String childPath(final NodeDTO element) {
+    String parentPath = DirectoryBuilder.trim(element.getParentPath());
+    String discriminator = element.getDiscriminator();
+    String fullPath = element.getFullPath();
+
+    if (fullPath != null && discriminator != null
+        && fullPath.length() == parentPath.length() + 1 + discriminator.length()
+        && fullPath.startsWith(parentPath)
+        && fullPath.charAt(parentPath.length()) == DirectoryServiceConstants.PATH_DELIMINATOR
+            .charAt(0)
+        && fullPath.endsWith(discriminator)) {
+      return fullPath;
+    }
+    return parentPath + DirectoryServiceConstants.PATH_DELIMINATOR + discriminator;
+  }
+
+  /**
+   * Remove trailing slashes, so that /root/folder1/ and /root/folder1 refer to the same folder
+   */
+  private static String trim(final String path) {
+    if (path == null) {
+      return "";
+    }
+    int end = path.length();
+    while (end > 1 && path.charAt(end - 1) == '/') {
+      end--;
+    }
+    return end == path.length() ? path : path.substring(0, end);
+  }
+
+}
@@ -0,0 +1,73 @@
+package com.bc92.directoryservice.model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import com.bc92.directoryservice.dto.NodeDTO;
+import com.bc92.projectsdk.constants.DirectoryServiceConstants;
+import lombok.Getter;
+
+/**
+ * The nodes that were created or removed by mutations of a {@link Directory}, which have not yet
+ * been persisted
+ * <p>
+ * Deleted subtrees are held by their detached root node, their nodes are only created as
+ * {@link #streamDeleted()} is consumed, so deleting a large subtree does not have to materialise it
+ *
+ * @author Brian
+ *
+ */
+public class DirectoryChanges {
+
+  private final String owner;
+
+  @Getter
+  private final Set<NodeDTO> saved = new LinkedHashSet<>();
+
+  private final List<DirectoryNode> deletedRoots = new ArrayList<>();
+
+  DirectoryChanges(final String owner) {
+    this.owner = owner;
+  }
+
+  void save(final NodeDTO node) {
+    saved.add(node);
+  }
+
+  /**
+   * Track the removal of a subtree that has already been detached from the directory. Nodes saved
+   * within the subtree since the last drain are dropped, they no longer need to be persisted
+   */
+  void delete(final DirectoryNode subtreeRoot) {
+    String prefix = subtreeRoot.getFullPath();
+    saved.removeIf(node -> node.getFullPath().equals(prefix)
+        || node.getFullPath().startsWith(prefix + DirectoryServiceConstants.PATH_DELIMINATOR));
+    deletedRoots.add(subtreeRoot);
+  }
+
+  /**
+   * Lazily stream the deleted nodes
+   *
+   * @return Stream<NodeDTO> - every node of the deleted subtrees
+   */
+  public Stream<NodeDTO> streamDeleted() {
+    return deletedRoots.stream().flatMap(root -> root.stream(owner, false));
+  }
+
+  /**
+   * Collect the deleted nodes
+   *
+   * @return Set<NodeDTO> - every node of the deleted subtrees
+   */
+  public Set<NodeDTO> getDeleted() {
+    return this.streamDeleted().collect(Collectors.toCollection(LinkedHashSet::new));
+  }
+
+  public boolean isEmpty() {
+    return saved.isEmpty() && deletedRoots.isEmpty();
+  }
+
+}
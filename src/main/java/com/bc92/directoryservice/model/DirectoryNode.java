@@ -1,17 +1,28 @@
 package com.bc92.directoryservice.model;
 
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import org.springframework.util.Assert;
 import com.bc92.directoryservice.dto.NodeDTO;
 import com.bc92.projectsdk.constants.DirectoryServiceConstants;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
 /**
  * Node class for modelling the directory as a tree-like structure
+ * <p>
+ * Children and files are held in concurrent maps, so a node can be read while another thread adds
+ * or removes its children. The maps are only allocated once the first child or file is added.
+ * <p>
+ * To keep large trees compact, a node only holds its own interned discriminator and a reference to
+ * its parent. Its full path and parent path are computed from the parent chain when requested.
  *
  * @author Brian
  *
@@ -20,20 +31,28 @@ import lombok.Setter;
 @Setter
 public class DirectoryNode {
 
-  private String discriminator;
-
-  private String fullPath;
+  private static final char DELIMINATOR = DirectoryServiceConstants.PATH_DELIMINATOR.charAt(0);
 
-  private String parentPath;
+  @Setter(AccessLevel.NONE)
+  private String discriminator;
 
   private String id;
 
   @JsonIgnore
+  @Setter(AccessLevel.NONE)
   private DirectoryNode parent;
 
-  private Map<String, DirectoryNode> children = new HashMap<>();
+  // hash of the full path, equal to getFullPath().hashCode(), used by PathIndex
+  @JsonIgnore
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private final int pathHash;
+
+  @Getter(AccessLevel.NONE)
+  private volatile Map<String, DirectoryNode> children;
 
-  private Map<String, FileNode> files = new HashMap<>();
+  @Getter(AccessLevel.NONE)
+  private volatile Map<String, FileNode> files;
 
   /**
    * Public constructor to be used for creating a child node, from a {@link #DirElementDTO}
@@ -45,11 +64,8 @@ public class DirectoryNode {
    * @param parent
    */
   public DirectoryNode(final NodeDTO dirElementDto, final DirectoryNode parent) {
-    this.parent = parent;
+    this(dirElementDto.getDiscriminator(), parent);
     id = dirElementDto.getId();
-    discriminator = dirElementDto.getDiscriminator();
-    parentPath = parent.getFullPath();
-    fullPath = parentPath + DirectoryServiceConstants.PATH_DELIMINATOR + discriminator;
 
     Assert.isTrue(Path.pathsAreEqual(dirElementDto.getParentPath(), parent.getFullPath()),
         "Provided parent full path and element parent path must match for data integrity");
@@ -63,10 +79,24 @@ public class DirectoryNode {
    * @param parent - the parent node
    */
   private DirectoryNode(final String discriminator, final DirectoryNode parent) {
-    this.discriminator = discriminator;
+    this.discriminator = SegmentInterner.intern(discriminator);
     this.parent = parent;
-    parentPath = parent == null ? DirectoryServiceConstants.ROOT_PARENT_PATH : parent.getFullPath();
-    fullPath = parentPath + DirectoryServiceConstants.PATH_DELIMINATOR + discriminator;
+    pathHash = DirectoryNode.extendHash(
+        parent == null ? DirectoryServiceConstants.ROOT_PARENT_PATH.hashCode() : parent.pathHash,
+        this.discriminator);
+  }
+
+  /**
+   * Constructor for linking a child node whose consistency with its parent has already been
+   * established, as done by {@link DirectoryBuilder}
+   *
+   * @param id - id of the persisted node
+   * @param discriminator - the string representing the name of the node within the path
+   * @param parent - the parent node
+   */
+  DirectoryNode(final String id, final String discriminator, final DirectoryNode parent) {
+    this(discriminator, parent);
+    this.id = id;
   }
 
   /**
@@ -74,10 +104,7 @@ public class DirectoryNode {
    *
    */
   public DirectoryNode() {
-    discriminator = DirectoryServiceConstants.ROOT_NODE_NAME;
-    fullPath =
-        DirectoryServiceConstants.PATH_DELIMINATOR + DirectoryServiceConstants.ROOT_NODE_NAME;
-    parentPath = DirectoryServiceConstants.ROOT_PARENT_PATH;
+    this(DirectoryServiceConstants.ROOT_NODE_NAME, null);
   }
 
   /**
@@ -92,53 +119,194 @@ public class DirectoryNode {
     return copy;
   }
 
+  /**
+   * Full path of this node, built from the discriminators of its ancestors
+   *
+   * @return String - the full path, for example /root/folder1/folder2
+   */
+  public String getFullPath() {
+    return DirectoryNode.pathOf(this, null);
+  }
+
+  /**
+   * Full path of the parent of this node, or the root parent path for the root node
+   *
+   * @return String - the parent path
+   */
+  public String getParentPath() {
+    return parent == null ? DirectoryServiceConstants.ROOT_PARENT_PATH : parent.getFullPath();
+  }
+
+  public Map<String, DirectoryNode> getChildren() {
+    Map<String, DirectoryNode> current = children;
+    return current == null ? Collections.emptyMap() : current;
+  }
+
+  public Map<String, FileNode> getFiles() {
+    Map<String, FileNode> current = files;
+    return current == null ? Collections.emptyMap() : current;
+  }
+
   public DirectoryNode addChild(final DirectoryNode node) {
-    children.put(node.getDiscriminator(), node);
-    return children.get(node.getDiscriminator());
+    Map<String, DirectoryNode> current = children;
+    if (current == null) {
+      synchronized (this) {
+        if (children == null) {
+          children = new ConcurrentHashMap<>();
+        }
+        current = children;
+      }
+    }
+    current.put(node.getDiscriminator(), node);
+    return node;
   }
 
   public DirectoryNode removeChild(final String discr) {
-    return children.remove(discr);
+    return this.getChildren().remove(discr);
   }
 
   public boolean containsChild(final String discr) {
-    return children.containsKey(discr);
+    return this.getChildren().containsKey(discr);
   }
 
   public DirectoryNode getChild(final String discr) {
-    return children.getOrDefault(discr, null);
+    return this.getChildren().get(discr);
   }
 
   public FileNode getFile(final String displayName) {
-    return files.getOrDefault(displayName, null);
+    return this.getFiles().get(displayName);
   }
 
   public FileNode addFile(final FileNode file) {
-    file.setParentPath(fullPath);
-    file.setFullPath(
-        fullPath + DirectoryServiceConstants.PATH_DELIMINATOR + file.getDiscriminator());
-    return files.put(file.getDiscriminator(), file);
+    Map<String, FileNode> current = files;
+    if (current == null) {
+      synchronized (this) {
+        if (files == null) {
+          files = new ConcurrentHashMap<>();
+        }
+        current = files;
+      }
+    }
+    file.setParent(this);
+    return current.put(file.getDiscriminator(), file);
   }
 
   public FileNode removeFile(final String discriminator) {
-    return files.remove(discriminator);
+    return this.getFiles().remove(discriminator);
   }
 
   public String getDiscriminator() {
     return discriminator;
   }
 
-  public Set<NodeDTO> recurseFlatten(final Set<NodeDTO> flattened, final String owner) {
+  /**
+   * Path of the provided folder, followed by the provided child name when it is not null. Sized
+   * up front and filled from the end, so only the resulting string is allocated.
+   */
+  static String pathOf(final DirectoryNode folder, final String child) {
+    String prefix = DirectoryServiceConstants.ROOT_PARENT_PATH;
+    int length = prefix.length() + (child == null ? 0 : child.length() + 1);
+    for (DirectoryNode node = folder; node != null; node = node.parent) {
+      length += node.discriminator.length() + 1;
+    }
+
+    char[] path = new char[length];
+    int end = length;
+    if (child != null) {
+      end -= child.length();
+      child.getChars(0, child.length(), path, end);
+      path[--end] = DELIMINATOR;
+    }
+    for (DirectoryNode node = folder; node != null; node = node.parent) {
+      end -= node.discriminator.length();
+      node.discriminator.getChars(0, node.discriminator.length(), path, end);
+      path[--end] = DELIMINATOR;
+    }
+    prefix.getChars(0, prefix.length(), path, 0);
+    return new String(path);
+  }
+
+  int pathHash() {
+    return pathHash;
+  }
+
+  /**
+   * The string hash of a path extended by a delimiter and the provided segment, computed the same
+   * way as {@link String#hashCode()}
+   */
+  static int extendHash(final int hash, final String segment) {
+    int h = 31 * hash + DELIMINATOR;
+    for (int i = 0; i < segment.length(); i++) {
+      h = 31 * h + segment.charAt(i);
+    }
+    return h;
+  }
+
+  /**
+   * Checks whether the first length characters of the provided path are the path of the provided
+   * folder, followed by the provided child name when it is not null. Compares against the parent
+   * chain from the end, without building the path.
+   */
+  static boolean pathMatches(final DirectoryNode folder, final String child, final String path,
+      final int length) {
+    int end = length;
+    if (child != null) {
+      end = DirectoryNode.matchSegment(child, path, end);
+      if (end < 0) {
+        return false;
+      }
+    }
+    for (DirectoryNode node = folder; node != null; node = node.parent) {
+      end = DirectoryNode.matchSegment(node.discriminator, path, end);
+      if (end < 0) {
+        return false;
+      }
+    }
+    String prefix = DirectoryServiceConstants.ROOT_PARENT_PATH;
+    return end == prefix.length() && path.regionMatches(0, prefix, 0, end);
+  }
 
-    if (!DirectoryServiceConstants.ROOT_NODE_NAME.equals(discriminator)) {
-      flattened.add(new NodeDTO(owner, this));
+  /**
+   * Matches a delimiter followed by the segment ending at the provided offset, returning the
+   * offset of the delimiter, or -1 if it does not match
+   */
+  private static int matchSegment(final String segment, final String path, final int end) {
+    int start = end - segment.length();
+    if (start < 1 || path.charAt(start - 1) != DELIMINATOR
+        || !path.regionMatches(start, segment, 0, segment.length())) {
+      return -1;
     }
+    return start - 1;
+  }
 
-    children.forEach((disc, node) -> flattened.addAll(node.recurseFlatten(flattened, owner)));
+  /**
+   * Count this node along with all of its child folders and files
+   *
+   * @return int - number of nodes in the subtree rooted at this node
+   */
+  public int countNodes() {
+    int count = 0;
+    Deque<DirectoryNode> pending = new ArrayDeque<>();
+    pending.push(this);
 
-    files.forEach((disc, file) -> flattened.add(new NodeDTO(owner, file)));
+    while (!pending.isEmpty()) {
+      DirectoryNode node = pending.pop();
+      count += 1 + node.getFiles().size();
+      node.getChildren().values().forEach(pending::push);
+    }
+    return count;
+  }
 
-    return flattened;
+  /**
+   * Lazily stream this node along with all of its child folders and files, see
+   * {@link NodeSpliterator}. The root node is left out.
+   *
+   * @param owner - string of the username of the owner of the directory
+   * @param parallel - whether the returned stream is parallel
+   * @return Stream<NodeDTO> - the nodes of the subtree rooted at this node
+   */
+  public Stream<NodeDTO> stream(final String owner, final boolean parallel) {
+    return StreamSupport.stream(new NodeSpliterator(this, owner, Long.MAX_VALUE), parallel);
   }
 
 
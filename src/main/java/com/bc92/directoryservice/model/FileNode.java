@@ -3,37 +3,84 @@ package com.bc92.directoryservice.model;
 import org.springframework.util.Assert;
 import com.bc92.directoryservice.dto.NodeDTO;
 import com.bc92.projectsdk.constants.DirectoryServiceConstants;
-import lombok.AllArgsConstructor;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
+/**
+ * A file within the directory tree. Like {@link DirectoryNode}, it only holds its interned
+ * discriminator and its parent folder, its paths are computed when requested.
+ *
+ * @author Brian
+ *
+ */
 @Getter
 @Setter
-@AllArgsConstructor
 public class FileNode {
 
+  @Setter(AccessLevel.NONE)
   private String discriminator;
 
-  private String fullPath;
+  private String id;
 
-  private String parentPath;
+  @JsonIgnore
+  @Setter(AccessLevel.NONE)
+  private DirectoryNode parent;
 
-  private String id;
+  // hash of the full path, equal to getFullPath().hashCode(), used by PathIndex
+  @JsonIgnore
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private int pathHash;
+
+  /**
+   * Constructor for a file that is not linked to a folder yet, it is linked when added to one with
+   * {@link DirectoryNode#addFile(FileNode)}
+   *
+   * @param discriminator - the name of the file
+   * @param id - id of the persisted node
+   */
+  public FileNode(final String discriminator, final String id) {
+    this.discriminator = SegmentInterner.intern(discriminator);
+    this.id = id;
+    this.setParent(null);
+  }
 
   public FileNode(final NodeDTO element, final DirectoryNode parent) {
-    discriminator = element.getDiscriminator();
-    parentPath = parent.getFullPath();
-    fullPath = Path.combineParentPathAndDiscriminator(parentPath, discriminator);
-    id = element.getId();
+    this(element.getDiscriminator(), element.getId());
+    this.setParent(parent);
 
     Assert.isTrue(element.getParentPath().equals(parent.getFullPath()),
         "Provided parent full path and element parent path must match for data integrity");
   }
 
-  public void updateParentPath(final String newParentPath) {
-    Path.validatePath(newParentPath);
-    parentPath = newParentPath;
-    fullPath = parentPath + DirectoryServiceConstants.PATH_DELIMINATOR + discriminator;
+  /**
+   * Link this file to the provided folder
+   *
+   * @param parent - the folder containing this file
+   */
+  public void setParent(final DirectoryNode parent) {
+    this.parent = parent;
+    pathHash = DirectoryNode.extendHash(
+        parent == null ? DirectoryServiceConstants.ROOT_PARENT_PATH.hashCode() : parent.pathHash(),
+        discriminator);
+  }
+
+  int pathHash() {
+    return pathHash;
+  }
+
+  public String getFullPath() {
+    if (parent == null) {
+      return DirectoryServiceConstants.ROOT_PARENT_PATH + DirectoryServiceConstants.PATH_DELIMINATOR
+          + discriminator;
+    }
+    return DirectoryNode.pathOf(parent, discriminator);
+  }
+
+  public String getParentPath() {
+    return parent == null ? DirectoryServiceConstants.ROOT_PARENT_PATH : parent.getFullPath();
   }
 
 }
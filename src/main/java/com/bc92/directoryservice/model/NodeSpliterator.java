@@ -0,0 +1,98 @@
+package com.bc92.directoryservice.model;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import com.bc92.directoryservice.dto.NodeDTO;
+import com.bc92.projectsdk.constants.DirectoryServiceConstants;
+
+/**
+ * Walks a subtree of the directory without recursion, creating a {@link NodeDTO} for each folder
+ * and file only as it is consumed.
+ * <p>
+ * Folders that are still to be visited are kept on an explicit stack, so the depth of the tree is
+ * limited by the heap rather than the thread stack. Splitting hands half of the pending folders to
+ * the new spliterator; as the folders on the stack are never ancestors of one another, the two
+ * halves cover disjoint subtrees. The root node is never emitted.
+ *
+ * @author Brian
+ *
+ */
+public class NodeSpliterator implements Spliterator<NodeDTO> {
+
+  private final String owner;
+
+  private final Deque<DirectoryNode> pending;
+
+  private Iterator<FileNode> files = Collections.emptyIterator();
+
+  private long estimatedSize;
+
+  public NodeSpliterator(final DirectoryNode start, final String owner, final long estimatedSize) {
+    this(new ArrayDeque<>(), owner, estimatedSize);
+    pending.push(start);
+  }
+
+  private NodeSpliterator(final Deque<DirectoryNode> pending, final String owner,
+      final long estimatedSize) {
+    this.pending = pending;
+    this.owner = owner;
+    this.estimatedSize = estimatedSize;
+  }
+
+  @Override
+  public boolean tryAdvance(final Consumer<? super NodeDTO> action) {
+    while (true) {
+      if (files.hasNext()) {
+        action.accept(new NodeDTO(owner, files.next()));
+        return true;
+      }
+
+      DirectoryNode folder = pending.poll();
+      if (folder == null) {
+        return false;
+      }
+
+      for (DirectoryNode child : folder.getChildren().values()) {
+        pending.push(child);
+      }
+      files = folder.getFiles().values().iterator();
+
+      if (!DirectoryServiceConstants.ROOT_NODE_NAME.equals(folder.getDiscriminator())
+          || folder.getParent() != null) {
+        action.accept(new NodeDTO(owner, folder));
+        return true;
+      }
+    }
+  }
+
+  @Override
+  public Spliterator<NodeDTO> trySplit() {
+    int toSplit = pending.size() / 2;
+    if (toSplit == 0) {
+      return null;
+    }
+
+    Deque<DirectoryNode> split = new ArrayDeque<>(toSplit);
+    for (int i = 0; i < toSplit; i++) {
+      split.push(pending.pollLast());
+    }
+
+    estimatedSize /= 2;
+    return new NodeSpliterator(split, owner, estimatedSize);
+  }
+
+  @Override
+  public long estimateSize() {
+    return estimatedSize;
+  }
+
+  @Override
+  public int characteristics() {
+    return Spliterator.DISTINCT | Spliterator.NONNULL;
+  }
+
+}
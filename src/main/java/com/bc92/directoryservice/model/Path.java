@@ -1,11 +1,18 @@
 package com.bc92.directoryservice.model;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.bc92.projectsdk.constants.DirectoryServiceConstants;
 
 /**
  * Class for iterating through path elements, to be used by Directory to search for nodes
+ * <p>
+ * The path is not split up front. The current segment is tracked as a pair of offsets into the
+ * provided string, so iterating and comparing segments does not allocate. Leading and trailing
+ * slashes are ignored, empty segments between two slashes are kept.
  *
  * @author Brian
  *
@@ -13,37 +20,29 @@ import com.bc92.projectsdk.constants.DirectoryServiceConstants;
 public class Path {
   private static final Logger logger = LoggerFactory.getLogger(Path.class);
 
+  private static final Pattern PATH_PATTERN =
+      Pattern.compile(DirectoryServiceConstants.FILE_PATH_REGEX);
+
+  private static final Pattern DISCRIMINATOR_PATTERN =
+      Pattern.compile(DirectoryServiceConstants.DISCRIMINATOR_REGEX);
+
+  private static final char DELIMINATOR = DirectoryServiceConstants.PATH_DELIMINATOR.charAt(0);
+
   private final String primitivePath;
-  private PathNode root;
-  private PathNode curr;
+
+  // end of the last segment, trailing slashes excluded
+  private final int limit;
+
+  // offsets of the current segment, start is -1 once iterated past the last segment
+  private int start;
+  private int end;
 
   public Path(final String primitivePath) {
     this.primitivePath = primitivePath;
     validatePath(primitivePath);
-    this.build(primitivePath);
-  }
-
-  /**
-   * Build a iterable-style object from the provided path
-   *
-   * @param primitivePath
-   */
-  private void build(final String primitivePath) {
-    String trimmedPath = primitivePath;
-    if (primitivePath.charAt(0) == '/') {
-      trimmedPath = primitivePath.substring(1);
-    }
-    String[] pathStringArr = trimmedPath.split("/");
-    root = new PathNode(pathStringArr[0]);
-    curr = root;
-
-    for (int i = 1; i < pathStringArr.length; i++) {
-      PathNode temp = new PathNode(pathStringArr[i]);
-      curr.setChild(temp);
-      curr = temp;
-    }
-
-    curr = root;
+    limit = Path.trimmedLength(primitivePath);
+    start = 1;
+    end = Path.segmentEnd(primitivePath, start, limit);
   }
 
   /**
@@ -58,7 +57,7 @@ public class Path {
       throw new InvalidPathException(InvalidPathException.NULL_EMPTY_PATH);
     }
 
-    if (!primitivePath.matches(DirectoryServiceConstants.FILE_PATH_REGEX)) {
+    if (!PATH_PATTERN.matcher(primitivePath).matches()) {
       throw new InvalidPathException(InvalidPathException.INVALID_CHARS, primitivePath);
     }
   }
@@ -75,14 +74,14 @@ public class Path {
       throw new InvalidDiscriminatorException(InvalidDiscriminatorException.NULL_EMPTY_PATH);
     }
 
-    if (!discriminator.matches(DirectoryServiceConstants.DISCRIMINATOR_REGEX)) {
+    if (!DISCRIMINATOR_PATTERN.matcher(discriminator).matches()) {
       throw new InvalidDiscriminatorException(InvalidDiscriminatorException.INVALID_CHARS,
           discriminator);
     }
   }
 
   /**
-   * Checks if two provided paths are equal
+   * Checks if two provided paths are equal, trailing slashes are ignored
    *
    * @param pathA - string of path
    * @param pathB - string of path
@@ -92,25 +91,12 @@ public class Path {
     if (pathA == null || pathB == null) {
       return false;
     }
-    if (!(pathA.matches(DirectoryServiceConstants.FILE_PATH_REGEX)
-        && pathB.matches(DirectoryServiceConstants.FILE_PATH_REGEX))) {
+    if (!(PATH_PATTERN.matcher(pathA).matches() && PATH_PATTERN.matcher(pathB).matches())) {
       return false;
     }
 
-    String[] pathAarr = pathA.substring(1).split("/");
-    String[] pathBarr = pathB.substring(1).split("/");
-
-    if (pathAarr.length != pathBarr.length) {
-      return false;
-    }
-
-    for (int i = 0; i < pathAarr.length; i++) {
-      if (!(pathAarr[i].equals(pathBarr[i]))) {
-        return false;
-      }
-    }
-
-    return true;
+    int length = Path.trimmedLength(pathA);
+    return length == Path.trimmedLength(pathB) && pathA.regionMatches(0, pathB, 0, length);
   }
 
   /**
@@ -133,8 +119,71 @@ public class Path {
     return (parentPath + DirectoryServiceConstants.PATH_DELIMINATOR + discriminator);
   }
 
+  /**
+   * The full paths of the folders above the provided path, from the root down to its parent.
+   * Trailing slashes are ignored.
+   *
+   * @param fullPath - full path of a node
+   * @return List<String> - full paths of its ancestors, empty for the root
+   */
+  public static List<String> ancestorsOf(final String fullPath) {
+    int limit = Path.trimmedLength(fullPath);
+    List<String> ancestors = new ArrayList<>();
+    for (int i = 1; i < limit; i++) {
+      if (fullPath.charAt(i) == DELIMINATOR) {
+        ancestors.add(fullPath.substring(0, i));
+      }
+    }
+    return ancestors;
+  }
+
+  /**
+   * Number of segments of the provided path, the root has depth 1. Trailing slashes are ignored.
+   */
+  public static int depthOf(final String fullPath) {
+    int limit = Path.trimmedLength(fullPath);
+    int depth = 1;
+    for (int i = 1; i < limit; i++) {
+      if (fullPath.charAt(i) == DELIMINATOR) {
+        depth++;
+      }
+    }
+    return depth;
+  }
+
   public static String escapeSlashes(final String fullPath) {
-    return fullPath.replace("/", "\\/");
+    StringBuilder escaped = new StringBuilder(fullPath.length() + 8);
+    for (int i = 0; i < fullPath.length(); i++) {
+      char c = fullPath.charAt(i);
+      if (c == '/') {
+        escaped.append('\\');
+      }
+      escaped.append(c);
+    }
+    return escaped.toString();
+  }
+
+  /**
+   * Length of the provided path without its trailing slashes, a path made of slashes only keeps
+   * its leading slash
+   */
+  static int trimmedLength(final String path) {
+    int length = path.length();
+    while (length > 1 && path.charAt(length - 1) == DELIMINATOR) {
+      length--;
+    }
+    return length;
+  }
+
+  /**
+   * Offset of the end of the segment starting at the provided offset
+   */
+  static int segmentEnd(final String path, final int start, final int limit) {
+    int end = start;
+    while (end < limit && path.charAt(end) != DELIMINATOR) {
+      end++;
+    }
+    return end;
   }
 
   public String getPrimitivePath() {
@@ -142,26 +191,54 @@ public class Path {
   }
 
   public PathNode getRoot() {
-    return root;
+    return new PathNode(primitivePath, 1, Path.segmentEnd(primitivePath, 1, limit), limit);
   }
 
   public PathNode getCurr() {
-    return curr;
+    return this.current();
   }
 
   public boolean hasNext() {
-    return curr.hasChild();
+    return end < limit;
   }
 
   public PathNode next() {
-    curr = curr.getChild();
-    return curr;
+    if (this.hasNext()) {
+      start = end + 1;
+      end = Path.segmentEnd(primitivePath, start, limit);
+    } else {
+      start = -1;
+    }
+    return this.current();
   }
 
+  /**
+   * View of the current segment, or null once iterated past the last segment
+   *
+   * @return PathNode - the current segment
+   */
   public PathNode current() {
-    return curr;
+    return start < 0 ? null : new PathNode(primitivePath, start, end, limit);
   }
 
+  /**
+   * The current segment as a string
+   *
+   * @return String - the discriminator of the current segment
+   */
+  public String currentDiscriminator() {
+    return primitivePath.substring(start, end);
+  }
 
+  /**
+   * Checks if the current segment equals the provided discriminator, without allocating
+   *
+   * @param discriminator - the discriminator to compare against
+   * @return boolean
+   */
+  public boolean currentEquals(final String discriminator) {
+    return start >= 0 && discriminator != null && discriminator.length() == end - start
+        && primitivePath.regionMatches(start, discriminator, 0, end - start);
+  }
 
 }
@@ -0,0 +1,152 @@
+package com.bc92.directoryservice.model;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index from full path to the folders and files of a {@link Directory}, so nodes can be looked up
+ * without walking the tree from the root.
+ * <p>
+ * Nodes do not store their paths, so the index does not key on path strings. Each entry is keyed by
+ * a small wrapper around the node, which hashes to the precomputed hash of the node's path and
+ * compares against a looked up path by walking the node's parent chain. Trailing slashes of looked
+ * up paths are ignored.
+ * <p>
+ * Lookups can run concurrently with modifications, modifications are expected to be serialised by
+ * the owning directory.
+ *
+ * @author Brian
+ *
+ */
+class PathIndex {
+
+  private final Map<Object, DirectoryNode> folders = new ConcurrentHashMap<>();
+
+  private final Map<Object, FileNode> files = new ConcurrentHashMap<>();
+
+  void add(final DirectoryNode folder) {
+    folders.put(new FolderKey(folder), folder);
+  }
+
+  void add(final FileNode file) {
+    files.put(new FileKey(file), file);
+  }
+
+  void remove(final FileNode file) {
+    files.remove(new FileKey(file));
+  }
+
+  /**
+   * Removes the provided folder along with all of its child folders and files
+   */
+  void removeSubtree(final DirectoryNode subtreeRoot) {
+    Deque<DirectoryNode> pending = new ArrayDeque<>();
+    pending.push(subtreeRoot);
+
+    while (!pending.isEmpty()) {
+      DirectoryNode folder = pending.pop();
+      folders.remove(new FolderKey(folder));
+      folder.getFiles().values().forEach(file -> files.remove(new FileKey(file)));
+      folder.getChildren().values().forEach(pending::push);
+    }
+  }
+
+  DirectoryNode getFolder(final String path) {
+    return path == null ? null : folders.get(new PathKey(path));
+  }
+
+  FileNode getFile(final String path) {
+    return path == null ? null : files.get(new PathKey(path));
+  }
+
+  /**
+   * Key of an indexed folder, equal to other keys of the same folder and to path keys of its path
+   */
+  private static final class FolderKey {
+    private final DirectoryNode folder;
+
+    FolderKey(final DirectoryNode folder) {
+      this.folder = folder;
+    }
+
+    @Override
+    public int hashCode() {
+      return folder.pathHash();
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (obj instanceof FolderKey) {
+        return ((FolderKey) obj).folder == folder;
+      }
+      return obj instanceof PathKey && obj.equals(this);
+    }
+  }
+
+  /**
+   * Key of an indexed file, equal to other keys of the same file and to path keys of its path
+   */
+  private static final class FileKey {
+    private final FileNode file;
+
+    FileKey(final FileNode file) {
+      this.file = file;
+    }
+
+    @Override
+    public int hashCode() {
+      return file.pathHash();
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (obj instanceof FileKey) {
+        return ((FileKey) obj).file == file;
+      }
+      return obj instanceof PathKey && obj.equals(this);
+    }
+  }
+
+  /**
+   * Key used to look up a path, hashed and compared without copying the path
+   */
+  private static final class PathKey {
+    private final String path;
+    private final int length;
+    private final int hash;
+
+    PathKey(final String path) {
+      this.path = path;
+      length = Path.trimmedLength(path);
+      int h = 0;
+      for (int i = 0; i < length; i++) {
+        h = 31 * h + path.charAt(i);
+      }
+      hash = h;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (obj instanceof FolderKey) {
+        return DirectoryNode.pathMatches(((FolderKey) obj).folder, null, path, length);
+      }
+      if (obj instanceof FileKey) {
+        FileNode file = ((FileKey) obj).file;
+        return DirectoryNode.pathMatches(file.getParent(), file.getDiscriminator(), path, length);
+      }
+      if (obj instanceof PathKey) {
+        PathKey other = (PathKey) obj;
+        return length == other.length && path.regionMatches(0, other.path, 0, length);
+      }
+      return false;
+    }
+  }
+
+}
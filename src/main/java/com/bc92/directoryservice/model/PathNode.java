@@ -1,28 +1,42 @@
 package com.bc92.directoryservice.model;
 
-import lombok.AllArgsConstructor;
-import lombok.Getter;
-import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
-import lombok.Setter;
-
 /**
- * class for modelling a path, such as /root/folder1/folder2
+ * class for modelling a segment of a path, such as folder1 in /root/folder1/folder2
+ * <p>
+ * A view over the path string by offset, the discriminator is only created when it is requested
  *
  * @author Brian
  *
  */
-@Getter
-@Setter
-@RequiredArgsConstructor
-@AllArgsConstructor
 public class PathNode {
-  @NonNull
-  String discriminator;
-  PathNode parent;
-  PathNode child;
+
+  private final String path;
+
+  private final int start;
+
+  private final int end;
+
+  private final int limit;
+
+  PathNode(final String path, final int start, final int end, final int limit) {
+    this.path = path;
+    this.start = start;
+    this.end = end;
+    this.limit = limit;
+  }
+
+  public String getDiscriminator() {
+    return path.substring(start, end);
+  }
 
   public boolean hasChild() {
-    return child != null;
+    return end < limit;
+  }
+
+  public PathNode getChild() {
+    if (!this.hasChild()) {
+      return null;
+    }
+    return new PathNode(path, end + 1, Path.segmentEnd(path, end + 1, limit), limit);
   }
 }
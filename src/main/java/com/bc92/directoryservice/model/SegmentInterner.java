@@ -0,0 +1,42 @@
+package com.bc92.directoryservice.model;
+
+/**
+ * Canonicalises the names of path segments, so that the many nodes sharing a name, such as
+ * "images" or "src", hold a single string between them.
+ * <p>
+ * Names are cached in a fixed-size table indexed by their hash, a colliding name replaces the one
+ * before it. The table is never larger than {@link #SIZE} entries and needs no locking, as a racing
+ * read can at worst miss and return the name it was given.
+ *
+ * @author Brian
+ *
+ */
+final class SegmentInterner {
+
+  private static final int SIZE = 1 << 14;
+
+  private static final String[] TABLE = new String[SIZE];
+
+  private SegmentInterner() {}
+
+  /**
+   * Returns the cached string equal to the provided name, or caches and returns the provided name
+   *
+   * @param name - name of a path segment
+   * @return String - an equal, possibly shared, string
+   */
+  static String intern(final String name) {
+    if (name == null) {
+      return null;
+    }
+    int h = name.hashCode();
+    int slot = (h ^ (h >>> 16)) & (SIZE - 1);
+    String cached = TABLE[slot];
+    if (name.equals(cached)) {
+      return cached;
+    }
+    TABLE[slot] = name;
+    return name;
+  }
+
+}
@@ -0,0 +1,55 @@
+package com.bc92.directoryservice.repo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import org.springframework.core.io.Resource;
+
+/**
+ * Store for the content of files, kept apart from the directory documents in Solr. Content is
+ * addressed by its SHA-256 hash, so identical content is only stored once.
+ *
+ * @author Brian
+ *
+ */
+public interface BlobStore {
+
+  /**
+   * Store the provided content, hashing it as it is written. If content with the same hash is
+   * already stored, the new copy is discarded and the returned blob is marked as a duplicate.
+   *
+   * @param content - stream of the content, read to the end but not closed
+   * @return StoredBlob - hash and size of the stored content
+   * @throws IOException - if the content could not be read or written
+   */
+  StoredBlob put(InputStream content) throws IOException;
+
+  /**
+   * The content stored under the provided hash
+   *
+   * @param hash - hash returned when the content was stored
+   * @return Resource - the content, decompressed if the store compressed it
+   * @throws IOException - if no content is stored under the hash
+   */
+  Resource get(String hash) throws IOException;
+
+  /**
+   * The gzip stream the content is stored as, if the store compressed it, so it can be handed to
+   * clients accepting gzip without decompressing it
+   *
+   * @param hash - hash returned when the content was stored
+   * @return Resource - the gzipped content, or null if the content is not stored compressed
+   */
+  Resource getCompressed(String hash) throws IOException;
+
+  boolean exists(String hash);
+
+  /**
+   * Remove the content stored under the provided hash
+   *
+   * @param hash - hash returned when the content was stored
+   * @return boolean - true if content was removed
+   * @throws IOException - if the content could not be removed
+   */
+  boolean delete(String hash) throws IOException;
+
+}
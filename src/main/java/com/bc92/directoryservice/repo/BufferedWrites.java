@@ -0,0 +1,31 @@
+package com.bc92.directoryservice.repo;
+
+/**
+ * The writes of a repository, sent through the {@link SolrWriteCoordinator} instead of one request
+ * and hard commit each. Declared by the repositories so these methods replace the ones of
+ * {@link org.springframework.data.solr.repository.SolrCrudRepository}.
+ *
+ * @author Brian
+ *
+ */
+public interface BufferedWrites<T> {
+
+  <S extends T> S save(S entity);
+
+  <S extends T> Iterable<S> saveAll(Iterable<S> entities);
+
+  void delete(T entity);
+
+  void deleteAll(Iterable<? extends T> entities);
+
+  /**
+   * Delete the node at the provided path and every node below it, of any type, with a single
+   * delete by query. The request does not grow with the subtree, and the rest of the directory is
+   * never read, though Solr still removes every node below the path.
+   *
+   * @param owner - name of the user who owns the nodes
+   * @param fullPath - full path of the top node to delete
+   */
+  void deleteSubtree(String owner, String fullPath);
+
+}
@@ -0,0 +1,47 @@
+package com.bc92.directoryservice.repo;
+
+import java.util.Collections;
+import com.bc92.directoryservice.dto.NodeDTO;
+
+/**
+ * Implementation of {@link BufferedWrites}, found by the repository infrastructure by its name
+ *
+ * @author Brian
+ *
+ */
+public class BufferedWritesImpl<T extends NodeDTO> implements BufferedWrites<T> {
+
+  private final SolrWriteCoordinator coordinator;
+
+  public BufferedWritesImpl(final SolrWriteCoordinator coordinator) {
+    this.coordinator = coordinator;
+  }
+
+  @Override
+  public <S extends T> S save(final S entity) {
+    coordinator.save(Collections.singletonList(entity));
+    return entity;
+  }
+
+  @Override
+  public <S extends T> Iterable<S> saveAll(final Iterable<S> entities) {
+    coordinator.save(entities);
+    return entities;
+  }
+
+  @Override
+  public void delete(final T entity) {
+    coordinator.delete(Collections.singletonList(entity));
+  }
+
+  @Override
+  public void deleteAll(final Iterable<? extends T> entities) {
+    coordinator.delete(entities);
+  }
+
+  @Override
+  public void deleteSubtree(final String owner, final String fullPath) {
+    coordinator.deleteSubtree(owner, fullPath);
+  }
+
+}
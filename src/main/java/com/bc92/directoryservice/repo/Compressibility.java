@@ -0,0 +1,94 @@
+package com.bc92.directoryservice.repo;
+
+import java.util.zip.Deflater;
+
+/**
+ * Decides from a sample of the first bytes of some content whether it is worth compressing.
+ * Content starting with the signature of a compressed format is never compressed. Any other
+ * content is compressed when a trial compression of the sample saves enough space.
+ *
+ * @author Brian
+ *
+ */
+final class Compressibility {
+
+  /**
+   * Compressed size of the sample, relative to its raw size, below which content is compressed
+   */
+  static final double MAX_RATIO = 0.9;
+
+  private static final int MIN_SAMPLE = 512;
+
+  // @formatter:off
+  private static final byte[][] COMPRESSED_SIGNATURES = {
+      {0x1f, (byte) 0x8b},                                // gzip
+      {'P', 'K', 0x03, 0x04},                             // zip, jar, docx, xlsx
+      {'%', 'P', 'D', 'F'},                               // pdf
+      {(byte) 0x89, 'P', 'N', 'G'},                       // png
+      {(byte) 0xff, (byte) 0xd8, (byte) 0xff},            // jpeg
+      {'G', 'I', 'F', '8'},                               // gif
+      {'B', 'Z', 'h'},                                    // bzip2
+      {(byte) 0xfd, '7', 'z', 'X', 'Z', 0x00},            // xz
+      {'7', 'z', (byte) 0xbc, (byte) 0xaf, 0x27, 0x1c},   // 7z
+      {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd},             // zstd
+      {'R', 'a', 'r', '!'},                               // rar
+      {'O', 'g', 'g', 'S'},                               // ogg
+      {'I', 'D', '3'},                                    // mp3
+      {0x1a, 0x45, (byte) 0xdf, (byte) 0xa3},             // mkv, webm
+  };
+  // @formatter:on
+
+  private Compressibility() {}
+
+  /**
+   * Whether content starting with the provided sample should be compressed
+   *
+   * @param sample - buffer holding the first bytes of the content
+   * @param length - number of bytes of the sample in the buffer
+   * @return boolean - true if the content should be compressed
+   */
+  static boolean worthCompressing(final byte[] sample, final int length) {
+    if (length < MIN_SAMPLE || Compressibility.isCompressedFormat(sample, length)) {
+      return false;
+    }
+
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    try {
+      deflater.setInput(sample, 0, length);
+      deflater.finish();
+      byte[] out = new byte[length];
+      int compressed = 0;
+      while (!deflater.finished() && compressed < length) {
+        compressed += deflater.deflate(out, compressed, length - compressed);
+      }
+      return deflater.finished() && compressed < length * MAX_RATIO;
+    } finally {
+      deflater.end();
+    }
+  }
+
+  static boolean isCompressedFormat(final byte[] sample, final int length) {
+    for (byte[] signature : COMPRESSED_SIGNATURES) {
+      if (Compressibility.startsWith(sample, length, 0, signature)) {
+        return true;
+      }
+    }
+    // mp4, mov and heic carry their signature after the length of the first box
+    return Compressibility.startsWith(sample, length, 4, new byte[] {'f', 't', 'y', 'p'})
+        || Compressibility.startsWith(sample, length, 8, new byte[] {'W', 'E', 'B', 'P'});
+  }
+
+  private static boolean startsWith(final byte[] sample, final int length, final int offset,
+      final byte[] signature) {
+    if (length < offset + signature.length) {
+      return false;
+    }
+    for (int i = 0; i < signature.length; i++) {
+      if (sample[offset + i] != signature[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
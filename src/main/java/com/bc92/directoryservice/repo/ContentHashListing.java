@@ -0,0 +1,28 @@
+package com.bc92.directoryservice.repo;
+
+import com.bc92.directoryservice.dto.FileDTO;
+
+/**
+ * Paged lookup of the content hashes of the files below a folder, declared by
+ * {@link FileRepository}. Pages are read with a Solr cursor mark, so a folder holding a large
+ * number of files is read in time linear in that number.
+ *
+ * @author Brian
+ *
+ */
+public interface ContentHashListing {
+
+  /**
+   * The files below the provided folder, at any depth, holding only their id and content hash,
+   * sorted by id. Matched by their indexed ancestors once directory.index.ancestors-ready is set.
+   *
+   * @param owner - name of the user who owns the folder
+   * @param folder - full path of the folder, not escaped
+   * @param cursorMark - cursor mark of the page, {@code *} for the first page
+   * @param rows - maximum number of files in the page
+   * @return CursorPage<FileDTO> - the files of the page and the cursor mark of the next one
+   */
+  CursorPage<FileDTO> findContentHashesBelow(String owner, String folder, String cursorMark,
+      int rows);
+
+}
@@ -0,0 +1,54 @@
+package com.bc92.directoryservice.repo;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.solr.core.SolrTemplate;
+import com.bc92.directoryservice.dto.FileDTO;
+
+/**
+ * Implementation of {@link ContentHashListing}, found by the repository infrastructure by its name
+ *
+ * @author Brian
+ *
+ */
+public class ContentHashListingImpl implements ContentHashListing {
+
+  private final SolrTemplate solrTemplate;
+
+  private final boolean ancestorsReady;
+
+  public ContentHashListingImpl(final SolrTemplate solrTemplate,
+      @Value("${directory.index.ancestors-ready:false}") final boolean ancestorsReady) {
+    this.solrTemplate = solrTemplate;
+    this.ancestorsReady = ancestorsReady;
+  }
+
+  @Override
+  public CursorPage<FileDTO> findContentHashesBelow(final String owner, final String folder,
+      final String cursorMark, final int rows) {
+    return CursorQueries.execute(solrTemplate,
+        ContentHashListingImpl.hashesBelowQuery(owner, folder, ancestorsReady, cursorMark, rows),
+        FileDTO.class);
+  }
+
+  /**
+   * Files below the folder are matched by their indexed ancestors once every node has them,
+   * otherwise by a wildcard on their parent path
+   */
+  static SolrQuery hashesBelowQuery(final String owner, final String folder,
+      final boolean ancestorsReady, final String cursorMark, final int rows) {
+    String top = folder;
+    while (top.length() > 1 && top.endsWith("/")) {
+      top = top.substring(0, top.length() - 1);
+    }
+    String filesBelow = ancestorsReady ? "ancestors_str:" + ClientUtils.escapeQueryChars(top)
+        : "(parentPath_str:" + ClientUtils.escapeQueryChars(top) + " OR parentPath_str:"
+            + ClientUtils.escapeQueryChars(top + "/") + "*)";
+    SolrQuery query = new SolrQuery(
+        "type:FILE AND owner:" + ClientUtils.escapeQueryChars(owner) + " AND " + filesBelow);
+    query.setFields("id", "contentHash");
+    return CursorQueries.page(query, cursorMark, rows);
+  }
+
+}
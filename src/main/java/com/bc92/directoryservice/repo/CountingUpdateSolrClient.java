@@ -0,0 +1,37 @@
+package com.bc92.directoryservice.repo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.solr.client.solrj.impl.ConcurrentUpdateSolrClient;
+
+/**
+ * A {@link ConcurrentUpdateSolrClient} that counts the updates that failed. Updates are sent from
+ * its own threads, so a failure is not thrown to the caller, which compares the count before and
+ * after {@link #blockUntilFinished()} instead.
+ *
+ * @author Brian
+ *
+ */
+public class CountingUpdateSolrClient extends ConcurrentUpdateSolrClient {
+
+  private static final long serialVersionUID = 1L;
+
+  private final AtomicLong errors = new AtomicLong();
+
+  public CountingUpdateSolrClient(final ConcurrentUpdateSolrClient.Builder builder) {
+    super(builder);
+  }
+
+  @Override
+  public void handleError(final Throwable ex) {
+    errors.incrementAndGet();
+    super.handleError(ex);
+  }
+
+  /**
+   * Number of updates that failed since the client was created
+   */
+  public long getErrorCount() {
+    return errors.get();
+  }
+
+}
@@ -0,0 +1,40 @@
+package com.bc92.directoryservice.repo;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * One page of a query read with a Solr cursor mark, see {@link FolderListing} and
+ * {@link ContentHashListing}
+ *
+ * @author Brian
+ *
+ */
+@Getter
+@AllArgsConstructor
+public class CursorPage<T> {
+
+  /**
+   * The nodes of the page, in the order of the query
+   */
+  private final List<T> nodes;
+
+  /**
+   * Cursor mark of the page after this one, equal to the cursor mark requested once the last page
+   * has been read
+   */
+  private final String nextCursorMark;
+
+  /**
+   * Whether no page follows this one
+   *
+   * @param cursorMark - cursor mark this page was requested with
+   * @param rows - number of rows this page was requested with
+   * @return boolean - true if the page is the last
+   */
+  public boolean isLast(final String cursorMark, final int rows) {
+    return nodes.size() < rows || cursorMark.equals(nextCursorMark);
+  }
+
+}
@@ -0,0 +1,39 @@
+package com.bc92.directoryservice.repo;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrQuery.ORDER;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.springframework.data.solr.core.SolrTemplate;
+
+/**
+ * Runs queries read with a Solr cursor mark, which derived and annotated queries cannot carry. A
+ * cursor mark costs the same for every page, where an offset makes Solr collect every row before
+ * the page.
+ *
+ * @author Brian
+ *
+ */
+final class CursorQueries {
+
+  private CursorQueries() {}
+
+  /**
+   * Set the page of the provided query, its sort must end with the unique key, id
+   */
+  static SolrQuery page(final SolrQuery query, final String cursorMark, final int rows) {
+    query.addSort("id", ORDER.asc);
+    query.setRows(rows);
+    query.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+    return query;
+  }
+
+  static <T> CursorPage<T> execute(final SolrTemplate solrTemplate, final SolrQuery query,
+      final Class<T> type) {
+    QueryResponse response = solrTemplate
+        .execute(client -> client.query(SolrWriteCoordinator.COLLECTION, query));
+    return new CursorPage<>(solrTemplate.getConverter().read(response.getResults(), type),
+        response.getNextCursorMark());
+  }
+
+}
@@ -1,18 +1,71 @@
 package com.bc92.directoryservice.repo;
 
+import java.util.Collection;
 import java.util.List;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.solr.repository.Query;
 import org.springframework.data.solr.repository.SolrCrudRepository;
 import com.bc92.directoryservice.dto.NodeDTO;
 
+/**
+ * Repository of the directory tree nodes. Queries only return the metadata fields of a node, the
+ * content of files is never read through this repository, see
+ * {@link FileRepository#findFileContentByFullPathAndOwner(String, String)}
+ *
+ * @author Brian
+ *
+ */
+public interface DirectoryRepository extends SolrCrudRepository<NodeDTO, String>,
+    BufferedWrites<NodeDTO>, FolderListing {
 
-public interface DirectoryRepository extends SolrCrudRepository<NodeDTO, String> {
-  // putting here to add in the future, to exclude fileBytes
-  // @Query(fields = {"type", "owner", "parentPath", "discriminator", "fullPath", "id"})
-
+  @Query(value = "owner:?0",
+      fields = {"id", "type", "owner", "discriminator", "fullPath", "parentPath"})
   public List<NodeDTO> findByOwner(String owner);
 
-  @Query(value = "type:FOLDER AND owner:?0 AND fullPath_str:?1")
+  @Query(value = "type:FOLDER AND owner:?0 AND fullPath_str:?1",
+      fields = {"id", "type", "owner", "discriminator", "fullPath", "parentPath"})
   public NodeDTO findFolderByFullPathAndOwner(String username, String fullPath);
 
+  /**
+   * The folder at the provided path together with the files directly in it, so a batch of uploads
+   * into the folder is checked with a single query
+   */
+  @Query(value = "owner:?0 AND ((type:FOLDER AND fullPath_str:?1)"
+      + " OR (type:FILE AND parentPath_str:?1))",
+      fields = {"id", "type", "owner", "discriminator", "fullPath", "parentPath"})
+  public List<NodeDTO> findFolderAndFilesByFullPathAndOwner(String username, String fullPath);
+
+  /**
+   * Every node below the provided folder, at any depth, found by the indexed ancestors. A paged
+   * request is sent as a single query, unpaged results are counted first.
+   */
+  @Query(value = "owner:?0 AND ancestors_str:?1",
+      fields = {"id", "type", "owner", "discriminator", "fullPath", "parentPath"})
+  public List<NodeDTO> findDescendants(String username, String fullPath, Pageable page);
+
+  /**
+   * The nodes below the provided folder down to the provided depth, counted from the root as in
+   * {@link com.bc92.directoryservice.model.Path#depthOf(String)}
+   */
+  @Query(value = "owner:?0 AND ancestors_str:?1 AND depth:[* TO ?2]",
+      fields = {"id", "type", "owner", "discriminator", "fullPath", "parentPath"})
+  public List<NodeDTO> findDescendantsToDepth(String username, String fullPath, int maxDepth,
+      Pageable page);
+
+  /**
+   * The folders at the provided escaped paths in a single query, given the ancestors of a node as
+   * listed by {@link com.bc92.directoryservice.model.Path#ancestorsOf(String)}
+   */
+  @Query(value = "type:FOLDER AND owner:?0 AND fullPath_str:(?1)",
+      fields = {"id", "type", "owner", "discriminator", "fullPath", "parentPath"})
+  public List<NodeDTO> findAncestors(String username, Collection<String> ancestorPaths,
+      Pageable page);
+
+  /**
+   * Folders written before their ancestors and depth were indexed
+   */
+  @Query(value = "type:FOLDER AND -depth:[* TO *]")
+  public Page<NodeDTO> findUnindexedFolders(Pageable page);
+
 }
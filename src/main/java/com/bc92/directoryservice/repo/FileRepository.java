@@ -1,16 +1,59 @@
 package com.bc92.directoryservice.repo;
 
+import java.util.Collection;
 import java.util.List;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.solr.repository.Query;
 import org.springframework.data.solr.repository.SolrCrudRepository;
 import com.bc92.directoryservice.dto.FileDTO;
 
+/**
+ * Repository of the file nodes. Lookups return metadata only, so existence checks and listings do
+ * not transfer file content. Content of files is kept in the {@link BlobStore}, content still held
+ * in documents is only fetched by {@link #findFileContentByFullPathAndOwner(String, String)} and
+ * {@link #findLegacyContentFiles(Pageable)}, in order to migrate it.
+ *
+ * @author Brian
+ *
+ */
+public interface FileRepository extends SolrCrudRepository<FileDTO, String>,
+    BufferedWrites<FileDTO>, ContentHashListing {
 
-public interface FileRepository extends SolrCrudRepository<FileDTO, String> {
-
-  @Query(value = "type:FILE AND owner:?0 AND fullPath_str:?1")
+  @Query(value = "type:FILE AND owner:?0 AND fullPath_str:?1",
+      fields = {"id", "type", "owner", "discriminator", "fullPath", "parentPath", "contentHash",
+          "size", "lastModified"})
   public FileDTO findFileByFullPathAndOwner(String username, String fullPath);
 
-  @Query(value = "type:FILE AND owner:?0 AND parentPath_str:?1")
+  @Query(value = "type:FILE AND owner:?0 AND parentPath_str:?1",
+      fields = {"id", "type", "owner", "discriminator", "fullPath", "parentPath", "contentHash",
+          "size", "lastModified"})
   public List<FileDTO> findFilesByParentPathAndOwner(String username, String parentPath);
+
+  @Query(value = "type:FILE AND owner:?0 AND fullPath_str:?1")
+  public FileDTO findFileContentByFullPathAndOwner(String username, String fullPath);
+
+  @Query(value = "type:FILE AND -contentHash:[* TO *]")
+  public Page<FileDTO> findLegacyContentFiles(Pageable page);
+
+  /**
+   * Files written before their ancestors and depth were indexed, with their content if they still
+   * hold it
+   */
+  @Query(value = "type:FILE AND -depth:[* TO *]")
+  public Page<FileDTO> findUnindexedFiles(Pageable page);
+
+  @Query(value = "type:FILE AND owner:?0 AND contentHash:?1",
+      fields = {"id", "type", "owner", "discriminator", "fullPath", "parentPath", "contentHash",
+          "size", "lastModified"})
+  public Page<FileDTO> findFilesByContentHashAndOwner(String username, String contentHash,
+      Pageable page);
+
+  @Query(fields = {"id", "contentHash", "size", "lastModified"})
+  public List<FileDTO> findByIdIn(Collection<String> ids);
+
+  /**
+   * The number of files referencing the content stored under the provided hash
+   */
+  public long countByContentHash(String contentHash);
 }
@@ -0,0 +1,27 @@
+package com.bc92.directoryservice.repo;
+
+import com.bc92.directoryservice.dto.NodeDTO;
+
+/**
+ * Paged listing of the nodes directly in a folder, declared by {@link DirectoryRepository}. Pages
+ * are read with a Solr cursor mark rather than an offset, so reading deep into a large folder
+ * costs the same as reading its first page.
+ *
+ * @author Brian
+ *
+ */
+public interface FolderListing {
+
+  /**
+   * The nodes whose parent is the provided folder, sorted by name and then id, which makes the
+   * sort unique as cursor marks require
+   *
+   * @param owner - name of the user who owns the folder
+   * @param folder - full path of the folder, not escaped
+   * @param cursorMark - cursor mark of the page, {@code *} for the first page
+   * @param rows - maximum number of nodes in the page
+   * @return CursorPage<NodeDTO> - the nodes of the page and the cursor mark of the next one
+   */
+  CursorPage<NodeDTO> findChildren(String owner, String folder, String cursorMark, int rows);
+
+}
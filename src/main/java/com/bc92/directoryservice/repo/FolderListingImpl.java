@@ -0,0 +1,48 @@
+package com.bc92.directoryservice.repo;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrQuery.ORDER;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.springframework.data.solr.core.SolrTemplate;
+import com.bc92.directoryservice.dto.NodeDTO;
+
+/**
+ * Implementation of {@link FolderListing}, found by the repository infrastructure by its name
+ *
+ * @author Brian
+ *
+ */
+public class FolderListingImpl implements FolderListing {
+
+  static final String[] FIELDS =
+      {"id", "type", "owner", "discriminator", "fullPath", "parentPath"};
+
+  private final SolrTemplate solrTemplate;
+
+  public FolderListingImpl(final SolrTemplate solrTemplate) {
+    this.solrTemplate = solrTemplate;
+  }
+
+  @Override
+  public CursorPage<NodeDTO> findChildren(final String owner, final String folder,
+      final String cursorMark, final int rows) {
+    return CursorQueries.execute(solrTemplate,
+        FolderListingImpl.childrenQuery(owner, folder, cursorMark, rows), NodeDTO.class);
+  }
+
+  static SolrQuery childrenQuery(final String owner, final String folder,
+      final String cursorMark, final int rows) {
+    String parent = folder;
+    while (parent.length() > 1 && parent.endsWith("/")) {
+      parent = parent.substring(0, parent.length() - 1);
+    }
+    // the parent path of a file may have been written with a trailing slash
+    SolrQuery query = new SolrQuery("owner:" + ClientUtils.escapeQueryChars(owner)
+        + " AND parentPath_str:(" + ClientUtils.escapeQueryChars(parent) + " OR "
+        + ClientUtils.escapeQueryChars(parent + "/") + ")");
+    query.setFields(FIELDS);
+    query.addSort("discriminator_str", ORDER.asc);
+    return CursorQueries.page(query, cursorMark, rows);
+  }
+
+}
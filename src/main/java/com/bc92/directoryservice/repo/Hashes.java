@@ -0,0 +1,38 @@
+package com.bc92.directoryservice.repo;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The SHA-256 content hashes blobs are stored by, computed as content is streamed
+ *
+ * @author Brian
+ *
+ */
+public final class Hashes {
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private Hashes() {}
+
+  public static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is required by every Java platform", e);
+    }
+  }
+
+  /**
+   * The lower case hex form of a digest, as content hashes are written
+   */
+  public static String toHex(final byte[] bytes) {
+    char[] hex = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+      hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(hex);
+  }
+
+}
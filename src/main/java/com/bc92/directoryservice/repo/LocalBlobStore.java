@@ -0,0 +1,229 @@
+package com.bc92.directoryservice.repo;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@link BlobStore} on the local filesystem.
+ * <p>
+ * Each blob is a file named by its hash. Files are sharded into two levels of directories taken
+ * from the first four hex characters of the hash, for example ab/cd/abcd..., so no directory holds
+ * more than a few thousand entries. Content is written to a temporary file under the same root,
+ * flushed to disk, and then renamed into place atomically. Readers never see a partially written
+ * blob, and a crash mid-write only leaves a temporary file behind.
+ * <p>
+ * Content that compresses well is stored gzipped, as hash.gz next to where the raw blob would be.
+ * Whether to compress is decided from the first block of the content, see {@link Compressibility},
+ * so already compressed formats are stored as they are. The hash is always that of the raw
+ * content.
+ *
+ * @author Brian
+ *
+ */
+@Component
+public class LocalBlobStore implements BlobStore {
+
+  private static final Logger logger = LoggerFactory.getLogger(LocalBlobStore.class);
+
+  private static final Pattern HASH_PATTERN = Pattern.compile("^[0-9a-f]{64}$");
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final String COMPRESSED_SUFFIX = ".gz";
+
+  private final Path root;
+
+  private final Path tmp;
+
+  public LocalBlobStore(@Value("${directory.blob.root:./blobs}") final String root)
+      throws IOException {
+    this.root = Paths.get(root).toAbsolutePath();
+    tmp = this.root.resolve("tmp");
+    Files.createDirectories(tmp);
+  }
+
+  @Override
+  public StoredBlob put(final InputStream content) throws IOException {
+    MessageDigest digest = Hashes.sha256();
+    Path partial = tmp.resolve(UUID.randomUUID().toString());
+    byte[] buffer = new byte[BUFFER_SIZE];
+
+    try {
+      int sampled = LocalBlobStore.readFully(content, buffer);
+      boolean compress = Compressibility.worthCompressing(buffer, sampled);
+      long size = sampled;
+
+      try (FileChannel channel =
+          FileChannel.open(partial, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+        OutputStream file = Channels.newOutputStream(channel);
+        OutputStream out = compress ? new FastGzipOutputStream(file) : file;
+        digest.update(buffer, 0, sampled);
+        out.write(buffer, 0, sampled);
+
+        int read;
+        while ((read = content.read(buffer)) != -1) {
+          digest.update(buffer, 0, read);
+          out.write(buffer, 0, read);
+          size += read;
+        }
+        if (compress) {
+          ((GZIPOutputStream) out).finish();
+        }
+        channel.force(true);
+      }
+
+      String hash = Hashes.toHex(digest.digest());
+      if (this.exists(hash)) {
+        logger.debug("Blob {} is already stored", hash);
+        return new StoredBlob(hash, size, true);
+      }
+
+      Path target = compress ? this.compressedPathOf(hash) : this.pathOf(hash);
+      Files.createDirectories(target.getParent());
+      this.moveIntoPlace(partial, target);
+      return new StoredBlob(hash, size);
+    } finally {
+      Files.deleteIfExists(partial);
+    }
+  }
+
+  @Override
+  public Resource get(final String hash) throws IOException {
+    Path blob = this.pathOf(hash);
+    if (Files.isRegularFile(blob)) {
+      return new FileSystemResource(blob);
+    }
+    Path compressed = this.compressedPathOf(hash);
+    if (Files.isRegularFile(compressed)) {
+      return new GzipBlobResource(compressed);
+    }
+    throw new FileNotFoundException("No blob stored for hash " + hash);
+  }
+
+  @Override
+  public Resource getCompressed(final String hash) {
+    Path compressed = this.compressedPathOf(hash);
+    return Files.isRegularFile(compressed) ? new FileSystemResource(compressed) : null;
+  }
+
+  @Override
+  public boolean exists(final String hash) {
+    return Files.isRegularFile(this.pathOf(hash))
+        || Files.isRegularFile(this.compressedPathOf(hash));
+  }
+
+  @Override
+  public boolean delete(final String hash) throws IOException {
+    boolean deleted = Files.deleteIfExists(this.pathOf(hash));
+    return Files.deleteIfExists(this.compressedPathOf(hash)) || deleted;
+  }
+
+  private void moveIntoPlace(final Path partial, final Path target) throws IOException {
+    try {
+      Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+    } catch (FileAlreadyExistsException e) {
+      // stored concurrently by another upload of the same content
+      logger.debug("Blob {} was stored concurrently", target.getFileName());
+    } catch (AtomicMoveNotSupportedException e) {
+      logger.warn("Atomic rename not supported under {}, falling back to a plain move", root);
+      try {
+        Files.move(partial, target);
+      } catch (FileAlreadyExistsException exists) {
+        logger.debug("Blob {} was stored concurrently", target.getFileName());
+      }
+    }
+  }
+
+  private Path pathOf(final String hash) {
+    if (hash == null || !HASH_PATTERN.matcher(hash).matches()) {
+      throw new IllegalArgumentException("Not a SHA-256 hex hash: " + hash);
+    }
+    return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+  }
+
+  private Path compressedPathOf(final String hash) {
+    Path blob = this.pathOf(hash);
+    return blob.resolveSibling(hash + COMPRESSED_SUFFIX);
+  }
+
+  /**
+   * Read from the stream until the buffer is full or the stream ends
+   *
+   * @return int - number of bytes read
+   */
+  private static int readFully(final InputStream content, final byte[] buffer)
+      throws IOException {
+    int filled = 0;
+    int read;
+    while (filled < buffer.length
+        && (read = content.read(buffer, filled, buffer.length - filled)) != -1) {
+      filled += read;
+    }
+    return filled;
+  }
+
+  /**
+   * Gzip stream favouring speed over ratio, content is compressed as it is uploaded
+   */
+  private static class FastGzipOutputStream extends GZIPOutputStream {
+
+    FastGzipOutputStream(final OutputStream out) throws IOException {
+      super(out, BUFFER_SIZE);
+      def.setLevel(Deflater.BEST_SPEED);
+    }
+  }
+
+  /**
+   * Content of a compressed blob, decompressed as it is read. It is not a file, so callers do not
+   * hand the compressed bytes out as the content. Its length is only known by reading it, the size
+   * recorded when the content was stored should be used instead.
+   */
+  private static class GzipBlobResource extends AbstractResource {
+
+    private final Path compressed;
+
+    GzipBlobResource(final Path compressed) {
+      this.compressed = compressed;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+      return new GZIPInputStream(Files.newInputStream(compressed), BUFFER_SIZE);
+    }
+
+    @Override
+    public boolean exists() {
+      return Files.isRegularFile(compressed);
+    }
+
+    @Override
+    public String getDescription() {
+      return "compressed blob [" + compressed + "]";
+    }
+  }
+
+}
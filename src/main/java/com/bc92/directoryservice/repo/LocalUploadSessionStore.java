@@ -0,0 +1,241 @@
+package com.bc92.directoryservice.repo;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+/**
+ * {@link UploadSessionStore} on the local file system. Each session is a directory named by its id,
+ * holding the session metadata and a file per chunk. Chunks are written to a partial file and
+ * renamed into place, so a chunk is either missing or complete.
+ *
+ * @author Brian
+ *
+ */
+@Component
+public class LocalUploadSessionStore implements UploadSessionStore {
+
+  private static final Logger logger = LoggerFactory.getLogger(LocalUploadSessionStore.class);
+
+  private static final Pattern ID_PATTERN =
+      Pattern.compile("^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$");
+
+  private static final String SESSION_FILE = "session.properties";
+
+  private static final String CHUNK_PREFIX = "chunk-";
+
+  private static final String PARTIAL_PREFIX = "partial-";
+
+  private static final String OWNER = "owner";
+
+  private static final String PARENT_PATH = "parentPath";
+
+  private static final String DISCRIMINATOR = "discriminator";
+
+  private final Path root;
+
+  public LocalUploadSessionStore(@Value("${directory.upload.root:./uploads}") final String root)
+      throws IOException {
+    this.root = Paths.get(root).toAbsolutePath();
+    Files.createDirectories(this.root);
+  }
+
+  @Override
+  public UploadSession create(final String owner, final String parentPath,
+      final String discriminator) throws IOException {
+    String id = UUID.randomUUID().toString();
+    Path dir = Files.createDirectory(root.resolve(id));
+
+    Properties session = new Properties();
+    session.setProperty(OWNER, owner);
+    session.setProperty(PARENT_PATH, parentPath);
+    session.setProperty(DISCRIMINATOR, discriminator);
+    try (Writer out = Files.newBufferedWriter(dir.resolve(SESSION_FILE), StandardCharsets.UTF_8)) {
+      session.store(out, null);
+    }
+    return this.get(id);
+  }
+
+  @Override
+  public UploadSession get(final String id) throws IOException {
+    if (id == null || !ID_PATTERN.matcher(id).matches()) {
+      return null;
+    }
+    Path file = this.pathOf(id).resolve(SESSION_FILE);
+    Properties session = new Properties();
+    try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      session.load(in);
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+    return new UploadSession(id, session.getProperty(OWNER), session.getProperty(PARENT_PATH),
+        session.getProperty(DISCRIMINATOR), Files.getLastModifiedTime(file).toInstant());
+  }
+
+  @Override
+  public void putChunk(final String id, final int index, final InputStream content)
+      throws IOException {
+    Path dir = this.pathOf(id);
+    Path session = dir.resolve(SESSION_FILE);
+    if (!Files.isRegularFile(session)) {
+      throw new FileNotFoundException("No upload session " + id);
+    }
+
+    Path partial = dir.resolve(PARTIAL_PREFIX + UUID.randomUUID());
+    try {
+      try (OutputStream out = Files.newOutputStream(partial, StandardOpenOption.CREATE_NEW)) {
+        StreamUtils.copy(content, out);
+      }
+      this.moveIntoPlace(partial, dir.resolve(CHUNK_PREFIX + index));
+      Files.setLastModifiedTime(session, FileTime.from(Instant.now()));
+    } finally {
+      Files.deleteIfExists(partial);
+    }
+  }
+
+  @Override
+  public SortedSet<Integer> getChunks(final String id) throws IOException {
+    SortedSet<Integer> chunks = new TreeSet<>();
+    try (DirectoryStream<Path> files =
+        Files.newDirectoryStream(this.pathOf(id), CHUNK_PREFIX + "*")) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        chunks.add(Integer.valueOf(name.substring(CHUNK_PREFIX.length())));
+      }
+    } catch (NoSuchFileException e) {
+      throw new FileNotFoundException("No upload session " + id);
+    }
+    return chunks;
+  }
+
+  @Override
+  public long getChunksSize(final String id, final int count) throws IOException {
+    Path dir = this.pathOf(id);
+    long size = 0;
+    for (int i = 0; i < count; i++) {
+      try {
+        size += Files.size(dir.resolve(CHUNK_PREFIX + i));
+      } catch (NoSuchFileException e) {
+        throw new FileNotFoundException("Upload session " + id + " is missing chunk " + i);
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public InputStream openChunks(final String id, final int count) throws IOException {
+    Path dir = this.pathOf(id);
+    for (int i = 0; i < count; i++) {
+      if (!Files.isRegularFile(dir.resolve(CHUNK_PREFIX + i))) {
+        throw new FileNotFoundException("Upload session " + id + " is missing chunk " + i);
+      }
+    }
+    return new SequenceInputStream(new Enumeration<InputStream>() {
+
+      private int next;
+
+      @Override
+      public boolean hasMoreElements() {
+        return next < count;
+      }
+
+      @Override
+      public InputStream nextElement() {
+        if (next >= count) {
+          throw new NoSuchElementException();
+        }
+        try {
+          return Files.newInputStream(dir.resolve(CHUNK_PREFIX + next++));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    });
+  }
+
+  @Override
+  public boolean delete(final String id) throws IOException {
+    Path dir = this.pathOf(id);
+    if (!Files.isDirectory(dir)) {
+      return false;
+    }
+    try (Stream<Path> files = Files.walk(dir)) {
+      for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.deleteIfExists(file);
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public List<UploadSession> findInactiveSince(final Instant cutoff) throws IOException {
+    List<UploadSession> inactive = new ArrayList<>();
+    try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root, Files::isDirectory)) {
+      for (Path dir : dirs) {
+        String id = dir.getFileName().toString();
+        if (!ID_PATTERN.matcher(id).matches()) {
+          continue;
+        }
+        UploadSession session = this.get(id);
+        if (session == null) {
+          // metadata not written yet, or already removed
+          continue;
+        }
+        if (session.getLastActive().isBefore(cutoff)) {
+          inactive.add(session);
+        }
+      }
+    }
+    return inactive;
+  }
+
+  private void moveIntoPlace(final Path partial, final Path target) throws IOException {
+    try {
+      Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException e) {
+      logger.warn("Atomic rename not supported under {}, falling back to a plain move", root);
+      Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private Path pathOf(final String id) {
+    if (id == null || !ID_PATTERN.matcher(id).matches()) {
+      throw new IllegalArgumentException("Not an upload session id: " + id);
+    }
+    return root.resolve(id);
+  }
+
+}
@@ -0,0 +1,287 @@
+package com.bc92.directoryservice.repo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import com.bc92.directoryservice.dto.FileDTO;
+import com.bc92.directoryservice.dto.NodeDTO;
+
+/**
+ * Writes that have been accepted by the {@link SolrWriteCoordinator} but may not be visible to
+ * queries yet, so callers still read their own writes. A write stays here from the moment it is
+ * accepted until the commit that makes it visible has passed.
+ * <p>
+ * Query results are merged with the pending writes: documents with a pending write are replaced by
+ * it, or dropped when it is a delete, and pending documents matching the query are added. Documents
+ * matched by a pending delete by query are dropped, unless they were written after it.
+ *
+ * @author Brian
+ *
+ */
+@Component
+public class PendingWrites {
+
+  private static final Logger logger = LoggerFactory.getLogger(PendingWrites.class);
+
+  private final Map<String, Write> writes = new ConcurrentHashMap<>();
+
+  private final AtomicLong sequence = new AtomicLong();
+
+  private final List<Callback> callbacks = new ArrayList<>();
+
+  /**
+   * Merge the result of a query with the pending writes
+   *
+   * @param found - documents returned by the query
+   * @param type - type of the documents, pending documents of other types are left out
+   * @param matches - the condition of the query, applied to the pending documents
+   * @return List<T> - the documents as they will be once the pending writes are visible
+   */
+  public <T extends NodeDTO> List<T> merge(final List<T> found, final Class<T> type,
+      final Predicate<? super T> matches) {
+    if (writes.isEmpty()) {
+      return found;
+    }
+    List<Write> queries = new ArrayList<>();
+    for (Write write : writes.values()) {
+      if (write.query != null) {
+        queries.add(write);
+      }
+    }
+
+    List<T> merged = new ArrayList<>(found.size());
+    for (T document : found) {
+      if (!writes.containsKey(PendingWrites.keyOf(document))
+          && !PendingWrites.deletedByQuery(document, 0, queries)) {
+        merged.add(document);
+      }
+    }
+    for (Write write : writes.values()) {
+      if (!write.deleted && type.isInstance(write.document)
+          && !PendingWrites.deletedByQuery(write.document, write.sequence, queries)
+          && matches.test(type.cast(write.document))) {
+        merged.add(type.cast(write.document));
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * Merge the result of a query for a single document with the pending writes
+   *
+   * @param found - document returned by the query, or null
+   * @param type - type of the document, pending documents of other types are left out
+   * @param matches - the condition of the query, applied to the pending documents
+   * @return T - the document as it will be once the pending writes are visible, or null
+   */
+  public <T extends NodeDTO> T mergeOne(final T found, final Class<T> type,
+      final Predicate<? super T> matches) {
+    if (writes.isEmpty()) {
+      return found;
+    }
+    List<T> merged = this.merge(found == null ? new ArrayList<>() : PendingWrites.listOf(found),
+        type, matches);
+    return merged.isEmpty() ? null : merged.get(0);
+  }
+
+  /**
+   * Whether a pending write saves or deletes a file document holding the provided content hash, or
+   * deletes by query, in which case a count of the documents referencing it is not reliable yet
+   */
+  public boolean references(final String contentHash) {
+    for (Write write : writes.values()) {
+      if (write.query != null) {
+        return true;
+      }
+      if (write.document instanceof FileDTO
+          && contentHash.equals(((FileDTO) write.document).getContentHash())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Run the provided task once every write pending now is visible. It runs on the thread that
+   * retires the writes, or on the caller if nothing is pending.
+   */
+  public void afterVisible(final Runnable task) {
+    long after = sequence.get();
+    synchronized (callbacks) {
+      if (!writes.isEmpty()) {
+        callbacks.add(new Callback(after, task));
+        return;
+      }
+    }
+    task.run();
+  }
+
+  /**
+   * Wait until every write pending now is visible
+   *
+   * @param timeoutMillis - how long to wait at most
+   * @return boolean - true if the writes are visible, false if the wait timed out
+   */
+  public boolean awaitVisible(final long timeoutMillis) throws InterruptedException {
+    CountDownLatch visible = new CountDownLatch(1);
+    this.afterVisible(visible::countDown);
+    return visible.await(timeoutMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public int size() {
+    return writes.size();
+  }
+
+  /**
+   * Record an accepted write, replacing any earlier write of the same document
+   */
+  Write accept(final NodeDTO document, final boolean deleted) {
+    Write write = new Write(PendingWrites.keyOf(document), document, deleted,
+        sequence.incrementAndGet());
+    writes.put(write.key, write);
+    return write;
+  }
+
+  /**
+   * Record an accepted delete by query, the provided condition matches the documents it deletes
+   */
+  Write acceptQuery(final Predicate<? super NodeDTO> query) {
+    long next = sequence.incrementAndGet();
+    Write write = new Write("query:" + next, query, next);
+    writes.put(write.key, write);
+    return write;
+  }
+
+  /**
+   * Whether the provided write is the latest write of its document
+   */
+  boolean isCurrent(final Write write) {
+    return writes.get(write.key) == write;
+  }
+
+  /**
+   * Record that the provided writes have been sent and will be visible at the provided time
+   */
+  void sent(final Collection<Write> sent, final long visibleAt) {
+    for (Write write : sent) {
+      write.visibleAt = visibleAt;
+    }
+  }
+
+  /**
+   * Forget the writes that are visible at the provided time, then run the tasks waiting for them
+   *
+   * @return int - number of retired writes
+   */
+  int retire(final long now) {
+    int retired = 0;
+    long oldest = Long.MAX_VALUE;
+    for (Iterator<Write> it = writes.values().iterator(); it.hasNext();) {
+      Write write = it.next();
+      if (write.visibleAt <= now) {
+        it.remove();
+        retired++;
+      } else {
+        oldest = Math.min(oldest, write.sequence);
+      }
+    }
+
+    List<Runnable> ready = new ArrayList<>();
+    synchronized (callbacks) {
+      for (Iterator<Callback> it = callbacks.iterator(); it.hasNext();) {
+        Callback callback = it.next();
+        if (callback.after < oldest) {
+          ready.add(callback.task);
+          it.remove();
+        }
+      }
+    }
+    for (Runnable task : ready) {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        logger.error("Task waiting for pending writes failed", e);
+      }
+    }
+    return retired;
+  }
+
+  private static String keyOf(final NodeDTO document) {
+    return document.getId() != null ? document.getId()
+        : document.getOwner() + ":" + document.getFullPath();
+  }
+
+  /**
+   * Whether a delete by query accepted after the provided sequence matches the provided document
+   */
+  private static boolean deletedByQuery(final NodeDTO document, final long after,
+      final List<Write> queries) {
+    for (Write query : queries) {
+      if (query.sequence > after && query.query.test(document)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static <T> List<T> listOf(final T document) {
+    List<T> list = new ArrayList<>(1);
+    list.add(document);
+    return list;
+  }
+
+  /**
+   * The latest write of a document, or a delete by query, which has no document. A write is sent
+   * once, it is visible from visibleAt.
+   */
+  static final class Write {
+
+    final String key;
+    final NodeDTO document;
+    final boolean deleted;
+    final Predicate<? super NodeDTO> query;
+    final long sequence;
+    volatile long visibleAt = Long.MAX_VALUE;
+
+    private Write(final String key, final NodeDTO document, final boolean deleted,
+        final long sequence) {
+      this.key = key;
+      this.document = document;
+      this.deleted = deleted;
+      query = null;
+      this.sequence = sequence;
+    }
+
+    private Write(final String key, final Predicate<? super NodeDTO> query, final long sequence) {
+      this.key = key;
+      document = null;
+      deleted = true;
+      this.query = query;
+      this.sequence = sequence;
+    }
+
+  }
+
+  private static final class Callback {
+
+    private final long after;
+    private final Runnable task;
+
+    private Callback(final long after, final Runnable task) {
+      this.after = after;
+      this.task = task;
+    }
+
+  }
+
+}
@@ -0,0 +1,443 @@
+package com.bc92.directoryservice.repo;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import javax.annotation.PreDestroy;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrInputDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.solr.core.SolrTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import com.bc92.directoryservice.dto.NodeDTO;
+import com.bc92.directoryservice.model.Path;
+import com.bc92.directoryservice.repo.PendingWrites.Write;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Groups the writes of the repositories into batches, so bulk activity does not send a request and
+ * a hard commit per document. Writes are buffered and sent when the buffer reaches the flush size,
+ * on the caller's thread, or when the flush interval passes. Writes are applied in the order they
+ * were accepted, so a batch is split after each delete by query. Each batch is sent with
+ * commitWithin the visibility window, so Solr makes it visible with a soft commit; durability is
+ * left to the transaction log and the autoCommit of the server.
+ * <p>
+ * Until a write is visible it is held in the {@link PendingWrites}, which callers merge into their
+ * query results. A batch that fails is put back into the buffer and retried after a delay that
+ * doubles with each failure, up to {@value #MAX_RETRY_DELAY_MILLIS}ms, so a write is never dropped
+ * while Solr is unavailable. A caller whose writes fill the buffer to the flush size only tries to
+ * send them, once accepted they are left to the retry rather than reported as failed. Once the
+ * buffer has no room for the writes of a caller, the caller waits for space, then fails without any
+ * of its writes being accepted.
+ *
+ * @author Brian
+ *
+ */
+@Component
+public class SolrWriteCoordinator implements MeterBinder {
+
+  private static final Logger logger = LoggerFactory.getLogger(SolrWriteCoordinator.class);
+
+  static final String COLLECTION = "directory";
+
+  static final long MIN_RETRY_DELAY_MILLIS = 250;
+
+  static final long MAX_RETRY_DELAY_MILLIS = 30000;
+
+  // soft commits are not instant, a new searcher is opened and warmed after commitWithin fires
+  private static final long COMMIT_GRACE_MILLIS = 1000;
+
+  private final CountingUpdateSolrClient updateClient;
+
+  private final SolrTemplate solrTemplate;
+
+  private final PendingWrites pendingWrites;
+
+  private final long visibilityWindow;
+
+  private final int flushSize;
+
+  private final int maxBuffered;
+
+  private final long bufferWait;
+
+  private final boolean ancestorsReady;
+
+  private final Map<String, Buffered> buffer = new LinkedHashMap<>();
+
+  private final Object flushLock = new Object();
+
+  // guarded by flushLock, no batch is sent before retryAt while Solr is failing
+  private long retryDelay;
+
+  private long retryAt;
+
+  private final AtomicLong sentWrites = new AtomicLong();
+
+  private final AtomicLong batches = new AtomicLong();
+
+  private final AtomicLong failedBatches = new AtomicLong();
+
+  private final AtomicLong rejectedWrites = new AtomicLong();
+
+  public SolrWriteCoordinator(final CountingUpdateSolrClient updateClient,
+      final SolrTemplate solrTemplate, final PendingWrites pendingWrites,
+      @Value("${directory.solr.visibility-window:1s}") final Duration visibilityWindow,
+      @Value("${directory.solr.flush-size:500}") final int flushSize,
+      @Value("${directory.solr.max-buffered:10000}") final int maxBuffered,
+      @Value("${directory.solr.buffer-wait:5s}") final Duration bufferWait,
+      @Value("${directory.index.ancestors-ready:false}") final boolean ancestorsReady) {
+    this.updateClient = updateClient;
+    this.solrTemplate = solrTemplate;
+    this.pendingWrites = pendingWrites;
+    this.visibilityWindow = visibilityWindow.toMillis();
+    this.flushSize = flushSize;
+    this.maxBuffered = maxBuffered;
+    this.bufferWait = bufferWait.toMillis();
+    this.ancestorsReady = ancestorsReady;
+  }
+
+  /**
+   * Accept documents to be saved, they are read back from the {@link PendingWrites} until visible
+   *
+   * @param documents - the documents to save
+   * @throws DataAccessResourceFailureException - if the buffer has no room for all of the
+   *         documents in time, in which case none of them is accepted
+   */
+  public void save(final Iterable<? extends NodeDTO> documents) {
+    this.accept(documents, false);
+  }
+
+  /**
+   * Accept documents to be deleted, by id
+   *
+   * @param documents - the documents to delete
+   * @throws DataAccessResourceFailureException - as for {@link #save(Iterable)}
+   */
+  public void delete(final Iterable<? extends NodeDTO> documents) {
+    this.accept(documents, true);
+  }
+
+  /**
+   * Accept a delete of the node at the provided path and every node below it, of any type, sent as
+   * a single delete by query. The nodes below are matched by their indexed ancestors once
+   * directory.index.ancestors-ready is set, otherwise by a wildcard on their full path.
+   *
+   * @param owner - name of the user who owns the nodes
+   * @param fullPath - full path of the top node to delete
+   * @throws DataAccessResourceFailureException - as for {@link #save(Iterable)}
+   */
+  public void deleteSubtree(final String owner, final String fullPath) {
+    String top = SolrWriteCoordinator.trimTrailingSlashes(fullPath);
+    String below = top + "/";
+    String query = SolrWriteCoordinator.subtreeQuery(owner, top, ancestorsReady);
+    Predicate<NodeDTO> matches = node -> owner.equals(node.getOwner()) && node.getFullPath() != null
+        && (Path.pathsAreEqual(node.getFullPath(), top) || node.getFullPath().startsWith(below));
+
+    int buffered;
+    synchronized (buffer) {
+      this.awaitSpace(1, System.currentTimeMillis() + bufferWait);
+      Write write = pendingWrites.acceptQuery(matches);
+      buffer.put(write.key, new Buffered(write, query));
+      buffered = buffer.size();
+    }
+    if (buffered >= flushSize) {
+      this.trySend(false);
+    }
+  }
+
+  /**
+   * Query for the node at the provided path, without trailing slashes, and every node below it
+   */
+  static String subtreeQuery(final String owner, final String top, final boolean ancestorsReady) {
+    String escaped = ClientUtils.escapeQueryChars(top);
+    String nodesBelow = ancestorsReady ? "ancestors_str:" + escaped
+        : "fullPath_str:" + ClientUtils.escapeQueryChars(top + "/") + "*";
+    return "owner:" + ClientUtils.escapeQueryChars(owner) + " AND (fullPath_str:" + escaped
+        + " OR " + nodesBelow + ")";
+  }
+
+  /**
+   * Send the buffered writes and wait until every write accepted so far is visible, for callers
+   * that query Solr directly right after writing
+   *
+   * @throws DataAccessResourceFailureException - if the writes cannot be sent
+   */
+  public void sync() {
+    this.flush();
+    try {
+      if (!pendingWrites.awaitVisible(visibilityWindow + COMMIT_GRACE_MILLIS * 10)) {
+        logger.warn("Timed out waiting for pending writes to become visible");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Send the buffered writes, unless a failed batch is waiting for its retry, and forget the writes
+   * that have become visible
+   */
+  @Scheduled(fixedDelayString = "${directory.solr.flush-interval:PT0.2S}")
+  public void tick() {
+    this.trySend(false);
+    pendingWrites.retire(System.currentTimeMillis());
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (!this.trySend(true)) {
+      logger.error("Failed to send {} buffered writes before shutdown", this.buffered());
+    }
+  }
+
+  /**
+   * Send the buffered writes, as one update request up to and including each delete by query
+   *
+   * @throws DataAccessResourceFailureException - if a batch fails, or a failed batch is waiting for
+   *         its retry, the writes stay buffered
+   */
+  public void flush() {
+    if (!this.trySend(false)) {
+      throw new DataAccessResourceFailureException(
+          "Solr is not accepting updates, " + this.buffered() + " writes are buffered for retry");
+    }
+  }
+
+  @Override
+  public void bindTo(final MeterRegistry registry) {
+    FunctionCounter.builder("directory.solr.writes", sentWrites, AtomicLong::get)
+        .description("Documents saved or deleted in Solr").register(registry);
+    FunctionCounter.builder("directory.solr.batches", batches, AtomicLong::get)
+        .description("Update requests sent to Solr").register(registry);
+    FunctionCounter.builder("directory.solr.batches.failed", failedBatches, AtomicLong::get)
+        .description("Update requests that failed and were retried").register(registry);
+    FunctionCounter.builder("directory.solr.writes.rejected", rejectedWrites, AtomicLong::get)
+        .description("Writes refused because the buffer was full").register(registry);
+    Gauge.builder("directory.solr.writes.pending", pendingWrites, PendingWrites::size)
+        .description("Writes not yet visible to queries").register(registry);
+    Gauge.builder("directory.solr.writes.buffered", this, SolrWriteCoordinator::buffered)
+        .description("Writes accepted but not yet sent").register(registry);
+  }
+
+  /**
+   * Send the buffered writes, batch by batch. A failed batch and the writes after it are put back
+   * into the buffer, and the next attempt is delayed.
+   *
+   * @param ignoreDelay - whether to send even if a failed batch is waiting for its retry
+   * @return boolean - true if every buffered write was sent
+   */
+  private boolean trySend(final boolean ignoreDelay) {
+    synchronized (flushLock) {
+      if (!ignoreDelay && System.currentTimeMillis() < retryAt) {
+        return false;
+      }
+      List<Buffered> pending;
+      synchronized (buffer) {
+        if (buffer.isEmpty()) {
+          return true;
+        }
+        pending = new ArrayList<>(buffer.values());
+        buffer.clear();
+        buffer.notifyAll();
+      }
+
+      int next = 0;
+      while (next < pending.size()) {
+        // Solr applies the adds of a request before its deletes, so writes accepted after a delete
+        // by query go into the next request
+        int end = next + 1;
+        while (end < pending.size() && pending.get(end - 1).deleteQuery == null) {
+          end++;
+        }
+        if (!this.send(pending.subList(next, end))) {
+          this.requeue(pending.subList(next, pending.size()));
+          retryDelay = Math.min(Math.max(retryDelay * 2, MIN_RETRY_DELAY_MILLIS),
+              MAX_RETRY_DELAY_MILLIS);
+          retryAt = System.currentTimeMillis() + retryDelay;
+          logger.warn("Retrying {} writes in {}ms", pending.size() - next, retryDelay);
+          return false;
+        }
+        next = end;
+      }
+      retryDelay = 0;
+      retryAt = 0;
+      return true;
+    }
+  }
+
+  /**
+   * Send one batch and wait until the update client has sent it
+   *
+   * @return boolean - true if the batch was sent
+   */
+  private boolean send(final List<Buffered> batch) {
+    UpdateRequest request = new UpdateRequest();
+    List<Write> sent = new ArrayList<>(batch.size());
+    for (Buffered buffered : batch) {
+      if (buffered.deleteQuery != null) {
+        request.deleteByQuery(buffered.deleteQuery);
+      } else if (buffered.write.deleted) {
+        request.deleteById(buffered.write.document.getId());
+      } else {
+        request.add(buffered.document);
+      }
+      sent.add(buffered.write);
+    }
+    request.setCommitWithin((int) visibilityWindow);
+
+    long errors = updateClient.getErrorCount();
+    try {
+      request.process(updateClient, COLLECTION);
+      updateClient.blockUntilFinished();
+      if (updateClient.getErrorCount() != errors) {
+        throw new IOException("Update client reported a failed update");
+      }
+    } catch (IOException | SolrServerException | RuntimeException e) {
+      failedBatches.incrementAndGet();
+      logger.error("Failed to send {} writes to Solr", batch.size(), e);
+      return false;
+    }
+
+    pendingWrites.sent(sent, System.currentTimeMillis() + visibilityWindow + COMMIT_GRACE_MILLIS);
+    sentWrites.addAndGet(sent.size());
+    batches.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Buffer the writes of one caller, all of them or none. A failure to send them once they are
+   * buffered is left to the retry, the caller has already been answered by then.
+   */
+  private void accept(final Iterable<? extends NodeDTO> documents, final boolean deleted) {
+    List<NodeDTO> accepted = new ArrayList<>();
+    List<SolrInputDocument> converted = new ArrayList<>();
+    for (NodeDTO document : documents) {
+      if (deleted && document.getId() == null) {
+        logger.warn("Ignoring delete of {} without an id", document.getFullPath());
+        continue;
+      }
+      accepted.add(document);
+      // converted now, so later changes to the document are not sent until it is saved again
+      SolrInputDocument solrDocument = null;
+      if (!deleted) {
+        document.indexPath();
+        solrDocument = new SolrInputDocument();
+        solrTemplate.getConverter().write(document, solrDocument);
+      }
+      converted.add(solrDocument);
+    }
+
+    int buffered;
+    synchronized (buffer) {
+      this.awaitSpace(accepted.size(), System.currentTimeMillis() + bufferWait);
+      for (int i = 0; i < accepted.size(); i++) {
+        Write write = pendingWrites.accept(accepted.get(i), deleted);
+        buffer.remove(write.key);
+        buffer.put(write.key, new Buffered(write, converted.get(i)));
+      }
+      buffered = buffer.size();
+    }
+
+    if (buffered >= flushSize) {
+      this.trySend(false);
+    }
+  }
+
+  /**
+   * Put the writes that were not sent back into the buffer, unless they have been overwritten since.
+   * They go before the writes accepted meanwhile, so the order of the writes is kept.
+   *
+   * @param unsent - the writes that were not sent, in the order they were accepted
+   */
+  private void requeue(final List<Buffered> unsent) {
+    synchronized (buffer) {
+      Map<String, Buffered> newer = new LinkedHashMap<>(buffer);
+      buffer.clear();
+      for (Buffered buffered : unsent) {
+        Write write = buffered.write;
+        if (pendingWrites.isCurrent(write) && !newer.containsKey(write.key)) {
+          buffer.put(write.key, buffered);
+        }
+      }
+      buffer.putAll(newer);
+    }
+  }
+
+  /**
+   * Wait until the buffer has room for the provided number of writes, called holding the buffer
+   * lock. More writes than the buffer holds are let into an empty buffer.
+   *
+   * @param writes - number of writes to buffer
+   * @param deadline - time after which the writes are refused
+   */
+  private void awaitSpace(final int writes, final long deadline) {
+    while (!buffer.isEmpty() && buffer.size() + writes > maxBuffered) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        rejectedWrites.addAndGet(writes);
+        throw new DataAccessResourceFailureException(
+            "Solr is not keeping up, " + buffer.size() + " writes are buffered");
+      }
+      try {
+        buffer.wait(remaining);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new DataAccessResourceFailureException("Interrupted waiting to buffer a write", e);
+      }
+    }
+  }
+
+  private int buffered() {
+    synchronized (buffer) {
+      return buffer.size();
+    }
+  }
+
+  private static String trimTrailingSlashes(final String fullPath) {
+    int end = fullPath.length();
+    while (end > 1 && fullPath.charAt(end - 1) == '/') {
+      end--;
+    }
+    return fullPath.substring(0, end);
+  }
+
+  /**
+   * A buffered write with the document converted for Solr, null for a delete, or the query of a
+   * delete by query
+   */
+  private static final class Buffered {
+
+    private final Write write;
+    private final SolrInputDocument document;
+    private final String deleteQuery;
+
+    private Buffered(final Write write, final SolrInputDocument document) {
+      this.write = write;
+      this.document = document;
+      deleteQuery = null;
+    }
+
+    private Buffered(final Write write, final String deleteQuery) {
+      this.write = write;
+      document = null;
+      this.deleteQuery = deleteQuery;
+    }
+
+  }
+
+}
@@ -0,0 +1,32 @@
+package com.bc92.directoryservice.repo;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Reference to content held by a {@link BlobStore}
+ *
+ * @author Brian
+ *
+ */
+@Getter
+@AllArgsConstructor
+public class StoredBlob {
+
+  /**
+   * Lowercase hex SHA-256 of the content, which is also its key in the store
+   */
+  private final String hash;
+
+  private final long size;
+
+  /**
+   * Whether the content was already stored, so nothing new was written
+   */
+  private final boolean duplicate;
+
+  public StoredBlob(final String hash, final long size) {
+    this(hash, size, false);
+  }
+
+}
@@ -0,0 +1,30 @@
+package com.bc92.directoryservice.repo;
+
+import java.time.Instant;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * An upload whose content is being received in chunks, held by an {@link UploadSessionStore}
+ *
+ * @author Brian
+ *
+ */
+@Getter
+@AllArgsConstructor
+public class UploadSession {
+
+  private final String id;
+
+  private final String owner;
+
+  private final String parentPath;
+
+  private final String discriminator;
+
+  /**
+   * When the session was created or last received a chunk
+   */
+  private final Instant lastActive;
+
+}
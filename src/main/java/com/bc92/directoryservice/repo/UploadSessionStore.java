@@ -0,0 +1,75 @@
+package com.bc92.directoryservice.repo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.List;
+import java.util.SortedSet;
+
+/**
+ * Store for the chunks of upload sessions, until they are committed to the {@link BlobStore}.
+ * Chunks are numbered from 0 and can be written in any order and concurrently, writing a chunk
+ * again replaces it.
+ *
+ * @author Brian
+ *
+ */
+public interface UploadSessionStore {
+
+  /**
+   * Start a session for a file to be uploaded
+   *
+   * @return UploadSession - the new session, holding no chunks
+   * @throws IOException - if the session could not be written
+   */
+  UploadSession create(String owner, String parentPath, String discriminator) throws IOException;
+
+  /**
+   * The session with the provided id
+   *
+   * @return UploadSession - the session, or null if there is no such session
+   * @throws IOException - if the session could not be read
+   */
+  UploadSession get(String id) throws IOException;
+
+  /**
+   * Store a chunk of the session, marking the session as active
+   *
+   * @param content - stream of the chunk, read to the end but not closed
+   * @throws IOException - if there is no such session or the chunk could not be written
+   */
+  void putChunk(String id, int index, InputStream content) throws IOException;
+
+  /**
+   * The indexes of the chunks received by the session
+   */
+  SortedSet<Integer> getChunks(String id) throws IOException;
+
+  /**
+   * Total size in bytes of the first count chunks of the session
+   *
+   * @throws IOException - if any of the chunks is missing
+   */
+  long getChunksSize(String id, int count) throws IOException;
+
+  /**
+   * Open the first count chunks of the session as one stream, in order. Chunks are opened as the
+   * stream reaches them.
+   *
+   * @throws IOException - if any of the chunks is missing
+   */
+  InputStream openChunks(String id, int count) throws IOException;
+
+  /**
+   * Remove the session and its chunks
+   *
+   * @return boolean - true if the session existed
+   */
+  boolean delete(String id) throws IOException;
+
+  /**
+   * The sessions that have not been active since the provided instant
+   */
+  List<UploadSession> findInactiveSince(Instant cutoff) throws IOException;
+
+}
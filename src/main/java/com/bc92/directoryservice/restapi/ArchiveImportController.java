@@ -0,0 +1,52 @@
+package com.bc92.directoryservice.restapi;
+
+import javax.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import com.bc92.directoryservice.service.ArchiveImportService;
+import com.bc92.directoryservice.service.ImportStatus;
+import com.bc92.projectsdk.constants.DirectoryServiceConstants;
+import lombok.AllArgsConstructor;
+
+@RestController
+@AllArgsConstructor
+public class ArchiveImportController {
+
+  static final String IMPORT_API_PATH = DirectoryServiceConstants.FOLDER_API_PATH + "/import";
+
+  private static final Logger logger = LoggerFactory.getLogger(ArchiveImportController.class);
+
+  private final ArchiveImportService archiveImportService;
+
+
+  /**
+   * The body of the request is the raw archive, it is received before the import is queued, so
+   * the status of the import can be polled as soon as this returns
+   */
+  @PostMapping(IMPORT_API_PATH)
+  @ResponseStatus(HttpStatus.ACCEPTED)
+  @ResponseBody
+  public ImportStatus importArchive(@RequestParam final String folder,
+      final HttpServletRequest request, final Authentication auth) {
+    logger.trace(">><< importArchive()");
+    return archiveImportService.start(folder, request::getInputStream, auth.getName());
+  }
+
+  @GetMapping(IMPORT_API_PATH + "/{importId}")
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  public ImportStatus getImport(@PathVariable final String importId, final Authentication auth) {
+    logger.trace(">><< getImport()");
+    return archiveImportService.getStatus(importId, auth.getName());
+  }
+
+}
@@ -2,12 +2,11 @@ package com.bc92.directoryservice.restapi;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.http.HttpStatus;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
-import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import com.bc92.directoryservice.model.Directory;
 import com.bc92.directoryservice.service.DirectoryService;
 import com.bc92.projectsdk.constants.DirectoryServiceConstants;
@@ -30,17 +29,21 @@ public class DirectoryController {
 
   /**
    * Gets the authenticating user's directory, returns only the root if directory has not been
-   * populated
+   * populated. Answers 304 when the client holds the current version of the directory.
    *
    * @param auth - Authentication object of current user
-   * @return Directory - the directory excluding fileBytes
+   * @param webRequest - the request, checked against the version of the directory
+   * @return Directory - the directory excluding fileBytes, null when not modified
    */
   @GetMapping(DirectoryServiceConstants.DIRECTORY_API_PATH)
-  @ResponseStatus(HttpStatus.OK)
   @ResponseBody
-  public Directory getUserDirectory(final Authentication auth) {
+  public Directory getUserDirectory(final Authentication auth, final WebRequest webRequest) {
     logger.trace(">><< getUserDirectory()");
-    return directoryService.getUserDirectory(auth.getName());
+    Directory directory = directoryService.getUserDirectory(auth.getName());
+    if (webRequest.checkNotModified(directory.getETag(), directory.getLastModified())) {
+      return null;
+    }
+    return directory;
   }
 
 }
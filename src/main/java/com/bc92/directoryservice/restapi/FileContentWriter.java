@@ -0,0 +1,278 @@
+package com.bc92.directoryservice.restapi;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourceRegion;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+import com.bc92.directoryservice.service.FileContent;
+
+/**
+ * Writes file content to the response, honouring conditional requests, Range and If-Range. The
+ * entity tag of content is its hash, so a client holding a current copy gets a 304 without the
+ * content being opened. Content backed by a
+ * local file is handed to the container's sendfile support where it is available, so the bytes are
+ * copied by the kernel and never pass through the heap. Content stored compressed is sent as it is
+ * stored to clients accepting gzip, with its own entity tag.
+ *
+ * @author Brian
+ *
+ */
+final class FileContentWriter {
+
+  static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+  static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+  static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+  static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+  private static final String BYTES = "bytes";
+
+  private static final String GZIP = "gzip";
+
+  private static final String GZIP_ETAG_SUFFIX = "-gzip\"";
+
+  private FileContentWriter() {}
+
+  /**
+   * Write the provided content, or the requested ranges of it, to the response
+   */
+  static void write(final FileContent content, final HttpServletRequest request,
+      final HttpServletResponse response) throws IOException {
+    Resource resource = content.getResource();
+    long length = content.getSize();
+    String eTag = "\"" + content.getContentHash() + "\"";
+    MediaType contentType = MediaTypeFactory.getMediaType(content.getDiscriminator())
+        .orElse(MediaType.APPLICATION_OCTET_STREAM);
+
+    response.setHeader(HttpHeaders.ACCEPT_RANGES, BYTES);
+    String range = request.getHeader(HttpHeaders.RANGE);
+
+    Resource gzip = content.getGzipResource();
+    // ranges are served from the identity encoding, their offsets are those of the content
+    boolean sendGzip = gzip != null && range == null
+        && acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+    if (gzip != null) {
+      response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    }
+
+    // sets the validators, and answers 304 without reading the content when they match
+    String representationTag =
+        sendGzip ? "\"" + content.getContentHash() + GZIP_ETAG_SUFFIX : eTag;
+    if (new ServletWebRequest(request, response).checkNotModified(representationTag,
+        content.getLastModified())) {
+      return;
+    }
+
+    if (sendGzip) {
+      long gzipLength = gzip.contentLength();
+      response.setHeader(HttpHeaders.CONTENT_ENCODING, GZIP);
+      response.setContentType(contentType.toString());
+      response.setContentLengthLong(gzipLength);
+      if (!isHead(request)) {
+        send(gzip, 0, gzipLength, request, response);
+      }
+      return;
+    }
+
+    if (range == null || !ifRangeMatches(request, eTag, content.getLastModified())) {
+      response.setContentType(contentType.toString());
+      response.setContentLengthLong(length);
+      if (!isHead(request)) {
+        send(resource, 0, length, request, response);
+      }
+      return;
+    }
+
+    List<ResourceRegion> regions;
+    try {
+      regions = regionsOf(HttpRange.parseRanges(range), resource, length);
+    } catch (IllegalArgumentException e) {
+      response.setHeader(HttpHeaders.CONTENT_RANGE, BYTES + " */" + length);
+      response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+      return;
+    }
+
+    response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+    if (regions.size() == 1) {
+      ResourceRegion region = regions.get(0);
+      response.setContentType(contentType.toString());
+      response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(region, length));
+      response.setContentLengthLong(region.getCount());
+      if (!isHead(request)) {
+        send(resource, region.getPosition(), region.getCount(), request, response);
+      }
+      return;
+    }
+
+    String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+    response.setContentType("multipart/byteranges; boundary=" + boundary);
+    if (isHead(request)) {
+      return;
+    }
+
+    OutputStream out = response.getOutputStream();
+    for (ResourceRegion region : regions) {
+      print(out, "\r\n--" + boundary + "\r\n");
+      print(out, HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n");
+      print(out, HttpHeaders.CONTENT_RANGE + ": " + contentRange(region, length) + "\r\n\r\n");
+      copy(resource, region.getPosition(), region.getCount(), out);
+    }
+    print(out, "\r\n--" + boundary + "--");
+  }
+
+  /**
+   * A range is only served when the If-Range validator, if any, is the current entity tag or the
+   * exact last modification date of the content
+   */
+  private static boolean ifRangeMatches(final HttpServletRequest request, final String eTag,
+      final long lastModified) {
+    String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+    if (ifRange == null) {
+      return true;
+    }
+    ifRange = ifRange.trim();
+    if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+      return ifRange.equals(eTag);
+    }
+    if (lastModified < 0) {
+      return false;
+    }
+    try {
+      // dates carry whole seconds
+      return request.getDateHeader(HttpHeaders.IF_RANGE) / 1000 == lastModified / 1000;
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Whether the Accept-Encoding header allows gzip, either by name or through a wildcard, with a
+   * non-zero quality
+   */
+  static boolean acceptsGzip(final String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    Boolean wildcard = null;
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.split(";");
+      String name = parts[0].trim().toLowerCase(Locale.ROOT);
+      boolean accepted = true;
+      for (int i = 1; i < parts.length; i++) {
+        String param = parts[i].trim();
+        if (param.startsWith("q=")) {
+          try {
+            accepted = Double.parseDouble(param.substring(2)) > 0;
+          } catch (NumberFormatException e) {
+            accepted = false;
+          }
+        }
+      }
+      if (GZIP.equals(name) || "x-gzip".equals(name)) {
+        return accepted;
+      }
+      if ("*".equals(name)) {
+        wildcard = accepted;
+      }
+    }
+    return Boolean.TRUE.equals(wildcard);
+  }
+
+  /**
+   * The regions of the requested ranges, bounded by the size recorded for the content. Unlike
+   * {@link HttpRange#toResourceRegions}, the resource is never asked for its length, which a
+   * compressed blob only knows by inflating all of it.
+   *
+   * @throws IllegalArgumentException - if a range starts past the content, or several ranges
+   *         together are not smaller than it
+   */
+  private static List<ResourceRegion> regionsOf(final List<HttpRange> ranges,
+      final Resource resource, final long length) {
+    List<ResourceRegion> regions = new ArrayList<>(ranges.size());
+    long total = 0;
+    for (HttpRange range : ranges) {
+      long start = range.getRangeStart(length);
+      if (start >= length) {
+        throw new IllegalArgumentException("The range starts past the content: " + range);
+      }
+      long count = range.getRangeEnd(length) - start + 1;
+      regions.add(new ResourceRegion(resource, start, count));
+      total += count;
+    }
+    if (ranges.size() > 1 && total >= length) {
+      throw new IllegalArgumentException("The sum of all ranges is not smaller than the content");
+    }
+    return regions;
+  }
+
+  private static boolean isHead(final HttpServletRequest request) {
+    return HttpMethod.HEAD.matches(request.getMethod());
+  }
+
+  private static String contentRange(final ResourceRegion region, final long length) {
+    long start = region.getPosition();
+    return BYTES + " " + start + "-" + (start + region.getCount() - 1) + "/" + length;
+  }
+
+  /**
+   * Send a single region, through sendfile when the container supports it and the content is a
+   * local file
+   */
+  private static void send(final Resource resource, final long position, final long count,
+      final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+    if (resource.isFile() && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+      request.setAttribute(SENDFILE_FILENAME, resource.getFile().getAbsolutePath());
+      request.setAttribute(SENDFILE_START, position);
+      request.setAttribute(SENDFILE_END, position + count);
+      return;
+    }
+    copy(resource, position, count, response.getOutputStream());
+  }
+
+  private static void copy(final Resource resource, final long position, final long count,
+      final OutputStream out) throws IOException {
+    if (resource.isFile()) {
+      WritableByteChannel target = Channels.newChannel(out);
+      try (FileChannel channel =
+          FileChannel.open(resource.getFile().toPath(), StandardOpenOption.READ)) {
+        long sent = 0;
+        while (sent < count) {
+          long transferred = channel.transferTo(position + sent, count - sent, target);
+          if (transferred == 0 && position + sent >= channel.size()) {
+            throw new EOFException("File content ended before " + count + " bytes were sent");
+          }
+          sent += transferred;
+        }
+      }
+      return;
+    }
+    try (InputStream in = resource.getInputStream()) {
+      StreamUtils.copyRange(in, out, position, position + count - 1);
+    }
+  }
+
+  private static void print(final OutputStream out, final String text) throws IOException {
+    out.write(text.getBytes(StandardCharsets.US_ASCII));
+  }
+
+}
@@ -1,9 +1,12 @@
 package com.bc92.directoryservice.restapi;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.Resource;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -18,6 +21,7 @@ import org.springframework.web.multipart.MultipartFile;
 import com.bc92.directoryservice.service.File;
 import com.bc92.directoryservice.service.FileService;
 import com.bc92.directoryservice.service.ReadFile;
+import com.bc92.directoryservice.service.UploadResult;
 import com.bc92.projectsdk.constants.DirectoryServiceConstants;
 import lombok.AllArgsConstructor;
 
@@ -25,6 +29,8 @@ import lombok.AllArgsConstructor;
 @AllArgsConstructor
 public class FileController {
 
+  static final String BATCH_API_PATH = DirectoryServiceConstants.FILE_API_PATH + "/batch";
+
   private static final Logger logger = LoggerFactory.getLogger(FileController.class);
 
   private final FileService fileService;
@@ -34,28 +40,46 @@ public class FileController {
   @ResponseStatus(HttpStatus.CREATED)
   @ResponseBody
   public void uploadFile(@RequestParam(value = "file") final MultipartFile file,
-      @RequestParam final String parentPath, final Authentication auth) throws IOException {
+      @RequestParam final String parentPath,
+      @RequestParam(required = false) final String contentHash, final Authentication auth) {
     logger.trace(">><< uploadFile()");
-    fileService.uploadFile(new File(parentPath, file.getOriginalFilename(), file.getBytes()),
+    File upload = new File(parentPath, file.getOriginalFilename(), file);
+    upload.setContentHash(contentHash);
+    fileService.uploadFile(upload, auth.getName());
+  }
+
+  /**
+   * Upload many files in one request, each part named by the path of its file relative to
+   * parentPath. Every part gets its own result, so the response is multi-status.
+   */
+  @PostMapping(path = BATCH_API_PATH, consumes = {"multipart/form-data"})
+  @ResponseStatus(HttpStatus.MULTI_STATUS)
+  @ResponseBody
+  public List<UploadResult> uploadFiles(
+      @RequestParam(value = "file") final List<MultipartFile> files,
+      @RequestParam final String parentPath, final Authentication auth) {
+    logger.trace(">><< uploadFiles()");
+    return fileService.uploadFiles(parentPath,
+        files.stream().map(MultipartFile::getResource).collect(Collectors.toList()),
         auth.getName());
   }
 
   @GetMapping(DirectoryServiceConstants.FILE_API_PATH)
-  @ResponseStatus(HttpStatus.OK)
-  @ResponseBody
-  public Resource readFile(@RequestParam final String fullPath, final Authentication auth) {
+  public void readFile(@RequestParam final String fullPath, final Authentication auth,
+      final HttpServletRequest request, final HttpServletResponse response) throws IOException {
     logger.trace(">><< readFile()");
-    return fileService.readFile(fullPath, auth.getName());
+    FileContentWriter.write(fileService.readFile(fullPath, auth.getName()), request, response);
   }
 
   @PutMapping(DirectoryServiceConstants.FILE_API_PATH)
   @ResponseStatus(HttpStatus.OK)
   @ResponseBody
   public ReadFile updateFile(final MultipartFile file, @RequestParam final String parentPath,
-      final Authentication auth) throws IOException {
+      @RequestParam(required = false) final String contentHash, final Authentication auth) {
     logger.trace(">><< updateFolder()");
-    return fileService.updateFile(new File(parentPath, file.getOriginalFilename(), file.getBytes()),
-        auth.getName());
+    File update = new File(parentPath, file.getOriginalFilename(), file);
+    update.setContentHash(contentHash);
+    return fileService.updateFile(update, auth.getName());
   }
 
   @DeleteMapping(DirectoryServiceConstants.FILE_API_PATH)
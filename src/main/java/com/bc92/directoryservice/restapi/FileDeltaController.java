@@ -0,0 +1,56 @@
+package com.bc92.directoryservice.restapi;
+
+import javax.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import com.bc92.directoryservice.service.BlockSignatures;
+import com.bc92.directoryservice.service.FileDeltaService;
+import com.bc92.directoryservice.service.ReadFile;
+import com.bc92.projectsdk.constants.DirectoryServiceConstants;
+import lombok.AllArgsConstructor;
+
+@RestController
+@AllArgsConstructor
+public class FileDeltaController {
+
+  static final String DELTA_API_PATH = DirectoryServiceConstants.FILE_API_PATH + "/delta";
+
+  private static final Logger logger = LoggerFactory.getLogger(FileDeltaController.class);
+
+  private final FileDeltaService fileDeltaService;
+
+
+  @GetMapping(DELTA_API_PATH)
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  public BlockSignatures getSignatures(@RequestParam final String fullPath,
+      final Authentication auth) {
+    logger.trace(">><< getSignatures()");
+    return fileDeltaService.getSignatures(fullPath, auth.getName());
+  }
+
+  /**
+   * The body of the request is the raw delta, the new content is rebuilt as it is streamed to the
+   * blob store
+   */
+  @PutMapping(DELTA_API_PATH)
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  public ReadFile applyDelta(@RequestParam final String fullPath,
+      @RequestParam final String baseHash,
+      @RequestParam(required = false) final String contentHash, final HttpServletRequest request,
+      final Authentication auth) {
+    logger.trace(">><< applyDelta()");
+    return fileDeltaService.applyDelta(fullPath, baseHash, request::getInputStream, contentHash,
+        auth.getName());
+  }
+
+}
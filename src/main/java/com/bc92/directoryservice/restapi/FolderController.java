@@ -1,7 +1,12 @@
 package com.bc92.directoryservice.restapi;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -12,8 +17,12 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import com.bc92.directoryservice.model.Directory;
 import com.bc92.directoryservice.service.DirectoryService;
 import com.bc92.directoryservice.service.Folder;
+import com.bc92.directoryservice.service.FolderArchive;
+import com.bc92.directoryservice.service.FolderArchiveService;
 import com.bc92.directoryservice.service.ReadFolder;
 import com.bc92.projectsdk.constants.DirectoryServiceConstants;
 import lombok.AllArgsConstructor;
@@ -24,8 +33,12 @@ public class FolderController {
 
   private static final Logger logger = LoggerFactory.getLogger(FolderController.class);
 
+  static final String ZIP_API_PATH = DirectoryServiceConstants.FOLDER_API_PATH + "/zip";
+
   private final DirectoryService directoryService;
 
+  private final FolderArchiveService folderArchiveService;
+
 
   @PostMapping(DirectoryServiceConstants.FOLDER_API_PATH)
   @ResponseStatus(HttpStatus.CREATED)
@@ -36,12 +49,40 @@ public class FolderController {
     return directoryService.createFolder(createFolder, auth.getName());
   }
 
+  /**
+   * Read a page of a folder, answering 304 when the directory has not changed since the client's
+   * copy. The tag is only checked when the directory is cached, so listing a folder never loads the
+   * whole directory. It is taken before the folder is read, so the body is never older than the tag
+   * sent with it.
+   */
   @GetMapping(DirectoryServiceConstants.FOLDER_API_PATH)
-  @ResponseStatus(HttpStatus.OK)
   @ResponseBody
-  public ReadFolder readFolder(@RequestParam final String folder, final Authentication auth) {
+  public ReadFolder readFolder(@RequestParam final String folder,
+      @RequestParam(required = false) final String cursor,
+      @RequestParam(required = false) final Integer pageSize, final Authentication auth,
+      final WebRequest webRequest) {
     logger.trace(">><< readFolder()");
-    return directoryService.readFolder(folder, auth.getName());
+    Directory directory = directoryService.getCachedDirectory(auth.getName());
+    if (directory != null
+        && webRequest.checkNotModified(directory.getETag(), directory.getLastModified())) {
+      return null;
+    }
+    return directoryService.readFolder(folder, auth.getName(), cursor, pageSize);
+  }
+
+  /**
+   * Stream a ZIP archive of the folder and everything below it. The folder is checked before the
+   * response is started, so a missing folder is still answered with an error.
+   */
+  @GetMapping(ZIP_API_PATH)
+  public void downloadFolder(@RequestParam final String folder, final Authentication auth,
+      final HttpServletResponse response) throws IOException {
+    logger.trace(">><< downloadFolder()");
+    FolderArchive archive = folderArchiveService.prepare(folder, auth.getName());
+    response.setContentType("application/zip");
+    response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.builder("attachment")
+        .filename(archive.getName(), StandardCharsets.UTF_8).build().toString());
+    archive.writeTo(response.getOutputStream());
   }
 
   @DeleteMapping(DirectoryServiceConstants.FOLDER_API_PATH)
@@ -0,0 +1,81 @@
+package com.bc92.directoryservice.restapi;
+
+import javax.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import com.bc92.directoryservice.service.ReadFile;
+import com.bc92.directoryservice.service.UploadSessionService;
+import com.bc92.directoryservice.service.UploadStatus;
+import com.bc92.projectsdk.constants.DirectoryServiceConstants;
+import lombok.AllArgsConstructor;
+
+@RestController
+@AllArgsConstructor
+public class UploadSessionController {
+
+  static final String UPLOAD_API_PATH = DirectoryServiceConstants.FILE_API_PATH + "/upload";
+
+  private static final String SESSION_PATH = UPLOAD_API_PATH + "/{sessionId}";
+
+  private static final Logger logger = LoggerFactory.getLogger(UploadSessionController.class);
+
+  private final UploadSessionService uploadSessionService;
+
+
+  @PostMapping(UPLOAD_API_PATH)
+  @ResponseStatus(HttpStatus.CREATED)
+  @ResponseBody
+  public UploadStatus initiateUpload(@RequestParam final String parentPath,
+      @RequestParam final String discriminator, final Authentication auth) {
+    logger.trace(">><< initiateUpload()");
+    return uploadSessionService.initiate(parentPath, discriminator, auth.getName());
+  }
+
+  /**
+   * The body of the request is the raw content of the chunk, it is streamed to the session store
+   */
+  @PutMapping(SESSION_PATH + "/chunks/{index}")
+  @ResponseStatus(HttpStatus.NO_CONTENT)
+  public void putChunk(@PathVariable final String sessionId, @PathVariable final int index,
+      final HttpServletRequest request, final Authentication auth) {
+    logger.trace(">><< putChunk()");
+    uploadSessionService.putChunk(sessionId, index, request::getInputStream, auth.getName());
+  }
+
+  @GetMapping(SESSION_PATH)
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  public UploadStatus getUpload(@PathVariable final String sessionId, final Authentication auth) {
+    logger.trace(">><< getUpload()");
+    return uploadSessionService.getStatus(sessionId, auth.getName());
+  }
+
+  @PostMapping(SESSION_PATH + "/commit")
+  @ResponseStatus(HttpStatus.CREATED)
+  @ResponseBody
+  public ReadFile commitUpload(@PathVariable final String sessionId,
+      @RequestParam final int chunkCount,
+      @RequestParam(required = false) final String contentHash, final Authentication auth) {
+    logger.trace(">><< commitUpload()");
+    return uploadSessionService.commit(sessionId, chunkCount, contentHash, auth.getName());
+  }
+
+  @DeleteMapping(SESSION_PATH)
+  @ResponseStatus(HttpStatus.NO_CONTENT)
+  public void abortUpload(@PathVariable final String sessionId, final Authentication auth) {
+    logger.trace(">><< abortUpload()");
+    uploadSessionService.abort(sessionId, auth.getName());
+  }
+
+}
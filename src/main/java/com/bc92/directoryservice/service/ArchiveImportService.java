@@ -0,0 +1,545 @@
+package com.bc92.directoryservice.service;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PreDestroy;
+import org.apache.commons.compress.archivers.ArchiveException;
+import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Imports of ZIP and TAR archives into a folder, so a whole tree is uploaded in one request. The
+ * archive is received into a spool file and the import runs in the background, its progress and
+ * the entries that could not be imported are read from its status.
+ * <p>
+ * The folders the archive needs are created in one mutation of the directory, see
+ * {@link DirectoryService#createFolders(String, java.util.Collection, String)}. The files are then
+ * uploaded in batches through {@link FileService#uploadFiles(String, List, String,
+ * java.util.concurrent.Executor)}, which writes each batch to the index at once, while a bounded
+ * pool of workers stores their contents. Every worker reads its entry straight from the spool
+ * file, a ZIP through its central directory and a TAR from the offset of the entry. Entries are
+ * counted as they are inflated, an entry larger than the maximum file size fails on its own, and
+ * the entries of one import together may not inflate beyond the maximum import size, see
+ * {@link BoundedEntryInputStream}.
+ * <p>
+ * Imports run one at a time, in the order they were received. Finished imports are kept for the
+ * configured retention so their status can still be read.
+ *
+ * @author Brian
+ *
+ */
+@Component
+public class ArchiveImportService {
+
+  private static final Logger logger = LoggerFactory.getLogger(ArchiveImportService.class);
+
+  static final String FOLDER_NOT_FOUND = "Folder not found";
+
+  static final String IMPORT_NOT_FOUND = "Import not found";
+
+  static final String UNSUPPORTED_ARCHIVE =
+      "Archive must be a ZIP or TAR, which may be gzip or bzip2 compressed";
+
+  static final String INVALID_ENTRY_PATH = "Entry path must be relative and within the folder";
+
+  static final String UNSUPPORTED_ENTRY = "Only files and folders can be imported";
+
+  static final String ARCHIVE_TOO_LARGE = "Archive is larger than the maximum size";
+
+  static final String UNREADABLE_ENTRY = "Entry is encrypted or uses an unsupported compression";
+
+  private static final String TAR = ArchiveStreamFactory.TAR;
+
+  private static final int SPOOL_BUFFER_SIZE = 64 * 1024;
+
+  private final DirectoryService directoryService;
+
+  private final FileService fileService;
+
+  private final Path spoolRoot;
+
+  private final int batchSize;
+
+  /**
+   * Largest archive received, once decompressed, and largest entry
+   */
+  private final long maxSize;
+
+  /**
+   * Most bytes the entries of one import inflate to together
+   */
+  private final long maxExpandedSize;
+
+  private final Duration retention;
+
+  private final ExecutorService runner;
+
+  private final ExecutorService workers;
+
+  private final Map<String, ImportJob> jobs = new ConcurrentHashMap<>();
+
+  public ArchiveImportService(final DirectoryService directoryService,
+      final FileService fileService,
+      @Value("${directory.import.root:./imports}") final String spoolRoot,
+      @Value("${directory.import.workers:4}") final int workers,
+      @Value("${directory.import.batch-size:500}") final int batchSize,
+      @Value("${spring.servlet.multipart.max-file-size:10GB}") final DataSize maxSize,
+      @Value("${directory.import.max-expanded-size:100GB}") final DataSize maxExpandedSize,
+      @Value("${directory.import.retention:1h}") final Duration retention) {
+    this.directoryService = directoryService;
+    this.fileService = fileService;
+    this.spoolRoot = Paths.get(spoolRoot);
+    this.batchSize = batchSize;
+    this.maxSize = maxSize.toBytes();
+    this.maxExpandedSize = maxExpandedSize.toBytes();
+    this.retention = retention;
+    CustomizableThreadFactory runnerThreads = new CustomizableThreadFactory("import-");
+    runnerThreads.setDaemon(true);
+    runner = Executors.newSingleThreadExecutor(runnerThreads);
+    CustomizableThreadFactory workerThreads = new CustomizableThreadFactory("import-worker-");
+    workerThreads.setDaemon(true);
+    this.workers = Executors.newFixedThreadPool(workers, workerThreads);
+  }
+
+  /**
+   * Receive an archive and queue its import into the provided folder
+   *
+   * @param folder - string of the full path of the folder the archive is expanded into
+   * @param archive - the archive, a ZIP or TAR which may be gzip or bzip2 compressed
+   * @param username - name of the user who owns the folder
+   * @return ImportStatus - the queued import
+   */
+  public ImportStatus start(final String folder, final InputStreamSource archive,
+      final String username) {
+    logger.trace(">> start()");
+    if (!directoryService.getUserDirectory(username).containsFolder(folder)) {
+      logger.error(FOLDER_NOT_FOUND);
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, FOLDER_NOT_FOUND);
+    }
+
+    Path spool = null;
+    String format;
+    try (InputStream in = ArchiveImportService.decompress(archive.getInputStream())) {
+      format = ArchiveImportService.detect(in);
+      Files.createDirectories(spoolRoot);
+      spool = Files.createTempFile(spoolRoot, "import", null);
+      this.spool(in, spool);
+    } catch (ResponseStatusException e) {
+      ArchiveImportService.deleteSpool(spool);
+      throw e;
+    } catch (IOException e) {
+      ArchiveImportService.deleteSpool(spool);
+      logger.error("Failed to receive archive", e);
+      throw new DirectoryAccessException("Failed to receive archive", e);
+    }
+
+    ImportJob job = new ImportJob(UUID.randomUUID().toString(), username, folder);
+    jobs.put(job.getImportId(), job);
+    Path received = spool;
+    runner.execute(() -> this.run(job, format, received));
+
+    logger.trace("<< start()");
+    return job.toStatus();
+  }
+
+  /**
+   * The progress of an import, with the entries that could not be imported so far
+   *
+   * @param importId - id of the import
+   * @param username - name of the user who owns the import
+   * @return ImportStatus - the import
+   */
+  public ImportStatus getStatus(final String importId, final String username) {
+    logger.trace(">><< getStatus()");
+    ImportJob job = jobs.get(importId);
+    if (job == null || !job.getOwner().equals(username)) {
+      logger.error(IMPORT_NOT_FOUND);
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, IMPORT_NOT_FOUND);
+    }
+    return job.toStatus();
+  }
+
+  /**
+   * Forget imports that finished more than the retention ago
+   *
+   * @return int - number of removed imports
+   */
+  @Scheduled(fixedDelayString = "${directory.import.cleanup-interval:PT10M}")
+  public int expireImports() {
+    Instant cutoff = Instant.now().minus(retention);
+    int expired = 0;
+    for (ImportJob job : jobs.values()) {
+      if (job.finishedBefore(cutoff) && jobs.remove(job.getImportId(), job)) {
+        expired++;
+      }
+    }
+    return expired;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    runner.shutdownNow();
+    workers.shutdownNow();
+  }
+
+  private void run(final ImportJob job, final String format, final Path spool) {
+    logger.info("Importing archive {} into {}", job.getImportId(), job.getFolder());
+    ZipFile zip = null;
+    try {
+      AtomicLong remaining = new AtomicLong(maxExpandedSize);
+      List<Entry> entries;
+      if (TAR.equals(format)) {
+        entries = this.readTar(spool, remaining);
+      } else {
+        zip = new ZipFile(spool.toFile());
+        entries = this.readZip(zip, remaining);
+      }
+      this.importEntries(job, entries);
+      job.complete();
+      logger.info("Imported archive {} into {}", job.getImportId(), job.getFolder());
+    } catch (IOException | RuntimeException e) {
+      logger.error("Failed to import archive {}", job.getImportId(), e);
+      job.fail(e instanceof IOException ? "Archive could not be read" : e.getMessage());
+    } finally {
+      if (zip != null) {
+        try {
+          zip.close();
+        } catch (IOException e) {
+          logger.warn("Failed to close {}", spool, e);
+        }
+      }
+      ArchiveImportService.deleteSpool(spool);
+    }
+  }
+
+  private void importEntries(final ImportJob job, final List<Entry> entries) {
+    Set<String> folders = new HashSet<>();
+    List<EntryResource> files = new ArrayList<>();
+
+    for (Entry entry : entries) {
+      String path = ArchiveImportService.relativePath(entry.name);
+      if (path == null) {
+        job.addFailure(new UploadResult(entry.name, HttpStatus.BAD_REQUEST, INVALID_ENTRY_PATH));
+      } else if (entry.failure != null) {
+        job.addFailure(new UploadResult(entry.name, entry.status, entry.failure));
+      } else if (entry.content == null) {
+        if (!path.isEmpty()) {
+          folders.add(path);
+        }
+      } else if (!path.isEmpty()) {
+        files.add(new EntryResource(path, entry.content));
+        for (int slash = path.indexOf('/'); slash != -1; slash = path.indexOf('/', slash + 1)) {
+          folders.add(path.substring(0, slash));
+        }
+      }
+    }
+
+    job.start(files.size());
+    job.recordFolders(directoryService.createFolders(job.getFolder(), folders, job.getOwner()));
+    Batches.forEach(files.stream(), batchSize, batch -> job.recordFiles(
+        fileService.uploadFiles(job.getFolder(), batch, job.getOwner(), workers)));
+  }
+
+  private List<Entry> readZip(final ZipFile zip, final AtomicLong remaining) {
+    List<Entry> entries = new ArrayList<>();
+    for (ZipArchiveEntry entry : Collections.list(zip.getEntriesInPhysicalOrder())) {
+      if (entry.isDirectory()) {
+        entries.add(new Entry(entry.getName(), null, null));
+      } else if (entry.isUnixSymlink()) {
+        entries.add(new Entry(entry.getName(), null, UNSUPPORTED_ENTRY));
+      } else if (!zip.canReadEntryData(entry)) {
+        entries.add(new Entry(entry.getName(), null, UNREADABLE_ENTRY));
+      } else if (entry.getSize() > maxSize) {
+        entries.add(Entry.tooLarge(entry.getName()));
+      } else {
+        // entries are read through positional reads of the archive, so workers read concurrently
+        entries.add(new Entry(entry.getName(),
+            () -> new BoundedEntryInputStream(zip.getInputStream(entry), maxSize, remaining),
+            null));
+      }
+    }
+    return entries;
+  }
+
+  private List<Entry> readTar(final Path spool, final AtomicLong remaining) throws IOException {
+    List<Entry> entries = new ArrayList<>();
+    try (TarArchiveInputStream tar =
+        new TarArchiveInputStream(new BufferedInputStream(Files.newInputStream(spool)))) {
+      TarArchiveEntry entry;
+      while ((entry = tar.getNextTarEntry()) != null) {
+        if (entry.isDirectory()) {
+          entries.add(new Entry(entry.getName(), null, null));
+        } else if (!entry.isFile() || entry.isSymbolicLink() || entry.isLink()
+            || entry.isCharacterDevice() || entry.isBlockDevice() || entry.isFIFO()
+            || entry.isSparse()) {
+          entries.add(new Entry(entry.getName(), null, UNSUPPORTED_ENTRY));
+        } else if (entry.getSize() > maxSize) {
+          entries.add(Entry.tooLarge(entry.getName()));
+        } else {
+          // the content of a regular entry is stored as it is, right after its headers
+          long offset = tar.getBytesRead();
+          long size = entry.getSize();
+          entries.add(new Entry(entry.getName(), () -> new BoundedEntryInputStream(
+              new RangeInputStream(spool, offset, size), maxSize, remaining), null));
+        }
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * The path of an entry relative to the folder, without leading ./ or trailing slashes, empty for
+   * the entry of the archive root. Null if the path is absolute or leaves the folder.
+   */
+  static String relativePath(final String name) {
+    String path = name;
+    while (path.startsWith("./")) {
+      path = path.substring(2);
+    }
+    while (path.endsWith("/")) {
+      path = path.substring(0, path.length() - 1);
+    }
+    if (path.isEmpty() || ".".equals(path)) {
+      return "";
+    }
+    if (path.startsWith("/")) {
+      return null;
+    }
+    for (String segment : path.split("/", -1)) {
+      if (segment.isEmpty() || ".".equals(segment) || "..".equals(segment)) {
+        return null;
+      }
+    }
+    return path;
+  }
+
+  /**
+   * Copy the received archive into the spool file. The request body is not covered by the multipart
+   * limits, and a compressed body may expand far beyond its own size, so the copy stops once the
+   * maximum size is exceeded.
+   */
+  private void spool(final InputStream in, final Path spool) throws IOException {
+    byte[] buffer = new byte[SPOOL_BUFFER_SIZE];
+    long copied = 0;
+    try (OutputStream out = Files.newOutputStream(spool)) {
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        copied += read;
+        if (copied > maxSize) {
+          logger.error(ARCHIVE_TOO_LARGE);
+          throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, ARCHIVE_TOO_LARGE);
+        }
+        out.write(buffer, 0, read);
+      }
+    }
+  }
+
+  /**
+   * The content of the provided stream, decompressed if it is gzip or bzip2 compressed
+   */
+  private static InputStream decompress(final InputStream content) throws IOException {
+    InputStream in = new BufferedInputStream(content);
+    String compression;
+    try {
+      compression = CompressorStreamFactory.detect(in);
+    } catch (CompressorException e) {
+      return in;
+    }
+    if (!CompressorStreamFactory.GZIP.equals(compression)
+        && !CompressorStreamFactory.BZIP2.equals(compression)) {
+      in.close();
+      logger.error(UNSUPPORTED_ARCHIVE);
+      throw new ResponseStatusException(HttpStatus.UNSUPPORTED_MEDIA_TYPE, UNSUPPORTED_ARCHIVE);
+    }
+    try {
+      return new BufferedInputStream(
+          new CompressorStreamFactory().createCompressorInputStream(compression, in));
+    } catch (CompressorException e) {
+      in.close();
+      throw new IOException("Failed to decompress archive", e);
+    }
+  }
+
+  /**
+   * The format of the archive, zip or tar
+   */
+  private static String detect(final InputStream in) {
+    String format;
+    try {
+      format = ArchiveStreamFactory.detect(in);
+    } catch (ArchiveException e) {
+      format = null;
+    }
+    if (TAR.equals(format)) {
+      return TAR;
+    }
+    if (ArchiveStreamFactory.ZIP.equals(format) || ArchiveStreamFactory.JAR.equals(format)) {
+      return ArchiveStreamFactory.ZIP;
+    }
+    logger.error(UNSUPPORTED_ARCHIVE);
+    throw new ResponseStatusException(HttpStatus.UNSUPPORTED_MEDIA_TYPE, UNSUPPORTED_ARCHIVE);
+  }
+
+  private static void deleteSpool(final Path spool) {
+    if (spool == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(spool);
+    } catch (IOException e) {
+      logger.warn("Failed to remove {}", spool, e);
+    }
+  }
+
+  /**
+   * An entry of the archive, a folder when it has no content, or an entry that cannot be imported
+   */
+  private static final class Entry {
+
+    private final String name;
+    private final InputStreamSource content;
+    private final String failure;
+    private final HttpStatus status;
+
+    private Entry(final String name, final InputStreamSource content, final String failure) {
+      this(name, content, failure, HttpStatus.BAD_REQUEST);
+    }
+
+    private Entry(final String name, final InputStreamSource content, final String failure,
+        final HttpStatus status) {
+      this.name = name;
+      this.content = content;
+      this.failure = failure;
+      this.status = status;
+    }
+
+    /**
+     * An entry declared larger than the maximum file size, rejected before it is read
+     */
+    private static Entry tooLarge(final String name) {
+      return new Entry(name, null, BoundedEntryInputStream.ENTRY_TOO_LARGE,
+          HttpStatus.PAYLOAD_TOO_LARGE);
+    }
+
+  }
+
+  /**
+   * A range of the spool file, read with positional reads
+   */
+  private static final class RangeInputStream extends InputStream {
+
+    private final FileChannel channel;
+
+    private long position;
+
+    private long remaining;
+
+    private RangeInputStream(final Path spool, final long offset, final long size)
+        throws IOException {
+      channel = FileChannel.open(spool, StandardOpenOption.READ);
+      position = offset;
+      remaining = size;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      int read = this.read(one, 0, 1);
+      return read == -1 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (remaining == 0) {
+        return -1;
+      }
+      int read = channel
+          .read(ByteBuffer.wrap(buffer, offset, (int) Math.min(length, remaining)), position);
+      if (read == -1) {
+        throw new EOFException("Archive ended before " + position);
+      }
+      position += read;
+      remaining -= read;
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+
+  }
+
+  /**
+   * The content of a file entry, named by its path relative to the folder as
+   * {@link FileService#uploadFiles(String, List, String)} expects
+   */
+  private static final class EntryResource extends AbstractResource {
+
+    private final String path;
+    private final InputStreamSource content;
+
+    private EntryResource(final String path, final InputStreamSource content) {
+      this.path = path;
+      this.content = content;
+    }
+
+    @Override
+    public String getFilename() {
+      return path;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+      return content.getInputStream();
+    }
+
+    @Override
+    public String getDescription() {
+      return "Archive entry [" + path + "]";
+    }
+
+  }
+
+}
@@ -0,0 +1,46 @@
+package com.bc92.directoryservice.service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Consumes streams in fixed-size batches, so large sets of nodes can be persisted without
+ * materialising them all at once
+ *
+ * @author Brian
+ *
+ */
+final class Batches {
+
+  private Batches() {}
+
+  /**
+   * Passes the elements of the provided stream to the consumer in lists of at most batchSize
+   * elements, in encounter order
+   *
+   * @param stream - the elements to batch, consumed by this call
+   * @param batchSize - maximum number of elements in each batch
+   * @param consumer - receives each batch
+   */
+  static <T> void forEach(final Stream<T> stream, final int batchSize,
+      final Consumer<List<T>> consumer) {
+    List<T> batch = new ArrayList<>(batchSize);
+    Iterator<T> elements = stream.iterator();
+
+    while (elements.hasNext()) {
+      batch.add(elements.next());
+      if (batch.size() == batchSize) {
+        consumer.accept(batch);
+        batch = new ArrayList<>(batchSize);
+      }
+    }
+
+    if (!batch.isEmpty()) {
+      consumer.accept(batch);
+    }
+  }
+
+}
@@ -0,0 +1,85 @@
+package com.bc92.directoryservice.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import com.bc92.directoryservice.dto.FileDTO;
+import com.bc92.directoryservice.repo.FileRepository;
+import com.bc92.directoryservice.repo.SolrWriteCoordinator;
+import lombok.AllArgsConstructor;
+
+/**
+ * Moves the content of every file document that still holds it in fileBytes into the blob store,
+ * when the service starts with directory.blob.migrate-on-startup=true.
+ * <p>
+ * Files that are not migrated up front are migrated when they are first read, see
+ * {@link FileService#readFile(String, String)}.
+ *
+ * @author Brian
+ *
+ */
+@Component
+@AllArgsConstructor
+@ConditionalOnProperty(name = "directory.blob.migrate-on-startup", havingValue = "true")
+public class BlobMigration implements ApplicationRunner {
+
+  private static final Logger logger = LoggerFactory.getLogger(BlobMigration.class);
+
+  // documents are fetched with their content, so batches are kept small
+  private static final int BATCH_SIZE = 20;
+
+  private final FileRepository fileRepo;
+
+  private final FileService fileService;
+
+  private final SolrWriteCoordinator writeCoordinator;
+
+  @Override
+  public void run(final ApplicationArguments args) {
+    logger.info("Migrating file content to the blob store");
+    int migrated = this.migrateAll();
+    logger.info("Migrated the content of {} files to the blob store", migrated);
+  }
+
+  /**
+   * Migrate files in batches until none are left. Migrated files drop out of the query, so the
+   * first page is fetched every time, once the writes of the last batch are visible. Stops when a
+   * whole batch fails, rather than retrying it.
+   *
+   * @return int - number of migrated files
+   */
+  public int migrateAll() {
+    int migrated = 0;
+
+    while (true) {
+      Page<FileDTO> batch = fileRepo.findLegacyContentFiles(PageRequest.of(0, BATCH_SIZE));
+      if (!batch.hasContent()) {
+        return migrated;
+      }
+
+      int failed = 0;
+      for (FileDTO legacy : batch) {
+        try {
+          fileService.migrateContent(legacy);
+          migrated++;
+        } catch (RuntimeException e) {
+          logger.error("Failed to migrate content of {}", legacy.getFullPath(), e);
+          failed++;
+        }
+      }
+
+      writeCoordinator.sync();
+
+      if (failed == batch.getNumberOfElements()) {
+        logger.error("Stopping migration, no file of the last batch could be migrated");
+        return migrated;
+      }
+    }
+  }
+
+}
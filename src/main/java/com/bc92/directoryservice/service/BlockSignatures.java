@@ -0,0 +1,50 @@
+package com.bc92.directoryservice.service;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Signatures of the fixed size blocks of the stored content of a file, from which a client works
+ * out which parts of its new version the server already holds, see {@link FileDeltaService}
+ *
+ * @author Brian
+ *
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class BlockSignatures {
+
+  private String contentHash;
+  private long size;
+  private int blockSize;
+
+  /**
+   * Signatures in content order, block i starts at offset i * blockSize and only the last block
+   * can be shorter
+   */
+  private List<Block> blocks;
+
+  @Getter
+  @Setter
+  @AllArgsConstructor
+  @NoArgsConstructor
+  public static class Block {
+
+    /**
+     * The {@link RollingChecksum} of the block
+     */
+    private int weak;
+
+    /**
+     * Lowercase hex SHA-256 of the block
+     */
+    private String strong;
+
+  }
+
+}
@@ -0,0 +1,40 @@
+package com.bc92.directoryservice.service;
+
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * The content of an archive entry, counted as it is inflated. The read fails with a payload too
+ * large once the entry passes the maximum file size, whatever size the archive declared for it, or
+ * once the entries of the import together pass the bytes the import may still inflate. The
+ * content read so far is discarded with the entry.
+ *
+ * @author Brian
+ *
+ */
+class BoundedEntryInputStream extends BoundedInputStream {
+
+  static final String ENTRY_TOO_LARGE = "Entry is larger than the maximum file size";
+
+  static final String IMPORT_TOO_LARGE = "Archive expands beyond the maximum import size";
+
+  /**
+   * Bytes the import may still inflate, shared by the entries read concurrently
+   */
+  private final AtomicLong remaining;
+
+  BoundedEntryInputStream(final InputStream in, final long maxSize, final AtomicLong remaining) {
+    super(in, maxSize, ENTRY_TOO_LARGE);
+    this.remaining = remaining;
+  }
+
+  @Override
+  protected void counted(final int count) {
+    if (remaining.addAndGet(-count) < 0) {
+      throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, IMPORT_TOO_LARGE);
+    }
+  }
+
+}
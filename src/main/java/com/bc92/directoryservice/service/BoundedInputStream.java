@@ -0,0 +1,71 @@
+package com.bc92.directoryservice.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Content received from a client, counted as it is read. The read fails with a payload too large
+ * once the content passes the maximum size, so the content read so far is discarded by the caller.
+ *
+ * @author Brian
+ *
+ */
+class BoundedInputStream extends FilterInputStream {
+
+  private static final int SKIP_BUFFER_SIZE = 8192;
+
+  private final long maxSize;
+
+  private final String reason;
+
+  private long read;
+
+  /**
+   * @param in - the content
+   * @param maxSize - most bytes that may be read
+   * @param reason - reason of the payload too large
+   */
+  BoundedInputStream(final InputStream in, final long maxSize, final String reason) {
+    super(in);
+    this.maxSize = maxSize;
+    this.reason = reason;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] one = new byte[1];
+    int count = this.read(one, 0, 1);
+    return count == -1 ? -1 : one[0] & 0xff;
+  }
+
+  @Override
+  public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+    int count = super.read(buffer, offset, length);
+    if (count > 0) {
+      read += count;
+      if (read > maxSize) {
+        throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, reason);
+      }
+      this.counted(count);
+    }
+    return count;
+  }
+
+  @Override
+  public long skip(final long n) throws IOException {
+    // skipped content is received all the same, so it is counted as read
+    int length = (int) Math.min(n, SKIP_BUFFER_SIZE);
+    return length <= 0 ? 0 : Math.max(this.read(new byte[length], 0, length), 0);
+  }
+
+  /**
+   * Called with the number of bytes of each read within the maximum size
+   */
+  protected void counted(final int count) {
+    // nothing else is counted
+  }
+
+}
@@ -0,0 +1,267 @@
+package com.bc92.directoryservice.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import com.bc92.directoryservice.dto.FileDTO;
+import com.bc92.directoryservice.repo.BlobStore;
+import com.bc92.directoryservice.repo.FileRepository;
+import com.bc92.directoryservice.repo.PendingWrites;
+import com.bc92.directoryservice.repo.StoredBlob;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Tracks which file documents reference content in the {@link BlobStore}, so content shared by
+ * several files, of any owner, is stored once and removed when the last file referencing it is
+ * removed.
+ * <p>
+ * The reference count of a blob is the number of file documents holding its hash, so it cannot
+ * drift from the documents themselves. Saving a reference and releasing the last one are serialised
+ * on a striped lock per hash, so a blob cannot be removed between being stored and being referenced.
+ * While a write of a document holding the hash is not visible to queries the count is not reliable,
+ * so the release is retried once the pending writes are visible.
+ *
+ * @author Brian
+ *
+ */
+@Component
+public class ContentReferences implements MeterBinder {
+
+  private static final Logger logger = LoggerFactory.getLogger(ContentReferences.class);
+
+  private static final int LOCK_STRIPES = 64;
+
+  private static final String CONTENT_MISMATCH = "Content does not match the declared hash";
+
+  private static final String INVALID_HASH = "Content hash must be a lowercase hex SHA-256";
+
+  private static final Pattern HASH_PATTERN = Pattern.compile("^[0-9a-f]{64}$");
+
+  private final FileRepository fileRepo;
+
+  private final BlobStore blobStore;
+
+  private final PendingWrites pendingWrites;
+
+  private final Object[] locks = new Object[LOCK_STRIPES];
+
+  private final AtomicLong uploadedBytes = new AtomicLong();
+
+  private final AtomicLong writtenBytes = new AtomicLong();
+
+  private final AtomicLong skippedWrites = new AtomicLong();
+
+  public ContentReferences(final FileRepository fileRepo, final BlobStore blobStore,
+      final PendingWrites pendingWrites) {
+    this.fileRepo = fileRepo;
+    this.blobStore = blobStore;
+    this.pendingWrites = pendingWrites;
+    for (int i = 0; i < LOCK_STRIPES; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  /**
+   * Store the content of the provided file. When the client declared the hash of the content and
+   * the owner already has a file with that content, the content is not read at all.
+   * <p>
+   * The declared hash only skips the write for content the owner already holds, otherwise anyone
+   * knowing the hash of a blob could link to it without having its content.
+   *
+   * @param file - file holding the content, and optionally its declared hash
+   * @param username - name of the user who owns the file
+   * @return StoredBlob - hash and size of the stored content
+   */
+  public StoredBlob store(final File file, final String username) {
+    StoredBlob known = this.findOwnedContent(file.getContentHash(), username);
+    if (known != null) {
+      uploadedBytes.addAndGet(known.getSize());
+      skippedWrites.incrementAndGet();
+      logger.debug("Skipped writing known content {}", known.getHash());
+      return known;
+    }
+
+    StoredBlob stored;
+    try (InputStream content = file.getContent().getInputStream()) {
+      stored = blobStore.put(content);
+    } catch (IOException e) {
+      logger.error("Failed to write file content to the blob store", e);
+      throw new DirectoryAccessException("Failed to store file content", e);
+    }
+
+    uploadedBytes.addAndGet(stored.getSize());
+    if (!stored.isDuplicate()) {
+      writtenBytes.addAndGet(stored.getSize());
+    }
+
+    if (file.getContentHash() != null && !file.getContentHash().equals(stored.getHash())) {
+      this.release(stored.getHash());
+      logger.error(CONTENT_MISMATCH);
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, CONTENT_MISMATCH);
+    }
+    return stored;
+  }
+
+  /**
+   * Save a file document referencing stored content, making sure the content was not removed
+   * since it was stored
+   *
+   * @param file - file document holding the hash of its content
+   */
+  public void save(final FileDTO file) {
+    synchronized (this.lockFor(file.getContentHash())) {
+      if (!blobStore.exists(file.getContentHash())) {
+        logger.error("Content {} was removed before it was referenced", file.getContentHash());
+        throw new DirectoryAccessException("File content was removed while it was stored");
+      }
+      fileRepo.save(file);
+    }
+  }
+
+  /**
+   * Save file documents referencing stored content in a single write, leaving out the documents
+   * whose content was removed since it was stored
+   *
+   * @param files - file documents holding the hash of their content
+   * @return List<FileDTO> - the saved documents
+   */
+  public List<FileDTO> saveAll(final Collection<FileDTO> files) {
+    int[] stripes = files.stream().mapToInt(file -> this.stripeOf(file.getContentHash()))
+        .distinct().sorted().toArray();
+    return this.saveAllLocked(files, stripes, 0);
+  }
+
+  /**
+   * Remove content that is no longer referenced by any file. Called once the documents that
+   * referenced it have been saved or deleted.
+   *
+   * @param hash - hash of the content that lost a reference, null is ignored
+   */
+  public void release(final String hash) {
+    if (hash == null) {
+      return;
+    }
+    synchronized (this.lockFor(hash)) {
+      if (pendingWrites.references(hash)) {
+        pendingWrites.afterVisible(() -> this.release(hash));
+        return;
+      }
+      if (fileRepo.countByContentHash(hash) > 0) {
+        return;
+      }
+      try {
+        if (blobStore.delete(hash)) {
+          logger.debug("Removed unreferenced content {}", hash);
+        }
+      } catch (IOException e) {
+        // an orphaned blob only costs space, the operation that released it has succeeded
+        logger.error("Failed to remove unreferenced content {}", hash, e);
+      }
+    }
+  }
+
+  /**
+   * Release the content of the provided file documents, once they have been deleted
+   *
+   * @param deleted - the deleted file documents, holding at least their content hash
+   */
+  public void releaseAll(final Collection<FileDTO> deleted) {
+    Set<String> hashes = new LinkedHashSet<>();
+    for (FileDTO file : deleted) {
+      if (file.getContentHash() != null) {
+        hashes.add(file.getContentHash());
+      }
+    }
+    hashes.forEach(this::release);
+  }
+
+  /**
+   * Ratio of the bytes uploaded to the bytes written to the blob store since startup
+   */
+  public double getDedupeRatio() {
+    long written = writtenBytes.get();
+    return written == 0 ? 1.0 : (double) uploadedBytes.get() / written;
+  }
+
+  @Override
+  public void bindTo(final MeterRegistry registry) {
+    FunctionCounter.builder("directory.content.uploaded", uploadedBytes, AtomicLong::get)
+        .baseUnit("bytes").description("Bytes of file content uploaded").register(registry);
+    FunctionCounter.builder("directory.content.written", writtenBytes, AtomicLong::get)
+        .baseUnit("bytes").description("Bytes of new content written to the blob store")
+        .register(registry);
+    FunctionCounter.builder("directory.content.skipped", skippedWrites, AtomicLong::get)
+        .description("Uploads of known content that were not read").register(registry);
+    Gauge.builder("directory.content.dedupe.ratio", this, ContentReferences::getDedupeRatio)
+        .description("Bytes uploaded per byte written to the blob store").register(registry);
+  }
+
+  private StoredBlob findOwnedContent(final String hash, final String username) {
+    if (hash == null) {
+      return null;
+    }
+    if (!HASH_PATTERN.matcher(hash).matches()) {
+      logger.error(INVALID_HASH);
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, INVALID_HASH);
+    }
+    Page<FileDTO> owned = fileRepo.findFilesByContentHashAndOwner(username, hash,
+        PageRequest.of(0, 1));
+    if (owned == null || !owned.hasContent() || !blobStore.exists(hash)) {
+      return null;
+    }
+    Long size = owned.getContent().get(0).getSize();
+    return new StoredBlob(hash, Objects.requireNonNull(size), true);
+  }
+
+  /**
+   * Takes the lock of each stripe in ascending order before saving, so concurrent batches cannot
+   * deadlock
+   */
+  private List<FileDTO> saveAllLocked(final Collection<FileDTO> files, final int[] stripes,
+      final int next) {
+    if (next < stripes.length) {
+      synchronized (locks[stripes[next]]) {
+        return this.saveAllLocked(files, stripes, next + 1);
+      }
+    }
+
+    List<FileDTO> referenced = new ArrayList<>(files.size());
+    for (FileDTO file : files) {
+      if (blobStore.exists(file.getContentHash())) {
+        referenced.add(file);
+      } else {
+        logger.error("Content {} was removed before it was referenced", file.getContentHash());
+      }
+    }
+    if (!referenced.isEmpty()) {
+      fileRepo.saveAll(referenced);
+    }
+    return referenced;
+  }
+
+  private Object lockFor(final String hash) {
+    return locks[this.stripeOf(hash)];
+  }
+
+  private int stripeOf(final String hash) {
+    return (hash.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES;
+  }
+
+}
@@ -0,0 +1,160 @@
+package com.bc92.directoryservice.service;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * The new version of some content, rebuilt as it is read from the stored version and a delta.
+ * Nothing is buffered beyond the caller's buffer, ranges of the stored version are read straight
+ * from its file.
+ * <p>
+ * The delta is a sequence of big-endian instructions, ending with the stream:
+ * <ul>
+ * <li>{@code 'C'}, long offset, int length: copy length bytes of the stored version from offset</li>
+ * <li>{@code 'L'}, int length, then length bytes: the literal bytes</li>
+ * </ul>
+ * An invalid delta fails the read with a bad request, so the content it was building is discarded.
+ *
+ * @author Brian
+ *
+ */
+class DeltaInputStream extends InputStream {
+
+  static final int COPY = 'C';
+
+  static final int LITERAL = 'L';
+
+  static final String INVALID_DELTA = "Delta is not valid for the stored content";
+
+  static final String DELTA_TOO_LARGE = "Delta builds content larger than the maximum file size";
+
+  private final DataInputStream delta;
+
+  private final FileChannel base;
+
+  private final long baseSize;
+
+  private final long maxSize;
+
+  private long copyPosition;
+
+  private long copyRemaining;
+
+  private long literalRemaining;
+
+  private long copied;
+
+  private long literal;
+
+  DeltaInputStream(final InputStream delta, final FileChannel base, final long baseSize,
+      final long maxSize) {
+    this.delta = new DataInputStream(delta);
+    this.base = base;
+    this.baseSize = baseSize;
+    this.maxSize = maxSize;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] one = new byte[1];
+    int read = this.read(one, 0, 1);
+    return read == -1 ? -1 : one[0] & 0xff;
+  }
+
+  @Override
+  public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    while (copyRemaining == 0 && literalRemaining == 0) {
+      if (!this.nextInstruction()) {
+        return -1;
+      }
+    }
+
+    if (copyRemaining > 0) {
+      ByteBuffer target = ByteBuffer.wrap(buffer, offset, (int) Math.min(length, copyRemaining));
+      int read = base.read(target, copyPosition);
+      if (read == -1) {
+        throw new EOFException("Stored content ended before " + copyPosition);
+      }
+      copyPosition += read;
+      copyRemaining -= read;
+      copied += read;
+      return read;
+    }
+
+    int read = delta.read(buffer, offset, (int) Math.min(length, literalRemaining));
+    if (read == -1) {
+      throw DeltaInputStream.invalid();
+    }
+    literalRemaining -= read;
+    literal += read;
+    return read;
+  }
+
+  @Override
+  public void close() throws IOException {
+    delta.close();
+  }
+
+  /**
+   * Bytes of the new version copied from the stored version so far
+   */
+  long getCopied() {
+    return copied;
+  }
+
+  /**
+   * Bytes of the new version sent in the delta so far
+   */
+  long getLiteral() {
+    return literal;
+  }
+
+  private boolean nextInstruction() throws IOException {
+    int instruction = delta.read();
+    if (instruction == -1) {
+      return false;
+    }
+
+    long length;
+    try {
+      if (instruction == COPY) {
+        long position = delta.readLong();
+        length = delta.readInt();
+        if (position < 0 || length < 0 || position > baseSize - length) {
+          throw DeltaInputStream.invalid();
+        }
+        copyPosition = position;
+        copyRemaining = length;
+      } else if (instruction == LITERAL) {
+        length = delta.readInt();
+        if (length < 0) {
+          throw DeltaInputStream.invalid();
+        }
+        literalRemaining = length;
+      } else {
+        throw DeltaInputStream.invalid();
+      }
+    } catch (EOFException e) {
+      throw DeltaInputStream.invalid();
+    }
+
+    if (copied + literal + length > maxSize) {
+      throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, DELTA_TOO_LARGE);
+    }
+    return true;
+  }
+
+  private static ResponseStatusException invalid() {
+    return new ResponseStatusException(HttpStatus.BAD_REQUEST, INVALID_DELTA);
+  }
+
+}
@@ -0,0 +1,308 @@
+package com.bc92.directoryservice.service;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import com.bc92.directoryservice.model.Directory;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * In-process cache of expanded {@link Directory} trees, keyed by owner.
+ * <p>
+ * Entries are weighed by their node count and evicted least recently used first once the total
+ * weight exceeds the configured maximum. Entries also expire a fixed time after they were loaded,
+ * which bounds how stale a tree can get if it is modified by another instance of the service.
+ * <p>
+ * Loads and mutations for the same owner are serialised on a striped lock, so a tree that is being
+ * loaded cannot overwrite changes that were written through while the load was in flight. Reads of
+ * a cached tree do not take the lock, since {@link Directory} can be read while it is modified.
+ *
+ * @author Brian
+ *
+ */
+@Component
+public class DirectoryCache implements MeterBinder {
+
+  private static final Logger logger = LoggerFactory.getLogger(DirectoryCache.class);
+
+  private static final int LOCK_STRIPES = 64;
+
+  private static final String CACHE_NAME = "directory";
+
+  private final long maxWeight;
+
+  private final long ttlNanos;
+
+  private final Object[] locks = new Object[LOCK_STRIPES];
+
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long weight;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private final AtomicLong evictions = new AtomicLong();
+
+  private final AtomicLong expirations = new AtomicLong();
+
+  public DirectoryCache(@Value("${directory.cache.max-nodes:1000000}") final long maxWeight,
+      @Value("${directory.cache.ttl:10m}") final Duration ttl) {
+    this.maxWeight = maxWeight;
+    ttlNanos = ttl.toNanos();
+    for (int i = 0; i < LOCK_STRIPES; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  /**
+   * Applies the provided read to the directory of the provided owner, loading and caching the
+   * directory on a miss
+   *
+   * @param owner - string of the username of the owner of the directory
+   * @param loader - function that builds the directory when it is not cached
+   * @param read - function that reads from the directory, it must not modify the directory
+   * @return T - result of the read
+   */
+  public <T> T read(final String owner, final Function<String, Directory> loader,
+      final Function<Directory, T> read) {
+    Directory dir = this.getIfFresh(owner);
+    if (dir != null) {
+      hits.incrementAndGet();
+      return read.apply(dir);
+    }
+
+    synchronized (this.lockFor(owner)) {
+      dir = this.getOrLoad(owner, loader);
+    }
+    return read.apply(dir);
+  }
+
+  /**
+   * Applies the provided read to the directory of the provided owner, only if it is cached, so
+   * callers that can do without the directory never load it
+   *
+   * @param owner - string of the username of the owner of the directory
+   * @param read - function that reads from the directory, it must not modify the directory
+   * @return T - result of the read, or null if the directory is not cached
+   */
+  public <T> T readIfPresent(final String owner, final Function<Directory, T> read) {
+    Directory dir = this.getIfFresh(owner);
+    if (dir == null) {
+      return null;
+    }
+    hits.incrementAndGet();
+    return read.apply(dir);
+  }
+
+  /**
+   * Applies the provided mutation to the directory of the provided owner, loading it on a miss.
+   * The cached entry is updated in place, if the mutation fails the entry is dropped, since it may
+   * have been partially modified.
+   *
+   * @param owner - string of the username of the owner of the directory
+   * @param loader - function that builds the directory when it is not cached
+   * @param mutation - function that modifies the directory and persists the changes
+   * @return T - result of the mutation
+   */
+  public <T> T update(final String owner, final Function<String, Directory> loader,
+      final Function<Directory, T> mutation) {
+    synchronized (this.lockFor(owner)) {
+      Directory dir = this.getOrLoad(owner, loader);
+      try {
+        T result = mutation.apply(dir);
+        this.reweigh(owner, dir);
+        return result;
+      } catch (RuntimeException e) {
+        this.invalidate(owner);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Applies the provided mutation to the directory of the provided owner, only if it is cached.
+   * Used to write through changes that were persisted without reading the directory.
+   *
+   * @param owner - string of the username of the owner of the directory
+   * @param mutation - consumer that modifies the directory
+   */
+  public void updateIfPresent(final String owner, final Consumer<Directory> mutation) {
+    synchronized (this.lockFor(owner)) {
+      Directory dir = this.getIfFresh(owner);
+      if (dir == null) {
+        return;
+      }
+      try {
+        mutation.accept(dir);
+        this.reweigh(owner, dir);
+      } catch (RuntimeException e) {
+        logger.warn("Failed to write through change to cached directory, dropping entry", e);
+        this.invalidate(owner);
+      }
+    }
+  }
+
+  /**
+   * Removes the directory of the provided owner from the cache
+   *
+   * @param owner - string of the username of the owner of the directory
+   */
+  public void invalidate(final String owner) {
+    synchronized (entries) {
+      Entry removed = entries.remove(owner);
+      if (removed != null) {
+        weight -= removed.getWeight();
+      }
+    }
+  }
+
+  /**
+   * Snapshot of the statistics of this cache
+   *
+   * @return CacheStats - hit, miss and eviction counts along with current size and weight
+   */
+  public CacheStats getStats() {
+    synchronized (entries) {
+      return new CacheStats(hits.get(), misses.get(), evictions.get(), expirations.get(),
+          entries.size(), weight);
+    }
+  }
+
+  @Override
+  public void bindTo(final MeterRegistry registry) {
+    FunctionCounter.builder("cache.gets", hits, AtomicLong::get).tag("cache", CACHE_NAME)
+        .tag("result", "hit").description("Directories served from the cache").register(registry);
+    FunctionCounter.builder("cache.gets", misses, AtomicLong::get).tag("cache", CACHE_NAME)
+        .tag("result", "miss").description("Directories loaded from the repository")
+        .register(registry);
+    FunctionCounter.builder("cache.evictions", evictions, AtomicLong::get).tag("cache", CACHE_NAME)
+        .description("Directories evicted to stay within the maximum weight").register(registry);
+    FunctionCounter.builder("cache.expirations", expirations, AtomicLong::get)
+        .tag("cache", CACHE_NAME).description("Directories dropped after their ttl elapsed")
+        .register(registry);
+    Gauge.builder("cache.size", this, cache -> cache.getStats().getSize()).tag("cache", CACHE_NAME)
+        .description("Number of cached directories").register(registry);
+    Gauge.builder("cache.weight", this, cache -> cache.getStats().getWeight())
+        .tag("cache", CACHE_NAME).description("Number of nodes held by cached directories")
+        .register(registry);
+  }
+
+  private Directory getOrLoad(final String owner, final Function<String, Directory> loader) {
+    Directory dir = this.getIfFresh(owner);
+    if (dir != null) {
+      hits.incrementAndGet();
+      return dir;
+    }
+
+    misses.incrementAndGet();
+    dir = loader.apply(owner);
+    this.put(owner, dir);
+    return dir;
+  }
+
+  private Directory getIfFresh(final String owner) {
+    synchronized (entries) {
+      Entry entry = entries.get(owner);
+      if (entry == null) {
+        return null;
+      }
+      if (System.nanoTime() - entry.getLoadedAt() > ttlNanos) {
+        entries.remove(owner);
+        weight -= entry.getWeight();
+        expirations.incrementAndGet();
+        return null;
+      }
+      return entry.getDirectory();
+    }
+  }
+
+  private void put(final String owner, final Directory dir) {
+    synchronized (entries) {
+      Entry previous = entries.remove(owner);
+      if (previous != null) {
+        weight -= previous.getWeight();
+      }
+
+      long entryWeight = this.weigh(dir);
+      if (entryWeight > maxWeight) {
+        logger.debug("Directory of {} is heavier than the cache, not caching", owner);
+        evictions.incrementAndGet();
+        return;
+      }
+
+      entries.put(owner, new Entry(dir, System.nanoTime(), entryWeight));
+      weight += entryWeight;
+      this.evict();
+    }
+  }
+
+  private void reweigh(final String owner, final Directory dir) {
+    synchronized (entries) {
+      Entry entry = entries.get(owner);
+      if (entry == null || entry.getDirectory() != dir) {
+        return;
+      }
+      long entryWeight = this.weigh(dir);
+      entries.put(owner, new Entry(dir, entry.getLoadedAt(), entryWeight));
+      weight += entryWeight - entry.getWeight();
+      this.evict();
+    }
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+    while (weight > maxWeight && eldest.hasNext()) {
+      Entry evicted = eldest.next().getValue();
+      eldest.remove();
+      weight -= evicted.getWeight();
+      evictions.incrementAndGet();
+    }
+  }
+
+  private long weigh(final Directory dir) {
+    // the root node is always present, so empty directories still carry some weight
+    return dir.getNodeCount() + 1L;
+  }
+
+  private Object lockFor(final String owner) {
+    return locks[(owner.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+  }
+
+  @Getter
+  @AllArgsConstructor
+  private static class Entry {
+    private final Directory directory;
+    private final long loadedAt;
+    private final long weight;
+  }
+
+  /**
+   * Point in time statistics of a {@link DirectoryCache}
+   */
+  @Getter
+  @AllArgsConstructor
+  public static class CacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long expirationCount;
+    private final long size;
+    private final long weight;
+  }
+
+}
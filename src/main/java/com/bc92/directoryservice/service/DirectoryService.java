@@ -1,13 +1,32 @@
 package com.bc92.directoryservice.service;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.function.Function;
+import org.apache.solr.common.params.CursorMarkParams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import com.bc92.directoryservice.dto.FileDTO;
 import com.bc92.directoryservice.dto.NodeDTO;
+import com.bc92.directoryservice.dto.NodeDTO.DirElementType;
 import com.bc92.directoryservice.model.Directory;
+import com.bc92.directoryservice.model.InvalidDiscriminatorException;
+import com.bc92.directoryservice.model.InvalidPathException;
+import com.bc92.directoryservice.model.Path;
+import com.bc92.directoryservice.repo.CursorPage;
 import com.bc92.directoryservice.repo.DirectoryRepository;
+import com.bc92.directoryservice.repo.FileRepository;
+import com.bc92.directoryservice.repo.PendingWrites;
+import com.bc92.projectsdk.constants.DirectoryServiceConstants;
 import lombok.AllArgsConstructor;
 
 @AllArgsConstructor
@@ -16,8 +35,29 @@ public class DirectoryService {
 
   private static final Logger logger = LoggerFactory.getLogger(DirectoryService.class);
 
+  private static final int HASH_PAGE_SIZE = 1000;
+
+  private static final int SAVE_BATCH_SIZE = 1000;
+
+  static final int DEFAULT_PAGE_SIZE = 1000;
+
+  static final int MAX_PAGE_SIZE = 5000;
+
+  static final String INVALID_PAGE_SIZE = "Page size must be between 1 and " + MAX_PAGE_SIZE;
+
+  private static final String ROOT_PATH = DirectoryServiceConstants.ROOT_PARENT_PATH
+      + DirectoryServiceConstants.PATH_DELIMINATOR + DirectoryServiceConstants.ROOT_NODE_NAME;
+
   private final DirectoryRepository directoryRepo;
 
+  private final DirectoryCache directoryCache;
+
+  private final FileRepository fileRepo;
+
+  private final ContentReferences contentReferences;
+
+  private final PendingWrites pendingWrites;
+
   /**
    * Returns the directory of the provided username
    *
@@ -26,12 +66,18 @@ public class DirectoryService {
    */
   public Directory getUserDirectory(final String username) {
     logger.trace(">><< getUserDirectory()");
-    try {
-      return Directory.expand(new HashSet<>(directoryRepo.findByOwner(username)), username);
-    } catch (Exception e) {
-      logger.error("Failed to expand directory for provided username", e);
-      throw new DirectoryAccessException("Failed to expand directory for provided username");
-    }
+    return directoryCache.read(username, this::loadUserDirectory, Function.identity());
+  }
+
+  /**
+   * Returns the directory of the provided username if it is cached, without loading it
+   *
+   * @param username - string of the username
+   * @return Directory - the cached directory, or null if it is not cached
+   */
+  public Directory getCachedDirectory(final String username) {
+    logger.trace(">><< getCachedDirectory()");
+    return directoryCache.readIfPresent(username, Function.identity());
   }
 
   /**
@@ -44,43 +90,210 @@ public class DirectoryService {
   public ReadFolder createFolder(final Folder createFolder, final String username) {
     logger.trace(">> createFolder()");
 
-    Directory dir = this.getUserDirectory(username);
-    ReadFolder created = dir.createFolder(createFolder);
-    directoryRepo.saveAll(dir.flatten());
+    ReadFolder created = directoryCache.update(username, this::loadUserDirectory, dir -> {
+      ReadFolder folder = dir.createFolder(createFolder);
+      directoryRepo.saveAll(dir.drainChanges().getSaved());
+      return folder;
+    });
 
     logger.trace("<< createFolder()");
     return created;
   }
 
   /**
-   * Read the specified folder
+   * Create the provided folders below a folder in one mutation of the directory, with one write
+   * per batch of created folders. Each path is relative to the parent folder, a path is created
+   * after the paths it starts with, and a folder that already exists is left as it is.
+   *
+   * @param parentPath - string of the full path of the folder the paths are relative to
+   * @param relativePaths - paths of the folders, relative to parentPath
+   * @param username - name of the user who owns the folders
+   * @return List<UploadResult> - the outcome for each path, ordered by path, OK if the folder
+   *         already existed
+   */
+  public List<UploadResult> createFolders(final String parentPath,
+      final Collection<String> relativePaths, final String username) {
+    logger.trace(">> createFolders()");
+    SortedSet<String> sorted = new TreeSet<>(relativePaths);
+
+    List<UploadResult> results = directoryCache.update(username, this::loadUserDirectory, dir -> {
+      List<UploadResult> outcomes = new ArrayList<>(sorted.size());
+      for (String relativePath : sorted) {
+        int slash = relativePath.lastIndexOf('/');
+        Folder folder = new Folder(relativePath.substring(slash + 1), slash == -1 ? parentPath
+            : Path.combineParentPathAndDiscriminator(parentPath, relativePath.substring(0, slash)));
+        String fullPath = Path.combineParentPathAndDiscriminator(parentPath, relativePath);
+        try {
+          if (dir.containsFolder(fullPath)) {
+            outcomes.add(new UploadResult(fullPath, HttpStatus.OK, null));
+          } else {
+            dir.createFolder(folder);
+            outcomes.add(new UploadResult(fullPath, HttpStatus.CREATED, null));
+          }
+        } catch (InvalidPathException | InvalidDiscriminatorException e) {
+          outcomes.add(new UploadResult(fullPath, HttpStatus.BAD_REQUEST, e.getMessage()));
+        }
+      }
+      Batches.forEach(dir.drainChanges().getSaved().stream(), SAVE_BATCH_SIZE,
+          directoryRepo::saveAll);
+      return outcomes;
+    });
+
+    logger.trace("<< createFolders()");
+    return results;
+  }
+
+  /**
+   * Read the first page of the specified folder
    *
    * @param readFolder - string of the full path to folder to be read
    * @param username - name of the user who owns the file
    * @return ReadFolder - DTO containing file metadata
    */
   public ReadFolder readFolder(final String readFolder, final String username) {
-    logger.trace(">> readFolder()");
-    return this.getUserDirectory(username).readFolder(readFolder);
+    return this.readFolder(readFolder, username, null, null);
   }
 
   /**
-   * Delete the specified folder
+   * Read a page of the specified folder, with a query for the nodes directly in it rather than the
+   * directory of the user. Folders and files are listed by name, a page holds at most pageSize of
+   * them and the response carries the cursor of the next page, null on the last page.
    *
-   * @param deleteFolder - string of the full path to folder to be read
+   * @param readFolder - string of the full path to folder to be read
    * @param username - name of the user who owns the file
-   * @return Directory - resulting directory object with folder deleted
+   * @param cursor - cursor returned with the previous page, null for the first page
+   * @param pageSize - maximum number of nodes in the page, null for the default
+   * @return ReadFolder - DTO containing file metadata
+   */
+  public ReadFolder readFolder(final String readFolder, final String username,
+      final String cursor, final Integer pageSize) {
+    logger.trace(">> readFolder()");
+    Path.validatePath(readFolder);
+    int rows = pageSize == null ? DEFAULT_PAGE_SIZE : pageSize;
+    if (rows < 1 || rows > MAX_PAGE_SIZE) {
+      logger.error("Page size out of range");
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, INVALID_PAGE_SIZE);
+    }
+    FolderCursor from = FolderCursor.decode(cursor);
+
+    String folder = Path.pathsAreEqual(readFolder, ROOT_PATH) ? ROOT_PATH : readFolder;
+    if (from == FolderCursor.FIRST && !ROOT_PATH.equals(folder)) {
+      folder = this.findFolder(readFolder, username).getFullPath();
+    }
+
+    CursorPage<NodeDTO> page =
+        directoryRepo.findChildren(username, folder, from.getCursorMark(), rows);
+    List<NodeDTO> nodes = page.getNodes();
+    boolean lastPage = page.isLast(from.getCursorMark(), rows);
+    NodeDTO pageEnd = nodes.isEmpty() ? null : nodes.get(nodes.size() - 1);
+
+    // pending writes are listed on the page their name sorts into
+    String parent = folder;
+    List<NodeDTO> merged = new ArrayList<>(pendingWrites.merge(nodes, NodeDTO.class,
+        node -> username.equals(node.getOwner()) && Path.pathsAreEqual(node.getParentPath(), parent)
+            && from.isAfterLast(node)
+            && (lastPage || FolderCursor.ORDER.compare(node, pageEnd) <= 0)));
+    merged.sort(FolderCursor.ORDER);
+
+    Set<String> childFolders = new LinkedHashSet<>();
+    Set<String> files = new LinkedHashSet<>();
+    for (NodeDTO node : merged) {
+      (node.getType() == DirElementType.FOLDER ? childFolders : files)
+          .add(node.getDiscriminator());
+    }
+    String nextCursor =
+        lastPage ? null : new FolderCursor(page.getNextCursorMark(), pageEnd).encode();
+
+    logger.trace("<< readFolder()");
+    return new ReadFolder(folder, childFolders, files, nextCursor);
+  }
+
+  /**
+   * Delete the specified folder and everything below it with a single delete by query, without
+   * loading the directory. The content hashes of the files below the folder are looked up first, so
+   * their content can be released once the delete is visible; that lookup takes time linear in the
+   * number of files below the folder.
+   *
+   * @param deleteFolder - string of the full path to folder to be deleted
+   * @param username - name of the user who owns the folder
    */
-  public Directory deleteFolder(final String deleteFolder, final String username) {
+  public void deleteFolder(final String deleteFolder, final String username) {
     logger.trace(">> deleteFolder()");
+    Path.validatePath(deleteFolder);
 
-    Directory dir = this.getUserDirectory(username);
-    Set<NodeDTO> toBeDeleted = dir.getSubDirectory(deleteFolder);
-    dir.deleteParentAndAllChildren(deleteFolder);
-    directoryRepo.deleteAll(toBeDeleted);
+    NodeDTO folder = this.findFolder(deleteFolder, username);
+    List<FileDTO> files = this.findFilesBelow(folder.getFullPath(), username);
+    directoryRepo.deleteSubtree(username, folder.getFullPath());
+    directoryCache.updateIfPresent(username, dir -> {
+      dir.deleteParentAndAllChildren(folder.getFullPath());
+      dir.drainChanges();
+    });
+    contentReferences.releaseAll(files);
 
     logger.trace("<< deleteFolder()");
-    return dir;
+  }
+
+  /**
+   * The folder document at the provided path, including writes not visible to queries yet
+   *
+   * @throws InvalidPathException - if the folder does not exist
+   */
+  private NodeDTO findFolder(final String fullPath, final String username) {
+    NodeDTO folder = pendingWrites.mergeOne(
+        directoryRepo.findFolderByFullPathAndOwner(username, Path.escapeSlashes(fullPath)),
+        NodeDTO.class, node -> node.getType() == DirElementType.FOLDER
+            && username.equals(node.getOwner())
+            && Path.pathsAreEqual(node.getFullPath(), fullPath));
+    if (folder == null) {
+      Path path = new Path(fullPath);
+      while (path.hasNext()) {
+        path.next();
+      }
+      logger.error("Folder does not exist");
+      throw new InvalidPathException(InvalidPathException.FOLDER_DOES_NOT_EXIST,
+          path.currentDiscriminator(), fullPath);
+    }
+    return folder;
+  }
+
+  /**
+   * The files below the provided folder, at any depth, holding only their content hash. Read with a
+   * cursor mark, so the lookup takes time linear in the number of files below the folder.
+   */
+  private List<FileDTO> findFilesBelow(final String folder, final String username) {
+    List<FileDTO> files = new ArrayList<>();
+    String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+    CursorPage<FileDTO> page;
+    do {
+      page = fileRepo.findContentHashesBelow(username, folder, cursorMark, HASH_PAGE_SIZE);
+      files.addAll(page.getNodes());
+      if (page.isLast(cursorMark, HASH_PAGE_SIZE)) {
+        break;
+      }
+      cursorMark = page.getNextCursorMark();
+    } while (true);
+
+    String below = folder + "/";
+    return pendingWrites.merge(files, FileDTO.class,
+        file -> username.equals(file.getOwner()) && file.getFullPath() != null
+            && file.getFullPath().startsWith(below));
+  }
+
+  /**
+   * Builds the directory of the provided username from the repository
+   *
+   * @param username - string of the username
+   * @return Directory - the directory excluding fileBytes
+   */
+  private Directory loadUserDirectory(final String username) {
+    try {
+      List<NodeDTO> nodes = pendingWrites.merge(directoryRepo.findByOwner(username),
+          NodeDTO.class, node -> username.equals(node.getOwner()));
+      return Directory.expand(new HashSet<>(nodes), username);
+    } catch (Exception e) {
+      logger.error("Failed to expand directory for provided username", e);
+      throw new DirectoryAccessException("Failed to expand directory for provided username");
+    }
   }
 
 }
@@ -1,9 +1,18 @@
 package com.bc92.directoryservice.service;
 
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamSource;
 import com.bc92.directoryservice.model.Path;
 import lombok.Getter;
 import lombok.Setter;
 
+/**
+ * A file to be written to the directory. The content is only read when it is stored, as a stream,
+ * so it is never held on the heap as a whole.
+ *
+ * @author Brian
+ *
+ */
 @Getter
 @Setter
 public class File {
@@ -11,15 +20,25 @@ public class File {
   private String fullPath;
   private String parentPath;
   private String discriminator;
-  private byte[] fileBytes;
+  private InputStreamSource content;
 
-  public File(final String parentPath, final String discriminator, final byte[] fileBytes) {
+  /**
+   * SHA-256 of the content declared by the client, optional
+   */
+  private String contentHash;
+
+  public File(final String parentPath, final String discriminator,
+      final InputStreamSource content) {
     this.discriminator = discriminator;
     this.parentPath = parentPath;
-    this.fileBytes = fileBytes;
+    this.content = content;
     this.validate();
   }
 
+  public File(final String parentPath, final String discriminator, final byte[] fileBytes) {
+    this(parentPath, discriminator, new ByteArrayResource(fileBytes));
+  }
+
   public void validate() {
     Path.validatePath(parentPath);
     Path.validateDiscriminator(discriminator);
@@ -0,0 +1,32 @@
+package com.bc92.directoryservice.service;
+
+import org.springframework.core.io.Resource;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * The content of a file as read from the blob store, with the metadata needed to serve it
+ *
+ * @author Brian
+ *
+ */
+@Getter
+@AllArgsConstructor
+public class FileContent {
+
+  private final String discriminator;
+  private final String contentHash;
+  private final long size;
+
+  /**
+   * Epoch millis of when the content was last set, -1 if it is not known
+   */
+  private final long lastModified;
+  private final Resource resource;
+
+  /**
+   * The content as the gzip stream it is stored as, null if it is not stored compressed
+   */
+  private final Resource gzipResource;
+
+}
@@ -0,0 +1,189 @@
+package com.bc92.directoryservice.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+import com.bc92.directoryservice.dto.FileDTO;
+import com.bc92.directoryservice.repo.Hashes;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Updates of files from a delta against their stored content, so a small change to a large file
+ * only sends the changed bytes. The client reads the {@link BlockSignatures} of the stored content,
+ * finds the blocks it still holds with the {@link RollingChecksum}, and sends a delta copying those
+ * blocks and carrying the rest, see {@link DeltaInputStream}.
+ * <p>
+ * The new version is rebuilt as it is streamed to the blob store, through
+ * {@link FileService#updateFile(File, String)}, so it is stored, deduplicated and referenced like
+ * any other update.
+ *
+ * @author Brian
+ *
+ */
+@Component
+public class FileDeltaService implements MeterBinder {
+
+  private static final Logger logger = LoggerFactory.getLogger(FileDeltaService.class);
+
+  private static final String FILE_NOT_FOUND = "File not found";
+
+  private static final String BASE_CHANGED = "File content changed since its signatures were read";
+
+  private final FileService fileService;
+
+  private final int blockSize;
+
+  private final long maxSize;
+
+  private final AtomicLong copiedBytes = new AtomicLong();
+
+  private final AtomicLong literalBytes = new AtomicLong();
+
+  public FileDeltaService(final FileService fileService,
+      @Value("${directory.delta.block-size:64KB}") final DataSize blockSize,
+      @Value("${spring.servlet.multipart.max-file-size:10GB}") final DataSize maxSize) {
+    this.fileService = fileService;
+    this.blockSize = (int) blockSize.toBytes();
+    this.maxSize = maxSize.toBytes();
+  }
+
+  /**
+   * Compute the signatures of the blocks of the stored content of a file, streaming the content
+   *
+   * @param fullPath - string representing the path of the file, including filename
+   * @param username - name of the user who owns the file
+   * @return BlockSignatures - the signature of each block, with the hash of the content
+   */
+  public BlockSignatures getSignatures(final String fullPath, final String username) {
+    logger.trace(">> getSignatures()");
+    FileContent content = fileService.readFile(fullPath, username);
+    List<BlockSignatures.Block> blocks = new ArrayList<>();
+    MessageDigest digest = Hashes.sha256();
+    byte[] buffer = new byte[blockSize];
+
+    try (InputStream in = content.getResource().getInputStream()) {
+      int read;
+      while ((read = FileDeltaService.readBlock(in, buffer)) > 0) {
+        digest.update(buffer, 0, read);
+        blocks.add(new BlockSignatures.Block(RollingChecksum.of(buffer, 0, read).getValue(),
+            Hashes.toHex(digest.digest())));
+      }
+    } catch (IOException e) {
+      logger.error("Failed to read content of {}", fullPath, e);
+      throw new DirectoryAccessException("Failed to read file content", e);
+    }
+
+    logger.trace("<< getSignatures()");
+    return new BlockSignatures(content.getContentHash(), content.getSize(), blockSize, blocks);
+  }
+
+  /**
+   * Replace the content of a file with the content built from its stored content and the provided
+   * delta
+   *
+   * @param fullPath - string representing the path of the file, including filename
+   * @param baseHash - hash of the content the delta was computed against, from its signatures
+   * @param delta - the delta, see {@link DeltaInputStream}
+   * @param contentHash - SHA-256 of the new content declared by the client, optional
+   * @param username - name of the user who owns the file
+   * @return ReadFile - DTO containing file metadata
+   */
+  public ReadFile applyDelta(final String fullPath, final String baseHash,
+      final InputStreamSource delta, final String contentHash, final String username) {
+    logger.trace(">> applyDelta()");
+    FileDTO file = fileService.getFile(fullPath, username);
+    if (file == null) {
+      logger.error(FILE_NOT_FOUND);
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, FILE_NOT_FOUND);
+    }
+    FileContent base = fileService.readFile(fullPath, username);
+    if (!base.getContentHash().equals(baseHash)) {
+      logger.error(BASE_CHANGED);
+      throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, BASE_CHANGED);
+    }
+
+    Path copy = null;
+    try {
+      Resource resource = base.getResource();
+      if (!resource.isFile()) {
+        // content stored compressed is inflated once, copies then read any range of it directly
+        copy = Files.createTempFile("delta-base", null);
+        try (InputStream in = resource.getInputStream()) {
+          Files.copy(in, copy, StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+
+      // the stored content stays readable through the open channel even if it is released
+      try (FileChannel channel = FileChannel.open(
+          copy != null ? copy : resource.getFile().toPath(), StandardOpenOption.READ)) {
+        DeltaInputStream[] rebuilt = new DeltaInputStream[1];
+        File update = new File(file.getParentPath(), file.getDiscriminator(), () -> {
+          rebuilt[0] = new DeltaInputStream(delta.getInputStream(), channel, base.getSize(),
+              maxSize);
+          return rebuilt[0];
+        });
+        update.setContentHash(contentHash);
+        ReadFile updated = fileService.updateFile(update, username);
+
+        if (rebuilt[0] != null) {
+          copiedBytes.addAndGet(rebuilt[0].getCopied());
+          literalBytes.addAndGet(rebuilt[0].getLiteral());
+        }
+        logger.trace("<< applyDelta()");
+        return updated;
+      }
+    } catch (IOException e) {
+      logger.error("Failed to read stored content of {}", fullPath, e);
+      throw new DirectoryAccessException("Failed to read file content", e);
+    } finally {
+      if (copy != null) {
+        try {
+          Files.deleteIfExists(copy);
+        } catch (IOException e) {
+          logger.warn("Failed to remove {}", copy, e);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void bindTo(final MeterRegistry registry) {
+    FunctionCounter.builder("directory.delta.copied", copiedBytes, AtomicLong::get)
+        .baseUnit("bytes").description("Bytes of updated files copied from their stored content")
+        .register(registry);
+    FunctionCounter.builder("directory.delta.literal", literalBytes, AtomicLong::get)
+        .baseUnit("bytes").description("Bytes of updated files sent in deltas").register(registry);
+  }
+
+  /**
+   * Read up to a whole block, less only at the end of the content
+   */
+  private static int readBlock(final InputStream in, final byte[] buffer) throws IOException {
+    int total = 0;
+    int read;
+    while (total < buffer.length && (read = in.read(buffer, total, buffer.length - total)) != -1) {
+      total += read;
+    }
+    return total;
+  }
+
+}
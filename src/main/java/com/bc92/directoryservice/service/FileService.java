@@ -1,18 +1,37 @@
 package com.bc92.directoryservice.service;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 import org.springframework.web.server.ResponseStatusException;
 import com.bc92.directoryservice.dto.FileDTO;
 import com.bc92.directoryservice.dto.NodeDTO;
+import com.bc92.directoryservice.dto.NodeDTO.DirElementType;
+import com.bc92.directoryservice.model.InvalidDiscriminatorException;
+import com.bc92.directoryservice.model.InvalidPathException;
 import com.bc92.directoryservice.model.Path;
+import com.bc92.directoryservice.repo.BlobStore;
 import com.bc92.directoryservice.repo.DirectoryRepository;
 import com.bc92.directoryservice.repo.FileRepository;
+import com.bc92.directoryservice.repo.PendingWrites;
+import com.bc92.directoryservice.repo.StoredBlob;
 import lombok.AllArgsConstructor;
 
 @AllArgsConstructor
@@ -27,10 +46,20 @@ public class FileService {
 
   private static final String FILE_CONFLICT = "File already exists";
 
+  private static final String BATCH_DUPLICATE = "File appears more than once in the batch";
+
   private final DirectoryRepository directoryRepo;
 
   private final FileRepository fileRepo;
 
+  private final DirectoryCache directoryCache;
+
+  private final BlobStore blobStore;
+
+  private final ContentReferences contentReferences;
+
+  private final PendingWrites pendingWrites;
+
 
   /**
    * Get the specified folder from the repo
@@ -41,39 +70,81 @@ public class FileService {
    */
   public NodeDTO getFolder(final String fullPath, final String username) {
     Path.validatePath(fullPath);
-    return directoryRepo.findFolderByFullPathAndOwner(username, Path.escapeSlashes(fullPath));
+    return pendingWrites.mergeOne(
+        directoryRepo.findFolderByFullPathAndOwner(username, Path.escapeSlashes(fullPath)),
+        NodeDTO.class, node -> node.getType() == DirElementType.FOLDER
+            && FileService.isAt(node, username, fullPath));
   }
 
   /**
-   * Get the specified file from the repo
+   * Get the metadata of the specified file from the repo, the file bytes are not fetched
    *
    * @param fullPath - string representing the path of the file, including filename
    * @param username - name of the user who owns the file
-   * @return NodeDTO - DTO containing the file data
+   * @return NodeDTO - DTO containing the file metadata
    */
   public FileDTO getFile(final String fullPath, final String username) {
     Path.validatePath(fullPath);
-    return fileRepo.findFileByFullPathAndOwner(username, Path.escapeSlashes(fullPath));
+    return pendingWrites.mergeOne(
+        fileRepo.findFileByFullPathAndOwner(username, Path.escapeSlashes(fullPath)), FileDTO.class,
+        file -> FileService.isAt(file, username, fullPath));
   }
 
   /**
-   * Return the bytes of a file, if it exists
+   * Return the content of a file, if it exists. Content still held in the file document is moved to
+   * the blob store first. The content is not read here, the returned resource is streamed by the
+   * caller.
    *
    * @param fullPath - string representing the path of the file, including filename
    * @param username - name of the user who owns the file
-   * @return ByteArrayResource - file bytes
+   * @return FileContent - the stored content with its hash and size
    */
-  public Resource readFile(final String fullPath, final String username) {
+  public FileContent readFile(final String fullPath, final String username) {
     logger.trace(">> readFile()");
     FileDTO fileElement = this.getFile(fullPath, username);
 
+    if (fileElement != null && fileElement.getContentHash() == null) {
+      fileElement = pendingWrites.mergeOne(
+          fileRepo.findFileContentByFullPathAndOwner(username, Path.escapeSlashes(fullPath)),
+          FileDTO.class, file -> FileService.isAt(file, username, fullPath));
+      if (fileElement != null) {
+        this.migrateContent(fileElement);
+      }
+    }
+
     if (fileElement == null) {
       logger.error(FILE_NOT_FOUND);
       throw new ResponseStatusException(HttpStatus.BAD_REQUEST, FILE_NOT_FOUND);
     }
 
     logger.trace("<< readFile()");
-    return new ByteArrayResource(fileElement.getFileBytes().array());
+    try {
+      String hash = fileElement.getContentHash();
+      long lastModified =
+          fileElement.getLastModified() == null ? -1 : fileElement.getLastModified().getTime();
+      return new FileContent(fileElement.getDiscriminator(), hash, fileElement.getSize(),
+          lastModified, blobStore.get(hash), blobStore.getCompressed(hash));
+    } catch (IOException e) {
+      logger.error("Content of {} is missing from the blob store", fullPath, e);
+      throw new DirectoryAccessException("Failed to read file content", e);
+    }
+  }
+
+  /**
+   * Move the content held in the provided file document into the blob store, and save the document
+   * without it
+   *
+   * @param legacy - file document holding its content in fileBytes
+   */
+  public void migrateContent(final FileDTO legacy) {
+    ByteBuffer bytes = legacy.getFileBytes();
+    InputStream content = bytes == null ? new ByteArrayInputStream(new byte[0])
+        : new ByteArrayInputStream(bytes.array(), bytes.arrayOffset() + bytes.position(),
+            bytes.remaining());
+
+    legacy.setContent(this.storeContent(content));
+    contentReferences.save(legacy);
+    logger.debug("Moved content of {} to the blob store", legacy.getFullPath());
   }
 
   /**
@@ -85,6 +156,144 @@ public class FileService {
    */
   public ReadFile uploadFile(final File file, final String username) {
     logger.trace(">> uploadFile()");
+    this.checkUpload(file, username);
+
+    FileDTO created = new FileDTO(username, file, contentReferences.store(file, username));
+    contentReferences.save(created);
+    directoryCache.updateIfPresent(username, dir -> dir.addDirectoryElement(created));
+    logger.trace("<< uploadFile()");
+    return new ReadFile(file.getFullPath(), file.getDiscriminator());
+  }
+
+  /**
+   * Upload a batch of files in one pass. The name of each part is the path of the file relative to
+   * the provided folder, so a whole folder tree can be synced at once. Existence is checked with one
+   * query per parent folder, and the created files are saved in a single write.
+   * <p>
+   * Files are accepted or rejected independently, a file that cannot be created does not prevent
+   * the others from being created.
+   *
+   * @param parentPath - string of the path of the folder the files are uploaded into
+   * @param parts - content of each file, named by its path relative to parentPath
+   * @param username - name of the user who owns the files
+   * @return List<UploadResult> - the outcome for each part, in the order of the parts
+   */
+  public List<UploadResult> uploadFiles(final String parentPath,
+      final List<? extends Resource> parts, final String username) {
+    return this.uploadFiles(parentPath, parts, username, Runnable::run);
+  }
+
+  /**
+   * Upload a batch of files as {@link #uploadFiles(String, List, String)} does, storing the content
+   * of the files on the provided executor. The content of each part must be readable from any
+   * thread.
+   *
+   * @param parentPath - string of the path of the folder the files are uploaded into
+   * @param parts - content of each file, named by its path relative to parentPath
+   * @param username - name of the user who owns the files
+   * @param executor - executor the contents are stored on
+   * @return List<UploadResult> - the outcome for each part, in the order of the parts
+   */
+  public List<UploadResult> uploadFiles(final String parentPath,
+      final List<? extends Resource> parts, final String username, final Executor executor) {
+    logger.trace(">> uploadFiles()");
+    UploadResult[] results = new UploadResult[parts.size()];
+    File[] files = new File[parts.size()];
+    Map<String, List<Integer>> byParent = new LinkedHashMap<>();
+    Set<String> batchPaths = new HashSet<>();
+
+    for (int i = 0; i < parts.size(); i++) {
+      String relativePath = parts.get(i).getFilename();
+      try {
+        files[i] = FileService.batchFile(parentPath, relativePath, parts.get(i));
+      } catch (InvalidPathException | InvalidDiscriminatorException e) {
+        results[i] = new UploadResult(relativePath, HttpStatus.BAD_REQUEST, e.getMessage());
+        continue;
+      }
+      if (!batchPaths.add(files[i].getFullPath())) {
+        results[i] = new UploadResult(files[i].getFullPath(), HttpStatus.CONFLICT, BATCH_DUPLICATE);
+        continue;
+      }
+      byParent.computeIfAbsent(files[i].getParentPath(), p -> new ArrayList<>()).add(i);
+    }
+
+    for (Map.Entry<String, List<Integer>> parent : byParent.entrySet()) {
+      boolean folderExists = false;
+      Set<String> existing = new HashSet<>();
+      String folder = parent.getKey();
+      for (NodeDTO node : pendingWrites.merge(
+          directoryRepo.findFolderAndFilesByFullPathAndOwner(username, Path.escapeSlashes(folder)),
+          NodeDTO.class,
+          node -> node.getType() == DirElementType.FOLDER ? FileService.isAt(node, username, folder)
+              : username.equals(node.getOwner())
+                  && Path.pathsAreEqual(node.getParentPath(), folder))) {
+        if (node.getType() == DirElementType.FOLDER) {
+          folderExists = true;
+        } else {
+          existing.add(node.getDiscriminator());
+        }
+      }
+
+      for (int i : parent.getValue()) {
+        if (!folderExists) {
+          results[i] = new UploadResult(files[i].getFullPath(), HttpStatus.BAD_REQUEST,
+              PARENT_FOLDER_NOT_FOUND);
+        } else if (existing.contains(files[i].getDiscriminator())) {
+          results[i] =
+              new UploadResult(files[i].getFullPath(), HttpStatus.CONFLICT, FILE_CONFLICT);
+        }
+      }
+    }
+
+    Map<Integer, CompletableFuture<StoredBlob>> stored = new LinkedHashMap<>();
+    for (int i = 0; i < files.length; i++) {
+      if (results[i] == null) {
+        File file = files[i];
+        stored.put(i,
+            CompletableFuture.supplyAsync(() -> contentReferences.store(file, username), executor));
+      }
+    }
+
+    Map<FileDTO, Integer> created = new LinkedHashMap<>();
+    for (Map.Entry<Integer, CompletableFuture<StoredBlob>> blob : stored.entrySet()) {
+      int i = blob.getKey();
+      try {
+        created.put(new FileDTO(username, files[i], FileService.await(blob.getValue())), i);
+      } catch (ResponseStatusException e) {
+        results[i] = new UploadResult(files[i].getFullPath(), e.getStatus(), e.getReason());
+      } catch (DirectoryAccessException e) {
+        results[i] = new UploadResult(files[i].getFullPath(), HttpStatus.INTERNAL_SERVER_ERROR,
+            e.getMessage());
+      }
+    }
+
+    List<FileDTO> saved =
+        created.isEmpty() ? Collections.emptyList() : contentReferences.saveAll(created.keySet());
+    for (FileDTO file : saved) {
+      results[created.get(file)] = new UploadResult(file.getFullPath(), HttpStatus.CREATED, null);
+    }
+    for (Map.Entry<FileDTO, Integer> file : created.entrySet()) {
+      if (results[file.getValue()] == null) {
+        results[file.getValue()] = new UploadResult(file.getKey().getFullPath(),
+            HttpStatus.INTERNAL_SERVER_ERROR, "File content was removed while it was stored");
+      }
+    }
+    if (!saved.isEmpty()) {
+      directoryCache.updateIfPresent(username, dir -> saved.forEach(dir::addDirectoryElement));
+    }
+
+    logger.trace("<< uploadFiles()");
+    return Arrays.asList(results);
+  }
+
+  /**
+   * Check that the provided file can be uploaded, the file must not exist yet and its parent
+   * folder must exist. The content of the file is not read.
+   *
+   * @param file - the file to be uploaded
+   * @param username - name of the user who owns the file
+   */
+  public void checkUpload(final File file, final String username) {
     file.validate();
 
     if (this.getFile(file.getFullPath(), username) != null) {
@@ -96,10 +305,6 @@ public class FileService {
       logger.error(PARENT_FOLDER_NOT_FOUND);
       throw new ResponseStatusException(HttpStatus.BAD_REQUEST, PARENT_FOLDER_NOT_FOUND);
     }
-
-    fileRepo.save(new FileDTO(username, file));
-    logger.trace("<< uploadFile()");
-    return new ReadFile(file.getFullPath(), file.getDiscriminator());
   }
 
   /**
@@ -119,6 +324,9 @@ public class FileService {
     }
 
     fileRepo.delete(fileElement);
+    contentReferences.release(fileElement.getContentHash());
+    directoryCache.updateIfPresent(username,
+        dir -> dir.removeFile(fileElement.getParentPath(), fileElement.getDiscriminator()));
 
     logger.trace("<< deleteFile()");
     return new ReadFile(fileElement.getParentPath(), fileElement.getDiscriminator());
@@ -141,12 +349,64 @@ public class FileService {
       throw new ResponseStatusException(HttpStatus.BAD_REQUEST, FILE_NOT_FOUND);
     }
 
-    fileElement.setFileBytes(ByteBuffer.wrap(file.getFileBytes()));
+    String replaced = fileElement.getContentHash();
+    fileElement.setContent(contentReferences.store(file, username));
     fileElement.validate();
-    fileRepo.save(fileElement);
+    contentReferences.save(fileElement);
+    if (!fileElement.getContentHash().equals(replaced)) {
+      contentReferences.release(replaced);
+    }
 
     logger.trace("<< updateFile()");
     return new ReadFile(file.getFullPath(), file.getDiscriminator());
   }
 
+  /**
+   * Whether the provided node is the node of the provided user at the provided path
+   */
+  private static boolean isAt(final NodeDTO node, final String username, final String fullPath) {
+    return username.equals(node.getOwner()) && Path.pathsAreEqual(node.getFullPath(), fullPath);
+  }
+
+  /**
+   * The file at the provided path relative to the batch folder, throws if the path is not valid
+   */
+  private static File batchFile(final String parentPath, final String relativePath,
+      final Resource content) {
+    if (relativePath == null || relativePath.isEmpty()) {
+      throw new InvalidDiscriminatorException(InvalidDiscriminatorException.NULL_EMPTY_PATH);
+    }
+    int slash = relativePath.lastIndexOf('/');
+    if (slash == -1) {
+      return new File(parentPath, relativePath, content);
+    }
+    Path.validatePath(parentPath);
+    return new File(
+        Path.combineParentPathAndDiscriminator(parentPath, relativePath.substring(0, slash)),
+        relativePath.substring(slash + 1), content);
+  }
+
+  /**
+   * The stored content, with the exception that failed the store rethrown as it was thrown
+   */
+  private static StoredBlob await(final CompletableFuture<StoredBlob> stored) {
+    try {
+      return stored.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new DirectoryAccessException("Failed to store file content", e.getCause());
+    }
+  }
+
+  private StoredBlob storeContent(final InputStream content) {
+    try {
+      return blobStore.put(content);
+    } catch (IOException e) {
+      logger.error("Failed to write file content to the blob store", e);
+      throw new DirectoryAccessException("Failed to store file content", e);
+    }
+  }
+
 }
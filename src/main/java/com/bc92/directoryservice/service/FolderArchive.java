@@ -0,0 +1,67 @@
+package com.bc92.directoryservice.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.stream.Stream;
+import com.bc92.directoryservice.dto.NodeDTO;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * A ZIP archive of a folder subtree that has been checked but not written yet, so a missing folder
+ * is reported before anything is sent. See {@link FolderArchiveService}.
+ *
+ * @author Brian
+ *
+ */
+@Getter
+public class FolderArchive {
+
+  /**
+   * File name of the archive, the name of the folder with a .zip extension
+   */
+  private final String name;
+
+  @Getter(AccessLevel.NONE)
+  private final String folderPath;
+
+  @Getter(AccessLevel.NONE)
+  private final Stream<NodeDTO> nodes;
+
+  @Getter(AccessLevel.NONE)
+  private final String username;
+
+  @Getter(AccessLevel.NONE)
+  private final FolderArchiveService archiveService;
+
+  FolderArchive(final String folderPath, final Stream<NodeDTO> nodes, final String username,
+      final FolderArchiveService archiveService) {
+    this.folderPath = folderPath;
+    this.nodes = nodes;
+    this.username = username;
+    this.archiveService = archiveService;
+    String folderName = FolderArchive.entryName(folderPath, folderPath);
+    name = (folderName.endsWith("/") ? folderName.substring(0, folderName.length() - 1)
+        : folderName) + ".zip";
+  }
+
+  /**
+   * Stream the archive to the provided output, which is not closed
+   *
+   * @param out - destination of the archive
+   * @throws IOException - if the content could not be read or the archive could not be written
+   */
+  public void writeTo(final OutputStream out) throws IOException {
+    archiveService.write(folderPath, nodes, username, out);
+  }
+
+  /**
+   * Name of the entry of the provided node, its path relative to the parent of the archived folder
+   */
+  static String entryName(final String folderPath, final String fullPath) {
+    int end = folderPath.endsWith("/") ? folderPath.length() - 1 : folderPath.length();
+    int start = folderPath.lastIndexOf('/', end - 1) + 1;
+    return fullPath.substring(start);
+  }
+
+}
@@ -0,0 +1,269 @@
+package com.bc92.directoryservice.service;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import com.bc92.directoryservice.dto.FileDTO;
+import com.bc92.directoryservice.dto.NodeDTO;
+import com.bc92.directoryservice.dto.NodeDTO.DirElementType;
+import com.bc92.directoryservice.repo.BlobStore;
+import com.bc92.directoryservice.repo.FileRepository;
+import com.bc92.directoryservice.repo.PendingWrites;
+
+/**
+ * Streams ZIP archives of folder subtrees. The subtree is walked in batches, the content hashes of
+ * each batch are fetched with one query, and the content of each file is copied from the blob store
+ * into the archive, so memory use does not depend on the size of the archive.
+ * <p>
+ * Content the blob store kept raw did not compress well, it is typically already compressed, so it
+ * is stored in the archive as it is. A stored entry needs its CRC before it is written, the CRCs of
+ * the next entries are computed in parallel while the current entry is written, which also brings
+ * their content into the page cache. Content the blob store compressed is deflated in the archive.
+ *
+ * @author Brian
+ *
+ */
+@Component
+public class FolderArchiveService {
+
+  private static final Logger logger = LoggerFactory.getLogger(FolderArchiveService.class);
+
+  private static final int LOOKUP_BATCH_SIZE = 500;
+
+  private final DirectoryService directoryService;
+
+  private final FileService fileService;
+
+  private final FileRepository fileRepo;
+
+  private final BlobStore blobStore;
+
+  private final PendingWrites pendingWrites;
+
+  private final int prefetchDepth;
+
+  private final ExecutorService prefetcher;
+
+  public FolderArchiveService(final DirectoryService directoryService,
+      final FileService fileService, final FileRepository fileRepo, final BlobStore blobStore,
+      final PendingWrites pendingWrites,
+      @Value("${directory.zip.prefetch-threads:4}") final int prefetchThreads,
+      @Value("${directory.zip.prefetch-depth:8}") final int prefetchDepth) {
+    this.directoryService = directoryService;
+    this.fileService = fileService;
+    this.fileRepo = fileRepo;
+    this.blobStore = blobStore;
+    this.pendingWrites = pendingWrites;
+    this.prefetchDepth = prefetchDepth;
+    CustomizableThreadFactory threads = new CustomizableThreadFactory("zip-prefetch-");
+    threads.setDaemon(true);
+    prefetcher = Executors.newFixedThreadPool(prefetchThreads, threads);
+  }
+
+  /**
+   * Check the provided folder exists and prepare its archive, nothing is read until the archive is
+   * written
+   *
+   * @param folder - string of the full path of the folder
+   * @param username - name of the user who owns the folder
+   * @return FolderArchive - the archive, to be written to the response
+   */
+  public FolderArchive prepare(final String folder, final String username) {
+    logger.trace(">><< prepare()");
+    Stream<NodeDTO> nodes =
+        directoryService.getUserDirectory(username).streamSubDirectory(folder, false);
+    return new FolderArchive(folder, nodes, username, this);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    prefetcher.shutdownNow();
+  }
+
+  void write(final String folderPath, final Stream<NodeDTO> nodes, final String username,
+      final OutputStream out) throws IOException {
+    ZipOutputStream zip = new ZipOutputStream(new FilterOutputStream(out) {
+      @Override
+      public void write(final byte[] b, final int off, final int len) throws IOException {
+        out.write(b, off, len);
+      }
+
+      @Override
+      public void close() throws IOException {
+        // the archive is finished, the response stream is closed by the container
+        out.flush();
+      }
+    });
+    zip.setLevel(Deflater.BEST_SPEED);
+
+    try {
+      Batches.forEach(nodes, LOOKUP_BATCH_SIZE, batch -> {
+        try {
+          this.writeBatch(folderPath, batch, username, zip);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      zip.close();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private void writeBatch(final String folderPath, final List<NodeDTO> batch,
+      final String username, final ZipOutputStream zip) throws IOException {
+    List<String> fileIds = batch.stream().filter(node -> node.getType() == DirElementType.FILE)
+        .map(NodeDTO::getId).collect(Collectors.toList());
+    Map<String, FileDTO> files = new HashMap<>();
+    if (!fileIds.isEmpty()) {
+      for (FileDTO file : pendingWrites.merge(fileRepo.findByIdIn(fileIds), FileDTO.class,
+          file -> fileIds.contains(file.getId()))) {
+        files.put(file.getId(), file);
+      }
+    }
+
+    List<Entry> entries = new ArrayList<>(batch.size());
+    for (NodeDTO node : batch) {
+      String name = FolderArchive.entryName(folderPath, node.getFullPath());
+      if (node.getType() == DirElementType.FOLDER) {
+        entries.add(new Entry(name + "/", null, null, false, -1));
+        continue;
+      }
+      FileDTO file = files.get(node.getId());
+      if (file == null) {
+        // deleted since the tree was read
+        continue;
+      }
+      long modified = file.getLastModified() == null ? -1 : file.getLastModified().getTime();
+      if (file.getContentHash() == null) {
+        FileContent legacy = fileService.readFile(node.getFullPath(), username);
+        entries.add(new Entry(name, legacy.getResource(), legacy.getSize(),
+            legacy.getGzipResource() != null, modified));
+      } else {
+        entries.add(new Entry(name, blobStore.get(file.getContentHash()), file.getSize(),
+            blobStore.getCompressed(file.getContentHash()) != null, modified));
+      }
+    }
+
+    Deque<Future<Long>> crcs = new ArrayDeque<>();
+    int prefetched = 0;
+    try {
+      for (int i = 0; i < entries.size(); i++) {
+        for (; prefetched < entries.size() && prefetched <= i + prefetchDepth; prefetched++) {
+          crcs.add(this.prefetch(entries.get(prefetched)));
+        }
+        this.writeEntry(entries.get(i), FolderArchiveService.await(crcs.poll()), zip);
+      }
+    } finally {
+      crcs.forEach(crc -> crc.cancel(true));
+    }
+  }
+
+  private Future<Long> prefetch(final Entry entry) {
+    if (entry.resource == null || entry.deflate) {
+      return CompletableFuture.completedFuture(null);
+    }
+    return prefetcher.submit(() -> {
+      CRC32 crc = new CRC32();
+      byte[] buffer = new byte[StreamUtils.BUFFER_SIZE];
+      try (InputStream in = entry.resource.getInputStream()) {
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          crc.update(buffer, 0, read);
+        }
+      }
+      return crc.getValue();
+    });
+  }
+
+  private void writeEntry(final Entry entry, final Long crc, final ZipOutputStream zip)
+      throws IOException {
+    ZipEntry zipEntry = new ZipEntry(entry.name);
+    if (entry.modified >= 0) {
+      zipEntry.setTime(entry.modified);
+    }
+    if (entry.resource == null) {
+      zip.putNextEntry(zipEntry);
+      zip.closeEntry();
+      return;
+    }
+
+    if (!entry.deflate) {
+      long size = entry.size >= 0 ? entry.size : entry.resource.contentLength();
+      zipEntry.setMethod(ZipEntry.STORED);
+      zipEntry.setSize(size);
+      zipEntry.setCompressedSize(size);
+      zipEntry.setCrc(crc);
+    }
+    zip.putNextEntry(zipEntry);
+    try (InputStream in = entry.resource.getInputStream()) {
+      StreamUtils.copy(in, zip);
+    }
+    zip.closeEntry();
+  }
+
+  private static Long await(final Future<Long> crc) throws IOException {
+    try {
+      return crc.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while reading file content");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Failed to read file content", e.getCause());
+    }
+  }
+
+  /**
+   * An entry of the archive, a folder when it has no resource
+   */
+  private static final class Entry {
+
+    private final String name;
+    private final Resource resource;
+    private final long size;
+    private final boolean deflate;
+    private final long modified;
+
+    private Entry(final String name, final Resource resource, final Long size,
+        final boolean deflate, final long modified) {
+      this.name = name;
+      this.resource = resource;
+      this.size = size == null ? -1 : size;
+      this.deflate = deflate;
+      this.modified = modified;
+    }
+
+  }
+
+}
@@ -0,0 +1,89 @@
+package com.bc92.directoryservice.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Comparator;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import com.bc92.directoryservice.dto.NodeDTO;
+
+/**
+ * Continuation token of a paged folder listing. It holds the Solr cursor mark of the next page and
+ * the sort key of the last node returned, so writes that are not visible to queries yet are listed
+ * on the page they sort into. Encoded as URL safe base64.
+ *
+ * @author Brian
+ *
+ */
+final class FolderCursor {
+
+  static final String INVALID_CURSOR = "Invalid cursor";
+
+  /**
+   * Order of the listing, matching the sort of
+   * {@link com.bc92.directoryservice.repo.FolderListing#findChildren}
+   */
+  static final Comparator<NodeDTO> ORDER = Comparator
+      .comparing(NodeDTO::getDiscriminator, Comparator.nullsFirst(Comparator.naturalOrder()))
+      .thenComparing(NodeDTO::getId, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+  static final FolderCursor FIRST = new FolderCursor(CursorMarkParams.CURSOR_MARK_START, null);
+
+  private static final String SEPARATOR = "\n";
+
+  private final String cursorMark;
+
+  /**
+   * The last node returned so far, holding only its sort key, null before the first page
+   */
+  private final NodeDTO last;
+
+  FolderCursor(final String cursorMark, final NodeDTO last) {
+    this.cursorMark = cursorMark;
+    this.last = last;
+  }
+
+  String getCursorMark() {
+    return cursorMark;
+  }
+
+  /**
+   * Whether the provided node sorts after the last node returned so far
+   */
+  boolean isAfterLast(final NodeDTO node) {
+    return last == null || ORDER.compare(node, last) > 0;
+  }
+
+  String encode() {
+    String token = cursorMark + SEPARATOR + last.getDiscriminator() + SEPARATOR + last.getId();
+    return Base64.getUrlEncoder().withoutPadding()
+        .encodeToString(token.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Decode a token returned by {@link #encode()}, null for the first page
+   *
+   * @throws ResponseStatusException - BAD_REQUEST if the token is not valid
+   */
+  static FolderCursor decode(final String token) {
+    if (token == null || token.isEmpty()) {
+      return FIRST;
+    }
+    String[] parts;
+    try {
+      parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8)
+          .split(SEPARATOR, -1);
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, INVALID_CURSOR);
+    }
+    if (parts.length != 3 || parts[0].isEmpty() || parts[1].isEmpty() || parts[2].isEmpty()) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, INVALID_CURSOR);
+    }
+    NodeDTO last = new NodeDTO();
+    last.setDiscriminator(parts[1]);
+    last.setId(parts[2]);
+    return new FolderCursor(parts[0], last);
+  }
+
+}
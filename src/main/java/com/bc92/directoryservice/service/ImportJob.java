@@ -0,0 +1,103 @@
+package com.bc92.directoryservice.service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.http.HttpStatus;
+import com.bc92.directoryservice.service.ImportStatus.State;
+import lombok.Getter;
+
+/**
+ * An archive import that has been accepted. It is updated by the thread running the import and
+ * read by status requests, so every access is synchronized.
+ *
+ * @author Brian
+ *
+ */
+class ImportJob {
+
+  @Getter
+  private final String importId;
+
+  @Getter
+  private final String owner;
+
+  @Getter
+  private final String folder;
+
+  private State state = State.QUEUED;
+
+  private int fileCount = -1;
+
+  private int filesImported;
+
+  private int foldersCreated;
+
+  private final List<UploadResult> failures = new ArrayList<>();
+
+  private String message;
+
+  private Instant finished;
+
+  ImportJob(final String importId, final String owner, final String folder) {
+    this.importId = importId;
+    this.owner = owner;
+    this.folder = folder;
+  }
+
+  synchronized void start(final int fileCount) {
+    state = State.RUNNING;
+    this.fileCount = fileCount;
+  }
+
+  synchronized void complete() {
+    state = State.COMPLETED;
+    finished = Instant.now();
+  }
+
+  synchronized void fail(final String message) {
+    state = State.FAILED;
+    this.message = message;
+    finished = Instant.now();
+  }
+
+  synchronized void addFailure(final UploadResult failure) {
+    failures.add(failure);
+  }
+
+  /**
+   * Count the created folders, folders that already existed are neither created nor failed
+   */
+  synchronized void recordFolders(final List<UploadResult> results) {
+    for (UploadResult result : results) {
+      if (result.getStatus() == HttpStatus.CREATED) {
+        foldersCreated++;
+      } else if (result.getStatus() != HttpStatus.OK) {
+        failures.add(result);
+      }
+    }
+  }
+
+  synchronized void recordFiles(final List<UploadResult> results) {
+    for (UploadResult result : results) {
+      if (result.getStatus() == HttpStatus.CREATED) {
+        filesImported++;
+      } else {
+        failures.add(result);
+      }
+    }
+  }
+
+  /**
+   * Whether the import finished before the provided instant
+   */
+  synchronized boolean finishedBefore(final Instant instant) {
+    return finished != null && finished.isBefore(instant);
+  }
+
+  synchronized ImportStatus toStatus() {
+    return new ImportStatus(importId, folder, state, fileCount, filesImported, foldersCreated,
+        new ArrayList<>(failures), message);
+  }
+
+}
@@ -0,0 +1,49 @@
+package com.bc92.directoryservice.service;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Progress of an archive import, with the entries that could not be imported so far, see
+ * {@link ArchiveImportService}
+ *
+ * @author Brian
+ *
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class ImportStatus {
+
+  public enum State {
+    QUEUED, RUNNING, COMPLETED, FAILED
+  }
+
+  private String importId;
+  private String folder;
+  private State state;
+
+  /**
+   * Number of files in the archive, -1 until the archive has been read
+   */
+  private int fileCount;
+
+  private int filesImported;
+  private int foldersCreated;
+
+  /**
+   * Entries that were not imported, with the status a single upload of the entry would have
+   * answered
+   */
+  private List<UploadResult> failures;
+
+  /**
+   * Why the import stopped, null unless it failed
+   */
+  private String message;
+
+}
@@ -0,0 +1,82 @@
+package com.bc92.directoryservice.service;
+
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+import com.bc92.directoryservice.dto.NodeDTO;
+import com.bc92.directoryservice.repo.DirectoryRepository;
+import com.bc92.directoryservice.repo.FileRepository;
+import com.bc92.directoryservice.repo.SolrWriteCoordinator;
+import lombok.AllArgsConstructor;
+
+/**
+ * Indexes the ancestors and depth of every node written before they were indexed, when the service
+ * starts with directory.index.backfill-on-startup=true. Nodes are read whole and saved again, the
+ * fields are derived from the full path as they are written, see {@link NodeDTO#indexPath()}.
+ *
+ * @author Brian
+ *
+ */
+@Component
+@AllArgsConstructor
+@ConditionalOnProperty(name = "directory.index.backfill-on-startup", havingValue = "true")
+public class PathIndexBackfill implements ApplicationRunner {
+
+  private static final Logger logger = LoggerFactory.getLogger(PathIndexBackfill.class);
+
+  // legacy files are fetched with their content, so batches are kept small
+  private static final int BATCH_SIZE = 100;
+
+  private final DirectoryRepository directoryRepo;
+
+  private final FileRepository fileRepo;
+
+  private final SolrWriteCoordinator writeCoordinator;
+
+  @Override
+  public void run(final ApplicationArguments args) {
+    logger.info("Indexing the ancestors and depth of directory nodes");
+    int folders = this.backfill(directoryRepo::findUnindexedFolders, directoryRepo::saveAll);
+    int files = this.backfill(fileRepo::findUnindexedFiles, fileRepo::saveAll);
+    logger.info("Indexed the ancestors and depth of {} folders and {} files", folders, files);
+  }
+
+  /**
+   * Save nodes in batches until none are left unindexed. Saved nodes drop out of the query once
+   * visible, so the first page is fetched every time. Stops when the same batch comes back, rather
+   * than saving it again.
+   *
+   * @return int - number of indexed nodes
+   */
+  <T extends NodeDTO> int backfill(final Function<Pageable, Page<T>> findUnindexed,
+      final Function<Iterable<T>, Iterable<T>> saveAll) {
+    int indexed = 0;
+    String lastFirstId = null;
+
+    while (true) {
+      Page<T> batch = findUnindexed.apply(PageRequest.of(0, BATCH_SIZE));
+      if (!batch.hasContent()) {
+        return indexed;
+      }
+
+      String firstId = batch.getContent().get(0).getId();
+      if (firstId != null && firstId.equals(lastFirstId)) {
+        logger.error("Stopping backfill, the last batch is still not indexed");
+        return indexed;
+      }
+      lastFirstId = firstId;
+
+      saveAll.apply(batch.getContent());
+      writeCoordinator.sync();
+      indexed += batch.getNumberOfElements();
+    }
+  }
+
+}
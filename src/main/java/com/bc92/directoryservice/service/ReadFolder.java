@@ -1,5 +1,6 @@
 package com.bc92.directoryservice.service;
 
+import java.util.HashSet;
 import java.util.Set;
 import com.bc92.directoryservice.model.DirectoryNode;
 import lombok.AllArgsConstructor;
@@ -8,7 +9,8 @@ import lombok.NoArgsConstructor;
 import lombok.Setter;
 
 /**
- * Representation of a folder and its contents
+ * Representation of a folder and its contents, or of one page of them when read with
+ * {@link DirectoryService#readFolder(String, String, String, Integer)}
  *
  * @author Brian
  *
@@ -22,10 +24,15 @@ public class ReadFolder {
   private Set<String> childFolders;
   private Set<String> files;
 
+  /**
+   * Cursor of the next page of the folder, null on the last page
+   */
+  private String nextCursor;
+
   public ReadFolder(final DirectoryNode folderNode) {
     fullPath = folderNode.getFullPath();
-    childFolders = folderNode.getChildren().keySet();
-    files = folderNode.getFiles().keySet();
+    childFolders = new HashSet<>(folderNode.getChildren().keySet());
+    files = new HashSet<>(folderNode.getFiles().keySet());
   }
 
 }
@@ -0,0 +1,61 @@
+package com.bc92.directoryservice.service;
+
+/**
+ * The weak checksum of a block in {@link BlockSignatures}, the rsync checksum over unsigned bytes.
+ * It can be rolled one byte along the content in constant time, which lets a client find blocks of
+ * the stored version at any offset of its new version, confirming candidates with the strong hash.
+ *
+ * @author Brian
+ *
+ */
+public final class RollingChecksum {
+
+  private static final int MASK = 0xffff;
+
+  private final int length;
+
+  private int a;
+
+  private int b;
+
+  private RollingChecksum(final int length) {
+    this.length = length;
+  }
+
+  /**
+   * The checksum of the provided block
+   *
+   * @param block - buffer holding the block
+   * @param offset - offset of the block in the buffer
+   * @param length - length of the block
+   * @return RollingChecksum - checksum that can be rolled along the content
+   */
+  public static RollingChecksum of(final byte[] block, final int offset, final int length) {
+    RollingChecksum checksum = new RollingChecksum(length);
+    for (int i = 0; i < length; i++) {
+      int x = block[offset + i] & 0xff;
+      checksum.a += x;
+      checksum.b += (length - i) * x;
+    }
+    checksum.a &= MASK;
+    checksum.b &= MASK;
+    return checksum;
+  }
+
+  /**
+   * Move the window one byte along the content
+   *
+   * @param out - the first byte of the window, which leaves it
+   * @param in - the byte following the window, which enters it
+   */
+  public void roll(final byte out, final byte in) {
+    int x = out & 0xff;
+    a = (a - x + (in & 0xff)) & MASK;
+    b = (b - length * x + a) & MASK;
+  }
+
+  public int getValue() {
+    return b << 16 | a;
+  }
+
+}
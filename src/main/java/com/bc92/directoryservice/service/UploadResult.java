@@ -0,0 +1,30 @@
+package com.bc92.directoryservice.service;
+
+import org.springframework.http.HttpStatus;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * The outcome of one file of a batch upload, with the status a single upload of the file would
+ * have answered
+ *
+ * @author Brian
+ *
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class UploadResult {
+
+  private String fullPath;
+  private HttpStatus status;
+
+  /**
+   * Why the file was not created, null if it was
+   */
+  private String message;
+
+}
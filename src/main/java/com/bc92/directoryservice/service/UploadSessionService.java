@@ -0,0 +1,297 @@
+package com.bc92.directoryservice.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+import com.bc92.directoryservice.repo.UploadSession;
+import com.bc92.directoryservice.repo.UploadSessionStore;
+
+/**
+ * Uploads of large files in numbered chunks, which can be sent in any order, concurrently and
+ * again after a failure. The file is only created when the session is committed, through
+ * {@link FileService#uploadFile(File, String)}, so the usual conflict and parent folder checks
+ * apply and the file either exists with its complete content or not at all. A chunk, and the file
+ * the chunks make up, may not be larger than the maximum file size of a multipart upload.
+ * <p>
+ * While a session is being committed its chunks cannot be replaced, and a session cannot be
+ * committed while a chunk is being written, so the committed file is made of the chunks received
+ * before the commit.
+ * <p>
+ * Sessions that receive no chunks for the configured ttl are removed.
+ *
+ * @author Brian
+ *
+ */
+@Component
+public class UploadSessionService {
+
+  private static final Logger logger = LoggerFactory.getLogger(UploadSessionService.class);
+
+  static final int MAX_CHUNKS = 10000;
+
+  private static final String SESSION_NOT_FOUND = "Upload session not found";
+
+  private static final String INVALID_CHUNK = "Chunk index must be between 0 and " + MAX_CHUNKS;
+
+  private static final String MISSING_CHUNKS = "Upload session is missing chunks";
+
+  private static final String COMMIT_IN_PROGRESS = "Upload session is already being committed";
+
+  private static final String CHUNK_IN_PROGRESS = "A chunk of the upload session is being written";
+
+  static final String CHUNK_TOO_LARGE = "Chunk is larger than the maximum file size";
+
+  static final String FILE_TOO_LARGE = "Chunks make up a file larger than the maximum file size";
+
+  private final UploadSessionStore sessionStore;
+
+  private final FileService fileService;
+
+  private final Duration sessionTtl;
+
+  private final long maxSize;
+
+  /**
+   * Sessions being committed, also the lock under which commits and chunk writes are started
+   */
+  private final Set<String> committing = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Number of chunks being written, by session, changed holding the committing lock
+   */
+  private final Map<String, Integer> writing = new HashMap<>();
+
+  public UploadSessionService(final UploadSessionStore sessionStore,
+      final FileService fileService,
+      @Value("${directory.upload.session-ttl:24h}") final Duration sessionTtl,
+      @Value("${spring.servlet.multipart.max-file-size:10GB}") final DataSize maxSize) {
+    this.sessionStore = sessionStore;
+    this.fileService = fileService;
+    this.sessionTtl = sessionTtl;
+    this.maxSize = maxSize.toBytes();
+  }
+
+  /**
+   * Start an upload session for the provided file, checking up front that it could be created
+   *
+   * @param parentPath - string of the path of the folder the file will be created in
+   * @param discriminator - name of the file
+   * @param username - name of the user who owns the file
+   * @return UploadStatus - the new session, without any chunks
+   */
+  public UploadStatus initiate(final String parentPath, final String discriminator,
+      final String username) {
+    logger.trace(">> initiate()");
+    fileService.checkUpload(new File(parentPath, discriminator, (InputStreamSource) null),
+        username);
+
+    try {
+      UploadSession session = sessionStore.create(username, parentPath, discriminator);
+      logger.trace("<< initiate()");
+      return this.statusOf(session);
+    } catch (IOException e) {
+      logger.error("Failed to create upload session", e);
+      throw new DirectoryAccessException("Failed to create upload session", e);
+    }
+  }
+
+  /**
+   * Store a chunk of the session, replacing any chunk received with the same index. Refused with a
+   * conflict while the session is being committed.
+   *
+   * @param sessionId - id of the session
+   * @param index - index of the chunk, from 0
+   * @param content - the content of the chunk
+   * @param username - name of the user who owns the session
+   */
+  public void putChunk(final String sessionId, final int index, final InputStreamSource content,
+      final String username) {
+    logger.trace(">> putChunk()");
+    if (index < 0 || index >= MAX_CHUNKS) {
+      logger.error(INVALID_CHUNK);
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, INVALID_CHUNK);
+    }
+    this.getSession(sessionId, username);
+
+    synchronized (committing) {
+      if (committing.contains(sessionId)) {
+        logger.error(COMMIT_IN_PROGRESS);
+        throw new ResponseStatusException(HttpStatus.CONFLICT, COMMIT_IN_PROGRESS);
+      }
+      writing.merge(sessionId, 1, Integer::sum);
+    }
+    try (InputStream in =
+        new BoundedInputStream(content.getInputStream(), maxSize, CHUNK_TOO_LARGE)) {
+      sessionStore.putChunk(sessionId, index, in);
+    } catch (IOException e) {
+      logger.error("Failed to store chunk {} of upload session {}", index, sessionId, e);
+      throw new DirectoryAccessException("Failed to store chunk", e);
+    } finally {
+      synchronized (committing) {
+        writing.computeIfPresent(sessionId, (id, count) -> count == 1 ? null : count - 1);
+      }
+    }
+    logger.trace("<< putChunk()");
+  }
+
+  /**
+   * The session with the chunks it has received, so an interrupted upload can be resumed
+   *
+   * @param sessionId - id of the session
+   * @param username - name of the user who owns the session
+   * @return UploadStatus - the session and its received chunks
+   */
+  public UploadStatus getStatus(final String sessionId, final String username) {
+    logger.trace(">><< getStatus()");
+    return this.statusOf(this.getSession(sessionId, username));
+  }
+
+  /**
+   * Create the file from the chunks of the session, then remove the session
+   *
+   * @param sessionId - id of the session
+   * @param chunkCount - number of chunks making up the file, chunks 0 to chunkCount - 1 must have
+   *        been received
+   * @param contentHash - SHA-256 of the whole content declared by the client, optional
+   * @param username - name of the user who owns the session
+   * @return ReadFile - DTO containing file metadata
+   */
+  public ReadFile commit(final String sessionId, final int chunkCount, final String contentHash,
+      final String username) {
+    logger.trace(">> commit()");
+    synchronized (committing) {
+      if (writing.containsKey(sessionId)) {
+        logger.error(CHUNK_IN_PROGRESS);
+        throw new ResponseStatusException(HttpStatus.CONFLICT, CHUNK_IN_PROGRESS);
+      }
+      if (!committing.add(sessionId)) {
+        logger.error(COMMIT_IN_PROGRESS);
+        throw new ResponseStatusException(HttpStatus.CONFLICT, COMMIT_IN_PROGRESS);
+      }
+    }
+
+    try {
+      UploadSession session = this.getSession(sessionId, username);
+      SortedSet<Integer> chunks = this.statusOf(session).getReceivedChunks();
+      // indexes are never negative, so chunkCount indexes below chunkCount are all of them
+      if (chunkCount < 1 || chunkCount > MAX_CHUNKS
+          || chunks.headSet(chunkCount).size() != chunkCount) {
+        logger.error(MISSING_CHUNKS);
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, MISSING_CHUNKS);
+      }
+      if (this.sizeOf(sessionId, chunkCount) > maxSize) {
+        logger.error(FILE_TOO_LARGE);
+        throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, FILE_TOO_LARGE);
+      }
+
+      File file = new File(session.getParentPath(), session.getDiscriminator(),
+          () -> sessionStore.openChunks(sessionId, chunkCount));
+      file.setContentHash(contentHash);
+      ReadFile created = fileService.uploadFile(file, username);
+
+      this.delete(sessionId);
+      logger.trace("<< commit()");
+      return created;
+    } finally {
+      committing.remove(sessionId);
+    }
+  }
+
+  /**
+   * Abandon the session, removing the chunks it received
+   *
+   * @param sessionId - id of the session
+   * @param username - name of the user who owns the session
+   */
+  public void abort(final String sessionId, final String username) {
+    logger.trace(">><< abort()");
+    this.getSession(sessionId, username);
+    this.delete(sessionId);
+  }
+
+  /**
+   * Remove the sessions that have not received a chunk for longer than the session ttl
+   *
+   * @return int - number of removed sessions
+   */
+  @Scheduled(fixedDelayString = "${directory.upload.cleanup-interval:PT10M}")
+  public int expireSessions() {
+    int expired = 0;
+    try {
+      for (UploadSession session : sessionStore
+          .findInactiveSince(Instant.now().minus(sessionTtl))) {
+        if (!committing.contains(session.getId()) && this.delete(session.getId())) {
+          expired++;
+        }
+      }
+    } catch (IOException e) {
+      logger.error("Failed to list upload sessions", e);
+    }
+
+    if (expired > 0) {
+      logger.info("Removed {} inactive upload sessions", expired);
+    }
+    return expired;
+  }
+
+  private UploadSession getSession(final String sessionId, final String username) {
+    UploadSession session;
+    try {
+      session = sessionStore.get(sessionId);
+    } catch (IOException e) {
+      logger.error("Failed to read upload session {}", sessionId, e);
+      throw new DirectoryAccessException("Failed to read upload session", e);
+    }
+
+    if (session == null || !session.getOwner().equals(username)) {
+      logger.error(SESSION_NOT_FOUND);
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, SESSION_NOT_FOUND);
+    }
+    return session;
+  }
+
+  private UploadStatus statusOf(final UploadSession session) {
+    try {
+      return new UploadStatus(session.getId(), session.getParentPath(),
+          session.getDiscriminator(), sessionStore.getChunks(session.getId()));
+    } catch (IOException e) {
+      logger.error("Failed to list chunks of upload session {}", session.getId(), e);
+      throw new DirectoryAccessException("Failed to read upload session", e);
+    }
+  }
+
+  private long sizeOf(final String sessionId, final int chunkCount) {
+    try {
+      return sessionStore.getChunksSize(sessionId, chunkCount);
+    } catch (IOException e) {
+      logger.error("Failed to read the chunks of upload session {}", sessionId, e);
+      throw new DirectoryAccessException("Failed to read upload session", e);
+    }
+  }
+
+  private boolean delete(final String sessionId) {
+    try {
+      return sessionStore.delete(sessionId);
+    } catch (IOException e) {
+      // the session is left to expire
+      logger.error("Failed to remove upload session {}", sessionId, e);
+      return false;
+    }
+  }
+
+}
@@ -0,0 +1,20 @@
+package com.bc92.directoryservice.service;
+
+import java.util.SortedSet;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class UploadStatus {
+
+  private String sessionId;
+  private String parentPath;
+  private String discriminator;
+  private SortedSet<Integer> receivedChunks;
+
+}
@@ -0,0 +1,54 @@
+package com.bc92.directoryservice.model;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import com.bc92.directoryservice.dto.NodeDTO;
+import com.bc92.directoryservice.dto.NodeDTO.DirElementType;
+
+/**
+ * Generates flattened directory trees of a given size for the benchmarks
+ */
+final class BenchmarkTrees {
+
+  static final String OWNER = "BenchmarkOwner";
+
+  private static final int CHILDREN_PER_FOLDER = 16;
+
+  private BenchmarkTrees() {}
+
+  /**
+   * Generate a tree where every folder holds up to 16 children, a quarter of them folders
+   *
+   * @param nodes - number of nodes in the tree, excluding the root
+   * @return Set<NodeDTO> - the flattened tree
+   */
+  static Set<NodeDTO> generate(final int nodes) {
+    Set<NodeDTO> elements = new HashSet<>(nodes * 2);
+    List<String> folders = new ArrayList<>();
+    folders.add("/root");
+    int parent = 0;
+    int children = 0;
+
+    for (int i = 0; i < nodes; i++) {
+      String parentPath = folders.get(parent);
+      boolean folder = i % 4 == 0;
+      String discriminator = (folder ? "folder" : "file") + i;
+      String fullPath = parentPath + "/" + discriminator;
+
+      elements.add(new NodeDTO(folder ? DirElementType.FOLDER : DirElementType.FILE, OWNER,
+          discriminator, fullPath, parentPath));
+      if (folder) {
+        folders.add(fullPath);
+      }
+      if (++children == CHILDREN_PER_FOLDER) {
+        parent++;
+        children = 0;
+      }
+    }
+
+    return elements;
+  }
+
+}
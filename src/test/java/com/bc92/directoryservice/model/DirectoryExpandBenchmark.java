@@ -0,0 +1,71 @@
+package com.bc92.directoryservice.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import com.bc92.directoryservice.dto.NodeDTO;
+
+/**
+ * Compares building a directory with {@link DirectoryBuilder} against sorting the elements by path
+ * length and adding them one at a time from the root, which is how directories used to be expanded.
+ * <p>
+ * Run the main method from the test classpath, after running mvn test-compile
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class DirectoryExpandBenchmark {
+
+  @Param({"10000", "100000", "1000000"})
+  private int nodes;
+
+  private Set<NodeDTO> elements;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    elements = BenchmarkTrees.generate(nodes);
+  }
+
+  @Benchmark
+  public Directory expand() {
+    return Directory.expand(elements, BenchmarkTrees.OWNER);
+  }
+
+  @Benchmark
+  public Directory sortAndAddFromRoot() {
+    List<NodeDTO> sorted = new ArrayList<>(elements);
+    Collections.sort(sorted);
+
+    Directory dir = new Directory(BenchmarkTrees.OWNER);
+    for (NodeDTO element : sorted) {
+      dir.addDirectoryElement(element);
+    }
+    return dir;
+  }
+
+  public static void main(final String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(DirectoryExpandBenchmark.class.getSimpleName()).build())
+        .run();
+  }
+
+}
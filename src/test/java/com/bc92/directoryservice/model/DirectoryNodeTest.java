@@ -1,9 +1,12 @@
 package com.bc92.directoryservice.model;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
 import com.bc92.directoryservice.dto.NodeDTO;
 import com.bc92.directoryservice.dto.NodeDTO.DirElementType;
 
@@ -63,6 +66,44 @@ class DirectoryNodeTest {
 
   }
 
+  @Test
+  void paths_computedFromParentChain() {
+    DirectoryNode root = this.getDirectoryTree();
+    DirectoryNode folder11 = root.getChild("folder1").getChild("folder1-1");
+    FileNode file = root.getChild("folder2").getFile("myText.txt");
+
+    assertEquals("/root", root.getFullPath());
+    assertEquals("", root.getParentPath());
+    assertEquals("/root/folder1/folder1-1", folder11.getFullPath());
+    assertEquals("/root/folder1", folder11.getParentPath());
+    assertEquals("/root/folder2/myText.txt", file.getFullPath());
+    assertEquals("/root/folder2", file.getParentPath());
+    assertSame(root.getChild("folder2"), file.getParent(), "Files are linked to their folder");
+  }
+
+  @Test
+  void leafNode_childContainersAreNotAllocated() {
+    DirectoryNode leaf = this.getDirectoryTree().getChild("folder1").getChild("folder1-1");
+
+    assertTrue(leaf.getChildren().isEmpty());
+    assertTrue(leaf.getFiles().isEmpty());
+    assertNull(leaf.removeChild("missing"), "Removing from an empty node is a no-op");
+    assertNull(leaf.getFile("missing"));
+    assertNull(ReflectionTestUtils.getField(leaf, "children"),
+        "Reads do not allocate the children map");
+    assertNull(ReflectionTestUtils.getField(leaf, "files"), "Reads do not allocate the files map");
+  }
+
+  @Test
+  void discriminators_sameNameIsShared() {
+    DirectoryNode root = new DirectoryNode();
+    DirectoryNode first = new DirectoryNode("id1", new String("images"), root);
+    DirectoryNode second = new DirectoryNode("id2", new String("images"), first);
+
+    assertSame(first.getDiscriminator(), second.getDiscriminator(),
+        "Nodes with the same name hold one string between them");
+  }
+
   private DirectoryNode getDirectoryTree() {
     DirectoryNode root = new DirectoryNode();
 
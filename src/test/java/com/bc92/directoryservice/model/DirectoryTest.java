@@ -1,13 +1,22 @@
 package com.bc92.directoryservice.model;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 import org.assertj.core.util.Lists;
 import org.junit.jupiter.api.Test;
 import com.bc92.directoryservice.dto.NodeDTO;
@@ -48,6 +57,19 @@ class DirectoryTest {
 
   }
 
+  @Test
+  void createFolder_validFolder_tracksCreatedNode() {
+    dir = this.getDirectory();
+
+    dir.createFolder(new Folder("folder2-1", "/root/folder2"));
+    DirectoryChanges changes = dir.drainChanges();
+
+    assertEquals(1, changes.getSaved().size(), "Only the created folder is tracked");
+    assertEquals("/root/folder2/folder2-1", changes.getSaved().iterator().next().getFullPath());
+    assertTrue(changes.getDeleted().isEmpty(), "Nothing was deleted");
+    assertTrue(dir.drainChanges().isEmpty(), "Draining starts a new set of changes");
+  }
+
   @Test
   void createFolder_invalidFolder_throwsExcepton() {
 
@@ -95,6 +117,8 @@ class DirectoryTest {
     ReadFolder deletedNode = dir.deleteParentAndAllChildren("/root/folder1");
 
     assertEquals("/root/folder1", deletedNode.getFullPath());
+    assertEquals(new HashSet<>(Lists.newArrayList(arr[0], arr[2], arr[4])),
+        dir.drainChanges().getDeleted(), "The deleted subtree is tracked");
     assertThrows(InvalidPathException.class, () -> {
       dir.getFolder("root/folder1");
     });
@@ -157,6 +181,198 @@ class DirectoryTest {
 
   }
 
+  @Test
+  void expand_orphanedElements_leftOutOfTree() {
+    Set<NodeDTO> elements = this.getElementSet();
+    NodeDTO orphan = new NodeDTO(DirElementType.FOLDER, "TestOwner", "orphan",
+        "/root/missing/orphan", "/root/missing");
+    NodeDTO orphanChild = new NodeDTO(DirElementType.FILE, "TestOwner", "child.txt",
+        "/root/missing/orphan/child.txt", "/root/missing/orphan");
+    NodeDTO underFile = new NodeDTO(DirElementType.FILE, "TestOwner", "nested.txt",
+        "/root/folder1/myFile.jpg/nested.txt", "/root/folder1/myFile.jpg");
+    elements.addAll(Lists.newArrayList(orphan, orphanChild, underFile));
+
+    DirectoryBuilder builder = new DirectoryBuilder(elements, "TestOwner");
+    Directory built = builder.build();
+
+    assertEquals(new HashSet<>(Lists.newArrayList(orphan, orphanChild, underFile)),
+        new HashSet<>(builder.getOrphans()), "Elements without a parent folder are orphans");
+    assertEquals(this.getElementSet(), built.flatten(), "All other elements are linked");
+    assertEquals(arr.length, built.getNodeCount());
+  }
+
+  @Test
+  void concurrentReadsWhileWriting_readsStayConsistent() throws Exception {
+    dir = this.getDirectory();
+    int readers = 8;
+    AtomicBoolean writing = new AtomicBoolean(true);
+    ExecutorService pool = Executors.newFixedThreadPool(readers + 1);
+
+    List<Future<Integer>> reads = new ArrayList<>();
+    for (int i = 0; i < readers; i++) {
+      reads.add(pool.submit(() -> {
+        int count = 0;
+        while (writing.get() || count == 0) {
+          ReadFolder folder1 = dir.readFolder("/root/folder1");
+          assertEquals(Collections.singleton("folder1-1"), folder1.getChildFolders());
+          assertEquals(Collections.singleton("myFile.jpg"), folder1.getFiles());
+          assertEquals(new HashSet<>(Lists.newArrayList(arr[0], arr[2], arr[4])),
+              dir.getSubDirectory("/root/folder1"));
+          assertTrue(dir.flatten().containsAll(this.getElementSet()),
+              "Nodes untouched by the writer must always be visible");
+          count++;
+        }
+        return count;
+      }));
+    }
+
+    Future<?> writer = pool.submit(() -> {
+      for (int i = 0; i < 2000; i++) {
+        dir.createFolder(new Folder("temp" + i, "/root/folder2"));
+        dir.createFolder(new Folder("child", "/root/folder2/temp" + i));
+        dir.deleteParentAndAllChildren("/root/folder2/temp" + i);
+      }
+      writing.set(false);
+    });
+
+    writer.get(30, TimeUnit.SECONDS);
+    for (Future<Integer> read : reads) {
+      assertTrue(read.get(30, TimeUnit.SECONDS) > 0, "Every reader should have completed reads");
+    }
+    pool.shutdown();
+
+    assertEquals(arr.length, dir.getNodeCount(), "Writer should leave the tree as it found it");
+    assertEquals(this.getElementSet(), dir.flatten());
+  }
+
+  @Test
+  void stream_parallel_matchesSequential() {
+    dir = Directory.expand(BenchmarkTrees.generate(20000), BenchmarkTrees.OWNER);
+
+    Set<NodeDTO> sequential = dir.stream(false).collect(Collectors.toSet());
+    List<NodeDTO> parallel = dir.stream(true).collect(Collectors.toList());
+
+    assertEquals(dir.getNodeCount(), sequential.size(), "Every node apart from the root is streamed");
+    assertEquals(sequential.size(), parallel.size(), "Split streams must not overlap");
+    assertEquals(sequential, new HashSet<>(parallel), "Split streams must cover the whole tree");
+  }
+
+  @Test
+  void stream_deepTree_doesNotOverflowStack() throws Exception {
+    int depth = 3000;
+    dir = new Directory("TestOwner");
+    StringBuilder parentPath = new StringBuilder("/root");
+    for (int i = 0; i < depth; i++) {
+      dir.addDirectoryElement(new NodeDTO(DirElementType.FOLDER, "TestOwner", "f",
+          parentPath + "/f", parentPath.toString()));
+      parentPath.append("/f");
+    }
+
+    // a small stack, the recursive flatten overflowed it well before this depth
+    AtomicLong streamed = new AtomicLong();
+    AtomicLong deleted = new AtomicLong();
+    Thread walker = new Thread(null, () -> {
+      streamed.set(dir.stream(false).count());
+      dir.deleteParentAndAllChildren("/root/f");
+      deleted.set(dir.drainChanges().streamDeleted().count());
+    }, "deep-walker", 256 * 1024);
+    walker.start();
+    walker.join(TimeUnit.SECONDS.toMillis(30));
+
+    assertEquals(depth, streamed.get());
+    assertEquals(depth, deleted.get(), "The deleted subtree is streamed lazily");
+    assertEquals(0, dir.getNodeCount());
+  }
+
+  @Test
+  void index_followsAddRemoveAndSubtreeDelete() {
+    dir = this.getDirectory();
+
+    assertTrue(dir.containsFolder("/root/folder1/folder1-1"), "Expanded folders are indexed");
+    assertTrue(dir.containsFolder("/root/folder1/"), "Trailing slashes are ignored");
+    assertTrue(dir.containsFile("/root/folder2/myText.txt"), "Expanded files are indexed");
+    assertFalse(dir.containsFolder("/root/folder2/myText.txt"), "Files are not folders");
+    assertFalse(dir.containsFolder("/root/folder1-1"));
+
+    dir.createFolder(new Folder("folder3", "/root/folder2/folder2-2"));
+    dir.addDirectoryElement(new NodeDTO(DirElementType.FILE, "TestOwner", "new.txt",
+        "/root/folder2/folder2-2/folder3/new.txt", "/root/folder2/folder2-2/folder3"));
+    assertEquals("/root/folder2/folder2-2/folder3/new.txt",
+        dir.getFile("/root/folder2/folder2-2/folder3/new.txt").getFullPath());
+
+    dir.removeFile("/root/folder2", "myText.txt");
+    assertFalse(dir.containsFile("/root/folder2/myText.txt"), "Removed files are not indexed");
+
+    dir.deleteParentAndAllChildren("/root/folder2");
+    assertFalse(dir.containsFolder("/root/folder2"));
+    assertFalse(dir.containsFolder("/root/folder2/folder2-2/folder3"),
+        "Every folder of a deleted subtree is removed from the index");
+    assertFalse(dir.containsFile("/root/folder2/folder2-2/folder3/new.txt"),
+        "Every file of a deleted subtree is removed from the index");
+    assertTrue(dir.containsFolder("/root/folder1"), "Other folders stay indexed");
+
+    InvalidPathException missing = assertThrows(InvalidPathException.class,
+        () -> dir.readFolder("/root/folder2/folder2-2"));
+    assertTrue(missing.getMessage().contains("folder2"),
+        "A miss still reports the first missing segment");
+  }
+
+  @Test
+  void addDirectoryElement_existingNode_replacedInCountAndIndex() {
+    dir = this.getDirectory();
+    int count = dir.getNodeCount();
+
+    dir.addDirectoryElement(new NodeDTO(DirElementType.FILE, "TestOwner", "myText.txt",
+        "/root/folder2/myText.txt", "/root/folder2"));
+    assertEquals(count, dir.getNodeCount(), "A replaced file is not counted twice");
+    dir.removeFile("/root/folder2", "myText.txt");
+    assertFalse(dir.containsFile("/root/folder2/myText.txt"),
+        "The replaced file is not left in the index");
+
+    int below = dir.getFolder("/root/folder1").countNodes();
+    dir.addDirectoryElement(new NodeDTO(DirElementType.FOLDER, "TestOwner", "folder1",
+        "/root/folder1", "/root"));
+    assertEquals(count - 1 - below + 1, dir.getNodeCount(),
+        "The nodes of a replaced folder are no longer counted");
+  }
+
+  @Test
+  void index_largeTree_everyNodeFound() {
+    dir = Directory.expand(BenchmarkTrees.generate(5000), BenchmarkTrees.OWNER);
+
+    dir.stream(false).forEach(node -> assertTrue(node.getType() == DirElementType.FOLDER
+        ? dir.containsFolder(node.getFullPath())
+        : dir.containsFile(node.getFullPath()), node.getFullPath() + " must be indexed"));
+  }
+
+  @Test
+  void eTag_everyMutation_newTag() {
+    dir = this.getDirectory();
+    Set<String> tags = new HashSet<>();
+    tags.add(dir.getETag());
+
+    dir.readFolder("/root/folder1");
+    assertTrue(tags.contains(dir.getETag()), "Reads keep the tag");
+
+    dir.createFolder(new Folder("folder2-1", "/root/folder2"));
+    assertTrue(tags.add(dir.getETag()), "Creating a folder changes the tag");
+    dir.addDirectoryElement(new NodeDTO(DirElementType.FILE, "TestOwner", "new.txt",
+        "/root/folder1/new.txt", "/root/folder1"));
+    assertTrue(tags.add(dir.getETag()), "Adding a file changes the tag");
+    dir.removeFile("/root/folder1", "new.txt");
+    assertTrue(tags.add(dir.getETag()), "Removing a file changes the tag");
+    dir.removeFile("/root/folder1", "new.txt");
+    assertTrue(tags.contains(dir.getETag()), "Removing a missing file keeps the tag");
+    dir.deleteParentAndAllChildren("/root/folder2");
+    assertTrue(tags.add(dir.getETag()), "Deleting a folder changes the tag");
+  }
+
+  @Test
+  void eTag_sameTreeLoadedTwice_differentTags() {
+    assertFalse(this.getDirectory().getETag().equals(this.getDirectory().getETag()),
+        "A reloaded directory never reuses the tag of another load");
+  }
+
   private Directory getDirectory() {
     return Directory.expand(this.getElementSet(), "TestOwner");
   }
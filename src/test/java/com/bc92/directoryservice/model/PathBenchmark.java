@@ -0,0 +1,142 @@
+package com.bc92.directoryservice.model;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import com.bc92.projectsdk.constants.DirectoryServiceConstants;
+
+/**
+ * Compares {@link Path} against the previous implementation, which validated with
+ * String.matches and split the path into a linked list of nodes up front.
+ * <p>
+ * Run the main method from the test classpath, after running mvn test-compile
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PathBenchmark {
+
+  private final String path = "/root/documents/projects/directory-service/src/main.java";
+
+  private final String trailingSlash = "/root/documents/projects/directory-service/src/main.java/";
+
+  private final String[] segments = path.substring(1).split("/");
+
+  @Benchmark
+  public void iterate(final Blackhole bh) {
+    Path parser = new Path(path);
+    int i = 0;
+    bh.consume(parser.currentEquals(segments[i]));
+    while (parser.hasNext()) {
+      parser.next();
+      bh.consume(parser.currentEquals(segments[++i]));
+    }
+  }
+
+  @Benchmark
+  public void iterateLegacy(final Blackhole bh) {
+    LegacyPath parser = new LegacyPath(path);
+    int i = 0;
+    bh.consume(parser.current().getDiscriminator().equals(segments[i]));
+    while (parser.hasNext()) {
+      parser.next();
+      bh.consume(parser.current().getDiscriminator().equals(segments[++i]));
+    }
+  }
+
+  @Benchmark
+  public boolean pathsAreEqual() {
+    return Path.pathsAreEqual(path, trailingSlash);
+  }
+
+  @Benchmark
+  public boolean pathsAreEqualLegacy() {
+    return LegacyPath.pathsAreEqual(path, trailingSlash);
+  }
+
+  public static void main(final String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(PathBenchmark.class.getSimpleName()).build()).run();
+  }
+
+  /**
+   * Copy of the parsing and comparison of the previous Path implementation
+   */
+  static class LegacyPath {
+
+    private Node curr;
+
+    LegacyPath(final String primitivePath) {
+      if (!primitivePath.matches(DirectoryServiceConstants.FILE_PATH_REGEX)) {
+        throw new InvalidPathException(InvalidPathException.INVALID_CHARS, primitivePath);
+      }
+      String[] pathStringArr = primitivePath.substring(1).split("/");
+      Node root = new Node(pathStringArr[0]);
+      curr = root;
+      for (int i = 1; i < pathStringArr.length; i++) {
+        Node temp = new Node(pathStringArr[i]);
+        curr.child = temp;
+        curr = temp;
+      }
+      curr = root;
+    }
+
+    static boolean pathsAreEqual(final String pathA, final String pathB) {
+      if (!(pathA.matches(DirectoryServiceConstants.FILE_PATH_REGEX)
+          && pathB.matches(DirectoryServiceConstants.FILE_PATH_REGEX))) {
+        return false;
+      }
+      String[] pathAarr = pathA.substring(1).split("/");
+      String[] pathBarr = pathB.substring(1).split("/");
+      if (pathAarr.length != pathBarr.length) {
+        return false;
+      }
+      for (int i = 0; i < pathAarr.length; i++) {
+        if (!(pathAarr[i].equals(pathBarr[i]))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    boolean hasNext() {
+      return curr.child != null;
+    }
+
+    Node next() {
+      curr = curr.child;
+      return curr;
+    }
+
+    Node current() {
+      return curr;
+    }
+  }
+
+  static class Node {
+    private final String discriminator;
+    private Node child;
+
+    Node(final String discriminator) {
+      this.discriminator = discriminator;
+    }
+
+    String getDiscriminator() {
+      return discriminator;
+    }
+  }
+
+}
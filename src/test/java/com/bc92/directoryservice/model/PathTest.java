@@ -5,6 +5,7 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.Arrays;
 import org.junit.jupiter.api.Test;
 
 class PathTest {
@@ -117,6 +118,52 @@ class PathTest {
         "An invalid path should return false");
   }
 
+  @Test
+  void ancestorsOf_rootDownToParent() {
+    assertEquals(Arrays.asList("/root", "/root/folderA"),
+        Path.ancestorsOf("/root/folderA/file.txt"));
+    assertEquals(Arrays.asList("/root"), Path.ancestorsOf("/root/folderA/"),
+        "Trailing slashes are ignored");
+    assertTrue(Path.ancestorsOf("/root").isEmpty(), "The root has no ancestors");
+  }
+
+  @Test
+  void depthOf_countsSegments() {
+    assertEquals(1, Path.depthOf("/root"));
+    assertEquals(3, Path.depthOf("/root/folderA/file.txt"));
+    assertEquals(2, Path.depthOf("/root/folderA/"), "Trailing slashes are ignored");
+  }
+
+  @Test
+  void currentEquals_matchesSegmentsInPlace() {
+    parser = new Path("/root/folder1//folder2/");
+
+    assertTrue(parser.currentEquals("root"));
+    assertFalse(parser.currentEquals("roo"), "A prefix of the segment is not equal");
+    parser.next();
+    assertTrue(parser.currentEquals("folder1"));
+    parser.next();
+    assertTrue(parser.currentEquals(""), "Empty segments between slashes are kept");
+    parser.next();
+    assertEquals("folder2", parser.currentDiscriminator());
+    assertFalse(parser.hasNext(), "Trailing slashes do not make a segment");
+    parser.next();
+    assertFalse(parser.currentEquals("folder2"), "Nothing matches past the last segment");
+  }
+
+  @Test
+  void pathsAreEqual_multipleTrailingSlashes_returnTrue() {
+    assertTrue(Path.pathsAreEqual("/root/folderA///", "/root/folderA"));
+    assertFalse(Path.pathsAreEqual("/root/folderA", "/root/folderAB"),
+        "A path is not equal to a longer one it prefixes");
+    assertFalse(Path.pathsAreEqual("/root/folderA", "/root/folderA/b"));
+  }
+
+  @Test
+  void escapeSlashes_escapesEverySlash() {
+    assertEquals("\\/root\\/folder1\\/", Path.escapeSlashes("/root/folder1/"));
+  }
+
   @Test
   void validateDiscriminator_invalidInputs_throwException() {
 
@@ -0,0 +1,81 @@
+package com.bc92.directoryservice.repo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+import java.util.Collections;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.solr.core.SolrTemplate;
+import com.bc92.directoryservice.dto.FileDTO;
+
+class ContentHashListingImplTest {
+
+  @Test
+  void testHashesBelowQuery_sortedByIdWithCursorMark() {
+    SolrQuery query = ContentHashListingImpl.hashesBelowQuery("Test Owner", "/root/my folder/",
+        false, "AoE", 1000);
+
+    assertEquals("type:FILE AND owner:Test\\ Owner AND (parentPath_str:\\/root\\/my\\ folder"
+        + " OR parentPath_str:\\/root\\/my\\ folder\\/*)", query.getQuery());
+    assertEquals("id asc", query.get("sort"));
+    assertEquals("AoE", query.get(CursorMarkParams.CURSOR_MARK_PARAM));
+    assertEquals(Integer.valueOf(1000), query.getRows());
+    assertEquals("id,contentHash", query.getFields());
+  }
+
+  @Test
+  void testHashesBelowQuery_ancestorsReady_matchedByAncestors() {
+    SolrQuery query = ContentHashListingImpl.hashesBelowQuery("Test Owner", "/root/my folder/",
+        true, "AoE", 1000);
+
+    assertEquals("type:FILE AND owner:Test\\ Owner AND ancestors_str:\\/root\\/my\\ folder",
+        query.getQuery(), "No wildcard once every node has its ancestors indexed");
+    assertEquals("id asc", query.get("sort"));
+  }
+
+  @Test
+  void testFindContentHashesBelow_filesAndNextCursorMarkReturned() throws Exception {
+    SolrClient client = Mockito.mock(SolrClient.class);
+    SolrDocument document = new SolrDocument();
+    document.setField("id", "id-1");
+    document.setField("contentHash", "abc");
+    SolrDocumentList documents = new SolrDocumentList();
+    documents.add(document);
+    NamedList<Object> body = new NamedList<>();
+    body.add("response", documents);
+    body.add(CursorMarkParams.CURSOR_MARK_NEXT, "AoEb");
+    QueryResponse response = new QueryResponse();
+    response.setResponse(body);
+    when(client.query(eq(SolrWriteCoordinator.COLLECTION), any(SolrParams.class)))
+        .thenReturn(response);
+
+    SolrTemplate solrTemplate = new SolrTemplate(client);
+    solrTemplate.afterPropertiesSet();
+    CursorPage<FileDTO> page = new ContentHashListingImpl(solrTemplate, false)
+        .findContentHashesBelow("user", "/root", CursorMarkParams.CURSOR_MARK_START, 10);
+
+    assertEquals(1, page.getNodes().size());
+    assertEquals("abc", page.getNodes().get(0).getContentHash());
+    assertEquals("AoEb", page.getNextCursorMark());
+  }
+
+  @Test
+  void testIsLast_shortPageOrUnchangedCursorMark() {
+    assertTrue(new CursorPage<>(Collections.emptyList(), "AoEb").isLast("AoEa", 10));
+    assertTrue(new CursorPage<>(Collections.nCopies(10, "node"), "AoEa").isLast("AoEa", 10));
+    assertFalse(new CursorPage<>(Collections.nCopies(10, "node"), "AoEb").isLast("AoEa", 10));
+  }
+
+}
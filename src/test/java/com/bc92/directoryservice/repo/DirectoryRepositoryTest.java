@@ -0,0 +1,84 @@
+package com.bc92.directoryservice.repo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.util.Arrays;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.repository.core.support.RepositoryComposition.RepositoryFragments;
+import org.springframework.data.solr.core.SolrTemplate;
+import org.springframework.data.solr.repository.support.SolrRepositoryFactory;
+import com.bc92.directoryservice.model.Path;
+
+/**
+ * Queries of the repository as they are sent to Solr
+ */
+class DirectoryRepositoryTest {
+
+  private SolrClient client;
+
+  private DirectoryRepository directoryRepo;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    client = Mockito.mock(SolrClient.class);
+    NamedList<Object> body = new NamedList<>();
+    body.add("response", new SolrDocumentList());
+    QueryResponse response = new QueryResponse();
+    response.setResponse(body);
+    when(client.query(any(), any(SolrParams.class), any(SolrRequest.METHOD.class)))
+        .thenReturn(response);
+
+    SolrTemplate solrTemplate = new SolrTemplate(client);
+    solrTemplate.afterPropertiesSet();
+    directoryRepo = new SolrRepositoryFactory(solrTemplate).getRepository(
+        DirectoryRepository.class,
+        RepositoryFragments.just(new BufferedWritesImpl<>(null), new FolderListingImpl(null)));
+  }
+
+  @Test
+  void testFindDescendants_matchedByAncestors() throws Exception {
+    directoryRepo.findDescendants("TestOwner", Path.escapeSlashes("/root/folder1"),
+        PageRequest.of(0, 10));
+
+    assertEquals("owner:TestOwner AND ancestors_str:\\/root\\/folder1", this.sentQuery());
+  }
+
+  @Test
+  void testFindDescendantsToDepth_limitedByDepth() throws Exception {
+    directoryRepo.findDescendantsToDepth("TestOwner", Path.escapeSlashes("/root/folder1"), 3,
+        PageRequest.of(0, 10));
+
+    assertEquals("owner:TestOwner AND ancestors_str:\\/root\\/folder1 AND depth:[* TO 3]",
+        this.sentQuery());
+  }
+
+  @Test
+  void testFindAncestors_allPathsInOneQuery() throws Exception {
+    directoryRepo.findAncestors("TestOwner",
+        Arrays.asList(Path.escapeSlashes("/root"), Path.escapeSlashes("/root/folder1")),
+        PageRequest.of(0, 10));
+
+    assertEquals("type:FOLDER AND owner:TestOwner AND fullPath_str:(\\/root \\/root\\/folder1)",
+        this.sentQuery());
+  }
+
+  private String sentQuery() throws Exception {
+    ArgumentCaptor<SolrParams> params = ArgumentCaptor.forClass(SolrParams.class);
+    verify(client).query(any(), params.capture(), any(SolrRequest.METHOD.class));
+    return params.getValue().get(CommonParams.Q);
+  }
+
+}
@@ -0,0 +1,73 @@
+package com.bc92.directoryservice.repo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.data.solr.core.SolrTemplate;
+import com.bc92.directoryservice.dto.NodeDTO;
+import com.bc92.directoryservice.dto.NodeDTO.DirElementType;
+
+class FolderListingImplTest {
+
+  @Test
+  void testChildrenQuery_sortedByNameAndIdWithCursorMark() {
+    SolrQuery query = FolderListingImpl.childrenQuery("Test Owner", "/root/my folder/", "AoE", 50);
+
+    assertEquals("owner:Test\\ Owner AND parentPath_str:(\\/root\\/my\\ folder OR"
+        + " \\/root\\/my\\ folder\\/)", query.getQuery(),
+        "Both forms of the parent path are matched, trailing slashes of the folder are ignored");
+    assertEquals("discriminator_str asc,id asc", query.get("sort"));
+    assertEquals("AoE", query.get(CursorMarkParams.CURSOR_MARK_PARAM));
+    assertEquals(Integer.valueOf(50), query.getRows());
+    assertEquals(String.join(",", FolderListingImpl.FIELDS), query.getFields());
+  }
+
+  @Test
+  void testFindChildren_nodesAndNextCursorMarkReturned() throws Exception {
+    SolrClient client = Mockito.mock(SolrClient.class);
+    SolrDocument document = new SolrDocument();
+    document.setField("id", "id-1");
+    document.setField("type", "FILE");
+    document.setField("owner", "user");
+    document.setField("discriminator", "a.txt");
+    document.setField("fullPath", "/root/a.txt");
+    document.setField("parentPath", "/root");
+    SolrDocumentList documents = new SolrDocumentList();
+    documents.add(document);
+    NamedList<Object> body = new NamedList<>();
+    body.add("response", documents);
+    body.add(CursorMarkParams.CURSOR_MARK_NEXT, "AoEb");
+    QueryResponse response = new QueryResponse();
+    response.setResponse(body);
+    when(client.query(eq(SolrWriteCoordinator.COLLECTION), any(SolrParams.class)))
+        .thenReturn(response);
+
+    SolrTemplate solrTemplate = new SolrTemplate(client);
+    solrTemplate.afterPropertiesSet();
+    CursorPage<NodeDTO> page = new FolderListingImpl(solrTemplate).findChildren("user", "/root",
+        CursorMarkParams.CURSOR_MARK_START, 10);
+
+    assertEquals(1, page.getNodes().size());
+    assertEquals("a.txt", page.getNodes().get(0).getDiscriminator());
+    assertEquals(DirElementType.FILE, page.getNodes().get(0).getType());
+    assertEquals("AoEb", page.getNextCursorMark());
+    ArgumentCaptor<SolrParams> params = ArgumentCaptor.forClass(SolrParams.class);
+    verify(client).query(eq(SolrWriteCoordinator.COLLECTION), params.capture());
+    assertEquals(CursorMarkParams.CURSOR_MARK_START,
+        params.getValue().get(CursorMarkParams.CURSOR_MARK_PARAM));
+  }
+
+}
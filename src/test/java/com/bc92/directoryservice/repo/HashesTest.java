@@ -0,0 +1,17 @@
+package com.bc92.directoryservice.repo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class HashesTest {
+
+  @Test
+  void testToHex_sha256OfContent_lowerCaseHex() {
+    byte[] digest = Hashes.sha256().digest("abc".getBytes(StandardCharsets.US_ASCII));
+
+    assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+        Hashes.toHex(digest));
+  }
+
+}
@@ -0,0 +1,157 @@
+package com.bc92.directoryservice.repo;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.StreamUtils;
+
+class LocalBlobStoreTest {
+
+  // sha-256 of "hello"
+  private static final String HELLO_HASH =
+      "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+
+  @TempDir
+  Path root;
+
+  private LocalBlobStore store;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    store = new LocalBlobStore(root.toString());
+  }
+
+  @Test
+  void put_storesContentUnderItsHash() throws IOException {
+    StoredBlob blob = store.put(this.stream("hello"));
+
+    assertEquals(HELLO_HASH, blob.getHash());
+    assertEquals(5, blob.getSize());
+    assertTrue(Files.isRegularFile(root.resolve("2c").resolve("f2").resolve(HELLO_HASH)),
+        "Blobs are sharded by the first characters of their hash");
+    try (InputStream in = store.get(HELLO_HASH).getInputStream()) {
+      assertArrayEquals("hello".getBytes(StandardCharsets.UTF_8), StreamUtils.copyToByteArray(in));
+    }
+  }
+
+  @Test
+  void put_sameContentTwice_storedOnce() throws IOException {
+    store.put(this.stream("hello"));
+    store.put(this.stream("hello"));
+
+    try (Stream<Path> files = Files.walk(root)) {
+      assertEquals(1, files.filter(Files::isRegularFile).count(),
+          "Identical content is stored once and no temporary files are left behind");
+    }
+  }
+
+  @Test
+  void get_unknownHash_throwsFileNotFound() {
+    assertThrows(FileNotFoundException.class, () -> store.get(HELLO_HASH));
+    assertThrows(IllegalArgumentException.class, () -> store.get("../../etc/passwd"),
+        "Only hashes are accepted as keys");
+  }
+
+  @Test
+  void delete_removesBlob() throws IOException {
+    store.put(this.stream("hello"));
+
+    assertTrue(store.delete(HELLO_HASH));
+    assertFalse(store.exists(HELLO_HASH));
+    assertFalse(store.delete(HELLO_HASH), "Nothing left to delete");
+  }
+
+  @Test
+  void put_failingStream_leavesNothingBehind() throws IOException {
+    InputStream failing = new InputStream() {
+      private int read;
+
+      @Override
+      public int read() throws IOException {
+        if (read++ > 10) {
+          throw new IOException("connection reset");
+        }
+        return 'a';
+      }
+    };
+
+    assertThrows(IOException.class, () -> store.put(failing));
+    try (Stream<Path> files = Files.walk(root)) {
+      assertEquals(0, files.filter(Files::isRegularFile).count(),
+          "The partial upload is removed");
+    }
+  }
+
+  @Test
+  void put_compressibleContent_storedGzipped() throws IOException {
+    StringBuilder csv = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      csv.append(i).append(",name").append(i % 50).append(",2020-10-").append(i % 28 + 1)
+          .append('\n');
+    }
+    byte[] content = csv.toString().getBytes(StandardCharsets.UTF_8);
+
+    StoredBlob blob = store.put(new ByteArrayInputStream(content));
+
+    assertEquals(content.length, blob.getSize(), "Size is that of the raw content");
+    Path gzip = root.resolve(blob.getHash().substring(0, 2)).resolve(blob.getHash().substring(2, 4))
+        .resolve(blob.getHash() + ".gz");
+    assertTrue(Files.size(gzip) < content.length / 3, "Stored compressed");
+    assertTrue(store.exists(blob.getHash()));
+    try (InputStream in = store.get(blob.getHash()).getInputStream()) {
+      assertArrayEquals(content, StreamUtils.copyToByteArray(in), "Read back decompressed");
+    }
+    try (InputStream in =
+        new GZIPInputStream(store.getCompressed(blob.getHash()).getInputStream())) {
+      assertArrayEquals(content, StreamUtils.copyToByteArray(in), "Compressed form is plain gzip");
+    }
+    assertTrue(store.put(new ByteArrayInputStream(content)).isDuplicate());
+
+    assertTrue(store.delete(blob.getHash()));
+    assertFalse(Files.exists(gzip));
+  }
+
+  @Test
+  void put_pdf_storedAsItIs() throws IOException {
+    StoredBlob blob;
+    try (InputStream pdf = new ClassPathResource("testfiles/original/test.pdf").getInputStream()) {
+      blob = store.put(pdf);
+    }
+
+    assertNull(store.getCompressed(blob.getHash()), "Compressed formats are not compressed again");
+    assertTrue(store.get(blob.getHash()).isFile());
+  }
+
+  @Test
+  void put_incompressibleContent_storedAsItIs() throws IOException {
+    byte[] content = new byte[200000];
+    new Random(7).nextBytes(content);
+
+    StoredBlob blob = store.put(new ByteArrayInputStream(content));
+
+    assertNull(store.getCompressed(blob.getHash()));
+    assertEquals(content.length, store.get(blob.getHash()).contentLength());
+  }
+
+  private InputStream stream(final String content) {
+    return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+  }
+
+}
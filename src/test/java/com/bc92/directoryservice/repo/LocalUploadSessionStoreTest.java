@@ -0,0 +1,126 @@
+package com.bc92.directoryservice.repo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.StreamUtils;
+
+class LocalUploadSessionStoreTest {
+
+  @TempDir
+  Path root;
+
+  private LocalUploadSessionStore store;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    store = new LocalUploadSessionStore(root.toString());
+  }
+
+  @Test
+  void create_sessionReadBack() throws IOException {
+    UploadSession created = store.create("TestOwner", "/root/folder1", "video.mp4");
+
+    UploadSession read = store.get(created.getId());
+
+    assertEquals("TestOwner", read.getOwner());
+    assertEquals("/root/folder1", read.getParentPath());
+    assertEquals("video.mp4", read.getDiscriminator());
+    assertTrue(store.getChunks(created.getId()).isEmpty());
+  }
+
+  @Test
+  void get_unknownOrInvalidId_null() throws IOException {
+    assertNull(store.get("00000000-0000-0000-0000-000000000000"));
+    assertNull(store.get("../blobs"));
+  }
+
+  @Test
+  void openChunks_chunksPutOutOfOrder_readInOrder() throws IOException {
+    String id = store.create("TestOwner", "/root", "file.txt").getId();
+
+    store.putChunk(id, 2, this.stream("c"));
+    store.putChunk(id, 0, this.stream("a"));
+    store.putChunk(id, 1, this.stream("x"));
+    store.putChunk(id, 1, this.stream("b"));
+
+    assertEquals(Arrays.asList(0, 1, 2), store.getChunks(id).stream().collect(Collectors.toList()));
+    try (InputStream in = store.openChunks(id, 3)) {
+      assertEquals("abc", StreamUtils.copyToString(in, StandardCharsets.UTF_8),
+          "A chunk written again replaces the earlier copy");
+    }
+  }
+
+  @Test
+  void openChunks_missingChunk_throws() throws IOException {
+    String id = store.create("TestOwner", "/root", "file.txt").getId();
+    store.putChunk(id, 1, this.stream("b"));
+
+    assertThrows(FileNotFoundException.class, () -> store.openChunks(id, 2));
+  }
+
+  @Test
+  void getChunksSize_firstChunksSummed() throws IOException {
+    String id = store.create("TestOwner", "/root", "file.txt").getId();
+    store.putChunk(id, 0, this.stream("ab"));
+    store.putChunk(id, 1, this.stream("cde"));
+    store.putChunk(id, 2, this.stream("f"));
+
+    assertEquals(5, store.getChunksSize(id, 2));
+    assertThrows(FileNotFoundException.class, () -> store.getChunksSize(id, 4));
+  }
+
+  @Test
+  void putChunk_deletedSession_throws() throws IOException {
+    String id = store.create("TestOwner", "/root", "file.txt").getId();
+
+    assertTrue(store.delete(id));
+    assertFalse(Files.exists(root.resolve(id)));
+    assertThrows(FileNotFoundException.class, () -> store.putChunk(id, 0, this.stream("a")));
+  }
+
+  @Test
+  void findInactiveSince_onlyIdleSessions() throws IOException {
+    List<String> ids = IntStream.range(0, 2).mapToObj(i -> this.create())
+        .collect(Collectors.toList());
+    Files.setLastModifiedTime(root.resolve(ids.get(0)).resolve("session.properties"),
+        FileTime.from(Instant.now().minus(Duration.ofDays(2))));
+
+    List<UploadSession> inactive = store.findInactiveSince(Instant.now().minus(Duration.ofDays(1)));
+
+    assertEquals(1, inactive.size());
+    assertEquals(ids.get(0), inactive.get(0).getId());
+  }
+
+  private String create() {
+    try {
+      return store.create("TestOwner", "/root", "file.txt").getId();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private InputStream stream(final String content) {
+    return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+  }
+
+}
@@ -0,0 +1,141 @@
+package com.bc92.directoryservice.repo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import com.bc92.directoryservice.dto.FileDTO;
+import com.bc92.directoryservice.dto.NodeDTO;
+import com.bc92.directoryservice.dto.NodeDTO.DirElementType;
+
+class PendingWritesTest {
+
+  private static final String HASH =
+      "039058c6f2c0cb492c533b0a4d14ef77cc0f78abccced5287d84a1a2011cfb81";
+
+  private final PendingWrites pendingWrites = new PendingWrites();
+
+  @Test
+  void testMerge_pendingWritesReplaceQueryResults() {
+    NodeDTO kept = this.node("kept", "/root/kept");
+    NodeDTO stale = this.node("changed", "/root/old");
+    NodeDTO removed = this.node("removed", "/root/removed");
+    NodeDTO changed = this.node("changed", "/root/new");
+    NodeDTO added = this.node("added", "/root/added");
+    NodeDTO elsewhere = this.node("elsewhere", "/other/added");
+    pendingWrites.accept(changed, false);
+    pendingWrites.accept(added, false);
+    pendingWrites.accept(elsewhere, false);
+    pendingWrites.accept(removed, true);
+
+    List<NodeDTO> merged = pendingWrites.merge(Arrays.asList(kept, stale, removed),
+        NodeDTO.class, node -> node.getFullPath().startsWith("/root/"));
+
+    assertEquals(3, merged.size());
+    assertTrue(merged.containsAll(Arrays.asList(kept, changed, added)));
+  }
+
+  @Test
+  void testMergeOne_deletePending_null() {
+    NodeDTO removed = this.node("removed", "/root/removed");
+    pendingWrites.accept(removed, true);
+
+    assertNull(pendingWrites.mergeOne(removed, NodeDTO.class, node -> true));
+  }
+
+  @Test
+  void testMerge_otherTypesLeftOut() {
+    pendingWrites.accept(this.node("folder", "/root/folder"), false);
+
+    assertTrue(pendingWrites.merge(Collections.emptyList(), FileDTO.class, file -> true)
+        .isEmpty());
+  }
+
+  @Test
+  void testRetire_visibleWritesForgotten_thenWaitingTasksRun() {
+    PendingWrites.Write first = pendingWrites.accept(this.node("first", "/root/first"), false);
+    PendingWrites.Write second = pendingWrites.accept(this.node("second", "/root/second"), false);
+    AtomicInteger ran = new AtomicInteger();
+    pendingWrites.afterVisible(ran::incrementAndGet);
+    pendingWrites.sent(Collections.singletonList(first), 100);
+    pendingWrites.sent(Collections.singletonList(second), 200);
+
+    assertEquals(1, pendingWrites.retire(150));
+    assertEquals(0, ran.get(), "The task waits for every write pending when it was added");
+
+    assertEquals(1, pendingWrites.retire(200));
+    assertEquals(1, ran.get());
+    assertEquals(0, pendingWrites.size());
+  }
+
+  @Test
+  void testAfterVisible_nothingPending_runsNow() {
+    AtomicInteger ran = new AtomicInteger();
+
+    pendingWrites.afterVisible(ran::incrementAndGet);
+
+    assertEquals(1, ran.get());
+  }
+
+  @Test
+  void testReferences_pendingFileHoldsHash() {
+    FileDTO file = new FileDTO();
+    file.setId("file");
+    file.setContent(new StoredBlob(HASH, 3));
+
+    assertFalse(pendingWrites.references(HASH));
+    PendingWrites.Write write = pendingWrites.accept(file, true);
+    assertTrue(pendingWrites.references(HASH));
+    assertTrue(pendingWrites.isCurrent(write));
+
+    pendingWrites.sent(Collections.singletonList(write), 0);
+    pendingWrites.retire(1);
+    assertFalse(pendingWrites.references(HASH));
+  }
+
+  @Test
+  void testMerge_deleteByQuery_hidesEarlierWritesNotLaterOnes() {
+    NodeDTO earlier = this.node("earlier", "/root/gone/earlier");
+    NodeDTO found = this.node("found", "/root/gone/found");
+    NodeDTO later = this.node("later", "/root/gone/later");
+    pendingWrites.accept(earlier, false);
+    PendingWrites.Write query =
+        pendingWrites.acceptQuery(node -> node.getFullPath().startsWith("/root/gone/"));
+    pendingWrites.accept(later, false);
+
+    assertEquals(Collections.singletonList(later),
+        pendingWrites.merge(Collections.singletonList(found), NodeDTO.class, node -> true));
+    assertTrue(pendingWrites.references(HASH), "Counts are unreliable until the delete is visible");
+
+    pendingWrites.sent(Collections.singletonList(query), 100);
+    pendingWrites.retire(100);
+    assertFalse(pendingWrites.references(HASH));
+  }
+
+  @Test
+  void testAccept_laterWriteOfSameDocumentReplacesEarlier() {
+    NodeDTO first = this.node("same", "/root/first");
+    NodeDTO second = this.node("same", "/root/second");
+    PendingWrites.Write earlier = pendingWrites.accept(first, false);
+    pendingWrites.accept(second, false);
+
+    assertFalse(pendingWrites.isCurrent(earlier));
+    assertSame(second, pendingWrites.mergeOne(null, NodeDTO.class, node -> true));
+  }
+
+  private NodeDTO node(final String id, final String fullPath) {
+    NodeDTO node = new NodeDTO();
+    node.setId(id);
+    node.setType(DirElementType.FOLDER);
+    node.setOwner("TestOwner");
+    node.setFullPath(fullPath);
+    return node;
+  }
+
+}
@@ -0,0 +1,251 @@
+package com.bc92.directoryservice.repo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.solr.core.SolrTemplate;
+import org.springframework.data.solr.core.convert.SolrConverter;
+import com.bc92.directoryservice.dto.NodeDTO;
+import com.bc92.directoryservice.dto.NodeDTO.DirElementType;
+
+class SolrWriteCoordinatorTest {
+
+  private CountingUpdateSolrClient updateClient;
+
+  private PendingWrites pendingWrites;
+
+  private SolrWriteCoordinator coordinator;
+
+  @BeforeEach
+  void setUp() {
+    updateClient = Mockito.mock(CountingUpdateSolrClient.class);
+    SolrTemplate solrTemplate = Mockito.mock(SolrTemplate.class);
+    when(solrTemplate.getConverter()).thenReturn(Mockito.mock(SolrConverter.class));
+    pendingWrites = new PendingWrites();
+    coordinator = new SolrWriteCoordinator(updateClient, solrTemplate, pendingWrites,
+        Duration.ofSeconds(1), 3, 5, Duration.ofMillis(50), false);
+  }
+
+  @Test
+  void testFlush_writesSentInOneRequestWithCommitWithin() throws Exception {
+    NodeDTO saved = this.node("saved");
+    coordinator.save(Collections.singletonList(saved));
+    coordinator.delete(Collections.singletonList(this.node("deleted")));
+    verify(updateClient, never()).request(any(), any());
+
+    coordinator.flush();
+
+    ArgumentCaptor<SolrRequest<?>> request = ArgumentCaptor.forClass(SolrRequest.class);
+    verify(updateClient).request(request.capture(), eq(SolrWriteCoordinator.COLLECTION));
+    UpdateRequest update = (UpdateRequest) request.getValue();
+    assertEquals(1, update.getDocuments().size());
+    assertEquals(Collections.singletonList("deleted"), update.getDeleteById());
+    assertEquals(1000, update.getCommitWithin());
+    assertEquals(Integer.valueOf(2), saved.getDepth(), "Ancestors and depth are indexed");
+    assertEquals(Collections.singletonList("/root"), saved.getAncestors());
+    verify(updateClient).blockUntilFinished();
+
+    assertEquals(Collections.singletonList(saved),
+        pendingWrites.merge(Collections.emptyList(), NodeDTO.class, node -> true),
+        "Sent writes are read back until they are visible");
+    pendingWrites.retire(System.currentTimeMillis() + 10000);
+    assertEquals(0, pendingWrites.size());
+  }
+
+  @Test
+  void testSave_flushSizeReached_sentOnCallersThread() throws Exception {
+    coordinator.save(Arrays.asList(this.node("a"), this.node("b")));
+    verify(updateClient, never()).request(any(), any());
+
+    coordinator.save(Collections.singletonList(this.node("c")));
+
+    verify(updateClient).request(any(), any());
+  }
+
+  @Test
+  void testSave_sameDocumentTwice_sentOnce() throws Exception {
+    coordinator.save(Collections.singletonList(this.node("a")));
+    coordinator.save(Collections.singletonList(this.node("a")));
+
+    coordinator.flush();
+
+    ArgumentCaptor<SolrRequest<?>> request = ArgumentCaptor.forClass(SolrRequest.class);
+    verify(updateClient).request(request.capture(), any());
+    assertEquals(1, ((UpdateRequest) request.getValue()).getDocuments().size());
+  }
+
+  @Test
+  void testFlush_failedBatch_keptAndRetriedAfterDelay() throws Exception {
+    AtomicBoolean down = new AtomicBoolean(true);
+    this.solrDownWhile(down);
+    coordinator.save(Collections.singletonList(this.node("a")));
+
+    assertThrows(DataAccessResourceFailureException.class, coordinator::flush,
+        "The failure is reported to the caller");
+    coordinator.tick();
+    assertThrows(DataAccessResourceFailureException.class, coordinator::flush);
+    verify(updateClient, times(1)).request(any(), any());
+    assertEquals(1, pendingWrites.merge(Collections.emptyList(), NodeDTO.class, node -> true)
+        .size(), "The failed write is still read back");
+
+    down.set(false);
+    Thread.sleep(SolrWriteCoordinator.MIN_RETRY_DELAY_MILLIS + 50);
+    coordinator.tick();
+
+    verify(updateClient, times(2)).request(any(), any());
+    pendingWrites.retire(System.currentTimeMillis() + 10000);
+    assertEquals(0, pendingWrites.size(), "The retried batch was sent");
+  }
+
+  @Test
+  void testShutdown_repeatedFailures_writeNeverDropped() throws Exception {
+    AtomicBoolean down = new AtomicBoolean(true);
+    this.solrDownWhile(down);
+    coordinator.save(Collections.singletonList(this.node("a")));
+
+    for (int i = 0; i < 10; i++) {
+      coordinator.shutdown();
+    }
+    down.set(false);
+    coordinator.shutdown();
+
+    ArgumentCaptor<SolrRequest<?>> requests = ArgumentCaptor.forClass(SolrRequest.class);
+    verify(updateClient, times(11)).request(requests.capture(), any());
+    assertEquals(1, ((UpdateRequest) requests.getValue()).getDocuments().size());
+  }
+
+  @Test
+  void testSave_solrDown_acceptedWritesLeftToTheRetry() throws Exception {
+    AtomicBoolean down = new AtomicBoolean(true);
+    this.solrDownWhile(down);
+    coordinator.save(Arrays.asList(this.node("a"), this.node("b")));
+
+    // reaching the flush size sends the writes, the failed send is left to the retry
+    coordinator.save(Collections.singletonList(this.node("c")));
+    coordinator.save(Arrays.asList(this.node("d"), this.node("e")));
+    verify(updateClient, times(1)).request(any(), any());
+    assertThrows(DataAccessResourceFailureException.class,
+        () -> coordinator.save(Collections.singletonList(this.node("f"))),
+        "A writer fails once the buffer stays full");
+    assertEquals(5, pendingWrites.size(), "Buffered writes are kept, the refused one is not");
+
+    down.set(false);
+    Thread.sleep(SolrWriteCoordinator.MIN_RETRY_DELAY_MILLIS + 50);
+    coordinator.tick();
+
+    ArgumentCaptor<SolrRequest<?>> requests = ArgumentCaptor.forClass(SolrRequest.class);
+    verify(updateClient, times(2)).request(requests.capture(), any());
+    assertEquals(5, ((UpdateRequest) requests.getValue()).getDocuments().size());
+  }
+
+  @Test
+  void testSave_noRoomForTheWholeBatch_nothingAccepted() throws Exception {
+    AtomicBoolean down = new AtomicBoolean(true);
+    this.solrDownWhile(down);
+    coordinator.save(Arrays.asList(this.node("a"), this.node("b"), this.node("c")));
+
+    assertThrows(DataAccessResourceFailureException.class, () -> coordinator
+        .save(Arrays.asList(this.node("d"), this.node("e"), this.node("f"))));
+
+    assertEquals(3, pendingWrites.size(), "Nothing of the refused batch is read back");
+    down.set(false);
+    Thread.sleep(SolrWriteCoordinator.MIN_RETRY_DELAY_MILLIS + 50);
+    coordinator.tick();
+    ArgumentCaptor<SolrRequest<?>> requests = ArgumentCaptor.forClass(SolrRequest.class);
+    verify(updateClient, times(2)).request(requests.capture(), any());
+    assertEquals(3, ((UpdateRequest) requests.getValue()).getDocuments().size(),
+        "Nothing of the refused batch is sent");
+  }
+
+  @Test
+  void testFlush_asyncErrorReported_batchRetried() throws Exception {
+    when(updateClient.getErrorCount()).thenReturn(0L, 1L, 1L, 1L);
+    coordinator.save(Collections.singletonList(this.node("a")));
+
+    assertThrows(DataAccessResourceFailureException.class, coordinator::flush);
+    Thread.sleep(SolrWriteCoordinator.MIN_RETRY_DELAY_MILLIS + 50);
+    coordinator.flush();
+
+    verify(updateClient, times(2)).request(any(), any());
+    pendingWrites.retire(System.currentTimeMillis() + 10000);
+    assertEquals(0, pendingWrites.size(), "The retried batch was sent");
+  }
+
+  @Test
+  void testDeleteSubtree_writesAfterTheDeleteSentInTheNextRequest() throws Exception {
+    coordinator.save(Collections.singletonList(this.node("before")));
+    coordinator.deleteSubtree("Test Owner", "/root/my folder/");
+    coordinator.save(Collections.singletonList(this.node("after")));
+
+    coordinator.flush();
+
+    ArgumentCaptor<SolrRequest<?>> requests = ArgumentCaptor.forClass(SolrRequest.class);
+    verify(updateClient, times(2)).request(requests.capture(), any());
+    UpdateRequest first = (UpdateRequest) requests.getAllValues().get(0);
+    assertEquals(1, first.getDocuments().size());
+    assertEquals(Collections.singletonList("owner:Test\\ Owner AND (fullPath_str:"
+        + "\\/root\\/my\\ folder OR fullPath_str:\\/root\\/my\\ folder\\/*)"),
+        first.getDeleteQuery());
+    UpdateRequest second = (UpdateRequest) requests.getAllValues().get(1);
+    assertEquals(1, second.getDocuments().size());
+  }
+
+  @Test
+  void testSubtreeQuery_ancestorsReady_matchedByAncestors() {
+    assertEquals("owner:Test\\ Owner AND (fullPath_str:\\/root\\/my\\ folder"
+        + " OR ancestors_str:\\/root\\/my\\ folder)",
+        SolrWriteCoordinator.subtreeQuery("Test Owner", "/root/my folder", true),
+        "No wildcard once every node has its ancestors indexed");
+  }
+
+  @Test
+  void testDeleteSubtree_pendingDocumentsBelowHidden() {
+    NodeDTO below = this.node("below");
+    NodeDTO top = this.node("top");
+    top.setFullPath("/root/folder");
+    below.setFullPath("/root/folder/below");
+    NodeDTO sibling = this.node("sibling");
+    sibling.setFullPath("/root/folderSibling");
+
+    coordinator.deleteSubtree("TestOwner", "/root/folder");
+
+    assertEquals(Collections.singletonList(sibling), pendingWrites
+        .merge(Arrays.asList(top, below, sibling), NodeDTO.class, node -> true));
+  }
+
+  private void solrDownWhile(final AtomicBoolean down) throws Exception {
+    when(updateClient.request(any(), any())).thenAnswer(invocation -> {
+      if (down.get()) {
+        throw new SolrServerException("down");
+      }
+      return null;
+    });
+  }
+
+  private NodeDTO node(final String id) {
+    NodeDTO node = new NodeDTO();
+    node.setId(id);
+    node.setType(DirElementType.FOLDER);
+    node.setOwner("TestOwner");
+    node.setFullPath("/root/" + id);
+    return node;
+  }
+
+}
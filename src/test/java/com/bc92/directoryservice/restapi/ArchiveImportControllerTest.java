@@ -0,0 +1,87 @@
+package com.bc92.directoryservice.restapi;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.test.context.support.WithUserDetails;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.util.StreamUtils;
+import com.bc92.directoryservice.service.ArchiveImportService;
+import com.bc92.directoryservice.service.ImportStatus;
+import com.bc92.directoryservice.service.ImportStatus.State;
+import com.bc92.directoryservice.service.UploadResult;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(ArchiveImportController.class)
+class ArchiveImportControllerTest {
+
+  private static final String IMPORT_ID = "5c2f9a10-8a1e-4f4e-9d53-3b1f0c2e7a11";
+
+  @Autowired
+  private MockMvc mvc;
+
+  @MockBean
+  private ArchiveImportService archiveImportService;
+
+  //@formatter:off
+
+  @Test
+  @WithUserDetails
+  void testImportArchive() throws Exception {
+
+    byte[] archive = new byte[] {'P', 'K', 3, 4};
+    byte[][] received = new byte[1][];
+    when(archiveImportService.start(eq("/root/target"), any(), eq("user"))).thenAnswer(invocation -> {
+      try (InputStream in = invocation.<InputStreamSource>getArgument(1).getInputStream()) {
+        received[0] = StreamUtils.copyToByteArray(in);
+      }
+      return new ImportStatus(IMPORT_ID, "/root/target", State.QUEUED, -1, 0, 0,
+          Collections.emptyList(), null);
+    });
+
+    mvc.perform(MockMvcRequestBuilders
+        .post(ArchiveImportController.IMPORT_API_PATH)
+        .param("folder", "/root/target")
+        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+        .content(archive))
+        .andExpect(status().isAccepted())
+        .andExpect(jsonPath("$.importId").value(IMPORT_ID))
+        .andExpect(jsonPath("$.state").value("QUEUED"));
+
+    assertTrue("Request body is passed through as the archive", Arrays.equals(archive, received[0]));
+  }
+
+  @Test
+  @WithUserDetails
+  void testGetImport() throws Exception {
+
+    when(archiveImportService.getStatus(IMPORT_ID, "user")).thenReturn(
+        new ImportStatus(IMPORT_ID, "/root/target", State.COMPLETED, 3, 2, 1,
+            Collections.singletonList(new UploadResult("/root/target/a.txt", HttpStatus.CONFLICT,
+                "File already exists")), null));
+
+    mvc.perform(MockMvcRequestBuilders
+        .get(ArchiveImportController.IMPORT_API_PATH + "/" + IMPORT_ID))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.filesImported").value(2))
+        .andExpect(jsonPath("$.failures[0].fullPath").value("/root/target/a.txt"))
+        .andExpect(jsonPath("$.failures[0].status").value("CONFLICT"));
+  }
+
+}
@@ -2,6 +2,7 @@ package com.bc92.directoryservice.restapi;
 
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import org.junit.jupiter.api.Test;
@@ -9,6 +10,7 @@ import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithUserDetails;
 import org.springframework.test.context.junit4.SpringRunner;
@@ -17,6 +19,7 @@ import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import com.bc92.directoryservice.model.Directory;
 import com.bc92.directoryservice.service.DirectoryService;
+import com.bc92.directoryservice.service.Folder;
 import com.bc92.projectsdk.constants.DirectoryServiceConstants;
 
 @RunWith(SpringRunner.class)
@@ -48,4 +51,40 @@ class DirectoryControllerTest {
 
   }
 
+  @Test
+  @WithUserDetails
+  void testGetUserDirectory_unchanged_notModified() throws Exception {
+
+    Directory dir = new Directory("test");
+
+    when(dirService.getUserDirectory(eq("user"))).thenReturn(dir);
+
+    mvc.perform(MockMvcRequestBuilders
+        .get(DirectoryServiceConstants.DIRECTORY_API_PATH)
+        .header(HttpHeaders.IF_NONE_MATCH, "\"" + dir.getETag() + "\""))
+        .andExpect(status().isNotModified())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"" + dir.getETag() + "\""))
+        .andReturn();
+
+  }
+
+  @Test
+  @WithUserDetails
+  void testGetUserDirectory_changed_directorySent() throws Exception {
+
+    Directory dir = new Directory("test");
+    String staleTag = "\"" + dir.getETag() + "\"";
+    dir.createFolder(new Folder("folder1", "/root"));
+
+    when(dirService.getUserDirectory(eq("user"))).thenReturn(dir);
+
+    mvc.perform(MockMvcRequestBuilders
+        .get(DirectoryServiceConstants.DIRECTORY_API_PATH)
+        .header(HttpHeaders.IF_NONE_MATCH, staleTag))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.owner").value("test"))
+        .andReturn();
+
+  }
+
 }
@@ -2,20 +2,36 @@ package com.bc92.directoryservice.restapi;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.List;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.security.test.context.support.WithUserDetails;
 import org.springframework.test.context.junit4.SpringRunner;
@@ -23,8 +39,11 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.request.RequestPostProcessor;
+import org.springframework.util.StreamUtils;
 import com.bc92.directoryservice.service.File;
+import com.bc92.directoryservice.service.FileContent;
 import com.bc92.directoryservice.service.FileService;
+import com.bc92.directoryservice.service.UploadResult;
 import com.bc92.projectsdk.constants.DirectoryServiceConstants;
 
 @RunWith(SpringRunner.class)
@@ -40,6 +59,14 @@ class FileControllerTest {
   @Captor
   ArgumentCaptor<File> fileCaptor;
 
+  @Captor
+  ArgumentCaptor<List<Resource>> partsCaptor;
+
+  private static final String HASH =
+      "84d89877f0d4041efb6bf91a16f0248f2fd573e6af05c19f96bedb9f882f7882";
+
+  private static final long LAST_MODIFIED = 1600000000000L;
+
   //@formatter:off
 
   @Test
@@ -63,7 +90,31 @@ class FileControllerTest {
 
     assertEquals("fileName", captorFile.getDiscriminator());
     assertEquals("/root", captorFile.getParentPath());
-    assertTrue(Arrays.equals(content, captorFile.getFileBytes()));
+    assertTrue(Arrays.equals(content,
+        StreamUtils.copyToByteArray(captorFile.getContent().getInputStream())));
+  }
+
+  @Test
+  @WithUserDetails
+  void testUploadFiles() throws Exception {
+
+    MockMultipartFile first = new MockMultipartFile("file", "a.txt", null, new byte[] {1});
+    MockMultipartFile second = new MockMultipartFile("file", "sub/b.txt", null, new byte[] {2});
+    when(fileService.uploadFiles(eq("/root"), any(), eq("user"))).thenReturn(Arrays.asList(
+        new UploadResult("/root/a.txt", HttpStatus.CREATED, null),
+        new UploadResult("/root/sub/b.txt", HttpStatus.CONFLICT, "File already exists")));
+
+    mvc.perform(MockMvcRequestBuilders
+        .multipart(FileController.BATCH_API_PATH)
+        .file(first)
+        .file(second)
+        .param("parentPath", "/root"))
+        .andExpect(status().isMultiStatus())
+        .andExpect(jsonPath("$[1].status").value("CONFLICT"))
+        .andReturn();
+
+    verify(fileService).uploadFiles(eq("/root"), partsCaptor.capture(), eq("user"));
+    assertEquals("sub/b.txt", partsCaptor.getValue().get(1).getFilename());
   }
 
   @Test
@@ -72,7 +123,8 @@ class FileControllerTest {
 
     byte[] content = new byte[] {1,2,3,4};
 
-    ByteArrayResource file = new ByteArrayResource(content);
+    FileContent file = new FileContent("file1", HASH, content.length, LAST_MODIFIED,
+        new ByteArrayResource(content), null);
 
     when(fileService.readFile(eq("/root/file1"), eq("user"))).thenReturn(file);
 
@@ -81,12 +133,180 @@ class FileControllerTest {
         .contentType(MediaType.APPLICATION_JSON)
         .param("fullPath", "/root/file1"))
         .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+        .andExpect(header().string(HttpHeaders.ETAG, "\"" + HASH + "\""))
         .andReturn();
 
     assertTrue(Arrays.equals(content, result.getResponse().getContentAsByteArray()));
 
   }
 
+  @Test
+  @WithUserDetails
+  void testReadFile_range_partialContentFromFile(@TempDir final Path dir) throws Exception {
+
+    when(fileService.readFile(eq("/root/file1"), eq("user"))).thenReturn(this.fileContent(dir));
+
+    MvcResult result = mvc.perform(MockMvcRequestBuilders
+        .get(DirectoryServiceConstants.FILE_API_PATH)
+        .header(HttpHeaders.RANGE, "bytes=2-5")
+        .param("fullPath", "/root/file1"))
+        .andExpect(status().isPartialContent())
+        .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 2-5/10"))
+        .andReturn();
+
+    assertEquals("2345", result.getResponse().getContentAsString());
+  }
+
+  @Test
+  @WithUserDetails
+  void testReadFile_multipleRanges_byteranges(@TempDir final Path dir) throws Exception {
+
+    when(fileService.readFile(eq("/root/file1"), eq("user"))).thenReturn(this.fileContent(dir));
+
+    MvcResult result = mvc.perform(MockMvcRequestBuilders
+        .get(DirectoryServiceConstants.FILE_API_PATH)
+        .header(HttpHeaders.RANGE, "bytes=0-1,-2")
+        .param("fullPath", "/root/file1"))
+        .andExpect(status().isPartialContent())
+        .andReturn();
+
+    String contentType = result.getResponse().getContentType();
+    assertTrue(contentType.startsWith("multipart/byteranges; boundary="));
+    String boundary = contentType.substring(contentType.indexOf('=') + 1);
+    assertEquals("\r\n--" + boundary + "\r\n"
+        + "Content-Type: text/plain\r\nContent-Range: bytes 0-1/10\r\n\r\n01"
+        + "\r\n--" + boundary + "\r\n"
+        + "Content-Type: text/plain\r\nContent-Range: bytes 8-9/10\r\n\r\n89"
+        + "\r\n--" + boundary + "--", result.getResponse().getContentAsString());
+  }
+
+  @Test
+  @WithUserDetails
+  void testReadFile_ranges_resourceLengthNotRead() throws Exception {
+
+    // a compressed blob is only measured by inflating it, the recorded size bounds the ranges
+    Resource resource =
+        Mockito.spy(new ByteArrayResource("0123456789".getBytes(StandardCharsets.US_ASCII)));
+    FileContent file = new FileContent("file1.txt", HASH, 10, LAST_MODIFIED, resource, null);
+    when(fileService.readFile(eq("/root/file1"), eq("user"))).thenReturn(file);
+
+    MvcResult result = mvc.perform(MockMvcRequestBuilders
+        .get(DirectoryServiceConstants.FILE_API_PATH)
+        .header(HttpHeaders.RANGE, "bytes=0-1,-2")
+        .param("fullPath", "/root/file1"))
+        .andExpect(status().isPartialContent())
+        .andReturn();
+
+    assertTrue(result.getResponse().getContentAsString().contains("bytes 8-9/10\r\n\r\n89"));
+    verify(resource, Mockito.never()).contentLength();
+  }
+
+  @Test
+  @WithUserDetails
+  void testReadFile_ifRangeStale_fullContent(@TempDir final Path dir) throws Exception {
+
+    when(fileService.readFile(eq("/root/file1"), eq("user"))).thenReturn(this.fileContent(dir));
+
+    MvcResult result = mvc.perform(MockMvcRequestBuilders
+        .get(DirectoryServiceConstants.FILE_API_PATH)
+        .header(HttpHeaders.RANGE, "bytes=2-5")
+        .header(HttpHeaders.IF_RANGE, "\"stale\"")
+        .param("fullPath", "/root/file1"))
+        .andExpect(status().isOk())
+        .andReturn();
+
+    assertEquals("0123456789", result.getResponse().getContentAsString());
+  }
+
+  @Test
+  @WithUserDetails
+  void testReadFile_ifRangeCurrent_partialContent(@TempDir final Path dir) throws Exception {
+
+    when(fileService.readFile(eq("/root/file1"), eq("user"))).thenReturn(this.fileContent(dir));
+
+    mvc.perform(MockMvcRequestBuilders
+        .get(DirectoryServiceConstants.FILE_API_PATH)
+        .header(HttpHeaders.RANGE, "bytes=8-")
+        .header(HttpHeaders.IF_RANGE, "\"" + HASH + "\"")
+        .param("fullPath", "/root/file1"))
+        .andExpect(status().isPartialContent())
+        .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 8-9/10"));
+  }
+
+  @Test
+  @WithUserDetails
+  void testReadFile_unsatisfiableRange(@TempDir final Path dir) throws Exception {
+
+    when(fileService.readFile(eq("/root/file1"), eq("user"))).thenReturn(this.fileContent(dir));
+
+    mvc.perform(MockMvcRequestBuilders
+        .get(DirectoryServiceConstants.FILE_API_PATH)
+        .header(HttpHeaders.RANGE, "bytes=20-30")
+        .param("fullPath", "/root/file1"))
+        .andExpect(status().isRequestedRangeNotSatisfiable())
+        .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */10"));
+  }
+
+  @Test
+  @WithUserDetails
+  void testReadFile_rangeStartsAtSize_unsatisfiable(@TempDir final Path dir) throws Exception {
+
+    when(fileService.readFile(eq("/root/file1"), eq("user"))).thenReturn(this.fileContent(dir));
+
+    MvcResult result = mvc.perform(MockMvcRequestBuilders
+        .get(DirectoryServiceConstants.FILE_API_PATH)
+        .header(HttpHeaders.RANGE, "bytes=10-")
+        .param("fullPath", "/root/file1"))
+        .andExpect(status().isRequestedRangeNotSatisfiable())
+        .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */10"))
+        .andReturn();
+
+    assertEquals("", result.getResponse().getContentAsString());
+  }
+
+  @Test
+  @WithUserDetails
+  void testReadFile_rangeOfEmptyFile_unsatisfiable(@TempDir final Path dir) throws Exception {
+
+    Path blob = Files.write(dir.resolve("blob"), new byte[0]);
+    when(fileService.readFile(eq("/root/file1"), eq("user"))).thenReturn(new FileContent(
+        "file1.txt", HASH, 0, LAST_MODIFIED, new FileSystemResource(blob), null));
+
+    mvc.perform(MockMvcRequestBuilders
+        .get(DirectoryServiceConstants.FILE_API_PATH)
+        .header(HttpHeaders.RANGE, "bytes=0-")
+        .param("fullPath", "/root/file1"))
+        .andExpect(status().isRequestedRangeNotSatisfiable())
+        .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */0"));
+  }
+
+  @Test
+  @WithUserDetails
+  void testReadFile_sendfileSupported_handedToContainer(@TempDir final Path dir)
+      throws Exception {
+
+    FileContent file = this.fileContent(dir);
+    when(fileService.readFile(eq("/root/file1"), eq("user"))).thenReturn(file);
+
+    MvcResult result = mvc.perform(MockMvcRequestBuilders
+        .get(DirectoryServiceConstants.FILE_API_PATH)
+        .requestAttr(FileContentWriter.SENDFILE_SUPPORTED, Boolean.TRUE)
+        .header(HttpHeaders.RANGE, "bytes=2-5")
+        .param("fullPath", "/root/file1"))
+        .andExpect(status().isPartialContent())
+        .andReturn();
+
+    MockHttpServletRequest request = result.getRequest();
+    assertEquals(file.getResource().getFile().getAbsolutePath(),
+        request.getAttribute(FileContentWriter.SENDFILE_FILENAME));
+    assertEquals(2L, request.getAttribute(FileContentWriter.SENDFILE_START));
+    assertEquals(6L, request.getAttribute(FileContentWriter.SENDFILE_END));
+    assertEquals(4L, result.getResponse().getContentLengthLong());
+    assertEquals("Body is written by the container", 0,
+        result.getResponse().getContentAsByteArray().length);
+  }
+
   @Test
   @WithUserDetails
   void testUpdateFile() throws Exception {
@@ -114,7 +334,134 @@ class FileControllerTest {
 
     assertEquals("fileName", captorFile.getDiscriminator());
     assertEquals("/root", captorFile.getParentPath());
-    assertTrue(Arrays.equals(content, captorFile.getFileBytes()));
+    assertTrue(Arrays.equals(content,
+        StreamUtils.copyToByteArray(captorFile.getContent().getInputStream())));
+  }
+
+  @Test
+  @WithUserDetails
+  void testReadFile_acceptsGzip_storedGzipSent() throws Exception {
+
+    byte[] gzipped = new byte[] {0x1f, (byte) 0x8b, 8, 0};
+    FileContent file = new FileContent("file1.txt", HASH, 10, LAST_MODIFIED,
+        new ByteArrayResource("0123456789".getBytes(StandardCharsets.US_ASCII)),
+        new ByteArrayResource(gzipped));
+    when(fileService.readFile(eq("/root/file1"), eq("user"))).thenReturn(file);
+
+    MvcResult result = mvc.perform(MockMvcRequestBuilders
+        .get(DirectoryServiceConstants.FILE_API_PATH)
+        .header(HttpHeaders.ACCEPT_ENCODING, "deflate, gzip;q=0.8")
+        .param("fullPath", "/root/file1"))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+        .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING))
+        .andExpect(header().string(HttpHeaders.ETAG, "\"" + HASH + "-gzip\""))
+        .andReturn();
+
+    assertTrue(Arrays.equals(gzipped, result.getResponse().getContentAsByteArray()));
+  }
+
+  @Test
+  @WithUserDetails
+  void testReadFile_gzipRefused_decompressedContentSent() throws Exception {
+
+    FileContent file = new FileContent("file1.txt", HASH, 10, LAST_MODIFIED,
+        new ByteArrayResource("0123456789".getBytes(StandardCharsets.US_ASCII)),
+        new ByteArrayResource(new byte[] {0x1f, (byte) 0x8b, 8, 0}));
+    when(fileService.readFile(eq("/root/file1"), eq("user"))).thenReturn(file);
+
+    MvcResult result = mvc.perform(MockMvcRequestBuilders
+        .get(DirectoryServiceConstants.FILE_API_PATH)
+        .header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0, *")
+        .param("fullPath", "/root/file1"))
+        .andExpect(status().isOk())
+        .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+        .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING))
+        .andReturn();
+
+    assertEquals("0123456789", result.getResponse().getContentAsString());
+  }
+
+  @Test
+  @WithUserDetails
+  void testReadFile_ifNoneMatchCurrent_notModifiedWithoutContent() throws Exception {
+
+    Resource resource = Mockito.mock(Resource.class);
+    FileContent file = new FileContent("file1.txt", HASH, 10, LAST_MODIFIED, resource, null);
+    when(fileService.readFile(eq("/root/file1"), eq("user"))).thenReturn(file);
+
+    MvcResult result = mvc.perform(MockMvcRequestBuilders
+        .get(DirectoryServiceConstants.FILE_API_PATH)
+        .header(HttpHeaders.IF_NONE_MATCH, "\"" + HASH + "\"")
+        .param("fullPath", "/root/file1"))
+        .andExpect(status().isNotModified())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"" + HASH + "\""))
+        .andReturn();
+
+    assertEquals(0, result.getResponse().getContentLength());
+    verifyNoInteractions(resource);
+  }
+
+  @Test
+  @WithUserDetails
+  void testReadFile_ifModifiedSince_notModified() throws Exception {
+
+    Resource resource = Mockito.mock(Resource.class);
+    FileContent file = new FileContent("file1.txt", HASH, 10, LAST_MODIFIED, resource, null);
+    when(fileService.readFile(eq("/root/file1"), eq("user"))).thenReturn(file);
+
+    mvc.perform(MockMvcRequestBuilders
+        .get(DirectoryServiceConstants.FILE_API_PATH)
+        .header(HttpHeaders.IF_MODIFIED_SINCE, LAST_MODIFIED)
+        .param("fullPath", "/root/file1"))
+        .andExpect(status().isNotModified())
+        .andReturn();
+
+    verifyNoInteractions(resource);
+  }
+
+  @Test
+  @WithUserDetails
+  void testReadFile_ifNoneMatchStale_contentSent(@TempDir final Path dir) throws Exception {
+
+    when(fileService.readFile(eq("/root/file1"), eq("user"))).thenReturn(this.fileContent(dir));
+
+    MvcResult result = mvc.perform(MockMvcRequestBuilders
+        .get(DirectoryServiceConstants.FILE_API_PATH)
+        .header(HttpHeaders.IF_NONE_MATCH, "\"stale\"")
+        .param("fullPath", "/root/file1"))
+        .andExpect(status().isOk())
+        .andExpect(header().dateValue(HttpHeaders.LAST_MODIFIED, LAST_MODIFIED))
+        .andReturn();
+
+    assertEquals("0123456789", result.getResponse().getContentAsString());
+  }
+
+  @Test
+  @WithUserDetails
+  void testReadFile_ifRangeLastModified_partialContent(@TempDir final Path dir)
+      throws Exception {
+
+    when(fileService.readFile(eq("/root/file1"), eq("user"))).thenReturn(this.fileContent(dir));
+
+    HttpHeaders ifRange = new HttpHeaders();
+    ifRange.setDate(HttpHeaders.IF_RANGE, LAST_MODIFIED);
+
+    MvcResult result = mvc.perform(MockMvcRequestBuilders
+        .get(DirectoryServiceConstants.FILE_API_PATH)
+        .header(HttpHeaders.RANGE, "bytes=2-5")
+        .headers(ifRange)
+        .param("fullPath", "/root/file1"))
+        .andExpect(status().isPartialContent())
+        .andReturn();
+
+    assertEquals("2345", result.getResponse().getContentAsString());
+  }
+
+  private FileContent fileContent(final Path dir) throws IOException {
+    Path blob = Files.write(dir.resolve("blob"), "0123456789".getBytes(StandardCharsets.US_ASCII));
+    return new FileContent("file1.txt", HASH, 10, LAST_MODIFIED, new FileSystemResource(blob),
+        null);
   }
 
   @Test
@@ -0,0 +1,85 @@
+package com.bc92.directoryservice.restapi;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.http.MediaType;
+import org.springframework.security.test.context.support.WithUserDetails;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.util.StreamUtils;
+import com.bc92.directoryservice.service.BlockSignatures;
+import com.bc92.directoryservice.service.FileDeltaService;
+import com.bc92.directoryservice.service.ReadFile;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(FileDeltaController.class)
+class FileDeltaControllerTest {
+
+  private static final String HASH =
+      "84d89877f0d4041efb6bf91a16f0248f2fd573e6af05c19f96bedb9f882f7882";
+
+  @Autowired
+  private MockMvc mvc;
+
+  @MockBean
+  private FileDeltaService fileDeltaService;
+
+  //@formatter:off
+
+  @Test
+  @WithUserDetails
+  void testGetSignatures() throws Exception {
+
+    when(fileDeltaService.getSignatures("/root/file1", "user")).thenReturn(
+        new BlockSignatures(HASH, 10, 65536,
+            Collections.singletonList(new BlockSignatures.Block(42, HASH))));
+
+    mvc.perform(MockMvcRequestBuilders
+        .get(FileDeltaController.DELTA_API_PATH)
+        .param("fullPath", "/root/file1"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.contentHash").value(HASH))
+        .andExpect(jsonPath("$.blocks[0].weak").value(42));
+  }
+
+  @Test
+  @WithUserDetails
+  void testApplyDelta() throws Exception {
+
+    byte[] delta = new byte[] {'L', 0, 0, 0, 1, 7};
+    byte[][] received = new byte[1][];
+    when(fileDeltaService.applyDelta(eq("/root/file1"), eq(HASH), any(), eq(null), eq("user")))
+        .thenAnswer(invocation -> {
+          try (InputStream in = invocation.<InputStreamSource>getArgument(2).getInputStream()) {
+            received[0] = StreamUtils.copyToByteArray(in);
+          }
+          return new ReadFile("/root", "file1");
+        });
+
+    mvc.perform(MockMvcRequestBuilders
+        .put(FileDeltaController.DELTA_API_PATH)
+        .param("fullPath", "/root/file1")
+        .param("baseHash", HASH)
+        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+        .content(delta))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.discriminator").value("file1"));
+
+    assertTrue("Request body is passed through as the delta", Arrays.equals(delta, received[0]));
+  }
+
+}
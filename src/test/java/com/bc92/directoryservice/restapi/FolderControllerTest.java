@@ -1,23 +1,37 @@
 package com.bc92.directoryservice.restapi;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import org.junit.jupiter.api.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithUserDetails;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import com.bc92.directoryservice.model.Directory;
 import com.bc92.directoryservice.service.DirectoryService;
 import com.bc92.directoryservice.service.Folder;
+import com.bc92.directoryservice.service.FolderArchive;
+import com.bc92.directoryservice.service.FolderArchiveService;
 import com.bc92.directoryservice.service.ReadFolder;
 import com.bc92.projectsdk.constants.DirectoryServiceConstants;
 import com.bc92.projectsdk.utils.JsonUtilities;
@@ -32,6 +46,9 @@ class FolderControllerTest {
   @MockBean
   private DirectoryService dirService;
 
+  @MockBean
+  private FolderArchiveService folderArchiveService;
+
   //@formatter:off
 
   @Test
@@ -61,18 +78,87 @@ class FolderControllerTest {
     ReadFolder readfolder = new ReadFolder();
     readfolder.setFullPath("/root/folder1");
 
-    when(dirService.readFolder(eq("/root/folder1"), eq("user"))).thenReturn(readfolder);
+    Directory dir = new Directory("user");
+    when(dirService.getCachedDirectory(eq("user"))).thenReturn(dir);
+    when(dirService.readFolder(eq("/root/folder1"), eq("user"), isNull(), isNull()))
+        .thenReturn(readfolder);
 
     MvcResult result = mvc.perform(MockMvcRequestBuilders
         .get(DirectoryServiceConstants.FOLDER_API_PATH)
         .contentType(MediaType.APPLICATION_JSON)
         .param("folder", "/root/folder1"))
         .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"" + dir.getETag() + "\""))
         .andExpect(jsonPath("$.fullPath").value("/root/folder1"))
         .andReturn();
 
   }
 
+  @Test
+  @WithUserDetails
+  void testReadFolder_directoryUnchanged_notModified() throws Exception {
+
+    Directory dir = new Directory("user");
+    when(dirService.getCachedDirectory(eq("user"))).thenReturn(dir);
+
+    MvcResult result = mvc.perform(MockMvcRequestBuilders
+        .get(DirectoryServiceConstants.FOLDER_API_PATH)
+        .header(HttpHeaders.IF_NONE_MATCH, "\"" + dir.getETag() + "\"")
+        .param("folder", "/root/folder1"))
+        .andExpect(status().isNotModified())
+        .andReturn();
+
+    assertEquals(0, result.getResponse().getContentLength());
+    verify(dirService, never()).readFolder(any(), any(), any(), any());
+  }
+
+  @Test
+  @WithUserDetails
+  void testReadFolder_page_directoryNotCached_noTag() throws Exception {
+
+    ReadFolder page = new ReadFolder("/root/folder1", new LinkedHashSet<>(),
+        new LinkedHashSet<>(Arrays.asList("a.txt", "b.txt")), "next");
+    when(dirService.readFolder("/root/folder1", "user", "cursor", 2)).thenReturn(page);
+
+    MvcResult result = mvc.perform(MockMvcRequestBuilders
+        .get(DirectoryServiceConstants.FOLDER_API_PATH)
+        .param("folder", "/root/folder1")
+        .param("cursor", "cursor")
+        .param("pageSize", "2"))
+        .andExpect(status().isOk())
+        .andExpect(header().doesNotExist(HttpHeaders.ETAG))
+        .andExpect(jsonPath("$.files[0]").value("a.txt"))
+        .andExpect(jsonPath("$.files[1]").value("b.txt"))
+        .andExpect(jsonPath("$.nextCursor").value("next"))
+        .andReturn();
+
+    verify(dirService, never()).getUserDirectory(any());
+  }
+
+  @Test
+  @WithUserDetails
+  void testDownloadFolder() throws Exception {
+
+    FolderArchive archive = Mockito.mock(FolderArchive.class);
+    when(archive.getName()).thenReturn("folder1.zip");
+    doAnswer(invocation -> {
+      invocation.<OutputStream>getArgument(0).write(new byte[] {'P', 'K'});
+      return null;
+    }).when(archive).writeTo(any());
+    when(folderArchiveService.prepare("/root/folder1", "user")).thenReturn(archive);
+
+    MvcResult result = mvc.perform(MockMvcRequestBuilders
+        .get(FolderController.ZIP_API_PATH)
+        .param("folder", "/root/folder1"))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "application/zip"))
+        .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION,
+            "attachment; filename*=UTF-8''folder1.zip"))
+        .andReturn();
+
+    assertEquals("PK", result.getResponse().getContentAsString());
+  }
+
   @Test
   @WithUserDetails
   void testDeleteFolder() throws Exception {
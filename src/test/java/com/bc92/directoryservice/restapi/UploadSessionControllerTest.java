@@ -0,0 +1,119 @@
+package com.bc92.directoryservice.restapi;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.http.MediaType;
+import org.springframework.security.test.context.support.WithUserDetails;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.util.StreamUtils;
+import com.bc92.directoryservice.service.ReadFile;
+import com.bc92.directoryservice.service.UploadSessionService;
+import com.bc92.directoryservice.service.UploadStatus;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(UploadSessionController.class)
+class UploadSessionControllerTest {
+
+  private static final String SESSION_ID = "1b4e28ba-2fa1-41d2-883f-0016d3cca427";
+
+  @Autowired
+  private MockMvc mvc;
+
+  @MockBean
+  private UploadSessionService uploadSessionService;
+
+  //@formatter:off
+
+  @Test
+  @WithUserDetails
+  void testInitiateUpload() throws Exception {
+
+    when(uploadSessionService.initiate("/root", "video.mp4", "user")).thenReturn(
+        new UploadStatus(SESSION_ID, "/root", "video.mp4", new TreeSet<>()));
+
+    mvc.perform(MockMvcRequestBuilders
+        .post(UploadSessionController.UPLOAD_API_PATH)
+        .param("parentPath", "/root")
+        .param("discriminator", "video.mp4"))
+        .andExpect(status().isCreated())
+        .andExpect(jsonPath("$.sessionId").value(SESSION_ID));
+  }
+
+  @Test
+  @WithUserDetails
+  void testPutChunk() throws Exception {
+
+    byte[] content = new byte[] {1,2,3,4};
+    byte[][] received = new byte[1][];
+    doAnswer(invocation -> {
+      try (InputStream in = invocation.<InputStreamSource>getArgument(2).getInputStream()) {
+        received[0] = StreamUtils.copyToByteArray(in);
+      }
+      return null;
+    }).when(uploadSessionService).putChunk(eq(SESSION_ID), eq(3), any(), eq("user"));
+
+    mvc.perform(MockMvcRequestBuilders
+        .put(UploadSessionController.UPLOAD_API_PATH + "/" + SESSION_ID + "/chunks/3")
+        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+        .content(content))
+        .andExpect(status().isNoContent());
+
+    assertTrue("Request body is passed through as the chunk", Arrays.equals(content, received[0]));
+  }
+
+  @Test
+  @WithUserDetails
+  void testGetUpload() throws Exception {
+
+    when(uploadSessionService.getStatus(SESSION_ID, "user")).thenReturn(
+        new UploadStatus(SESSION_ID, "/root", "video.mp4", new TreeSet<>(Arrays.asList(0, 2))));
+
+    mvc.perform(MockMvcRequestBuilders
+        .get(UploadSessionController.UPLOAD_API_PATH + "/" + SESSION_ID))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.receivedChunks[1]").value(2));
+  }
+
+  @Test
+  @WithUserDetails
+  void testCommitUpload() throws Exception {
+
+    when(uploadSessionService.commit(SESSION_ID, 4, null, "user"))
+        .thenReturn(new ReadFile("/root", "video.mp4"));
+
+    mvc.perform(MockMvcRequestBuilders
+        .post(UploadSessionController.UPLOAD_API_PATH + "/" + SESSION_ID + "/commit")
+        .param("chunkCount", "4"))
+        .andExpect(status().isCreated())
+        .andExpect(jsonPath("$.discriminator").value("video.mp4"));
+  }
+
+  @Test
+  @WithUserDetails
+  void testAbortUpload() throws Exception {
+
+    mvc.perform(MockMvcRequestBuilders
+        .delete(UploadSessionController.UPLOAD_API_PATH + "/" + SESSION_ID))
+        .andExpect(status().isNoContent());
+
+    verify(uploadSessionService).abort(SESSION_ID, "user");
+  }
+
+}
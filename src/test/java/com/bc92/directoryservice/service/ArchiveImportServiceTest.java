@@ -0,0 +1,344 @@
+package com.bc92.directoryservice.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+import com.bc92.directoryservice.model.Directory;
+import com.bc92.directoryservice.service.ImportStatus.State;
+
+class ArchiveImportServiceTest {
+
+  private final String username = "TestOwner";
+
+  @TempDir
+  Path root;
+
+  private DirectoryService directoryService;
+
+  private FileService fileService;
+
+  private final Map<String, byte[]> uploaded = new ConcurrentHashMap<>();
+
+  private ArchiveImportService imports;
+
+  @BeforeEach
+  void setUp() {
+    directoryService = Mockito.mock(DirectoryService.class);
+    fileService = Mockito.mock(FileService.class);
+    Directory directory = new Directory(username);
+    directory.createFolder(new Folder("target", "/root"));
+    when(directoryService.getUserDirectory(username)).thenReturn(directory);
+    when(directoryService.createFolders(eq("/root/target"), any(), eq(username)))
+        .thenAnswer(invocation -> {
+          List<UploadResult> results = new ArrayList<>();
+          for (String path : invocation.<Collection<String>>getArgument(1)) {
+            results.add(new UploadResult("/root/target/" + path, HttpStatus.CREATED, null));
+          }
+          return results;
+        });
+    when(fileService.uploadFiles(eq("/root/target"), any(), eq(username), any()))
+        .thenAnswer(invocation -> {
+          List<UploadResult> results = new ArrayList<>();
+          for (Resource part : invocation.<List<Resource>>getArgument(1)) {
+            try (InputStream in = part.getInputStream()) {
+              uploaded.put(part.getFilename(), StreamUtils.copyToByteArray(in));
+            } catch (ResponseStatusException e) {
+              results.add(new UploadResult("/root/target/" + part.getFilename(), e.getStatus(),
+                  e.getReason()));
+              continue;
+            }
+            results.add(new UploadResult("/root/target/" + part.getFilename(),
+                HttpStatus.CREATED, null));
+          }
+          return results;
+        });
+    imports = new ArchiveImportService(directoryService, fileService, root.toString(), 2, 2,
+        DataSize.ofMegabytes(1), DataSize.ofMegabytes(8), Duration.ofHours(1));
+  }
+
+  @AfterEach
+  void tearDown() {
+    imports.shutdown();
+  }
+
+  @Test
+  void testImport_zip_foldersCreatedOnce_filesUploadedInBatches() throws Exception {
+    byte[] photo = new byte[70000];
+    new Random(3).nextBytes(photo);
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(archive)) {
+      this.putZipEntry(zip, "empty/", null);
+      this.putZipEntry(zip, "docs/notes.txt", "notes".getBytes(StandardCharsets.US_ASCII));
+      this.putZipEntry(zip, "docs/sub/photo.jpg", photo);
+      this.putZipEntry(zip, "readme.txt", "readme".getBytes(StandardCharsets.US_ASCII));
+      this.putZipEntry(zip, "../escape.txt", "outside".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    ImportStatus status = this.importAndWait(archive.toByteArray());
+
+    assertEquals(State.COMPLETED, status.getState());
+    assertEquals(3, status.getFileCount());
+    assertEquals(3, status.getFilesImported());
+    assertEquals(3, status.getFoldersCreated());
+    assertEquals(1, status.getFailures().size(), "The entry outside the folder is reported");
+    assertEquals("../escape.txt", status.getFailures().get(0).getFullPath());
+    assertEquals(HttpStatus.BAD_REQUEST, status.getFailures().get(0).getStatus());
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<Collection<String>> folders = ArgumentCaptor.forClass(Collection.class);
+    verify(directoryService).createFolders(eq("/root/target"), folders.capture(), eq(username));
+    assertEquals(new HashSet<>(Arrays.asList("empty", "docs", "docs/sub")),
+        new HashSet<>(folders.getValue()), "Every folder is created in one call");
+    verify(fileService, Mockito.times(2)).uploadFiles(eq("/root/target"), any(), eq(username),
+        any());
+    assertArrayEquals(photo, uploaded.get("docs/sub/photo.jpg"));
+    assertArrayEquals("readme".getBytes(StandardCharsets.US_ASCII), uploaded.get("readme.txt"));
+  }
+
+  @Test
+  void testImport_gzippedTar_entriesReadFromTheirOffsets() throws Exception {
+    byte[] large = new byte[10000];
+    new Random(7).nextBytes(large);
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    try (TarArchiveOutputStream tar =
+        new TarArchiveOutputStream(new GZIPOutputStream(archive))) {
+      tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+      this.putTarEntry(tar, "./a/small.txt", "small".getBytes(StandardCharsets.US_ASCII));
+      this.putTarEntry(tar, "./a/large.bin", large);
+      StringBuilder longName = new StringBuilder("./b/");
+      for (int i = 0; i < 12; i++) {
+        longName.append("long folder ");
+      }
+      this.putTarEntry(tar, longName.append("/last.txt").toString(),
+          "last".getBytes(StandardCharsets.US_ASCII));
+      TarArchiveEntry link = new TarArchiveEntry("./a/link", TarArchiveEntry.LF_SYMLINK);
+      link.setLinkName("small.txt");
+      tar.putArchiveEntry(link);
+      tar.closeArchiveEntry();
+    }
+
+    ImportStatus status = this.importAndWait(archive.toByteArray());
+
+    assertEquals(State.COMPLETED, status.getState());
+    assertEquals(3, status.getFilesImported());
+    assertEquals(1, status.getFailures().size());
+    assertEquals(ArchiveImportService.UNSUPPORTED_ENTRY,
+        status.getFailures().get(0).getMessage());
+    assertArrayEquals("small".getBytes(StandardCharsets.US_ASCII), uploaded.get("a/small.txt"));
+    assertArrayEquals(large, uploaded.get("a/large.bin"));
+    byte[] last = "last".getBytes(StandardCharsets.US_ASCII);
+    assertTrue(uploaded.keySet().stream().anyMatch(
+        name -> name.endsWith("/last.txt") && Arrays.equals(last, uploaded.get(name))),
+        "Entries after a long name are read");
+  }
+
+  @Test
+  void testStart_notAnArchive_unsupportedMediaType() {
+    ResponseStatusException e = assertThrows(ResponseStatusException.class,
+        () -> imports.start("/root/target",
+            () -> new ByteArrayInputStream("plain text".getBytes(StandardCharsets.US_ASCII)),
+            username));
+
+    assertEquals(HttpStatus.UNSUPPORTED_MEDIA_TYPE, e.getStatus());
+  }
+
+  @Test
+  void testStart_decompressedPastMaxSize_payloadTooLargeAndSpoolRemoved() throws Exception {
+    // a few KB of gzip expanding to more than the maximum size
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    try (TarArchiveOutputStream tar =
+        new TarArchiveOutputStream(new GZIPOutputStream(archive))) {
+      this.putTarEntry(tar, "zeros.bin", new byte[2 * 1024 * 1024]);
+    }
+
+    ResponseStatusException e = assertThrows(ResponseStatusException.class,
+        () -> imports.start("/root/target", () -> new ByteArrayInputStream(archive.toByteArray()),
+            username));
+
+    assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, e.getStatus());
+    try (Stream<Path> spooled = Files.list(root)) {
+      assertEquals(0, spooled.count(), "The partial spool file is removed");
+    }
+    verify(fileService, never()).uploadFiles(any(), any(), any(), any());
+  }
+
+  @Test
+  void testImport_zipEntryDeclaredPastMaxSize_rejectedUnread() throws Exception {
+    // a few KB of deflated zeros, under the spool limit, declaring twice the maximum file size
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(archive)) {
+      this.putZipEntry(zip, "zeros.bin", new byte[2 * 1024 * 1024]);
+      this.putZipEntry(zip, "a.txt", new byte[] {1});
+    }
+    assertTrue(archive.size() < 1024 * 1024);
+
+    ImportStatus status = this.importAndWait(archive.toByteArray());
+
+    assertEquals(State.COMPLETED, status.getState());
+    assertEquals(1, status.getFilesImported());
+    assertEquals(1, status.getFailures().size());
+    assertEquals("zeros.bin", status.getFailures().get(0).getFullPath());
+    assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, status.getFailures().get(0).getStatus());
+    assertEquals(BoundedEntryInputStream.ENTRY_TOO_LARGE,
+        status.getFailures().get(0).getMessage());
+    assertNull(uploaded.get("zeros.bin"), "The entry is never inflated");
+  }
+
+  @Test
+  void testImport_zipEntriesExpandPastImportLimit_entriesFailed() throws Exception {
+    imports.shutdown();
+    imports = new ArchiveImportService(directoryService, fileService, root.toString(), 1, 5,
+        DataSize.ofMegabytes(1), DataSize.ofMegabytes(1), Duration.ofHours(1));
+    // each entry is under the maximum file size, together they inflate past the import limit
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(archive)) {
+      for (int i = 0; i < 3; i++) {
+        this.putZipEntry(zip, "zeros" + i + ".bin", new byte[600 * 1024]);
+      }
+    }
+
+    ImportStatus status = this.importAndWait(archive.toByteArray());
+
+    assertEquals(State.COMPLETED, status.getState());
+    assertEquals(1, status.getFilesImported());
+    assertEquals(2, status.getFailures().size());
+    for (UploadResult failure : status.getFailures()) {
+      assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, failure.getStatus());
+      assertEquals(BoundedEntryInputStream.IMPORT_TOO_LARGE, failure.getMessage());
+    }
+  }
+
+  @Test
+  void testBoundedEntry_inflatesPastMaxSize_payloadTooLarge() {
+    // an entry may declare a size smaller than its content
+    InputStream entry = new BoundedEntryInputStream(new ByteArrayInputStream(new byte[2048]),
+        1024, new AtomicLong(Long.MAX_VALUE));
+
+    ResponseStatusException e =
+        assertThrows(ResponseStatusException.class, () -> StreamUtils.copyToByteArray(entry));
+
+    assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, e.getStatus());
+    assertEquals(BoundedEntryInputStream.ENTRY_TOO_LARGE, e.getReason());
+  }
+
+  @Test
+  void testStart_folderNotFound_badRequest() {
+    ResponseStatusException e = assertThrows(ResponseStatusException.class,
+        () -> imports.start("/root/missing", () -> new ByteArrayInputStream(new byte[0]),
+            username));
+
+    assertEquals(HttpStatus.BAD_REQUEST, e.getStatus());
+    verify(fileService, never()).uploadFiles(any(), any(), any(), any());
+  }
+
+  @Test
+  void testGetStatus_otherUser_notFound() throws Exception {
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(archive)) {
+      this.putZipEntry(zip, "a.txt", new byte[] {1});
+    }
+    ImportStatus status = this.importAndWait(archive.toByteArray());
+
+    assertThrows(ResponseStatusException.class,
+        () -> imports.getStatus(status.getImportId(), "someoneElse"));
+  }
+
+  @Test
+  void testExpireImports_finishedImportsRemovedAfterRetention() throws Exception {
+    imports.shutdown();
+    imports = new ArchiveImportService(directoryService, fileService, root.toString(), 2, 2,
+        DataSize.ofMegabytes(1), DataSize.ofMegabytes(8), Duration.ZERO);
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(archive)) {
+      this.putZipEntry(zip, "a.txt", new byte[] {1});
+    }
+    ImportStatus status = this.importAndWait(archive.toByteArray());
+    Thread.sleep(5);
+
+    assertEquals(1, imports.expireImports());
+    assertThrows(ResponseStatusException.class,
+        () -> imports.getStatus(status.getImportId(), username));
+  }
+
+  @Test
+  void testRelativePath() {
+    assertEquals("a/b", ArchiveImportService.relativePath("./a/b/"));
+    assertEquals("", ArchiveImportService.relativePath("./"));
+    assertNull(ArchiveImportService.relativePath("/etc/passwd"));
+    assertNull(ArchiveImportService.relativePath("a/../../b"));
+    assertNull(ArchiveImportService.relativePath("a//b"));
+  }
+
+  private ImportStatus importAndWait(final byte[] archive) throws InterruptedException {
+    ImportStatus status =
+        imports.start("/root/target", () -> new ByteArrayInputStream(archive), username);
+    for (int i = 0; i < 500; i++) {
+      status = imports.getStatus(status.getImportId(), username);
+      if (status.getState() == State.COMPLETED || status.getState() == State.FAILED) {
+        return status;
+      }
+      Thread.sleep(10);
+    }
+    throw new AssertionError("Import did not finish");
+  }
+
+  private void putZipEntry(final ZipArchiveOutputStream zip, final String name,
+      final byte[] content) throws IOException {
+    zip.putArchiveEntry(new ZipArchiveEntry(name));
+    if (content != null) {
+      zip.write(content);
+    }
+    zip.closeArchiveEntry();
+  }
+
+  private void putTarEntry(final TarArchiveOutputStream tar, final String name,
+      final byte[] content) throws IOException {
+    TarArchiveEntry entry = new TarArchiveEntry(name);
+    entry.setSize(content.length);
+    tar.putArchiveEntry(entry);
+    tar.write(content);
+    tar.closeArchiveEntry();
+  }
+
+}
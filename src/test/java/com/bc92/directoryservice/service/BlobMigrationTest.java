@@ -0,0 +1,60 @@
+package com.bc92.directoryservice.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.domain.PageImpl;
+import com.bc92.directoryservice.dto.FileDTO;
+import com.bc92.directoryservice.dto.NodeDTO.DirElementType;
+import com.bc92.directoryservice.repo.FileRepository;
+import com.bc92.directoryservice.repo.SolrWriteCoordinator;
+
+class BlobMigrationTest {
+
+  private final FileRepository fileRepo = Mockito.mock(FileRepository.class);
+
+  private final FileService fileService = Mockito.mock(FileService.class);
+
+  private final SolrWriteCoordinator writeCoordinator = Mockito.mock(SolrWriteCoordinator.class);
+
+  private final BlobMigration migration =
+      new BlobMigration(fileRepo, fileService, writeCoordinator);
+
+  @Test
+  void migrateAll_migratesUntilNoneLeft() {
+    FileDTO first = this.legacyFile("a.txt");
+    FileDTO second = this.legacyFile("b.txt");
+    when(fileRepo.findLegacyContentFiles(any()))
+        .thenReturn(new PageImpl<>(Arrays.asList(first)))
+        .thenReturn(new PageImpl<>(Arrays.asList(second)))
+        .thenReturn(new PageImpl<>(Collections.emptyList()));
+
+    assertEquals(2, migration.migrateAll());
+    verify(fileService).migrateContent(first);
+    verify(fileService).migrateContent(second);
+    verify(writeCoordinator, times(2)).sync();
+  }
+
+  @Test
+  void migrateAll_wholeBatchFails_stops() {
+    FileDTO broken = this.legacyFile("a.txt");
+    when(fileRepo.findLegacyContentFiles(any())).thenReturn(new PageImpl<>(Arrays.asList(broken)));
+    doThrow(new DirectoryAccessException("disk full")).when(fileService).migrateContent(broken);
+
+    assertEquals(0, migration.migrateAll());
+    verify(fileService, times(1)).migrateContent(broken);
+  }
+
+  private FileDTO legacyFile(final String name) {
+    return new FileDTO(DirElementType.FILE, "TestOwner", name, "/root/" + name, "/root",
+        new byte[] {1});
+  }
+
+}
@@ -0,0 +1,190 @@
+package com.bc92.directoryservice.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import com.bc92.directoryservice.dto.FileDTO;
+import com.bc92.directoryservice.repo.BlobStore;
+import com.bc92.directoryservice.repo.PendingWrites;
+import com.bc92.directoryservice.repo.FileRepository;
+import com.bc92.directoryservice.repo.StoredBlob;
+
+class ContentReferencesTest {
+
+  private static final String HASH =
+      "039058c6f2c0cb492c533b0a4d14ef77cc0f78abccced5287d84a1a2011cfb81";
+
+  private static final String OTHER_HASH =
+      "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+  private final String username = "TestOwner";
+
+  private FileRepository fileRepo;
+
+  private BlobStore blobStore;
+
+  private PendingWrites pendingWrites;
+
+  private ContentReferences references;
+
+  @BeforeEach
+  void setUp() {
+    fileRepo = Mockito.mock(FileRepository.class);
+    blobStore = Mockito.mock(BlobStore.class);
+    pendingWrites = Mockito.mock(PendingWrites.class);
+    references = new ContentReferences(fileRepo, blobStore, pendingWrites);
+    when(fileRepo.findFilesByContentHashAndOwner(any(), any(), any(Pageable.class)))
+        .thenReturn(new PageImpl<>(Collections.emptyList()));
+  }
+
+  @Test
+  void testStore_duplicateContent_countedInDedupeRatio() throws IOException {
+    when(blobStore.put(any())).thenReturn(new StoredBlob(HASH, 3),
+        new StoredBlob(HASH, 3, true));
+
+    references.store(this.file(null), username);
+    references.store(this.file(null), username);
+
+    assertEquals(2.0, references.getDedupeRatio());
+  }
+
+  @Test
+  void testStore_declaredHashOwned_contentNotRead() throws IOException {
+    FileDTO owned = new FileDTO();
+    owned.setContent(new StoredBlob(HASH, 3));
+    when(fileRepo.findFilesByContentHashAndOwner(eq(username), eq(HASH), any(Pageable.class)))
+        .thenReturn(new PageImpl<>(Collections.singletonList(owned)));
+    when(blobStore.exists(HASH)).thenReturn(true);
+    InputStreamSource content = Mockito.mock(InputStreamSource.class);
+
+    StoredBlob stored = references.store(this.file(HASH, content), username);
+
+    assertEquals(HASH, stored.getHash());
+    assertEquals(3, stored.getSize());
+    verify(content, never()).getInputStream();
+    verify(blobStore, never()).put(any());
+  }
+
+  @Test
+  void testStore_declaredHashNotOwned_contentStored() throws IOException {
+    StoredBlob blob = new StoredBlob(HASH, 3, true);
+    when(blobStore.put(any())).thenReturn(blob);
+
+    assertSame(blob, references.store(this.file(HASH), username));
+    verify(blobStore).put(any());
+  }
+
+  @Test
+  void testStore_declaredHashMismatch_badRequest() throws IOException {
+    when(blobStore.put(any())).thenReturn(new StoredBlob(HASH, 3));
+
+    ResponseStatusException result = assertThrows(ResponseStatusException.class,
+        () -> references.store(this.file(OTHER_HASH), username));
+
+    assertEquals(HttpStatus.BAD_REQUEST, result.getStatus());
+    verify(blobStore).delete(HASH);
+  }
+
+  @Test
+  void testStore_invalidDeclaredHash_badRequest() {
+    ResponseStatusException result = assertThrows(ResponseStatusException.class,
+        () -> references.store(this.file("*:*"), username));
+
+    assertEquals(HttpStatus.BAD_REQUEST, result.getStatus());
+    verify(fileRepo, never()).findFilesByContentHashAndOwner(any(), any(), any(Pageable.class));
+  }
+
+  @Test
+  void testSave_contentRemoved_notSaved() {
+    FileDTO file = new FileDTO();
+    file.setContent(new StoredBlob(HASH, 3));
+    when(blobStore.exists(HASH)).thenReturn(false);
+
+    assertThrows(DirectoryAccessException.class, () -> references.save(file));
+    verify(fileRepo, never()).save(any());
+  }
+
+  @Test
+  void testSaveAll_removedContentLeftOut() {
+    FileDTO kept = new FileDTO();
+    kept.setOwner(username);
+    kept.setFullPath("/root/kept.txt");
+    kept.setContent(new StoredBlob(HASH, 3));
+    FileDTO removed = new FileDTO();
+    removed.setOwner(username);
+    removed.setFullPath("/root/removed.txt");
+    removed.setContent(new StoredBlob(OTHER_HASH, 0));
+    when(blobStore.exists(HASH)).thenReturn(true);
+    when(blobStore.exists(OTHER_HASH)).thenReturn(false);
+
+    List<FileDTO> saved = references.saveAll(Arrays.asList(kept, removed));
+
+    assertEquals(Collections.singletonList(kept), saved);
+    verify(fileRepo).saveAll(Collections.singletonList(kept));
+  }
+
+  @Test
+  void testReleaseAll_onlyUnreferencedContentRemoved() throws IOException {
+    FileDTO first = new FileDTO();
+    first.setContent(new StoredBlob(HASH, 3));
+    FileDTO second = new FileDTO();
+    second.setContent(new StoredBlob(HASH, 3));
+    FileDTO third = new FileDTO();
+    third.setContent(new StoredBlob(OTHER_HASH, 0));
+    when(fileRepo.countByContentHash(HASH)).thenReturn(0L);
+    when(fileRepo.countByContentHash(OTHER_HASH)).thenReturn(2L);
+
+    references.releaseAll(Arrays.asList(first, second, third));
+
+    verify(fileRepo).countByContentHash(HASH);
+    verify(blobStore).delete(HASH);
+    verify(blobStore, never()).delete(OTHER_HASH);
+  }
+
+  @Test
+  void testRelease_pendingWriteReferencesContent_retriedOnceVisible() throws IOException {
+    when(pendingWrites.references(HASH)).thenReturn(true);
+    ArgumentCaptor<Runnable> retry = ArgumentCaptor.forClass(Runnable.class);
+
+    references.release(HASH);
+
+    verify(pendingWrites).afterVisible(retry.capture());
+    verify(fileRepo, never()).countByContentHash(any());
+    verify(blobStore, never()).delete(any());
+
+    when(pendingWrites.references(HASH)).thenReturn(false);
+    retry.getValue().run();
+
+    verify(blobStore).delete(HASH);
+  }
+
+  private File file(final String contentHash) {
+    return this.file(contentHash, () -> new ByteArrayInputStream(new byte[] {1, 2, 3}));
+  }
+
+  private File file(final String contentHash, final InputStreamSource content) {
+    File file = new File("/root", "myText.txt", content);
+    file.setContentHash(contentHash);
+    return file;
+  }
+
+}
@@ -0,0 +1,103 @@
+package com.bc92.directoryservice.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.assertj.core.util.Lists;
+import org.junit.jupiter.api.Test;
+import com.bc92.directoryservice.dto.NodeDTO;
+import com.bc92.directoryservice.dto.NodeDTO.DirElementType;
+import com.bc92.directoryservice.model.Directory;
+
+class DirectoryCacheTest {
+
+  private final AtomicInteger loads = new AtomicInteger();
+
+  // @formatter:off
+  private final NodeDTO[] dirElements = {
+      new NodeDTO(DirElementType.FOLDER, "TestOwner", "folder1", "/root/folder1", "/root"),
+      new NodeDTO(DirElementType.FOLDER, "TestOwner", "folder2", "/root/folder2", "/root"),
+      new NodeDTO(DirElementType.FILE, "TestOwner", "myText.txt", "/root/folder2/myText.txt", "/root/folder2")
+  };
+  // @formatter:on
+
+  private final Function<String, Directory> loader = owner -> {
+    loads.incrementAndGet();
+    return Directory.expand(new HashSet<>(Lists.newArrayList(dirElements)), owner);
+  };
+
+  @Test
+  void read_repeatedReads_loadsOnce() {
+    DirectoryCache cache = new DirectoryCache(100, Duration.ofMinutes(1));
+
+    Directory first = cache.read("TestOwner", loader, Function.identity());
+    Directory second = cache.read("TestOwner", loader, Function.identity());
+
+    assertSame(first, second, "Second read should be served from the cache");
+    assertEquals(1, loads.get());
+    assertEquals(1, cache.getStats().getHitCount());
+    assertEquals(1, cache.getStats().getMissCount());
+    assertEquals(4, cache.getStats().getWeight(), "Weight is the node count plus the root");
+  }
+
+  @Test
+  void read_ttlElapsed_reloads() {
+    DirectoryCache cache = new DirectoryCache(100, Duration.ZERO);
+
+    Directory first = cache.read("TestOwner", loader, Function.identity());
+    Directory second = cache.read("TestOwner", loader, Function.identity());
+
+    assertNotSame(first, second, "Expired entry should be reloaded");
+    assertEquals(2, loads.get());
+    assertEquals(1, cache.getStats().getExpirationCount());
+  }
+
+  @Test
+  void read_overWeight_evictsLeastRecentlyUsed() {
+    DirectoryCache cache = new DirectoryCache(8, Duration.ofMinutes(1));
+
+    cache.read("owner1", loader, Function.identity());
+    cache.read("owner2", loader, Function.identity());
+    cache.read("owner1", loader, Function.identity());
+    cache.read("owner3", loader, Function.identity());
+
+    assertEquals(1, cache.getStats().getEvictionCount());
+    assertEquals(2, cache.getStats().getSize());
+
+    cache.read("owner1", loader, Function.identity());
+    assertEquals(3, loads.get(), "Most recently used entry should have been kept");
+  }
+
+  @Test
+  void update_mutationFails_dropsEntry() {
+    DirectoryCache cache = new DirectoryCache(100, Duration.ofMinutes(1));
+    cache.read("TestOwner", loader, Function.identity());
+
+    assertThrows(IllegalStateException.class, () -> {
+      cache.update("TestOwner", loader, dir -> {
+        dir.createFolder(new Folder("folder3", "/root"));
+        throw new IllegalStateException("persisting failed");
+      });
+    });
+
+    assertEquals(0, cache.getStats().getSize());
+  }
+
+  @Test
+  void updateIfPresent_reweighsEntry() {
+    DirectoryCache cache = new DirectoryCache(100, Duration.ofMinutes(1));
+    cache.read("TestOwner", loader, Function.identity());
+
+    cache.updateIfPresent("TestOwner", dir -> dir.removeFile("/root/folder2", "myText.txt"));
+    cache.updateIfPresent("OtherOwner", dir -> dir.createFolder(new Folder("folder3", "/root")));
+
+    assertEquals(3, cache.getStats().getWeight());
+    assertEquals(1, cache.getStats().getSize(), "Absent owners should not be loaded");
+  }
+
+}
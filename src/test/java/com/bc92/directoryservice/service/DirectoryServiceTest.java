@@ -2,15 +2,40 @@ package com.bc92.directoryservice.service;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.apache.solr.common.params.CursorMarkParams;
 import org.assertj.core.util.Lists;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import com.bc92.directoryservice.dto.FileDTO;
 import com.bc92.directoryservice.dto.NodeDTO;
 import com.bc92.directoryservice.dto.NodeDTO.DirElementType;
 import com.bc92.directoryservice.model.Directory;
+import com.bc92.directoryservice.model.InvalidPathException;
+import com.bc92.directoryservice.model.Path;
+import com.bc92.directoryservice.repo.CursorPage;
 import com.bc92.directoryservice.repo.DirectoryRepository;
+import com.bc92.directoryservice.repo.FileRepository;
+import com.bc92.directoryservice.repo.PendingWrites;
 
 class DirectoryServiceTest {
 
@@ -18,6 +43,14 @@ class DirectoryServiceTest {
 
   private DirectoryService dirService;
 
+  private FileRepository fileRepo;
+
+  private ContentReferences contentReferences;
+
+  @SuppressWarnings("unchecked")
+  private final ArgumentCaptor<Iterable<NodeDTO>> nodesCaptor =
+      ArgumentCaptor.forClass(Iterable.class);
+
   private final String testOwner = "TestOwner";
 
   // @formatter:off
@@ -34,7 +67,10 @@ class DirectoryServiceTest {
   @BeforeEach
   void setUp() {
     dirRepo = Mockito.mock(DirectoryRepository.class);
-    dirService = new DirectoryService(dirRepo);
+    fileRepo = Mockito.mock(FileRepository.class);
+    contentReferences = Mockito.mock(ContentReferences.class);
+    dirService = new DirectoryService(dirRepo, new DirectoryCache(1000, Duration.ofMinutes(1)),
+        fileRepo, contentReferences, new PendingWrites());
     when(dirRepo.findByOwner(testOwner)).thenReturn(Lists.newArrayList(dirElements));
   }
 
@@ -48,27 +84,210 @@ class DirectoryServiceTest {
     assertEquals("/root/folder3", result.getFullPath());
   }
 
+  @Test
+  void testCreateFolderPersistsOnlyNewFolder() {
+    dirService.createFolder(new Folder("folder3", "/root"), testOwner);
+
+    verify(dirRepo).saveAll(nodesCaptor.capture());
+    assertEquals(Collections.singleton(new NodeDTO(DirElementType.FOLDER, testOwner, "folder3",
+        "/root/folder3", "/root")), nodesCaptor.getValue(), "Only the new folder is saved");
+  }
+
+  @Test
+  void testCreateFolders_parentsBeforeChildren_oneSave() {
+    List<UploadResult> results = dirService.createFolders("/root/folder1",
+        Lists.newArrayList("a/b/c", "folder3", "a", "a/b", "bad:name", "bad:name/child"), testOwner);
+
+    Map<String, HttpStatus> statuses = results.stream()
+        .collect(Collectors.toMap(UploadResult::getFullPath, UploadResult::getStatus));
+    assertEquals(HttpStatus.CREATED, statuses.get("/root/folder1/a"));
+    assertEquals(HttpStatus.CREATED, statuses.get("/root/folder1/a/b"));
+    assertEquals(HttpStatus.CREATED, statuses.get("/root/folder1/a/b/c"));
+    assertEquals(HttpStatus.OK, statuses.get("/root/folder1/folder3"),
+        "An existing folder is left as it is");
+    assertEquals(HttpStatus.BAD_REQUEST, statuses.get("/root/folder1/bad:name"));
+    assertEquals(HttpStatus.BAD_REQUEST, statuses.get("/root/folder1/bad:name/child"),
+        "A folder below a folder that was not created fails");
+
+    verify(dirRepo).saveAll(nodesCaptor.capture());
+    assertEquals(3, Lists.newArrayList(nodesCaptor.getValue()).size(),
+        "Created folders are saved in one write");
+    assertTrue(dirService.getUserDirectory(testOwner).containsFolder("/root/folder1/a/b/c"));
+  }
+
   @Test
   void testReadFolder() {
+    this.folderExists(dirElements[0]);
+    when(dirRepo.findChildren(testOwner, "/root/folder1", "*", DirectoryService.DEFAULT_PAGE_SIZE))
+        .thenReturn(new CursorPage<>(Lists.newArrayList(dirElements[2], dirElements[4]), "*"));
+
     ReadFolder result = dirService.readFolder("/root/folder1", testOwner);
 
     assertEquals(dirElements[0].getFullPath(), result.getFullPath());
     assertEquals(dirElements[4].getDiscriminator(), result.getFiles().toArray()[0]);
     assertEquals(dirElements[2].getDiscriminator(), result.getChildFolders().toArray()[0]);
+    assertNull(result.getNextCursor(), "A page shorter than the page size is the last");
+    verify(dirRepo, Mockito.never()).findByOwner(testOwner);
+  }
+
+  @Test
+  void testReadFolder_root_notLookedUp() {
+    when(dirRepo.findChildren(testOwner, "/root", "*", 10))
+        .thenReturn(new CursorPage<>(Lists.newArrayList(dirElements[0], dirElements[1]), "*"));
+
+    ReadFolder result = dirService.readFolder("/root/", testOwner, null, 10);
+
+    assertEquals("/root", result.getFullPath());
+    assertEquals(Lists.newArrayList("folder1", "folder2"),
+        Lists.newArrayList(result.getChildFolders()));
+    verify(dirRepo, Mockito.never()).findFolderByFullPathAndOwner(Mockito.any(), Mockito.any());
+  }
+
+  @Test
+  void testReadFolder_fullPage_nextCursorContinues() {
+    NodeDTO first = this.child("a.txt", "id-1");
+    NodeDTO second = this.child("b.txt", "id-2");
+    NodeDTO third = this.child("c.txt", "id-3");
+    when(dirRepo.findChildren(testOwner, "/root", "*", 2))
+        .thenReturn(new CursorPage<>(Lists.newArrayList(first, second), "AoEb"));
+    when(dirRepo.findChildren(testOwner, "/root", "AoEb", 2))
+        .thenReturn(new CursorPage<>(Lists.newArrayList(third), "AoEc"));
+
+    ReadFolder firstPage = dirService.readFolder("/root", testOwner, null, 2);
+    ReadFolder secondPage =
+        dirService.readFolder("/root", testOwner, firstPage.getNextCursor(), 2);
+
+    assertEquals(Lists.newArrayList("a.txt", "b.txt"), Lists.newArrayList(firstPage.getFiles()));
+    assertNotNull(firstPage.getNextCursor());
+    assertEquals(Lists.newArrayList("c.txt"), Lists.newArrayList(secondPage.getFiles()));
+    assertNull(secondPage.getNextCursor());
+  }
+
+  @Test
+  void testReadFolder_missingFolder_invalidPath() {
+    assertThrows(InvalidPathException.class,
+        () -> dirService.readFolder("/root/missing", testOwner));
+
+    verify(dirRepo, Mockito.never()).findChildren(Mockito.any(), Mockito.any(), Mockito.any(),
+        Mockito.anyInt());
+  }
+
+  @Test
+  void testReadFolder_pageSizeOutOfRange_badRequest() {
+    ResponseStatusException e = assertThrows(ResponseStatusException.class,
+        () -> dirService.readFolder("/root", testOwner, null, DirectoryService.MAX_PAGE_SIZE + 1));
+    assertEquals(HttpStatus.BAD_REQUEST, e.getStatus());
+
+    e = assertThrows(ResponseStatusException.class,
+        () -> dirService.readFolder("/root", testOwner, null, 0));
+    assertEquals(HttpStatus.BAD_REQUEST, e.getStatus());
+  }
+
+  @Test
+  void testReadFolder_invalidCursor_badRequest() {
+    ResponseStatusException e = assertThrows(ResponseStatusException.class,
+        () -> dirService.readFolder("/root", testOwner, "not a cursor", null));
+
+    assertEquals(HttpStatus.BAD_REQUEST, e.getStatus());
+  }
+
+  @Test
+  void testGetCachedDirectory_notCached_notLoaded() {
+    assertNull(dirService.getCachedDirectory(testOwner));
+
+    Directory loaded = dirService.getUserDirectory(testOwner);
+
+    assertSame(loaded, dirService.getCachedDirectory(testOwner));
+    verify(dirRepo, times(1)).findByOwner(testOwner);
   }
 
   @Test
   void testDeleteFolder() {
+    this.folderExists(dirElements[0]);
+    Directory cached = dirService.getUserDirectory(testOwner);
 
-    Directory result = dirService.deleteFolder("/root/folder1", testOwner);
+    dirService.deleteFolder("/root/folder1", testOwner);
 
+    verify(dirRepo).deleteSubtree(testOwner, "/root/folder1");
+    verify(dirRepo, Mockito.never()).deleteAll(Mockito.any());
     assertFalse(
-        result.flatten().stream().anyMatch(elem -> elem.getDiscriminator().equals("folder1")
+        cached.flatten().stream().anyMatch(elem -> elem.getDiscriminator().equals("folder1")
             || elem.getFullPath().contains("folder1") || elem.getParentPath().contains("folder1")),
-        "No Element should reference deleted folder");
+        "The deleted folder is removed from the cached directory");
+    assertTrue(cached.containsFolder("/root/folder2/folder4"));
+  }
+
+  @Test
+  void testDeleteFolder_notCached_directoryNotLoaded() {
+    this.folderExists(dirElements[0]);
+
+    dirService.deleteFolder("/root/folder1", testOwner);
+
+    verify(dirRepo).deleteSubtree(testOwner, "/root/folder1");
+    verify(dirRepo, Mockito.never()).findByOwner(Mockito.any());
+  }
+
+  @Test
+  void testDeleteFolder_releasesContentAfterDelete() {
+    this.folderExists(dirElements[0]);
+    FileDTO file = new FileDTO();
+    file.setId("file4");
+    List<FileDTO> files = Lists.newArrayList(file);
+    when(fileRepo.findContentHashesBelow(testOwner, "/root/folder1",
+        CursorMarkParams.CURSOR_MARK_START, 1000)).thenReturn(new CursorPage<>(files, "AoEa"));
+
+    dirService.deleteFolder("/root/folder1", testOwner);
+
+    InOrder inOrder = Mockito.inOrder(fileRepo, dirRepo, contentReferences);
+    inOrder.verify(fileRepo).findContentHashesBelow(Mockito.any(), Mockito.any(), Mockito.any(),
+        Mockito.anyInt());
+    inOrder.verify(dirRepo).deleteSubtree(testOwner, "/root/folder1");
+    inOrder.verify(contentReferences).releaseAll(files);
+  }
+
+  @Test
+  void testDeleteFolder_manyFiles_hashesLookedUpByCursorMark() {
+    this.folderExists(dirElements[0]);
+    List<FileDTO> first = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      first.add(new FileDTO());
+    }
+    List<FileDTO> second = Lists.newArrayList(new FileDTO());
+    when(fileRepo.findContentHashesBelow(testOwner, "/root/folder1",
+        CursorMarkParams.CURSOR_MARK_START, 1000)).thenReturn(new CursorPage<>(first, "AoEa"));
+    when(fileRepo.findContentHashesBelow(testOwner, "/root/folder1", "AoEa", 1000))
+        .thenReturn(new CursorPage<>(second, "AoEb"));
 
+    dirService.deleteFolder("/root/folder1", testOwner);
 
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<Collection<FileDTO>> released = ArgumentCaptor.forClass(Collection.class);
+    verify(fileRepo, times(2)).findContentHashesBelow(Mockito.any(), Mockito.any(),
+        Mockito.any(), Mockito.anyInt());
+    verify(contentReferences).releaseAll(released.capture());
+    assertEquals(1001, released.getValue().size());
   }
 
+  @Test
+  void testDeleteFolder_missingFolder_invalidPath() {
+    assertThrows(InvalidPathException.class,
+        () -> dirService.deleteFolder("/root/missing", testOwner));
+
+    verify(dirRepo, Mockito.never()).deleteSubtree(Mockito.any(), Mockito.any());
+    verify(contentReferences, Mockito.never()).releaseAll(Mockito.any());
+  }
+
+  private NodeDTO child(final String name, final String id) {
+    NodeDTO node = new NodeDTO(DirElementType.FILE, testOwner, name, "/root/" + name, "/root");
+    node.setId(id);
+    return node;
+  }
+
+  private void folderExists(final NodeDTO folder) {
+    when(dirRepo.findFolderByFullPathAndOwner(testOwner, Path.escapeSlashes(folder.getFullPath())))
+        .thenReturn(folder);
+    when(fileRepo.findContentHashesBelow(Mockito.any(), Mockito.any(), Mockito.any(),
+        Mockito.anyInt())).thenReturn(new CursorPage<>(Collections.emptyList(), "*"));
+  }
 
 }
@@ -0,0 +1,202 @@
+package com.bc92.directoryservice.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+import com.bc92.directoryservice.dto.FileDTO;
+import com.bc92.directoryservice.repo.LocalBlobStore;
+import com.bc92.directoryservice.repo.StoredBlob;
+
+class FileDeltaServiceTest {
+
+  private static final int BLOCK_SIZE = 1024;
+
+  private static final String OTHER_HASH =
+      "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+  private final String username = "TestOwner";
+
+  private final String fullPath = "/root/file.bin";
+
+  @TempDir
+  Path root;
+
+  private LocalBlobStore blobStore;
+
+  private FileService fileService;
+
+  private FileDeltaService deltas;
+
+  private byte[] stored;
+
+  private StoredBlob storedBlob;
+
+  private byte[] rebuilt;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    blobStore = new LocalBlobStore(root.toString());
+    fileService = Mockito.mock(FileService.class);
+    deltas = new FileDeltaService(fileService, DataSize.ofBytes(BLOCK_SIZE),
+        DataSize.ofBytes(8 * BLOCK_SIZE));
+
+    stored = new byte[3 * BLOCK_SIZE + 100];
+    new Random(3).nextBytes(stored);
+    this.store(stored);
+
+    when(fileService.updateFile(any(), eq(username))).thenAnswer(invocation -> {
+      try (InputStream in = invocation.<File>getArgument(0).getContent().getInputStream()) {
+        rebuilt = StreamUtils.copyToByteArray(in);
+      }
+      return new ReadFile("/root", "file.bin");
+    });
+  }
+
+  @Test
+  void testGetSignatures_blockPerBlockSize() throws IOException {
+    BlockSignatures signatures = deltas.getSignatures(fullPath, username);
+
+    assertEquals(storedBlob.getHash(), signatures.getContentHash());
+    assertEquals(BLOCK_SIZE, signatures.getBlockSize());
+    assertEquals(4, signatures.getBlocks().size());
+    assertEquals(RollingChecksum.of(stored, BLOCK_SIZE, BLOCK_SIZE).getValue(),
+        signatures.getBlocks().get(1).getWeak());
+    assertEquals(RollingChecksum.of(stored, 3 * BLOCK_SIZE, 100).getValue(),
+        signatures.getBlocks().get(3).getWeak(), "Last block is the remainder");
+  }
+
+  @Test
+  void testApplyDelta_unchangedBlocksCopied() throws IOException {
+    byte[] inserted = "a one line change".getBytes(StandardCharsets.US_ASCII);
+    ByteArrayOutputStream delta = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(delta);
+    out.write('C');
+    out.writeLong(0);
+    out.writeInt(2 * BLOCK_SIZE);
+    out.write('L');
+    out.writeInt(inserted.length);
+    out.write(inserted);
+    out.write('C');
+    out.writeLong(2 * BLOCK_SIZE);
+    out.writeInt(BLOCK_SIZE + 100);
+
+    deltas.applyDelta(fullPath, storedBlob.getHash(), () -> new ByteArrayInputStream(
+        delta.toByteArray()), null, username);
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    expected.write(stored, 0, 2 * BLOCK_SIZE);
+    expected.write(inserted);
+    expected.write(stored, 2 * BLOCK_SIZE, BLOCK_SIZE + 100);
+    assertArrayEquals(expected.toByteArray(), rebuilt);
+  }
+
+  @Test
+  void testApplyDelta_compressedBase_copiedFromInflatedContent() throws IOException {
+    stored = new byte[3 * BLOCK_SIZE];
+    for (int i = 0; i < stored.length; i++) {
+      stored[i] = (byte) ('a' + i % 7);
+    }
+    this.store(stored);
+    assertNotNull(blobStore.getCompressed(storedBlob.getHash()), "Content is stored compressed");
+
+    deltas.applyDelta(fullPath, storedBlob.getHash(),
+        () -> new ByteArrayInputStream(this.copy(BLOCK_SIZE, 5)), null, username);
+
+    byte[] expected = new byte[5];
+    System.arraycopy(stored, BLOCK_SIZE, expected, 0, 5);
+    assertArrayEquals(expected, rebuilt);
+  }
+
+  @Test
+  void testApplyDelta_staleBase_preconditionFailed() {
+    ResponseStatusException result = assertThrows(ResponseStatusException.class,
+        () -> deltas.applyDelta(fullPath, OTHER_HASH,
+            () -> new ByteArrayInputStream(new byte[0]), null, username));
+
+    assertEquals(HttpStatus.PRECONDITION_FAILED, result.getStatus());
+    verify(fileService, never()).updateFile(any(), any());
+  }
+
+  @Test
+  void testApplyDelta_copyBeyondStoredContent_badRequest() {
+    ResponseStatusException result = assertThrows(ResponseStatusException.class,
+        () -> deltas.applyDelta(fullPath, storedBlob.getHash(),
+            () -> new ByteArrayInputStream(this.copy(3 * BLOCK_SIZE, 101)), null, username));
+
+    assertEquals(HttpStatus.BAD_REQUEST, result.getStatus());
+  }
+
+  @Test
+  void testApplyDelta_truncatedLiteral_badRequest() {
+    byte[] delta = new byte[] {'L', 0, 0, 0, 9, 1, 2};
+
+    ResponseStatusException result = assertThrows(ResponseStatusException.class,
+        () -> deltas.applyDelta(fullPath, storedBlob.getHash(),
+            () -> new ByteArrayInputStream(delta), null, username));
+
+    assertEquals(HttpStatus.BAD_REQUEST, result.getStatus());
+  }
+
+  @Test
+  void testApplyDelta_repeatedCopies_limitedToMaxSize() {
+    byte[] copy = this.copy(0, 3 * BLOCK_SIZE);
+    byte[] delta = new byte[copy.length * 3];
+    for (int i = 0; i < 3; i++) {
+      System.arraycopy(copy, 0, delta, i * copy.length, copy.length);
+    }
+
+    ResponseStatusException result = assertThrows(ResponseStatusException.class,
+        () -> deltas.applyDelta(fullPath, storedBlob.getHash(),
+            () -> new ByteArrayInputStream(delta), null, username));
+
+    assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, result.getStatus());
+  }
+
+  private byte[] copy(final long offset, final int length) {
+    try {
+      ByteArrayOutputStream delta = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(delta);
+      out.write('C');
+      out.writeLong(offset);
+      out.writeInt(length);
+      return delta.toByteArray();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void store(final byte[] content) throws IOException {
+    storedBlob = blobStore.put(new ByteArrayInputStream(content));
+    FileDTO file = new FileDTO();
+    file.setParentPath("/root");
+    file.setDiscriminator("file.bin");
+    file.setContent(storedBlob);
+    when(fileService.getFile(fullPath, username)).thenReturn(file);
+    when(fileService.readFile(fullPath, username)).thenReturn(new FileContent("file.bin",
+        storedBlob.getHash(), content.length, -1, blobStore.get(storedBlob.getHash()),
+        blobStore.getCompressed(storedBlob.getHash())));
+  }
+
+}
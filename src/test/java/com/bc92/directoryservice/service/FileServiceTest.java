@@ -1,22 +1,45 @@
 package com.bc92.directoryservice.service;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.server.ResponseStatusException;
 import com.bc92.directoryservice.dto.FileDTO;
 import com.bc92.directoryservice.dto.NodeDTO;
 import com.bc92.directoryservice.dto.NodeDTO.DirElementType;
 import com.bc92.directoryservice.model.Path;
+import com.bc92.directoryservice.repo.BlobStore;
 import com.bc92.directoryservice.repo.DirectoryRepository;
 import com.bc92.directoryservice.repo.FileRepository;
+import com.bc92.directoryservice.repo.LocalBlobStore;
+import com.bc92.directoryservice.repo.PendingWrites;
+import com.bc92.directoryservice.repo.StoredBlob;
 
 class FileServiceTest {
 
@@ -24,8 +47,13 @@ class FileServiceTest {
 
   private FileRepository fileRepo;
 
+  private BlobStore blobStore;
+
   private FileService fileService;
 
+  private final StoredBlob blob = new StoredBlob(
+      "039058c6f2c0cb492c533b0a4d14ef77cc0f78abccced5287d84a1a2011cfb81", 3);
+
   private final String username = "TestOwner";
 
   private final FileDTO fileDTO = new FileDTO(DirElementType.FILE, username, "myText.txt",
@@ -34,23 +62,55 @@ class FileServiceTest {
   private String fullPath;
 
   @BeforeEach
-  void setUp() {
+  void setUp() throws IOException {
     directoryRepo = Mockito.mock(DirectoryRepository.class);
     fileRepo = Mockito.mock(FileRepository.class);
+    blobStore = Mockito.mock(BlobStore.class);
 
     fullPath = Path.escapeSlashes(fileDTO.getFullPath());
 
-    fileService = new FileService(directoryRepo, fileRepo);
+    when(blobStore.put(any())).thenReturn(blob);
+    when(blobStore.get(blob.getHash())).thenReturn(new ByteArrayResource(new byte[] {1, 2, 3}));
+
+    when(blobStore.exists(blob.getHash())).thenReturn(true);
+
+    fileService = new FileService(directoryRepo, fileRepo, Mockito.mock(DirectoryCache.class),
+        blobStore, new ContentReferences(fileRepo, blobStore, new PendingWrites()),
+        new PendingWrites());
   }
 
   @Test
   void testReadFile() {
-    when(fileRepo.findFileByFullPathAndOwner(username, fullPath)).thenReturn(fileDTO);
+    FileDTO stored = new FileDTO(username,
+        new File("/root", "myText.txt", new byte[] {1, 2, 3}), blob);
+    when(fileRepo.findFileByFullPathAndOwner(username, fullPath)).thenReturn(stored);
 
-    ByteArrayResource result =
-        (ByteArrayResource) fileService.readFile(fileDTO.getFullPath(), username);
+    FileContent content = fileService.readFile(fileDTO.getFullPath(), username);
+    ByteArrayResource result = (ByteArrayResource) content.getResource();
 
-    assertEquals(fileDTO.getFileBytes().array(), result.getByteArray());
+    assertArrayEquals(new byte[] {1, 2, 3}, result.getByteArray());
+    assertEquals(blob.getHash(), content.getContentHash());
+    assertEquals(3L, content.getSize());
+    verify(fileRepo, never()).findFileContentByFullPathAndOwner(username, fullPath);
+  }
+
+  @Test
+  void testReadFile_legacyContent_migratedToBlobStore() throws IOException {
+    FileDTO metadata = new FileDTO(DirElementType.FILE, username, "myText.txt",
+        "/root/myText.txt", "/root", new byte[0]);
+    metadata.setFileBytes(null);
+    when(fileRepo.findFileByFullPathAndOwner(username, fullPath)).thenReturn(metadata);
+    when(fileRepo.findFileContentByFullPathAndOwner(username, fullPath)).thenReturn(fileDTO);
+
+    FileContent content = fileService.readFile(fileDTO.getFullPath(), username);
+    ByteArrayResource result = (ByteArrayResource) content.getResource();
+
+    assertArrayEquals(new byte[] {1, 2, 3}, result.getByteArray());
+    verify(blobStore).put(any());
+    verify(fileRepo).save(fileDTO);
+    assertEquals(blob.getHash(), fileDTO.getContentHash());
+    assertEquals(3L, fileDTO.getSize());
+    assertNull(fileDTO.getFileBytes(), "Content no longer held in the document");
   }
 
   @Test
@@ -76,7 +136,41 @@ class FileServiceTest {
 
     fileService.uploadFile(file, username);
 
-    verify(fileRepo, times(1)).save(fileDTO);
+    ArgumentCaptor<FileDTO> saved = ArgumentCaptor.forClass(FileDTO.class);
+    verify(fileRepo, times(1)).save(saved.capture());
+    assertEquals(fileDTO, saved.getValue());
+    assertEquals(blob.getHash(), saved.getValue().getContentHash(), "Saved with content hash");
+    assertNull(saved.getValue().getFileBytes(), "Content is not stored in Solr");
+  }
+
+  /**
+   * Run by the streaming-tests execution of surefire with a small heap, skipped with a larger heap
+   * so the generated content stays small on disk
+   */
+  @Test
+  @Tag("streaming")
+  void testUploadFile_largerThanHeap_streamedToStore(@TempDir final java.nio.file.Path blobRoot)
+      throws IOException, NoSuchAlgorithmException {
+    long maxHeap = Runtime.getRuntime().maxMemory();
+    assumeTrue(maxHeap <= 128L * 1024 * 1024,
+        "Needs a small heap, see the streaming-tests execution");
+    long length = maxHeap + 32L * 1024 * 1024;
+    GeneratedContent content = new GeneratedContent(length);
+    LocalBlobStore store = new LocalBlobStore(blobRoot.toString());
+    fileService = new FileService(directoryRepo, fileRepo, Mockito.mock(DirectoryCache.class),
+        store, new ContentReferences(fileRepo, store, new PendingWrites()), new PendingWrites());
+
+    when(fileRepo.findFileByFullPathAndOwner(username, fullPath)).thenReturn(null);
+    when(directoryRepo.findFolderByFullPathAndOwner(username, Path.escapeSlashes("/root")))
+        .thenReturn(new NodeDTO());
+
+    fileService.uploadFile(new File("/root", "myText.txt", () -> content), username);
+
+    ArgumentCaptor<FileDTO> saved = ArgumentCaptor.forClass(FileDTO.class);
+    verify(fileRepo).save(saved.capture());
+    assertEquals(length, saved.getValue().getSize());
+    assertEquals(String.format("%064x", new BigInteger(1, content.digest.digest())),
+        saved.getValue().getContentHash());
   }
 
   @Test
@@ -143,6 +237,42 @@ class FileServiceTest {
     verify(fileRepo, times(1)).delete(fileDTO);
   }
 
+  @Test
+  void testUpdateFile_replacedContentReleased() throws IOException {
+    String previous = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+    fileDTO.setContentHash(previous);
+    File file = new File("/root", "myText.txt", new byte[] {1, 2, 3});
+    when(fileRepo.findFileByFullPathAndOwner(username, fullPath)).thenReturn(fileDTO);
+
+    fileService.updateFile(file, username);
+
+    verify(fileRepo).countByContentHash(previous);
+    verify(blobStore).delete(previous);
+    assertEquals(blob.getHash(), fileDTO.getContentHash());
+  }
+
+  @Test
+  void testDeleteFile_lastReference_contentRemoved() throws IOException {
+    fileDTO.setContent(blob);
+    when(fileRepo.findFileByFullPathAndOwner(username, fullPath)).thenReturn(fileDTO);
+    when(fileRepo.countByContentHash(blob.getHash())).thenReturn(0L);
+
+    fileService.deleteFile("/root/myText.txt", username);
+
+    verify(blobStore).delete(blob.getHash());
+  }
+
+  @Test
+  void testDeleteFile_sharedContent_kept() throws IOException {
+    fileDTO.setContent(blob);
+    when(fileRepo.findFileByFullPathAndOwner(username, fullPath)).thenReturn(fileDTO);
+    when(fileRepo.countByContentHash(blob.getHash())).thenReturn(1L);
+
+    fileService.deleteFile("/root/myText.txt", username);
+
+    verify(blobStore, never()).delete(any());
+  }
+
   @Test
   void testDeleteFileNotFound() {
     when(fileRepo.findFileByFullPathAndOwner(username, fullPath)).thenReturn(null);
@@ -154,4 +284,92 @@ class FileServiceTest {
     assertEquals(HttpStatus.BAD_REQUEST, result.getStatus());
   }
 
+  @Test
+  void testUploadFiles_oneQueryPerParent_singleWrite() {
+    when(directoryRepo.findFolderAndFilesByFullPathAndOwner(username,
+        Path.escapeSlashes("/root"))).thenReturn(Arrays.asList(
+            new NodeDTO(DirElementType.FOLDER, username, "root", "/root", "/"),
+            new NodeDTO(DirElementType.FILE, username, "a.txt", "/root/a.txt", "/root")));
+    when(directoryRepo.findFolderAndFilesByFullPathAndOwner(username,
+        Path.escapeSlashes("/root/sub"))).thenReturn(Collections.singletonList(
+            new NodeDTO(DirElementType.FOLDER, username, "sub", "/root/sub", "/root")));
+
+    List<UploadResult> results = fileService.uploadFiles("/root",
+        Arrays.asList(this.part("a.txt"), this.part("b.txt"), this.part("sub/c.txt")), username);
+
+    assertEquals(HttpStatus.CONFLICT, results.get(0).getStatus());
+    assertEquals(HttpStatus.CREATED, results.get(1).getStatus());
+    assertEquals("/root/sub/c.txt", results.get(2).getFullPath());
+    assertEquals(HttpStatus.CREATED, results.get(2).getStatus());
+    verify(directoryRepo, times(2)).findFolderAndFilesByFullPathAndOwner(any(), any());
+    verify(fileRepo, never()).findFileByFullPathAndOwner(any(), any());
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<Iterable<FileDTO>> saved = ArgumentCaptor.forClass(Iterable.class);
+    verify(fileRepo, times(1)).saveAll(saved.capture());
+    verify(fileRepo, never()).save(any());
+    assertEquals(2, ((Collection<FileDTO>) saved.getValue()).size());
+  }
+
+  @Test
+  void testUploadFiles_invalidParts_rejectedIndividually() throws IOException {
+    when(directoryRepo.findFolderAndFilesByFullPathAndOwner(username,
+        Path.escapeSlashes("/root"))).thenReturn(Collections.singletonList(
+            new NodeDTO(DirElementType.FOLDER, username, "root", "/root", "/")));
+
+    List<UploadResult> results = fileService.uploadFiles("/root", Arrays.asList(this.part(""),
+        this.part("b.txt"), this.part("b.txt"), this.part("missing/d.txt")), username);
+
+    assertEquals(HttpStatus.BAD_REQUEST, results.get(0).getStatus());
+    assertEquals(HttpStatus.CREATED, results.get(1).getStatus());
+    assertEquals(HttpStatus.CONFLICT, results.get(2).getStatus(), "Duplicate within the batch");
+    assertEquals(HttpStatus.BAD_REQUEST, results.get(3).getStatus(), "Parent does not exist");
+    verify(blobStore, times(1)).put(any());
+  }
+
+  private Resource part(final String relativePath) {
+    return new ByteArrayResource(new byte[] {1, 2, 3}) {
+      @Override
+      public String getFilename() {
+        return relativePath;
+      }
+    };
+  }
+
+  /**
+   * Pseudo-random content of a fixed length that is generated as it is read, hashing what it
+   * hands out so the stored hash can be checked.
+   */
+  private static class GeneratedContent extends InputStream {
+
+    private final MessageDigest digest;
+    private final Random random = new Random(42);
+    private long remaining;
+
+    GeneratedContent(final long length) throws NoSuchAlgorithmException {
+      this.digest = MessageDigest.getInstance("SHA-256");
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() {
+      byte[] one = new byte[1];
+      return this.read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) {
+      if (remaining == 0) {
+        return -1;
+      }
+      int count = (int) Math.min(len, remaining);
+      byte[] chunk = new byte[count];
+      random.nextBytes(chunk);
+      System.arraycopy(chunk, 0, b, off, count);
+      digest.update(chunk);
+      remaining -= count;
+      return count;
+    }
+  }
+
 }
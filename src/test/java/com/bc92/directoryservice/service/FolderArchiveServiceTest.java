@@ -0,0 +1,128 @@
+package com.bc92.directoryservice.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.util.StreamUtils;
+import com.bc92.directoryservice.dto.FileDTO;
+import com.bc92.directoryservice.model.Directory;
+import com.bc92.directoryservice.model.InvalidPathException;
+import com.bc92.directoryservice.repo.FileRepository;
+import com.bc92.directoryservice.repo.LocalBlobStore;
+import com.bc92.directoryservice.repo.PendingWrites;
+
+class FolderArchiveServiceTest {
+
+  private final String username = "TestOwner";
+
+  @TempDir
+  Path root;
+
+  private LocalBlobStore blobStore;
+
+  private FileRepository fileRepo;
+
+  private Directory directory;
+
+  private final List<FileDTO> files = new ArrayList<>();
+
+  private FolderArchiveService archives;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    blobStore = new LocalBlobStore(root.toString());
+    fileRepo = Mockito.mock(FileRepository.class);
+    DirectoryService directoryService = Mockito.mock(DirectoryService.class);
+    directory = new Directory(username);
+    when(directoryService.getUserDirectory(username)).thenReturn(directory);
+    when(fileRepo.findByIdIn(any())).thenAnswer(invocation -> {
+      Collection<String> ids = invocation.getArgument(0);
+      return files.stream().filter(file -> ids.contains(file.getId()))
+          .collect(Collectors.toList());
+    });
+    archives = new FolderArchiveService(directoryService, Mockito.mock(FileService.class),
+        fileRepo, blobStore, new PendingWrites(), 2, 1);
+  }
+
+  @AfterEach
+  void tearDown() {
+    archives.shutdown();
+  }
+
+  @Test
+  void testWrite_subtreeArchived_incompressibleContentStored() throws IOException {
+    directory.createFolder(new Folder("photos", "/root"));
+    directory.createFolder(new Folder("empty", "/root/photos"));
+    directory.createFolder(new Folder("other", "/root"));
+    byte[] photo = new byte[4096];
+    new Random(5).nextBytes(photo);
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      text.append("line ").append(i).append('\n');
+    }
+    byte[] notes = text.toString().getBytes(StandardCharsets.US_ASCII);
+    this.addFile("/root/photos", "photo.jpg", photo);
+    this.addFile("/root/photos", "notes.txt", notes);
+    this.addFile("/root/photos", "photo2.jpg", photo);
+    this.addFile("/root/other", "elsewhere.txt", notes);
+
+    FolderArchive archive = archives.prepare("/root/photos", username);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    archive.writeTo(out);
+
+    assertEquals("photos.zip", archive.getName());
+    Map<String, ZipEntry> entries = new HashMap<>();
+    Map<String, byte[]> contents = new HashMap<>();
+    try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        entries.put(entry.getName(), entry);
+        contents.put(entry.getName(), StreamUtils.copyToByteArray(zip));
+      }
+    }
+
+    assertEquals(5, entries.size(), "Only the subtree is archived: " + entries.keySet());
+    assertEquals(0, contents.get("photos/empty/").length);
+    assertArrayEquals(photo, contents.get("photos/photo.jpg"));
+    assertArrayEquals(photo, contents.get("photos/photo2.jpg"));
+    assertArrayEquals(notes, contents.get("photos/notes.txt"));
+    assertEquals(ZipEntry.STORED, entries.get("photos/photo.jpg").getMethod(),
+        "Incompressible content is not compressed again");
+    assertEquals(ZipEntry.DEFLATED, entries.get("photos/notes.txt").getMethod());
+  }
+
+  @Test
+  void testPrepare_missingFolder_throws() {
+    assertThrows(InvalidPathException.class, () -> archives.prepare("/root/missing", username));
+  }
+
+  private void addFile(final String parentPath, final String discriminator, final byte[] content)
+      throws IOException {
+    FileDTO file = new FileDTO(username, new File(parentPath, discriminator, content),
+        blobStore.put(new ByteArrayInputStream(content)));
+    files.add(file);
+    directory.addDirectoryElement(file);
+  }
+
+}
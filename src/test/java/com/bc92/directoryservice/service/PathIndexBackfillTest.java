@@ -0,0 +1,75 @@
+package com.bc92.directoryservice.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.domain.PageImpl;
+import com.bc92.directoryservice.dto.FileDTO;
+import com.bc92.directoryservice.dto.NodeDTO;
+import com.bc92.directoryservice.dto.NodeDTO.DirElementType;
+import com.bc92.directoryservice.repo.DirectoryRepository;
+import com.bc92.directoryservice.repo.FileRepository;
+import com.bc92.directoryservice.repo.SolrWriteCoordinator;
+
+class PathIndexBackfillTest {
+
+  private final DirectoryRepository directoryRepo = Mockito.mock(DirectoryRepository.class);
+
+  private final FileRepository fileRepo = Mockito.mock(FileRepository.class);
+
+  private final SolrWriteCoordinator writeCoordinator = Mockito.mock(SolrWriteCoordinator.class);
+
+  private final PathIndexBackfill backfill =
+      new PathIndexBackfill(directoryRepo, fileRepo, writeCoordinator);
+
+  @Test
+  void run_savesUntilNoneLeft() {
+    NodeDTO folder = this.node("folder");
+    FileDTO first = this.file("a.txt");
+    FileDTO second = this.file("b.txt");
+    when(directoryRepo.findUnindexedFolders(any()))
+        .thenReturn(new PageImpl<>(Arrays.asList(folder)))
+        .thenReturn(new PageImpl<>(Collections.emptyList()));
+    when(fileRepo.findUnindexedFiles(any()))
+        .thenReturn(new PageImpl<>(Arrays.asList(first)))
+        .thenReturn(new PageImpl<>(Arrays.asList(second)))
+        .thenReturn(new PageImpl<>(Collections.emptyList()));
+
+    backfill.run(null);
+
+    verify(directoryRepo).saveAll(Arrays.asList(folder));
+    verify(fileRepo).saveAll(Arrays.asList(first));
+    verify(fileRepo).saveAll(Arrays.asList(second));
+    verify(writeCoordinator, times(3)).sync();
+  }
+
+  @Test
+  void backfill_sameBatchReturned_stops() {
+    FileDTO stuck = this.file("a.txt");
+    when(fileRepo.findUnindexedFiles(any())).thenReturn(new PageImpl<>(Arrays.asList(stuck)));
+
+    assertEquals(1, backfill.backfill(fileRepo::findUnindexedFiles, fileRepo::saveAll));
+    verify(fileRepo, times(1)).saveAll(any());
+  }
+
+  private NodeDTO node(final String name) {
+    NodeDTO node =
+        new NodeDTO(DirElementType.FOLDER, "TestOwner", name, "/root/" + name, "/root");
+    node.setId(name);
+    return node;
+  }
+
+  private FileDTO file(final String name) {
+    FileDTO file = new FileDTO(DirElementType.FILE, "TestOwner", name, "/root/" + name, "/root",
+        new byte[] {1});
+    file.setId(name);
+    return file;
+  }
+
+}
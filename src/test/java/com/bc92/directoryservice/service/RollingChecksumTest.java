@@ -0,0 +1,36 @@
+package com.bc92.directoryservice.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class RollingChecksumTest {
+
+  @Test
+  void testRoll_matchesChecksumOfShiftedWindow() {
+    byte[] content = new byte[4096];
+    new Random(17).nextBytes(content);
+    int window = 700;
+
+    RollingChecksum rolling = RollingChecksum.of(content, 0, window);
+    for (int start = 1; start + window <= content.length; start++) {
+      rolling.roll(content[start - 1], content[start + window - 1]);
+      assertEquals(RollingChecksum.of(content, start, window).getValue(), rolling.getValue(),
+          "Rolled checksum at " + start);
+    }
+  }
+
+  @Test
+  void testOf_differentBlocks_differentChecksums() {
+    byte[] block = "abcdefgh".getBytes(StandardCharsets.US_ASCII);
+    byte[] swapped = "abcdefhg".getBytes(StandardCharsets.US_ASCII);
+
+    assertEquals(RollingChecksum.of(block, 0, 8).getValue() & 0xffff,
+        RollingChecksum.of(swapped, 0, 8).getValue() & 0xffff, "Byte sums are order independent");
+    assertNotEquals(RollingChecksum.of(block, 0, 8).getValue(),
+        RollingChecksum.of(swapped, 0, 8).getValue(), "Weighted sums depend on byte order");
+  }
+
+}
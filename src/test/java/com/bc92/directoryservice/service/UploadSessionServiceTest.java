@@ -0,0 +1,196 @@
+package com.bc92.directoryservice.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+import com.bc92.directoryservice.repo.LocalUploadSessionStore;
+
+class UploadSessionServiceTest {
+
+  private final String username = "TestOwner";
+
+  @TempDir
+  Path root;
+
+  private LocalUploadSessionStore sessionStore;
+
+  private FileService fileService;
+
+  private UploadSessionService uploads;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    sessionStore = new LocalUploadSessionStore(root.toString());
+    fileService = Mockito.mock(FileService.class);
+    uploads = new UploadSessionService(sessionStore, fileService, Duration.ofHours(1),
+        DataSize.ofBytes(16));
+  }
+
+  @Test
+  void testInitiate_fileExists_noSession() throws IOException {
+    doThrow(new ResponseStatusException(HttpStatus.CONFLICT)).when(fileService)
+        .checkUpload(any(), eq(username));
+
+    assertThrows(ResponseStatusException.class,
+        () -> uploads.initiate("/root", "file.txt", username));
+    try (Stream<Path> sessions = Files.list(root)) {
+      assertEquals(0, sessions.count());
+    }
+  }
+
+  @Test
+  void testCommit_chunksAssembledInOrder() throws IOException {
+    String id = uploads.initiate("/root", "file.txt", username).getSessionId();
+    uploads.putChunk(id, 1, this.source("world"), username);
+    uploads.putChunk(id, 0, this.source("hello "), username);
+
+    uploads.commit(id, 2, null, username);
+
+    ArgumentCaptor<File> file = ArgumentCaptor.forClass(File.class);
+    verify(fileService).uploadFile(file.capture(), eq(username));
+    assertEquals("/root/file.txt", file.getValue().getFullPath());
+    assertFalse(Files.exists(root.resolve(id)), "Committed session is removed");
+  }
+
+  @Test
+  void testCommit_contentStreamedFromChunks() throws IOException {
+    String id = uploads.initiate("/root", "file.txt", username).getSessionId();
+    uploads.putChunk(id, 0, this.source("hello "), username);
+    uploads.putChunk(id, 1, this.source("world"), username);
+    StringBuilder content = new StringBuilder();
+    Mockito.when(fileService.uploadFile(any(), eq(username))).thenAnswer(invocation -> {
+      try (InputStream in = invocation.<File>getArgument(0).getContent().getInputStream()) {
+        content.append(StreamUtils.copyToString(in, StandardCharsets.UTF_8));
+      }
+      return new ReadFile("/root", "file.txt");
+    });
+
+    assertNotNull(uploads.commit(id, 2, null, username));
+    assertEquals("hello world", content.toString());
+  }
+
+  @Test
+  void testCommit_missingChunk_badRequest() {
+    String id = uploads.initiate("/root", "file.txt", username).getSessionId();
+    uploads.putChunk(id, 0, this.source("a"), username);
+    uploads.putChunk(id, 2, this.source("c"), username);
+
+    ResponseStatusException result = assertThrows(ResponseStatusException.class,
+        () -> uploads.commit(id, 3, null, username));
+
+    assertEquals(HttpStatus.BAD_REQUEST, result.getStatus());
+    verify(fileService, never()).uploadFile(any(), any());
+    assertEquals(2, uploads.getStatus(id, username).getReceivedChunks().size(),
+        "Session is kept so the missing chunk can be sent");
+  }
+
+  @Test
+  void testCommit_chunksPastMaxSize_payloadTooLarge() {
+    String id = uploads.initiate("/root", "file.txt", username).getSessionId();
+    uploads.putChunk(id, 0, this.source("0123456789"), username);
+    uploads.putChunk(id, 1, this.source("0123456789"), username);
+
+    ResponseStatusException result = assertThrows(ResponseStatusException.class,
+        () -> uploads.commit(id, 2, null, username));
+
+    assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, result.getStatus());
+    verify(fileService, never()).uploadFile(any(), any());
+  }
+
+  @Test
+  void testPutChunk_pastMaxSize_payloadTooLargeAndDiscarded() throws IOException {
+    String id = uploads.initiate("/root", "file.txt", username).getSessionId();
+
+    ResponseStatusException result = assertThrows(ResponseStatusException.class,
+        () -> uploads.putChunk(id, 0, this.source("0123456789abcdefg"), username));
+
+    assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, result.getStatus());
+    assertEquals(UploadSessionService.CHUNK_TOO_LARGE, result.getReason());
+    assertTrue(uploads.getStatus(id, username).getReceivedChunks().isEmpty());
+    try (Stream<Path> files = Files.list(root.resolve(id))) {
+      assertEquals(1, files.count(), "Only the session metadata is left");
+    }
+  }
+
+  @Test
+  void testPutChunk_whileCommitting_conflict() {
+    String id = uploads.initiate("/root", "file.txt", username).getSessionId();
+    uploads.putChunk(id, 0, this.source("hello"), username);
+    Mockito.when(fileService.uploadFile(any(), eq(username))).thenAnswer(invocation -> {
+      ResponseStatusException result = assertThrows(ResponseStatusException.class,
+          () -> uploads.putChunk(id, 0, this.source("other"), username));
+      assertEquals(HttpStatus.CONFLICT, result.getStatus());
+      try (InputStream in = invocation.<File>getArgument(0).getContent().getInputStream()) {
+        assertEquals("hello", StreamUtils.copyToString(in, StandardCharsets.UTF_8));
+      }
+      return new ReadFile("/root", "file.txt");
+    });
+
+    assertNotNull(uploads.commit(id, 1, null, username));
+    verify(fileService).uploadFile(any(), eq(username));
+  }
+
+  @Test
+  void testPutChunk_otherOwner_notFound() {
+    String id = uploads.initiate("/root", "file.txt", username).getSessionId();
+
+    ResponseStatusException result = assertThrows(ResponseStatusException.class,
+        () -> uploads.putChunk(id, 0, this.source("a"), "OtherOwner"));
+
+    assertEquals(HttpStatus.BAD_REQUEST, result.getStatus());
+  }
+
+  @Test
+  void testPutChunk_indexOutOfRange_badRequest() {
+    String id = uploads.initiate("/root", "file.txt", username).getSessionId();
+
+    assertThrows(ResponseStatusException.class,
+        () -> uploads.putChunk(id, UploadSessionService.MAX_CHUNKS, this.source("a"), username));
+    assertThrows(ResponseStatusException.class,
+        () -> uploads.putChunk(id, -1, this.source("a"), username));
+  }
+
+  @Test
+  void testExpireSessions_inactiveSessionsRemoved() throws IOException {
+    String idle = uploads.initiate("/root", "idle.txt", username).getSessionId();
+    String active = uploads.initiate("/root", "active.txt", username).getSessionId();
+    Files.setLastModifiedTime(root.resolve(idle).resolve("session.properties"),
+        FileTime.from(Instant.now().minus(Duration.ofHours(2))));
+
+    assertEquals(1, uploads.expireSessions());
+    assertFalse(Files.exists(root.resolve(idle)));
+    assertNotNull(uploads.getStatus(active, username));
+  }
+
+  private InputStreamSource source(final String content) {
+    return () -> new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+  }
+
+}